@@ -0,0 +1,378 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import android.util.Log;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.fistar.sdcs.pa.da.zephyrbh.utils.LatencyHistogram;
+
+/**
+ * This class connects the devices in the background, so that the Binder thread requesting a
+ * connection returns immediately. The connection attempts block until the RFCOMM socket is
+ * connected or fails, so they run on a bounded pool of worker threads: up to a fixed number of
+ * devices are connected in parallel, the others wait in line. A failed attempt is retried after an
+ * exponential backoff with jitter, so that devices failing together don't retry together, until
+ * the maximum number of attempts is reached or, if the connection has a window, the window ends.
+ * A device has at most one connection in progress: requesting it again while it's in progress has
+ * no effect. Cancelling a connection while an attempt is running undoes the connection, if the
+ * attempt succeeds.
+ *
+ * The outcome of every connection is notified to a listener, on a worker thread. The time needed
+ * to connect and the time between the request and the first packet received are recorded in
+ * histograms.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class ConnectScheduler {
+
+    private final static String LOGTAG_ZEPHYRBH_CONNECT = "ZephyrBH Connect >>>";
+
+    // Time after which an idle worker thread terminates
+    private static final long WORKER_KEEP_ALIVE = 30000;
+
+    /**
+     * The operation connecting a device
+     */
+    public interface Connector {
+
+        /**
+         * Try once to connect a device, blocking until the connection succeeds or fails
+         *
+         * @param devId The device ID
+         * @param requested The time of the connection request, as given by System.nanoTime()
+         * @return True if the device is connected, false if the attempt failed
+         */
+        boolean connect(String devId, long requested);
+
+        /**
+         * Undo a connection that succeeded while it was being cancelled, closing the connection
+         * and releasing the device
+         *
+         * @param devId The device ID
+         */
+        void disconnect(String devId);
+    }
+
+    /**
+     * The destination of the outcome of the connections
+     */
+    public interface Listener {
+
+        /**
+         * Notify that a device is connected
+         *
+         * @param devId The device ID
+         * @param attempts The number of attempts made
+         * @param elapsed The time since the request, in nanoseconds
+         */
+        void connected(String devId, int attempts, long elapsed);
+
+        /**
+         * Notify that a device couldn't be connected and no more attempts will be made
+         *
+         * @param devId The device ID
+         * @param attempts The number of attempts made
+         * @param elapsed The time since the request, in nanoseconds
+         */
+        void failed(String devId, int attempts, long elapsed);
+    }
+
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService scheduler;
+    private final Connector connector;
+    private final Listener listener;
+    private final Random random = new Random();
+
+    // Connections in progress, including the ones waiting for a retry
+    private final ConcurrentHashMap<String, Connection> connections = new ConcurrentHashMap<String, Connection>();
+
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final LatencyHistogram connectTime = new LatencyHistogram();
+    private final LatencyHistogram timeToFirstPacket = new LatencyHistogram();
+
+    /**
+     * Create the scheduler. The worker threads are created on demand.
+     *
+     * @param concurrency The maximum number of devices connected in parallel
+     * @param scheduler The scheduler used to wait for the retries
+     * @param connector The operation connecting a device
+     * @param listener The destination of the outcome of the connections
+     */
+    public ConnectScheduler(int concurrency, ScheduledExecutorService scheduler, Connector connector, Listener listener) {
+        if (concurrency < 1) throw new IllegalArgumentException("At least one connection must run at a time!");
+
+        this.scheduler = scheduler;
+        this.connector = connector;
+        this.listener = listener;
+
+        workers = new ThreadPoolExecutor(concurrency, concurrency, WORKER_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ZephyrBH Connect " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Start connecting a device, unless a connection to it is already in progress
+     *
+     * @param devId The device ID
+     * @param maxAttempts The maximum number of attempts
+     * @param backoff The delay before the first retry in milliseconds, doubled at every retry
+     * @param maxBackoff The maximum delay before a retry in milliseconds
+     * @return True if the connection was started, false if it was already in progress
+     */
+    public boolean connect(String devId, int maxAttempts, long backoff, long maxBackoff) {
+        return connect(devId, maxAttempts, backoff, maxBackoff, 0);
+    }
+
+    /**
+     * Start connecting a device within a window of time, unless a connection to it is already in
+     * progress. No attempt is started after the end of the window.
+     *
+     * @param devId The device ID
+     * @param maxAttempts The maximum number of attempts
+     * @param backoff The delay before the first retry in milliseconds, doubled at every retry
+     * @param maxBackoff The maximum delay before a retry in milliseconds
+     * @param window The length of the window in milliseconds, 0 for no limit
+     * @return True if the connection was started, false if it was already in progress
+     */
+    public boolean connect(String devId, int maxAttempts, long backoff, long maxBackoff, long window) {
+        Connection connection = new Connection(devId, Math.max(1, maxAttempts), Math.max(0, backoff), Math.max(backoff, maxBackoff),
+                window > 0 ? TimeUnit.MILLISECONDS.toNanos(window) : Long.MAX_VALUE);
+        if (connections.putIfAbsent(devId, connection) != null) return false;
+
+        connection.submit();
+        return true;
+    }
+
+    /**
+     * Stop the connection in progress to a device, if any. An attempt already running is not
+     * interrupted, but it's not retried, and if it succeeds the connection is undone.
+     *
+     * @param devId The device ID
+     * @return True if a connection was in progress
+     */
+    public boolean cancel(String devId) {
+        Connection connection = connections.remove(devId);
+        if (connection == null) return false;
+
+        connection.cancelled = true;
+        return true;
+    }
+
+    /**
+     * Stop all the connections in progress
+     */
+    public void cancelAll() {
+        for (String devId : connections.keySet()) {
+            cancel(devId);
+        }
+    }
+
+    /**
+     * Stop all the connections in progress and the worker threads
+     */
+    public void shutdown() {
+        cancelAll();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Check whether a connection to a device is in progress
+     *
+     * @param devId The device ID
+     * @return True if the device is being connected or waiting for a retry
+     */
+    public boolean isConnecting(String devId) {
+        return connections.containsKey(devId);
+    }
+
+    /**
+     * Return the histogram the time between the request of a connection and the first packet
+     * received from the device is recorded in
+     *
+     * @return The histogram of the time to the first packet
+     */
+    public LatencyHistogram getTimeToFirstPacket() {
+        return timeToFirstPacket;
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * Return a textual snapshot of the metrics of the connections, one line for the counters and
+     * one for every histogram
+     *
+     * @return The snapshot of the metrics
+     */
+    public String snapshot() {
+        StringBuilder builder = new StringBuilder(256);
+        builder.append("connect succeeded=").append(succeeded.get())
+                .append(" failed=").append(failed.get())
+                .append(" retries=").append(retries.get())
+                .append(" inProgress=").append(connections.size()).append('\n');
+        connectTime.appendTo(builder.append("connectTime ")).append('\n');
+        timeToFirstPacket.appendTo(builder.append("timeToFirstPacket ")).append('\n');
+        return builder.toString();
+    }
+
+    /**
+     * Return the delay before a retry: the backoff doubled for every failed attempt but the first
+     * one, up to the maximum, of which a random half is taken away
+     *
+     * @param attempts The number of attempts failed
+     * @param backoff The delay before the first retry
+     * @param maxBackoff The maximum delay before a retry
+     * @return The delay in milliseconds
+     */
+    long retryDelay(int attempts, long backoff, long maxBackoff) {
+        long delay = backoff;
+        for (int i = 1; i < attempts && delay < maxBackoff; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxBackoff);
+
+        return delay - (long) (random.nextDouble() * delay / 2);
+    }
+
+    /**
+     * A connection in progress to a device
+     */
+    private class Connection implements Runnable {
+
+        private final String devId;
+        private final int maxAttempts;
+        private final long backoff;
+        private final long maxBackoff;
+        private final long window;
+        private final long requested = System.nanoTime();
+        private int attempts;
+        private volatile boolean cancelled;
+
+        Connection(String devId, int maxAttempts, long backoff, long maxBackoff, long window) {
+            this.devId = devId;
+            this.maxAttempts = maxAttempts;
+            this.backoff = backoff;
+            this.maxBackoff = maxBackoff;
+            this.window = window;
+        }
+
+        /**
+         * Queue the next attempt on the worker threads
+         */
+        void submit() {
+            try {
+                workers.execute(this);
+            } catch (RejectedExecutionException e) {
+                // The scheduler has been shut down
+                connections.remove(devId, this);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) return;
+
+            attempts++;
+            boolean connected;
+            try {
+                connected = connector.connect(devId, requested);
+            } catch (RuntimeException e) {
+                Log.e(LOGTAG_ZEPHYRBH_CONNECT, "Failed connecting to device " + devId + ": " + e.getMessage());
+                connected = false;
+            }
+            long elapsed = System.nanoTime() - requested;
+
+            if (connected) {
+                // The connection was cancelled while the attempt was running
+                if (!connections.remove(devId, this)) {
+                    connector.disconnect(devId);
+                    return;
+                }
+
+                succeeded.incrementAndGet();
+                connectTime.record(elapsed);
+                listener.connected(devId, attempts, elapsed);
+                return;
+            }
+
+            // A cancelled connection is given up silently
+            if (cancelled) return;
+
+            // Give up when the attempts are over, or the retry would start after the end of the window
+            long delay = retryDelay(attempts, backoff, maxBackoff);
+            if (attempts >= maxAttempts || elapsed + TimeUnit.MILLISECONDS.toNanos(delay) > window) {
+                connections.remove(devId, this);
+                failed.incrementAndGet();
+                listener.failed(devId, attempts, elapsed);
+                return;
+            }
+
+            // Wait for the retry on the scheduler, without holding a worker thread
+            Log.w(LOGTAG_ZEPHYRBH_CONNECT, "Connection to device " + devId + " failed, retrying in " + delay + " ms");
+            retries.incrementAndGet();
+            try {
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        submit();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The Device Adapter is shutting down
+                connections.remove(devId, this);
+            }
+        }
+    }
+}
@@ -0,0 +1,399 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import eu.fistar.sdcs.pa.da.zephyrbh.utils.LatencyHistogram;
+
+/**
+ * This class collects the metrics of the pipeline of a single device: packets and bytes received,
+ * packets discarded or lost, observations emitted and parse time for every packet type, then
+ * pushes, observations spooled, pushes lost, push time and the latency between the reception of a
+ * packet and the delivery of its observations.
+ *
+ * Metrics are recorded without locks and without creating objects, so they are always on. The
+ * packet being parsed is tracked in plain fields, since only the dispatcher thread of the device
+ * parses packets.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class DeviceMetrics {
+
+    // Packet types with their own metrics, any other packet type is counted as "other"
+    private static final int[] PACKET_TYPES = {
+            ZephyrBHConstants.PACKET_TYPE_GENERAL,
+            ZephyrBHConstants.PACKET_TYPE_ID_BREATHING,
+            ZephyrBHConstants.PACKET_TYPE_ECG,
+            ZephyrBHConstants.PACKET_TYPE_ID_R_TO_R,
+            ZephyrBHConstants.PACKET_TYPE_ID_ACCEL,
+            ZephyrBHConstants.PACKET_TYPE_SUMMARY,
+            ZephyrBHConstants.PACKET_TYPE_EVENT
+    };
+    private static final int TYPE_OTHER = PACKET_TYPES.length;
+    private static final int TYPES = PACKET_TYPES.length + 1;
+
+    // Per packet type metrics
+    private final AtomicLongArray packets = new AtomicLongArray(TYPES);
+    private final AtomicLongArray bytes = new AtomicLongArray(TYPES);
+    private final AtomicLongArray observations = new AtomicLongArray(TYPES);
+    private final AtomicLongArray crcErrors = new AtomicLongArray(TYPES);
+    private final AtomicLongArray malformed = new AtomicLongArray(TYPES);
+    private final AtomicLongArray ignored = new AtomicLongArray(TYPES);
+    private final AtomicLongArray lost = new AtomicLongArray(TYPES);
+    private final AtomicLongArray gaps = new AtomicLongArray(TYPES);
+    private final LatencyHistogram[] parseTime = new LatencyHistogram[TYPES];
+
+    // Per device metrics
+    private final AtomicLong pushes = new AtomicLong();
+    private final AtomicLong pushedObservations = new AtomicLong();
+    private final AtomicLong spooledObservations = new AtomicLong();
+    private final AtomicLong lostPushes = new AtomicLong();
+    private final LatencyHistogram pushTime = new LatencyHistogram();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong downtime = new AtomicLong();
+
+    // The connection request waiting for the first packet, set by the connect worker and read by
+    // the dispatcher thread, the histogram is always written before the time of the request
+    private volatile long connectRequested;
+    private volatile LatencyHistogram firstPacketHistogram;
+    private volatile long timeToFirstPacket = -1;
+
+    // The packet being parsed, only written by the dispatcher thread
+    private Thread packetThread;
+    private int packetType = TYPE_OTHER;
+    private long packetRxTime;
+    private long packetPushNanos;
+
+    public DeviceMetrics() {
+        for (int i = 0; i < TYPES; i++) {
+            parseTime[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Record a packet received from the device, whether it's accepted by the buffer or not
+     *
+     * @param msgId The message ID of the packet
+     * @param length The length of the payload
+     */
+    public void packetReceived(int msgId, int length) {
+        int type = typeIndex(msgId);
+        packets.incrementAndGet(type);
+        bytes.addAndGet(type, length);
+
+        long requested = connectRequested;
+        if (requested != 0) firstPacketReceived(requested);
+    }
+
+    /**
+     * Set the time the connection to the device was requested, so that the time to its first
+     * packet is recorded. Invoked before the device starts receiving packets.
+     *
+     * @param requested The time of the request, as given by System.nanoTime()
+     * @param histogram The histogram the time to the first packet is also recorded in, or null
+     */
+    public void connectRequested(long requested, LatencyHistogram histogram) {
+        firstPacketHistogram = histogram;
+        connectRequested = requested;
+    }
+
+    /**
+     * Record the time between the connection request and the first packet
+     *
+     * @param requested The time of the connection request
+     */
+    private void firstPacketReceived(long requested) {
+        long elapsed = System.nanoTime() - requested;
+        connectRequested = 0;
+        timeToFirstPacket = elapsed;
+        if (firstPacketHistogram != null) firstPacketHistogram.record(elapsed);
+    }
+
+    /**
+     * Record a connection lost and restored within the reconnect window of the device
+     *
+     * @param duration The time the device was disconnected, in milliseconds
+     */
+    public void reconnected(long duration) {
+        reconnects.incrementAndGet();
+        downtime.addAndGet(duration);
+    }
+
+    /**
+     * Record a packet discarded because its CRC doesn't match
+     *
+     * @param msgId The message ID of the packet
+     */
+    public void packetCorrupted(int msgId) {
+        crcErrors.incrementAndGet(typeIndex(msgId));
+    }
+
+    /**
+     * Record a packet discarded because it's shorter than its type requires
+     *
+     * @param msgId The message ID of the packet
+     */
+    public void packetMalformed(int msgId) {
+        malformed.incrementAndGet(typeIndex(msgId));
+    }
+
+    /**
+     * Record a packet discarded because its processor is disabled or missing
+     *
+     * @param msgId The message ID of the packet
+     */
+    public void packetIgnored(int msgId) {
+        ignored.incrementAndGet(typeIndex(msgId));
+    }
+
+    /**
+     * Record a gap in a stream. The lost packets include the ones discarded for any reason after
+     * they were sent by the device: corrupted, malformed or dropped by the packet buffer.
+     *
+     * @param msgId The message ID of the stream
+     * @param count The number of packets missing
+     */
+    public void packetsLost(int msgId, int count) {
+        int type = typeIndex(msgId);
+        lost.addAndGet(type, count);
+        gaps.incrementAndGet(type);
+    }
+
+    /**
+     * Mark the start of the parsing of a packet. Invoked by the dispatcher thread.
+     *
+     * @param msgId The message ID of the packet
+     * @param rxTime The time the packet was received
+     */
+    public void packetStarted(int msgId, long rxTime) {
+        packetThread = Thread.currentThread();
+        packetType = typeIndex(msgId);
+        packetRxTime = rxTime;
+        packetPushNanos = 0;
+    }
+
+    /**
+     * Mark the end of the parsing of a packet. Invoked by the dispatcher thread.
+     *
+     * @param nanos The time spent on the packet, the pushes done meanwhile are not counted
+     */
+    public void packetFinished(long nanos) {
+        parseTime[packetType].record(nanos - packetPushNanos);
+        packetThread = null;
+        packetType = TYPE_OTHER;
+        packetRxTime = 0;
+    }
+
+    /**
+     * Record an observation emitted by the device, attributing it to the packet being parsed
+     */
+    public void observationEmitted() {
+        observations.incrementAndGet(packetThread == Thread.currentThread() ? packetType : TYPE_OTHER);
+    }
+
+    /**
+     * Return the time the packet being parsed was received
+     *
+     * @return The receive time of the packet, 0 if no packet is being parsed
+     */
+    public long getPacketRxTime() {
+        return packetThread == Thread.currentThread() ? packetRxTime : 0;
+    }
+
+    /**
+     * Record a push of observations to the Protocol Adapter
+     *
+     * @param count The number of observations pushed
+     * @param nanos The time spent by the push
+     * @param delivered False if the observations were lost
+     * @param oldestRxTime The time the oldest packet of the batch was received, 0 if unknown
+     */
+    public void observationsPushed(int count, long nanos, boolean delivered, long oldestRxTime) {
+        if (packetThread == Thread.currentThread()) packetPushNanos += nanos;
+
+        pushTime.record(nanos);
+        if (!delivered) {
+            lostPushes.incrementAndGet();
+            return;
+        }
+
+        pushes.incrementAndGet();
+        pushedObservations.addAndGet(count);
+        if (oldestRxTime > 0) latency.record((System.currentTimeMillis() - oldestRxTime) * 1000000L);
+    }
+
+    /**
+     * Record observations appended to the spool because the Protocol Adapter couldn't be reached.
+     * They are counted as pushed as well, since the push succeeded from the point of view of the
+     * device.
+     *
+     * @param count The number of observations spooled
+     */
+    public void observationsSpooled(int count) {
+        spooledObservations.addAndGet(count);
+    }
+
+    public long getPackets(int msgId) {
+        return packets.get(typeIndex(msgId));
+    }
+
+    public long getObservations(int msgId) {
+        return observations.get(typeIndex(msgId));
+    }
+
+    public long getCrcErrors(int msgId) {
+        return crcErrors.get(typeIndex(msgId));
+    }
+
+    public long getIgnored(int msgId) {
+        return ignored.get(typeIndex(msgId));
+    }
+
+    public long getLost(int msgId) {
+        return lost.get(typeIndex(msgId));
+    }
+
+    /**
+     * Return the fraction of the packets of a stream that didn't make it to the parser
+     *
+     * @param msgId The message ID of the stream
+     * @return The packets lost divided by the packets expected, 0 if nothing was received
+     */
+    public double getLossRate(int msgId) {
+        return lossRate(typeIndex(msgId));
+    }
+
+    private double lossRate(int type) {
+        long missing = lost.get(type);
+        long expected = missing + parseTime[type].getCount();
+        return expected == 0 ? 0 : (double) missing / expected;
+    }
+
+    public long getPushes() {
+        return pushes.get();
+    }
+
+    public long getSpooledObservations() {
+        return spooledObservations.get();
+    }
+
+    public long getLostPushes() {
+        return lostPushes.get();
+    }
+
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    public long getDowntime() {
+        return downtime.get();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Return the time between the connection request and the first packet received
+     *
+     * @return The time in nanoseconds, -1 if unknown
+     */
+    public long getTimeToFirstPacket() {
+        return timeToFirstPacket;
+    }
+
+    /**
+     * Return a textual snapshot of the metrics, one line for the buffer, one for the pushes and one
+     * for every packet type received
+     *
+     * @param devId The device ID
+     * @param buffer The packet buffer of the device, or null
+     * @return The snapshot of the metrics
+     */
+    public String snapshot(String devId, PacketRingBuffer buffer) {
+        StringBuilder builder = new StringBuilder(1024);
+        builder.append("device=").append(devId).append('\n');
+
+        if (buffer != null) {
+            builder.append("queue depth=").append(buffer.size())
+                    .append(" maxDepth=").append(buffer.getMaxSize())
+                    .append(" capacity=").append(buffer.getCapacity())
+                    .append(" droppedOldest=").append(buffer.getDroppedOldest())
+                    .append(" droppedNewest=").append(buffer.getDroppedNewest()).append('\n');
+        }
+
+        long firstPacket = timeToFirstPacket;
+        if (firstPacket >= 0) builder.append("timeToFirstPacket=").append(TimeUnit.NANOSECONDS.toMillis(firstPacket)).append("ms\n");
+        if (reconnects.get() > 0) builder.append("reconnects=").append(reconnects.get()).append(" downtime=").append(downtime.get()).append("ms\n");
+
+        builder.append("push count=").append(pushes.get())
+                .append(" observations=").append(pushedObservations.get())
+                .append(" spooled=").append(spooledObservations.get())
+                .append(" lost=").append(lostPushes.get()).append('\n');
+        pushTime.appendTo(builder.append("pushTime ")).append('\n');
+        latency.appendTo(builder.append("rxToPushLatency ")).append('\n');
+
+        for (int i = 0; i < TYPES; i++) {
+            if (packets.get(i) == 0 && observations.get(i) == 0 && crcErrors.get(i) == 0 && malformed.get(i) == 0) continue;
+
+            builder.append("packetType=").append(i == TYPE_OTHER ? "other" : String.format("0x%02X", PACKET_TYPES[i]))
+                    .append(" packets=").append(packets.get(i))
+                    .append(" bytes=").append(bytes.get(i))
+                    .append(" observations=").append(observations.get(i))
+                    .append(" crcErrors=").append(crcErrors.get(i))
+                    .append(" malformed=").append(malformed.get(i))
+                    .append(" ignored=").append(ignored.get(i))
+                    .append(" lost=").append(lost.get(i))
+                    .append(" gaps=").append(gaps.get(i))
+                    .append(" lossRate=").append(String.format("%.4f", lossRate(i)))
+                    .append(" parseTime ");
+            parseTime[i].appendTo(builder).append('\n');
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Return the index of the metrics of a packet type
+     *
+     * @param msgId The message ID of the packet
+     * @return The index of the packet type
+     */
+    private static int typeIndex(int msgId) {
+        switch (msgId) {
+            case ZephyrBHConstants.PACKET_TYPE_GENERAL: return 0;
+            case ZephyrBHConstants.PACKET_TYPE_ID_BREATHING: return 1;
+            case ZephyrBHConstants.PACKET_TYPE_ECG: return 2;
+            case ZephyrBHConstants.PACKET_TYPE_ID_R_TO_R: return 3;
+            case ZephyrBHConstants.PACKET_TYPE_ID_ACCEL: return 4;
+            case ZephyrBHConstants.PACKET_TYPE_SUMMARY: return 5;
+            case ZephyrBHConstants.PACKET_TYPE_EVENT: return 6;
+            default: return TYPE_OTHER;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class holds the state of the devices known to the Device Adapter: the paired devices and
+ * whether they are supported, the whitelist, the blacklist and the connected devices. The devices
+ * are indexed by their MAC Address as a 48 bit number, so that checking a device takes constant
+ * time whatever the size of the lists, and the addresses are compared regardless of the case of
+ * their letters.
+ *
+ * The paired and the connected devices are kept in concurrent maps. The whitelist and the
+ * blacklist are read on every connection and bond event and seldom changed, so each of them is an
+ * immutable set replaced as a whole at every change: replacing a whole list is a single atomic
+ * swap, and a reader never sees a list half updated.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class DeviceRegistry {
+
+    // Key of a device ID that is not a valid MAC Address
+    public static final long INVALID_KEY = -1;
+
+    private final Set<Long> paired = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    private final ConcurrentHashMap<Long, Boolean> supported = new ConcurrentHashMap<Long, Boolean>();
+    private final ConcurrentHashMap<Long, ZephyrBHDevice> connected = new ConcurrentHashMap<Long, ZephyrBHDevice>();
+    private final PolicyList whitelist = new PolicyList();
+    private final PolicyList blacklist = new PolicyList();
+
+    /**
+     * Return the key of a device ID, the MAC Address as a 48 bit number
+     *
+     * @param devId The device ID, a MAC Address in the form 00:07:80:AB:CD:EF, in any case
+     * @return The key of the device, INVALID_KEY if the device ID is not a valid MAC Address
+     */
+    public static long toKey(String devId) {
+        if (devId == null || devId.length() != 17) return INVALID_KEY;
+
+        long key = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = devId.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') return INVALID_KEY;
+                continue;
+            }
+
+            int digit = Character.digit(c, 16);
+            if (digit < 0) return INVALID_KEY;
+            key = (key << 4) | digit;
+        }
+        return key;
+    }
+
+    /**
+     * Return the device ID of a key, in upper case as the Android Bluetooth API gives it
+     *
+     * @param key The key of the device
+     * @return The device ID
+     */
+    public static String toDeviceId(long key) {
+        char[] chars = new char[17];
+        for (int i = 0; i < 6; i++) {
+            int octet = (int) (key >>> (40 - 8 * i)) & 0xFF;
+            chars[3 * i] = Character.toUpperCase(Character.forDigit(octet >>> 4, 16));
+            chars[3 * i + 1] = Character.toUpperCase(Character.forDigit(octet & 0xF, 16));
+            if (i < 5) chars[3 * i + 2] = ':';
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Check whether a device ID is a valid MAC Address
+     *
+     * @param devId The device ID
+     * @return True if the device ID is valid
+     */
+    public static boolean isValid(String devId) {
+        return toKey(devId) != INVALID_KEY;
+    }
+
+    /**
+     * Add a device to the paired devices
+     *
+     * @param devId The device ID
+     * @return True if the device was added, false if it was already paired or it's not valid
+     */
+    public boolean addPaired(String devId) {
+        long key = toKey(devId);
+        return key != INVALID_KEY && paired.add(key);
+    }
+
+    /**
+     * Remove a device from the paired devices
+     *
+     * @param devId The device ID
+     * @return True if the device was removed, false if it was not paired
+     */
+    public boolean removePaired(String devId) {
+        long key = toKey(devId);
+        return key != INVALID_KEY && paired.remove(key);
+    }
+
+    public boolean isPaired(String devId) {
+        long key = toKey(devId);
+        return key != INVALID_KEY && paired.contains(key);
+    }
+
+    /**
+     * Return the device IDs of the paired devices
+     *
+     * @return A new list holding the device IDs
+     */
+    public List<String> getPaired() {
+        return toDeviceIds(paired);
+    }
+
+    /**
+     * Return whether a device is known to be supported, as recorded by setSupported
+     *
+     * @param devId The device ID
+     * @return True or false if the device is known to be supported or not, null if it's unknown
+     */
+    public Boolean getSupported(String devId) {
+        return supported.get(toKey(devId));
+    }
+
+    /**
+     * Record whether a device is supported, so that its name needs to be checked only once
+     *
+     * @param devId The device ID
+     * @param isSupported True if the device is supported
+     */
+    public void setSupported(String devId, boolean isSupported) {
+        long key = toKey(devId);
+        if (key != INVALID_KEY) supported.put(key, isSupported);
+    }
+
+    /**
+     * Check whether a device is allowed to connect: it must be in the whitelist, unless the
+     * whitelist is empty, and it must not be in the blacklist
+     *
+     * @param devId The device ID
+     * @return True if the device is allowed to connect
+     */
+    public boolean isAllowed(String devId) {
+        long key = toKey(devId);
+        Map<Long, String> tmpWhitelist = whitelist.devIds;
+        return (tmpWhitelist.isEmpty() || tmpWhitelist.containsKey(key)) && !blacklist.devIds.containsKey(key);
+    }
+
+    public PolicyList getWhitelist() {
+        return whitelist;
+    }
+
+    public PolicyList getBlacklist() {
+        return blacklist;
+    }
+
+    /**
+     * Return a connected device
+     *
+     * @param devId The device ID
+     * @return The device, null if it's not connected
+     */
+    public ZephyrBHDevice getConnected(String devId) {
+        long key = toKey(devId);
+        return key == INVALID_KEY ? null : connected.get(key);
+    }
+
+    public boolean isConnected(String devId) {
+        return getConnected(devId) != null;
+    }
+
+    /**
+     * Add a device to the connected devices, replacing the device with the same ID, if any
+     *
+     * @param device The device
+     */
+    public void putConnected(ZephyrBHDevice device) {
+        long key = toKey(device.getDeviceID());
+        if (key == INVALID_KEY) throw new IllegalArgumentException("The device ID " + device.getDeviceID() + " is not a valid MAC Address!");
+
+        connected.put(key, device);
+    }
+
+    /**
+     * Remove a device from the connected devices, unless it has been replaced by another one with
+     * the same ID
+     *
+     * @param device The device
+     * @return True if the device was removed
+     */
+    public boolean removeConnected(ZephyrBHDevice device) {
+        return connected.remove(toKey(device.getDeviceID()), device);
+    }
+
+    /**
+     * Return the connected devices. The list is a snapshot, so the devices can be disconnected
+     * while iterating over it.
+     *
+     * @return A new list holding the connected devices
+     */
+    public List<ZephyrBHDevice> getConnectedDevices() {
+        return new ArrayList<ZephyrBHDevice>(connected.values());
+    }
+
+    private static List<String> toDeviceIds(Collection<Long> keys) {
+        List<String> devIds = new ArrayList<String>(keys.size());
+        for (Long key : keys) {
+            devIds.add(toDeviceId(key));
+        }
+        return devIds;
+    }
+
+    /**
+     * A whitelist or a blacklist of devices, in the order they were added. The list is read
+     * without locks, while the changes are serialized and replace the whole list.
+     */
+    public static class PolicyList {
+
+        // The device IDs as they were given, by their key
+        private volatile Map<Long, String> devIds = Collections.emptyMap();
+
+        /**
+         * Check whether a device is in the list
+         *
+         * @param devId The device ID
+         * @return True if the device is in the list
+         */
+        public boolean contains(String devId) {
+            return devIds.containsKey(toKey(devId));
+        }
+
+        public boolean isEmpty() {
+            return devIds.isEmpty();
+        }
+
+        /**
+         * Add a device to the list
+         *
+         * @param devId The device ID
+         * @return True if the device was added, false if it was already in the list or it's not valid
+         */
+        public synchronized boolean add(String devId) {
+            long key = toKey(devId);
+            if (key == INVALID_KEY || devIds.containsKey(key)) return false;
+
+            Map<Long, String> tmpDevIds = new LinkedHashMap<Long, String>(devIds);
+            tmpDevIds.put(key, devId);
+            devIds = Collections.unmodifiableMap(tmpDevIds);
+            return true;
+        }
+
+        /**
+         * Remove a device from the list
+         *
+         * @param devId The device ID
+         * @return True if the device was removed, false if it was not in the list
+         */
+        public synchronized boolean remove(String devId) {
+            long key = toKey(devId);
+            if (!devIds.containsKey(key)) return false;
+
+            Map<Long, String> tmpDevIds = new LinkedHashMap<Long, String>(devIds);
+            tmpDevIds.remove(key);
+            devIds = Collections.unmodifiableMap(tmpDevIds);
+            return true;
+        }
+
+        /**
+         * Replace the whole list at once, ignoring the device IDs that are not valid
+         *
+         * @param devIds The device IDs of the new list, null to empty it
+         */
+        public synchronized void set(Collection<String> devIds) {
+            Map<Long, String> tmpDevIds = new LinkedHashMap<Long, String>();
+            if (devIds != null) {
+                for (String devId : devIds) {
+                    long key = toKey(devId);
+                    if (key != INVALID_KEY && !tmpDevIds.containsKey(key)) tmpDevIds.put(key, devId);
+                }
+            }
+            this.devIds = Collections.unmodifiableMap(tmpDevIds);
+        }
+
+        /**
+         * Return the device IDs in the list, as they were added
+         *
+         * @return A new list holding the device IDs
+         */
+        public List<String> get() {
+            return new ArrayList<String>(devIds.values());
+        }
+    }
+}
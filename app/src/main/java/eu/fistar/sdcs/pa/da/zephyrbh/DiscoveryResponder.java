@@ -72,6 +72,9 @@ public class DiscoveryResponder extends BroadcastReceiver {
         replyIntent.putExtra(PAAndroidConstants.DA_DISCOVERY.BUNDLE_DAID, CapabilitiesConstants.DA_ID);
         replyIntent.putExtra(PAAndroidConstants.DA_DISCOVERY.BUNDLE_DACAP, CAPABILITIES);
 
+        // Advertise the waveform encodings supported, since the Capabilities object has no room for them
+        replyIntent.putExtra(CapabilitiesConstants.BUNDLE_WAVEFORM_ENCODINGS, CapabilitiesConstants.CAP_WAVEFORM_ENCODINGS);
+
         // Reply to the Discovery Request sent by the Protocol Adapter
         context.sendBroadcast(replyIntent);
     }
@@ -100,5 +103,13 @@ public class DiscoveryResponder extends BroadcastReceiver {
         public static final boolean CAP_CONNECTION_INITIATOR = true;
         public static final boolean CAP_AVAILABLE_DEVICES_SUPPORT = true;
 
+        // Extended capabilities, advertised as extras of the discovery reply
+        public static final String BUNDLE_WAVEFORM_ENCODINGS = DA_ID + ".WAVEFORM_ENCODINGS";
+        public static final String[] CAP_WAVEFORM_ENCODINGS = {
+                ZephyrBHConstants.CONFIG_WAVEFORM_ENCODING_TEXT,
+                ZephyrBHConstants.CONFIG_WAVEFORM_ENCODING_BINARY,
+                ZephyrBHConstants.CONFIG_WAVEFORM_ENCODING_DELTA
+        };
+
     }
 }
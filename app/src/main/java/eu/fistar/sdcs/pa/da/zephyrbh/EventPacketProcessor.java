@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import eu.fistar.sdcs.pa.common.Observation;
+import eu.fistar.sdcs.pa.da.zephyrbh.utils.FastTimeConverter;
+import zephyr.android.BioHarnessBT.ConnectListenerImpl;
+
+/**
+ * This class processes the Event Packet, sent by the device when something happens, like a button
+ * press, a fall or a low battery. Every event is sent to the DA as an observation whose values are
+ * the event code, as a decimal number, and the event specific data, as a hexadecimal string that
+ * is empty when the event carries no data.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class EventPacketProcessor extends PacketProcessor {
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final ZephyrBHConnectedListener listener;
+    private final ConnectListenerImpl.EventPacketInfo eventInfo;
+    private final FastTimeConverter timeConverter = new FastTimeConverter();
+
+    public EventPacketProcessor(ZephyrBHConnectedListener listener) {
+        super(ZephyrBHConstants.PACKET_TYPE_EVENT, ZephyrBHConstants.PACKET_SIZE_EVENT, ZephyrBHConstants.CONFIG_NAME_EVENT);
+        this.listener = listener;
+
+        // The event specific data has a variable length, so it's extracted here
+        eventInfo = listener.new EventPacketInfo((byte) 0);
+    }
+
+    @Override
+    public void process(byte[] dataArray, int length) {
+
+        // Extract timestamp
+        long timestamp = timeConverter.timeToEpoch(
+                eventInfo.GetTSYear(dataArray),
+                eventInfo.GetTSMonth(dataArray),
+                eventInfo.GetTSDay(dataArray),
+                eventInfo.GetMsofDay(dataArray)
+        );
+
+        // Extract the event data, following the fixed part of the packet
+        char[] data = new char[2 * (length - ZephyrBHConstants.PACKET_SIZE_EVENT)];
+        for (int i = ZephyrBHConstants.PACKET_SIZE_EVENT, j = 0; i < length; i++) {
+            data[j++] = HEX_DIGITS[(dataArray[i] >> 4) & 0x0F];
+            data[j++] = HEX_DIGITS[dataArray[i] & 0x0F];
+        }
+
+        Observation tmpObs = new Observation(ZephyrBHConstants.SENSOR_EVENT,
+                new String[] {Integer.toString(eventInfo.GetEventCode(dataArray) & 0xFFFF), new String(data)});
+        tmpObs.setPhenomenonTime(timestamp);
+        tmpObs.setDuration(0);
+        listener.sendObservation(tmpObs);
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import eu.fistar.sdcs.pa.common.Observation;
+
+/**
+ * This class collects the observations produced by a single device and delivers them to the
+ * Protocol Adapter in a single push, instead of performing one IPC call for each observation.
+ * The pending observations are flushed when the size limit or the time limit is reached,
+ * whichever comes first.
+ *
+ * A flushed batch is queued and pushed after the lock of the batcher is released, so the
+ * dispatcher thread adding observations never waits for a push in progress. The batches are
+ * pushed one at a time and in order: a batch flushed because of its size is pushed by the thread
+ * flushing it, unless another push of the device is in progress, in which case that push delivers
+ * it as well. A batch flushed because of its time limit is pushed on the delivery executor, so
+ * that the scheduler shared by all the devices never waits for the Protocol Adapter.
+ *
+ * The batches waiting to be pushed are bounded: once DELIVERY_MAX_QUEUED batches are queued, the
+ * thread adding observations waits for the push in progress and then pushes the queue itself, so
+ * a slow Protocol Adapter fills the packet buffer of the device, which applies its overflow
+ * policy. A timed flush finding the queue full is postponed, so the scheduler never waits.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class ObservationBatcher {
+
+    private final ZephyrBHDeviceAdapter deviceAdapter;
+    private final ZephyrBHDevice device;
+    private final ScheduledExecutorService scheduler;
+    private final Executor deliveryExecutor;
+
+    private List<Observation> pending = new ArrayList<Observation>();
+    private int maxSize = ZephyrBHConstants.DEFAULT_BATCH_MAX_SIZE;
+    private long maxDelay = ZephyrBHConstants.DEFAULT_BATCH_MAX_DELAY;
+    private long firstPendingTime;
+    private long firstPendingRxTime;
+    private ScheduledFuture<?> scheduledFlush;
+
+    // Batches flushed and not pushed yet, pushed in order by the thread holding the delivery lock
+    private final Queue<Batch> flushed = new ConcurrentLinkedQueue<Batch>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final ReentrantLock deliveryLock = new ReentrantLock();
+
+    /**
+     * Task used to flush the pending observations when the time limit expires, handing the push
+     * over to the delivery executor
+     */
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!enqueueTimed()) return;
+
+            try {
+                deliveryExecutor.execute(deliverTask);
+            } catch (RejectedExecutionException e) {
+                // The Device Adapter is shutting down, deliver what we have right now
+                deliver();
+            }
+        }
+    };
+
+    /**
+     * Task used to push the flushed batches on the delivery executor
+     */
+    private final Runnable deliverTask = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    public ObservationBatcher(ZephyrBHDeviceAdapter deviceAdapter, ZephyrBHDevice device, ScheduledExecutorService scheduler,
+                              Executor deliveryExecutor) {
+        this.deviceAdapter = deviceAdapter;
+        this.device = device;
+        this.scheduler = scheduler;
+        this.deliveryExecutor = deliveryExecutor;
+    }
+
+    /**
+     * Set the limits that trigger the delivery of the pending observations. A size of 1 or less
+     * disables batching and delivers every observation as soon as it's added.
+     *
+     * @param maxSize The maximum number of observations delivered with a single push
+     * @param maxDelay The maximum time in milliseconds an observation can wait before being delivered
+     */
+    public void setLimits(int maxSize, long maxDelay) {
+        boolean flush;
+        synchronized (this) {
+            this.maxSize = maxSize;
+            this.maxDelay = maxDelay;
+
+            // Apply the new limits to the observations already waiting
+            flush = !pending.isEmpty() && (pending.size() >= maxSize || maxDelay <= 0);
+        }
+
+        if (flush) flush();
+    }
+
+    /**
+     * Add an observation to the batch, delivering the batch if one of the limits is reached
+     *
+     * @param observation The observation to add
+     */
+    public void add(Observation observation) {
+        boolean flush = false;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            device.getMetrics().observationEmitted();
+
+            if (pending.isEmpty()) {
+                firstPendingTime = now;
+                firstPendingRxTime = device.getMetrics().getPacketRxTime();
+            }
+            pending.add(observation);
+
+            // Deliver immediately if the batch is full or the oldest observation waited long enough
+            if (pending.size() >= maxSize || maxDelay <= 0 || now - firstPendingTime >= maxDelay) {
+                flush = enqueue();
+            }
+
+            // Otherwise make sure the batch will be delivered when the time limit expires
+            else if (scheduledFlush == null) {
+                try {
+                    scheduledFlush = scheduler.schedule(flushTask, maxDelay, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // The Device Adapter is shutting down, deliver what we have right now
+                    flush = enqueue();
+                }
+            }
+        }
+
+        if (flush) deliver(queued.get() >= ZephyrBHConstants.DELIVERY_MAX_QUEUED);
+    }
+
+    /**
+     * Deliver all the pending observations to the Protocol Adapter. If another push of the device
+     * is in progress, the observations are delivered by that push, after this method returns,
+     * unless too many batches are queued, in which case this method waits for it.
+     */
+    public void flush() {
+        if (enqueue()) deliver(queued.get() >= ZephyrBHConstants.DELIVERY_MAX_QUEUED);
+    }
+
+    /**
+     * Return the number of batches flushed and not pushed yet
+     *
+     * @return The number of batches waiting to be pushed
+     */
+    int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Queue the pending observations for the delivery and start a new batch
+     *
+     * @return True if there were observations to queue
+     */
+    private synchronized boolean enqueue() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+
+        if (pending.isEmpty()) return false;
+
+        // Hand over the current list and start a new one, since the pushed list could be retained
+        flushed.add(new Batch(pending, firstPendingRxTime));
+        queued.incrementAndGet();
+        pending = new ArrayList<Observation>();
+        return true;
+    }
+
+    /**
+     * Queue the pending observations when their time limit expires, unless the queue is full. In
+     * that case the flush is postponed, since the scheduler can't wait for the pushes in progress,
+     * and the pending observations are bounded by the size limit anyway.
+     *
+     * @return True if the observations were queued
+     */
+    private synchronized boolean enqueueTimed() {
+        if (queued.get() < ZephyrBHConstants.DELIVERY_MAX_QUEUED) return enqueue();
+
+        try {
+            scheduledFlush = scheduler.schedule(flushTask, maxDelay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The Device Adapter is shutting down, let the push in progress deliver what we have
+            return enqueue();
+        }
+        return false;
+    }
+
+    /**
+     * Push the queued batches in order, unless another thread is already pushing them. The queue
+     * is checked again after releasing the lock, so a batch queued while the other thread was
+     * finishing is not left behind.
+     */
+    private void deliver() {
+        deliver(false);
+    }
+
+    /**
+     * Push the queued batches in order, waiting for the push in progress if required
+     *
+     * @param wait True to wait for another thread pushing the batches, false to leave them to it
+     */
+    private void deliver(boolean wait) {
+        if (wait) {
+            deliveryLock.lock();
+            try {
+                pushQueued();
+            } finally {
+                deliveryLock.unlock();
+            }
+        }
+
+        while (!flushed.isEmpty() && deliveryLock.tryLock()) {
+            try {
+                pushQueued();
+            } finally {
+                deliveryLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Push the queued batches, invoked holding the delivery lock
+     */
+    private void pushQueued() {
+        Batch batch;
+        while ((batch = flushed.poll()) != null) {
+            long start = System.nanoTime();
+            boolean delivered = deviceAdapter.pushData(batch.observations, device);
+            device.getMetrics().observationsPushed(batch.observations.size(), System.nanoTime() - start, delivered, batch.firstRxTime);
+            queued.decrementAndGet();
+        }
+    }
+
+    /**
+     * A batch of observations flushed and waiting to be pushed
+     */
+    private static class Batch {
+
+        final List<Observation> observations;
+        final long firstRxTime;
+
+        Batch(List<Observation> observations, long firstRxTime) {
+            this.observations = observations;
+            this.firstRxTime = firstRxTime;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import android.util.Log;
+
+import java.io.IOException;
+
+import eu.fistar.sdcs.pa.da.zephyrbh.capture.PacketCaptureWriter;
+import eu.fistar.sdcs.pa.da.zephyrbh.capture.PacketJournalWriter;
+
+/**
+ * This class represents the thread that drains the packet buffer of a device. It decouples the
+ * Bluetooth receive thread of the Zephyr library, which only copies the packets in the buffer,
+ * from the parsing of the packets and the delivery of the observations to the Protocol Adapter.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class PacketDispatcher extends Thread {
+
+    private final static String LOGTAG_ZEPHYRBH_DISPATCHER = "ZephyrBH Dispatcher >>>";
+    private final static long SHUTDOWN_TIMEOUT = 1000;
+
+    private final PacketRingBuffer buffer;
+    private final ZephyrBHConnectedListener listener;
+    private final DeviceMetrics metrics;
+    private final PacketRingBuffer.Packet packet = new PacketRingBuffer.Packet();
+    private volatile PacketCaptureWriter capture;
+    private volatile PacketJournalWriter.Device journal;
+
+    public PacketDispatcher(String devId, PacketRingBuffer buffer, ZephyrBHConnectedListener listener, DeviceMetrics metrics) {
+        super("ZephyrBH-Dispatcher-" + devId);
+        this.buffer = buffer;
+        this.listener = listener;
+        this.metrics = metrics;
+    }
+
+    public PacketRingBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Hand a packet received from the device to the dispatcher
+     *
+     * @param msgId The message ID of the packet
+     * @param data The payload of the packet
+     * @param rxTime The time the packet was received
+     * @return True if the packet was accepted, false if it was dropped
+     */
+    public boolean dispatch(int msgId, byte[] data, long rxTime) {
+        metrics.packetReceived(msgId, data.length);
+        journalPacket(msgId, data, rxTime);
+        return buffer.offer(msgId, data, rxTime);
+    }
+
+    @Override
+    public void run() {
+        try {
+            // Process the packets in the order they were received until the buffer is closed
+            while (buffer.take(packet)) {
+                capturePacket();
+
+                metrics.packetStarted(packet.msgId, packet.rxTime);
+                long start = System.nanoTime();
+                try {
+                    listener.processPacket(packet.msgId, packet.data, packet.length);
+                } catch (RuntimeException e) {
+                    Log.e(LOGTAG_ZEPHYRBH_DISPATCHER, "Failed processing packet " + packet.msgId + ": " + e.getMessage());
+                } finally {
+                    metrics.packetFinished(System.nanoTime() - start);
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.w(LOGTAG_ZEPHYRBH_DISPATCHER, "Dispatcher interrupted, " + buffer.size() + " packets discarded");
+        } finally {
+            stopCapture();
+        }
+    }
+
+    /**
+     * Start writing the packets to a capture file, replacing the capture in progress, if any
+     *
+     * @param writer The writer of the capture file
+     */
+    public void startCapture(PacketCaptureWriter writer) {
+        PacketCaptureWriter previous = capture;
+        capture = writer;
+        closeCapture(previous);
+    }
+
+    /**
+     * Stop the capture in progress, if any, and close its file
+     */
+    public void stopCapture() {
+        PacketCaptureWriter previous = capture;
+        capture = null;
+        closeCapture(previous);
+    }
+
+    /**
+     * Start writing the packets to a journal as they are received, before they are buffered, so
+     * that also the packets dropped by the buffer are recorded
+     *
+     * @param device The handle of the device in the journal, or null to stop writing
+     */
+    public void setJournal(PacketJournalWriter.Device device) {
+        journal = device;
+    }
+
+    /**
+     * Check whether the dispatcher has been shut down
+     *
+     * @return True if the dispatcher doesn't accept packets anymore
+     */
+    public boolean isShutdown() {
+        return buffer.isClosed();
+    }
+
+    /**
+     * Write the current packet to the capture file, stopping the capture if the file can't be written
+     */
+    private void capturePacket() {
+        PacketCaptureWriter writer = capture;
+        if (writer == null) return;
+
+        try {
+            writer.write(packet.msgId, packet.rxTime, packet.data, packet.length);
+        } catch (IOException e) {
+            Log.e(LOGTAG_ZEPHYRBH_DISPATCHER, "Failed writing capture " + writer.getFile() + ": " + e.getMessage());
+            if (capture == writer) stopCapture();
+        }
+    }
+
+    /**
+     * Write a packet to the journal, stopping the journal of the device if it can't be written.
+     * Invoked by the receive thread.
+     */
+    private void journalPacket(int msgId, byte[] data, long rxTime) {
+        PacketJournalWriter.Device device = journal;
+        if (device == null) return;
+
+        try {
+            device.write(msgId, rxTime, data, data.length);
+        } catch (IOException e) {
+            Log.e(LOGTAG_ZEPHYRBH_DISPATCHER, "Failed writing journal: " + e.getMessage());
+            if (journal == device) journal = null;
+        }
+    }
+
+    private void closeCapture(PacketCaptureWriter writer) {
+        if (writer == null) return;
+
+        try {
+            writer.close();
+            Log.i(LOGTAG_ZEPHYRBH_DISPATCHER, "Captured " + writer.getPackets() + " packets in " + writer.getFile());
+        } catch (IOException e) {
+            Log.e(LOGTAG_ZEPHYRBH_DISPATCHER, "Failed closing capture " + writer.getFile() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop accepting packets and wait for the ones already buffered to be processed
+     */
+    public void shutdown() {
+        buffer.close();
+
+        if (Thread.currentThread() == this) return;
+
+        try {
+            join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // If the buffer could not be drained in time, stop the thread anyway
+        if (isAlive()) interrupt();
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import java.util.Map;
+
+import eu.fistar.sdcs.pa.da.zephyrbh.utils.ConfigParser;
+
+/**
+ * This class parses the packets of one type received from a device and sends their observations
+ * to the DA. A processor is registered in the PacketProcessorRegistry of the device under the
+ * message ID of its packets, and it's enabled when any of its configuration parameters is set to
+ * enable. New packet types are handled by registering a new processor, without changing the
+ * listener of the device.
+ *
+ * A processor is only invoked by the dispatcher thread of its device.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public abstract class PacketProcessor {
+
+    private final int msgId;
+    private final int minimumSize;
+    private final String[] configNames;
+
+    /**
+     * Create a processor
+     *
+     * @param msgId The message ID of the packets processed
+     * @param minimumSize The minimum payload size of the packets, shorter packets are discarded
+     * @param configNames The names of the configuration parameters enabling the processor
+     */
+    protected PacketProcessor(int msgId, int minimumSize, String... configNames) {
+        if (msgId < 0 || msgId >= PacketProcessorRegistry.MESSAGE_IDS) throw new IllegalArgumentException("Invalid message ID: " + msgId);
+
+        this.msgId = msgId;
+        this.minimumSize = minimumSize;
+        this.configNames = configNames;
+    }
+
+    public int getMsgId() {
+        return msgId;
+    }
+
+    public int getMinimumSize() {
+        return minimumSize;
+    }
+
+    /**
+     * Check whether the processor is enabled by the configuration of the device
+     *
+     * @param config The configuration of the device
+     * @return True if any of the configuration parameters of the processor is set to enable
+     */
+    public boolean isEnabled(Map<String, String> config) {
+        for (String name : configNames) {
+            if (ConfigParser.isEnabled(config, name)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parse a packet and send its observations to the DA. The payload is at least as long as the
+     * minimum size of the processor. The array may be longer than the payload, since the
+     * dispatcher reuses it for all the packets, so only the first length bytes belong to it.
+     *
+     * @param data The payload of the packet
+     * @param length The length of the payload
+     */
+    public abstract void process(byte[] data, int length);
+}
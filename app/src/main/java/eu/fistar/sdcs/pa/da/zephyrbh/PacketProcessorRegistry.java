@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import java.util.Map;
+
+/**
+ * This class holds the packet processors of a device in a table indexed by message ID, so finding
+ * the processor of a packet is a single array access. The processors are registered before the
+ * packets start flowing, then the ones enabled by the configuration, or by a command, are copied
+ * in the table of enabled processors: a packet whose type is disabled, or has no processor, finds
+ * an empty slot and is ignored without any further check. The table of enabled processors is
+ * replaced as a whole when it changes, so the dispatcher thread never sees it half updated.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class PacketProcessorRegistry {
+
+    // Message IDs are one byte long
+    static final int MESSAGE_IDS = 256;
+
+    private final PacketProcessor[] registered = new PacketProcessor[MESSAGE_IDS];
+    private volatile PacketProcessor[] enabled = new PacketProcessor[MESSAGE_IDS];
+
+    /**
+     * Register a processor, replacing the one registered for the same message ID, if any. The
+     * processor is disabled until the registry is configured.
+     *
+     * @param processor The processor to register
+     */
+    public synchronized void register(PacketProcessor processor) {
+        registered[processor.getMsgId()] = processor;
+        setEnabled(processor.getMsgId(), false);
+    }
+
+    /**
+     * Enable the processors enabled by a configuration and disable all the others
+     *
+     * @param config The configuration of the device
+     */
+    public synchronized void configure(Map<String, String> config) {
+        PacketProcessor[] table = new PacketProcessor[MESSAGE_IDS];
+        for (int i = 0; i < MESSAGE_IDS; i++) {
+            if (registered[i] != null && registered[i].isEnabled(config)) table[i] = registered[i];
+        }
+        enabled = table;
+    }
+
+    /**
+     * Enable or disable the processor of a packet type, regardless of the configuration, until the
+     * registry is configured again
+     *
+     * @param msgId The message ID of the packet type
+     * @param enable True to enable the processor, false to disable it
+     */
+    public synchronized void setEnabled(int msgId, boolean enable) {
+        PacketProcessor[] table = enabled.clone();
+        table[msgId] = enable ? registered[msgId] : null;
+        enabled = table;
+    }
+
+    /**
+     * Check whether the processor of a packet type is enabled
+     *
+     * @param msgId The message ID of the packet type
+     * @return True if a processor is registered for the type and it's enabled
+     */
+    public boolean isEnabled(int msgId) {
+        return msgId >= 0 && msgId < MESSAGE_IDS && enabled[msgId] != null;
+    }
+
+    /**
+     * Return the minimum payload size of a packet type, whether its processor is enabled or not
+     *
+     * @param msgId The message ID of the packet type
+     * @return The minimum size of the payload, 0 for packet types without a processor
+     */
+    public int getMinimumSize(int msgId) {
+        if (msgId < 0 || msgId >= MESSAGE_IDS) return 0;
+
+        PacketProcessor processor = registered[msgId];
+        return processor == null ? 0 : processor.getMinimumSize();
+    }
+
+    /**
+     * Hand a packet over to the processor of its type, if it's enabled
+     *
+     * @param msgId The message ID of the packet
+     * @param data The payload of the packet
+     * @param length The length of the payload
+     * @return True if the packet was processed, false if it was ignored
+     */
+    public boolean process(int msgId, byte[] data, int length) {
+        if (msgId < 0 || msgId >= MESSAGE_IDS) return false;
+
+        PacketProcessor processor = enabled[msgId];
+        if (processor == null) return false;
+
+        processor.process(data, length);
+        return true;
+    }
+}
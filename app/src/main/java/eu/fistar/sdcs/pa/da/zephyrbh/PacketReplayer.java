@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.Map;
+
+import eu.fistar.sdcs.pa.da.zephyrbh.capture.PacketCapture;
+
+/**
+ * This class represents a virtual BioHarness that replays a packet capture. The virtual device is
+ * registered with the Protocol Adapter like a real one and its packets go through the same
+ * dispatcher, so everything but the Bluetooth connection is exercised. The packets can be sent with
+ * their original timing, N times faster or as fast as the dispatcher accepts them.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class PacketReplayer extends Thread {
+
+    private final static String LOGTAG_ZEPHYRBH_REPLAYER = "ZephyrBH Replayer >>>";
+
+    private final ZephyrBHDeviceAdapter deviceAdapter;
+    private final String devId;
+    private final Map<String, String> config;
+    private final PacketCapture capture;
+    private final double speed;
+    private final int loops;
+
+    /**
+     * Create the replayer of a virtual device
+     *
+     * @param deviceAdapter The Device Adapter the virtual device is connected to
+     * @param devId The device ID (the MAC Address) of the virtual device
+     * @param config The configuration of the virtual device
+     * @param capture The packets to replay
+     * @param speed The speed factor of the replay, 1 for the original timing, 0 to send the packets
+     *              as fast as possible
+     * @param loops The number of times the capture is replayed, 0 to replay it until stopped
+     */
+    public PacketReplayer(ZephyrBHDeviceAdapter deviceAdapter, String devId, Map<String, String> config,
+                          PacketCapture capture, double speed, int loops) {
+        super("ZephyrBH-Replayer-" + devId);
+        this.deviceAdapter = deviceAdapter;
+        this.devId = devId;
+        this.config = config;
+        this.capture = capture;
+        this.speed = speed;
+        this.loops = loops;
+    }
+
+    public String getDeviceID() {
+        return devId;
+    }
+
+    @Override
+    public void run() {
+
+        // Connect the virtual device like the listener does when a real device connects
+        ZephyrBHConnectedListener listener = new ZephyrBHConnectedListener(deviceAdapter, devId, config);
+        ZephyrBHDevice device = listener.createDevice(null);
+        deviceAdapter.deviceConnected(device);
+        device.getDispatcher().start();
+
+        try {
+            replay(listener, device.getDispatcher());
+        } catch (InterruptedException e) {
+            Log.i(LOGTAG_ZEPHYRBH_REPLAYER, "Replay of " + devId + " stopped");
+        } finally {
+            // Disconnect the virtual device, unless it has already been disconnected
+            try {
+                deviceAdapter.getEndpoint().disconnectDev(devId);
+            } catch (RemoteException e) {
+                Log.e(LOGTAG_ZEPHYRBH_REPLAYER, "Failed disconnecting virtual device " + devId);
+            }
+        }
+    }
+
+    /**
+     * Send the packets of the capture to the listener, keeping their relative timing if required
+     *
+     * @param listener The listener of the virtual device
+     * @param dispatcher The dispatcher of the virtual device
+     * @throws InterruptedException If the replay has been stopped
+     */
+    private void replay(ZephyrBHConnectedListener listener, PacketDispatcher dispatcher) throws InterruptedException {
+        int size = capture.size();
+        if (size == 0) return;
+
+        // A new loop starts one average packet interval after the end of the previous one
+        long first = capture.getRxTime(0);
+        long loopDuration = capture.getDuration() + (size > 1 ? capture.getDuration() / (size - 1) : 0);
+        long start = System.nanoTime();
+
+        for (int loop = 0; loops == 0 || loop < loops; loop++) {
+            for (int i = 0; i < size; i++) {
+                if (isInterrupted() || dispatcher.isShutdown()) return;
+
+                // Wait for the time the packet was received, scaled by the speed factor
+                if (speed > 0) {
+                    long elapsed = loop * loopDuration + capture.getRxTime(i) - first;
+                    long due = start + (long) (elapsed * 1000000L / speed);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                }
+
+                listener.receivedPacket(capture.getMsgId(i), capture.getPayload(i));
+            }
+        }
+    }
+
+    /**
+     * Return the MAC Address obtained adding an offset to the given one. This is used to give every
+     * virtual device of a replay its own device ID.
+     *
+     * @param devId The base MAC Address
+     * @param offset The offset to add
+     * @return The resulting MAC Address, in upper case
+     */
+    public static String offsetAddress(String devId, int offset) {
+        return DeviceRegistry.toDeviceId(DeviceRegistry.toKey(devId) + offset);
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is a bounded buffer of raw packets received from a device. All the slots are allocated
+ * when the buffer is created and the packets are copied in and out of them, so that moving a packet
+ * from the Bluetooth receive thread to the dispatcher thread doesn't allocate anything. When the
+ * buffer is full the packet is handled according to the overflow policy.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class PacketRingBuffer {
+
+    // Overflow policies
+    public static final int POLICY_DROP_OLDEST = 0;
+    public static final int POLICY_DROP_NEWEST = 1;
+    public static final int POLICY_BLOCK = 2;
+
+    private static final int DEFAULT_SLOT_SIZE = 128;
+
+    private final int capacity;
+    private final int[] msgIds;
+    private final long[] rxTimes;
+    private final int[] lengths;
+    private final byte[][] payloads;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private int head;
+    private int count;
+    private int maxCount;
+    private boolean closed;
+    private volatile int policy;
+
+    private long droppedOldest;
+    private long droppedNewest;
+
+    /**
+     * This class holds a packet extracted from the buffer. It's meant to be reused by the consumer.
+     */
+    public static class Packet {
+        public int msgId;
+        public long rxTime;
+        public int length;
+        public byte[] data = new byte[DEFAULT_SLOT_SIZE];
+    }
+
+    public PacketRingBuffer(int capacity, int policy) {
+        if (capacity < 1) throw new IllegalArgumentException("The capacity of the buffer must be positive!");
+
+        this.capacity = capacity;
+        this.policy = policy;
+
+        msgIds = new int[capacity];
+        rxTimes = new long[capacity];
+        lengths = new int[capacity];
+        payloads = new byte[capacity][];
+        for (int i = 0; i < capacity; i++) {
+            payloads[i] = new byte[DEFAULT_SLOT_SIZE];
+        }
+    }
+
+    /**
+     * Set the policy used when a packet arrives and the buffer is full
+     *
+     * @param policy One of POLICY_DROP_OLDEST, POLICY_DROP_NEWEST or POLICY_BLOCK
+     */
+    public void setPolicy(int policy) {
+        lock.lock();
+        try {
+            this.policy = policy;
+
+            // Wake up producers waiting for room, they have to check the new policy
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copy a packet into the buffer
+     *
+     * @param msgId The message ID of the packet
+     * @param data The payload of the packet
+     * @param rxTime The time the packet was received
+     * @return True if the packet was stored, false if it was dropped
+     */
+    public boolean offer(int msgId, byte[] data, long rxTime) {
+        lock.lock();
+        try {
+            if (closed) return false;
+
+            // Make room for the packet according to the overflow policy
+            while (count == capacity) {
+                if (policy == POLICY_DROP_NEWEST) {
+                    droppedNewest++;
+                    return false;
+                } else if (policy == POLICY_DROP_OLDEST) {
+                    head = (head + 1) % capacity;
+                    count--;
+                    droppedOldest++;
+                } else {
+                    try {
+                        notFull.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        droppedNewest++;
+                        return false;
+                    }
+                    if (closed) return false;
+                }
+            }
+
+            // Copy the packet in the first free slot, growing it only if the packet doesn't fit
+            int tail = (head + count) % capacity;
+            int length = data.length;
+            if (payloads[tail].length < length) payloads[tail] = new byte[length];
+            System.arraycopy(data, 0, payloads[tail], 0, length);
+            msgIds[tail] = msgId;
+            rxTimes[tail] = rxTime;
+            lengths[tail] = length;
+            count++;
+            if (count > maxCount) maxCount = count;
+
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copy the oldest packet of the buffer in the given holder, waiting for a packet if the buffer
+     * is empty
+     *
+     * @param out The holder where the packet is copied
+     * @return True if a packet was extracted, false if the buffer has been closed and is empty
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public boolean take(Packet out) throws InterruptedException {
+        lock.lock();
+        try {
+            while (count == 0) {
+                if (closed) return false;
+                notEmpty.await();
+            }
+
+            int length = lengths[head];
+            if (out.data.length < length) out.data = new byte[length];
+            System.arraycopy(payloads[head], 0, out.data, 0, length);
+            out.msgId = msgIds[head];
+            out.rxTime = rxTimes[head];
+            out.length = length;
+
+            head = (head + 1) % capacity;
+            count--;
+
+            notFull.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close the buffer. Packets already stored can still be extracted, new packets are refused.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Check whether the buffer has been closed
+     *
+     * @return True if the buffer refuses new packets
+     */
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of packets waiting in the buffer
+     *
+     * @return The number of packets in the buffer
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Return the highest number of packets that waited in the buffer at the same time
+     *
+     * @return The maximum depth reached by the buffer
+     */
+    public int getMaxSize() {
+        lock.lock();
+        try {
+            return maxCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of packets discarded to make room for newer ones
+     *
+     * @return The number of oldest packets dropped
+     */
+    public long getDroppedOldest() {
+        lock.lock();
+        try {
+            return droppedOldest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of packets refused because the buffer was full
+     *
+     * @return The number of newest packets dropped
+     */
+    public long getDroppedNewest() {
+        lock.lock();
+        try {
+            return droppedNewest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the total number of packets dropped
+     *
+     * @return The number of packets dropped
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedOldest + droppedNewest;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import java.util.Arrays;
+
+/**
+ * This class decides whether a value of a slowly varying field has to be reported, keeping the
+ * last reported value of every field. A field in report-on-change mode is reported only when its
+ * value moves beyond the deadband from the last reported one, or when the heartbeat interval has
+ * elapsed since the last report. Fields not in report-on-change mode are always reported.
+ *
+ * The filter is used by the thread processing the packets of a single device, while the
+ * configuration can be replaced at any time by another thread.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class ReportOnChangeFilter {
+
+    private final double[] lastValues;
+    private final long[] lastTimes;
+    private final boolean[] reported;
+
+    // Replaced as a whole when the configuration changes
+    private volatile double[] deadbands;
+    private volatile long heartbeat;
+    private volatile boolean resetPending;
+
+    /**
+     * Create a filter where all the fields are always reported
+     *
+     * @param fields The number of fields handled by the filter
+     */
+    public ReportOnChangeFilter(int fields) {
+        lastValues = new double[fields];
+        lastTimes = new long[fields];
+        reported = new boolean[fields];
+        deadbands = new double[fields];
+        Arrays.fill(deadbands, Double.NaN);
+    }
+
+    /**
+     * Set the fields in report-on-change mode. The next value of every field is reported anyway.
+     *
+     * @param deadbands The deadband of every field, NaN for the fields that are always reported
+     * @param heartbeat The interval in milliseconds after which a value is reported even if it
+     *                  didn't change, 0 or less to report only changes
+     */
+    public void configure(double[] deadbands, long heartbeat) {
+        if (deadbands.length != lastValues.length) throw new IllegalArgumentException("Wrong number of deadbands!");
+
+        this.heartbeat = heartbeat;
+        this.deadbands = deadbands.clone();
+        resetPending = true;
+    }
+
+    /**
+     * Check whether a value has to be reported and, if so, remember it as the last reported one
+     *
+     * @param field The index of the field
+     * @param value The current value of the field
+     * @param timestamp The time the value refers to
+     * @return True if the value has to be reported, false if it can be skipped
+     */
+    public boolean shouldReport(int field, double value, long timestamp) {
+        if (resetPending) {
+            resetPending = false;
+            Arrays.fill(reported, false);
+        }
+
+        double deadband = deadbands[field];
+        if (Double.isNaN(deadband)) return true;
+
+        // Report the first value, any change beyond the deadband, a clock going back and the heartbeat
+        long interval = heartbeat;
+        if (!reported[field]
+                || Math.abs(value - lastValues[field]) > deadband
+                || timestamp < lastTimes[field]
+                || (interval > 0 && timestamp - lastTimes[field] >= interval)) {
+            reported[field] = true;
+            lastValues[field] = value;
+            lastTimes[field] = timestamp;
+            return true;
+        }
+
+        return false;
+    }
+}
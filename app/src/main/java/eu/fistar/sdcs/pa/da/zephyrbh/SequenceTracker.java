@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+/**
+ * This class detects the packets missing from the waveform streams of a device. Every packet of
+ * a stream covers a fixed number of samples, hence a fixed duration, so the number of packets lost
+ * between two consecutive ones is given by the distance of their timestamps. When the timestamps
+ * can't be trusted, because the clock of the device went back or jumped too far ahead, the one byte
+ * sequence number of the packets is used instead.
+ *
+ * The tracker is used by the thread processing the packets of a single device.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class SequenceTracker {
+
+    // Timestamp distance beyond which the clock of the device is considered changed
+    private static final long MAX_TRUSTED_GAP = 3600000L;
+
+    private final boolean[] started;
+    private final int[] lastSequences;
+    private final long[] lastTimes;
+
+    /**
+     * Create a tracker
+     *
+     * @param streams The number of streams handled by the tracker
+     */
+    public SequenceTracker(int streams) {
+        started = new boolean[streams];
+        lastSequences = new int[streams];
+        lastTimes = new long[streams];
+    }
+
+    /**
+     * Check the continuity of a stream with a new packet and remember the packet as the last one
+     *
+     * @param stream The index of the stream
+     * @param sequence The sequence number of the packet
+     * @param timestamp The timestamp of the first sample of the packet
+     * @param duration The duration covered by a packet of the stream
+     * @return The number of packets missing before this one, 0 if the stream is continuous or the
+     * packet is the first one of the stream
+     */
+    public int check(int stream, byte sequence, long timestamp, long duration) {
+        int current = sequence & 0xFF;
+        int lost = 0;
+
+        if (started[stream]) {
+            long elapsed = timestamp - lastTimes[stream];
+
+            if (elapsed > 0 && elapsed <= MAX_TRUSTED_GAP) {
+                // Round to the nearest number of packets, tolerating jitter up to half a packet
+                lost = (int) ((elapsed + duration / 2) / duration) - 1;
+            } else {
+                // A repeated sequence number means a repeated packet, not 255 lost ones
+                int skipped = (current - lastSequences[stream] - 1) & 0xFF;
+                lost = skipped == 0xFF ? 0 : skipped;
+            }
+        }
+
+        started[stream] = true;
+        lastSequences[stream] = current;
+        lastTimes[stream] = timestamp;
+
+        return Math.max(0, lost);
+    }
+
+    /**
+     * Forget the last packet of every stream, so that the next ones are not checked against it
+     */
+    public void reset() {
+        for (int i = 0; i < started.length; i++) {
+            started[i] = false;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import eu.fistar.sdcs.pa.common.Observation;
+import eu.fistar.sdcs.pa.common.SensorDescription;
+import eu.fistar.sdcs.pa.da.zephyrbh.utils.FastTimeConverter;
+import zephyr.android.BioHarnessBT.ConnectListenerImpl;
+
+/**
+ * This class processes the Summary Packet, sent once per second with the vital signs computed by
+ * the device together with their confidence, and sends every field to the DA as an individual
+ * observation, like the ones of the General Packet.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class SummaryPacketProcessor extends PacketProcessor {
+
+    private final ZephyrBHConnectedListener listener;
+    private final ConnectListenerImpl.SummaryPacketInfo summaryInfo;
+    private final FastTimeConverter timeConverter = new FastTimeConverter();
+
+    public SummaryPacketProcessor(ZephyrBHConnectedListener listener) {
+        super(ZephyrBHConstants.PACKET_TYPE_SUMMARY, ZephyrBHConstants.PACKET_SIZE_SUMMARY, ZephyrBHConstants.CONFIG_NAME_SUMMARY);
+        this.listener = listener;
+        summaryInfo = listener.new SummaryPacketInfo();
+    }
+
+    @Override
+    public void process(byte[] dataArray, int length) {
+
+        // Extract timestamp
+        long timestamp = timeConverter.timeToEpoch(
+                summaryInfo.GetTSYear(dataArray),
+                summaryInfo.GetTSMonth(dataArray),
+                summaryInfo.GetTSDay(dataArray),
+                summaryInfo.GetMsofDay(dataArray)
+        );
+
+        // Extract and send the vital signs, the heart rate as a decimal like the General Packet does
+        send(ZephyrBHConstants.SENSOR_HEART, Double.toString(summaryInfo.GetHeartRate(dataArray)), timestamp);
+        send(ZephyrBHConstants.SENSOR_RESPIRATION, Double.toString(summaryInfo.GetRespirationRate(dataArray)), timestamp);
+        send(ZephyrBHConstants.SENSOR_SKIN_TEMP, Double.toString(summaryInfo.GetSkinTemperature(dataArray)), timestamp);
+        send(ZephyrBHConstants.SENSOR_POSTURE, Integer.toString(summaryInfo.GetPosture(dataArray)), timestamp);
+        send(ZephyrBHConstants.SENSOR_ACTIVITY, Double.toString(summaryInfo.GetActivity(dataArray)), timestamp);
+        send(ZephyrBHConstants.SENSOR_PEAK_ACCELERATION, Double.toString(summaryInfo.GetPeakAcceleration(dataArray)), timestamp);
+        send(ZephyrBHConstants.SENSOR_HEART_RATE_VARIABILITY, Integer.toString(summaryInfo.GetHearRateVariability(dataArray)), timestamp);
+        send(ZephyrBHConstants.SENSOR_GSR, Integer.toString(summaryInfo.GetGSR(dataArray)), timestamp);
+
+        // Extract and send the quality of the signals
+        send(ZephyrBHConstants.SENSOR_BREATHING_WAVE_AMPLITUDE, Double.toString(summaryInfo.GetBreathingWaveAmplitude(dataArray)), timestamp);
+        send(ZephyrBHConstants.SENSOR_ECG_AMPLITUDE, Double.toString(summaryInfo.GetECGAmplitude(dataArray)), timestamp);
+        send(ZephyrBHConstants.SENSOR_ECG_NOISE, Double.toString(summaryInfo.GetECGNoise(dataArray)), timestamp);
+        send(ZephyrBHConstants.SENSOR_HEART_RATE_CONFIDENCE, Integer.toString(summaryInfo.GetHeartRateRateConfidence(dataArray) & 0xFF), timestamp);
+        send(ZephyrBHConstants.SENSOR_BREATHING_RATE_CONFIDENCE, Integer.toString(summaryInfo.GetBreathingRateConfidence(dataArray) & 0xFF), timestamp);
+        send(ZephyrBHConstants.SENSOR_SYSTEM_CONFIDENCE, Integer.toString(summaryInfo.GetSystemConfidence(dataArray) & 0xFF), timestamp);
+
+        // Extract and send the status of the device
+        send(ZephyrBHConstants.SENSOR_ROG_STATUS, Integer.toString(summaryInfo.GetROGStatus(dataArray)), timestamp);
+        send(ZephyrBHConstants.SENSOR_BATTERY_VOLTAGE, Double.toString(summaryInfo.GetBatteryVoltage(dataArray)), timestamp);
+        send(ZephyrBHConstants.SENSOR_BATTERY_STATUS, Integer.toString(summaryInfo.GetBatteryLevel(dataArray)), timestamp);
+        send(ZephyrBHConstants.SENSOR_DEVICE_TEMP, Double.toString(summaryInfo.GetDevice_Internal_Temperature(dataArray)), timestamp);
+    }
+
+    /**
+     * Send a single field of the Summary Packet to the DA
+     *
+     * @param sensor The sensor the field belongs to
+     * @param value The String representation of the field
+     * @param timestamp The timestamp of the packet
+     */
+    private void send(SensorDescription sensor, String value, long timestamp) {
+        Observation tmpObs = new Observation(sensor, new String[] {value});
+        tmpObs.setPhenomenonTime(timestamp);
+        listener.sendObservation(tmpObs);
+    }
+}
@@ -22,10 +22,25 @@
 
 package eu.fistar.sdcs.pa.da.zephyrbh;
 
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Map;
 
 import eu.fistar.sdcs.pa.common.Observation;
-import eu.fistar.sdcs.pa.da.zephyrbh.utils.TimeConverter;
+import eu.fistar.sdcs.pa.common.SensorDescription;
+import eu.fistar.sdcs.pa.da.zephyrbh.analysis.AccelerometerFeatures;
+import eu.fistar.sdcs.pa.da.zephyrbh.analysis.FirDecimator;
+import eu.fistar.sdcs.pa.da.zephyrbh.analysis.HrvEngine;
+import eu.fistar.sdcs.pa.da.zephyrbh.analysis.RPeakDetector;
+import eu.fistar.sdcs.pa.da.zephyrbh.capture.PacketCaptureWriter;
+import eu.fistar.sdcs.pa.da.zephyrbh.codec.WaveformEncoder;
+import eu.fistar.sdcs.pa.da.zephyrbh.utils.ConfigParser;
+import eu.fistar.sdcs.pa.da.zephyrbh.utils.FastTimeConverter;
+import eu.fistar.sdcs.pa.da.zephyrbh.utils.LatencyHistogram;
 import zephyr.android.BioHarnessBT.BTClient;
 import zephyr.android.BioHarnessBT.ConnectListenerImpl;
 import zephyr.android.BioHarnessBT.ConnectedEvent;
@@ -45,6 +60,43 @@ import zephyr.android.BioHarnessBT.ZephyrProtocol;
  */
 public class ZephyrBHConnectedListener extends ConnectListenerImpl {
 
+    private final static String LOGTAG_ZEPHYRBH_LISTENER = "ZephyrBH Listener >>>";
+
+    // Bits of the General Packet fields in the field mask
+    private static final int GENERAL_HEART_RATE = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_HEART_RATE);
+    private static final int GENERAL_RESPIRATION_RATE = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_RESPIRATION_RATE);
+    private static final int GENERAL_SKIN_TEMP = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_SKIN_TEMP);
+    private static final int GENERAL_POSTURE = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_POSTURE);
+    private static final int GENERAL_VMU = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_VMU);
+    private static final int GENERAL_PEAK_ACCELERATION = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_PEAK_ACCELERATION);
+    private static final int GENERAL_BATTERY_VOLTAGE = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_BATTERY_VOLTAGE);
+    private static final int GENERAL_BREATHING_WAVE_AMPLITUDE = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_BREATHING_WAVE_AMPLITUDE);
+    private static final int GENERAL_ECG_AMPLITUDE = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_ECG_AMPLITUDE);
+    private static final int GENERAL_ECG_NOISE = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_ECG_NOISE);
+    private static final int GENERAL_XAXIS_ACC_MIN = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_XAXIS_ACC_MIN);
+    private static final int GENERAL_XAXIS_ACC_PEAK = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_XAXIS_ACC_PEAK);
+    private static final int GENERAL_YAXIS_ACC_MIN = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_YAXIS_ACC_MIN);
+    private static final int GENERAL_YAXIS_ACC_PEAK = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_YAXIS_ACC_PEAK);
+    private static final int GENERAL_ZAXIS_ACC_MIN = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_ZAXIS_ACC_MIN);
+    private static final int GENERAL_ZAXIS_ACC_PEAK = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_ZAXIS_ACC_PEAK);
+    private static final int GENERAL_ZEPHYR_SYS_CHAN = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_ZEPHYR_SYS_CHAN);
+    private static final int GENERAL_GSR = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_GSR);
+    private static final int GENERAL_ROG_STATUS = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_ROG_STATUS);
+    private static final int GENERAL_ALARM_STS = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_ALARM_STS);
+    private static final int GENERAL_WORN_STATUS = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_WORN_STATUS);
+    private static final int GENERAL_USER_INTF_BTN_STATUS = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_USER_INTF_BTN_STATUS);
+    private static final int GENERAL_BH_SIG_LOW_STATUS = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_BH_SIG_LOW_STATUS);
+    private static final int GENERAL_BH_SENS_CONN_STATUS = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_BH_SENS_CONN_STATUS);
+    private static final int GENERAL_BATTERY_STATUS = generalFieldBit(ZephyrBHConstants.GENERAL_FIELD_BATTERY_STATUS);
+    private static final int GENERAL_ALL_FIELDS = (1 << ZephyrBHConstants.GENERAL_FIELD_LIST.size()) - 1;
+
+    // Waveform streams checked for missing packets
+    private static final int STREAM_ECG = 0;
+    private static final int STREAM_BREATHING = 1;
+    private static final int STREAM_R_TO_R = 2;
+    private static final int STREAM_ACCELEROMETER = 3;
+    private static final int STREAMS = 4;
+
     ZephyrBHDeviceAdapter deviceAdapter;
 
     private GeneralPacketInfo gpInfo = new GeneralPacketInfo();
@@ -54,10 +106,45 @@ public class ZephyrBHConnectedListener extends ConnectListenerImpl {
     private AccelerometerPacketInfo accInfoPacket = new AccelerometerPacketInfo();
 
     private PacketTypeRequest rqPacketType = new PacketTypeRequest();
+    private PacketProcessorRegistry processors = new PacketProcessorRegistry();
+    private WaveformEncoder waveformEncoder = new WaveformEncoder();
+    private FastTimeConverter timeConverter = new FastTimeConverter();
+    private ReportOnChangeFilter changeFilter = new ReportOnChangeFilter(ZephyrBHConstants.GENERAL_FIELD_LIST.size());
+    private SequenceTracker sequenceTracker = new SequenceTracker(STREAMS);
+    private HrvEngine hrvEngine;
+    private RPeakDetector rPeakDetector;
+    private AccelerometerFeatures accFeatures;
+    private FirDecimator ecgDecimator;
+    private FirDecimator breathingDecimator;
+    private FirDecimator accDecimatorX;
+    private FirDecimator accDecimatorY;
+    private FirDecimator accDecimatorZ;
+    private long lastHrvTime;
 
     private Map<String, String> config;
-    private ZephyrProtocol protocol;
+    // The protocol of the current connection, null while the device is reconnecting, and the
+    // Logging Packet request, both guarded by the listener
+    private volatile ZephyrProtocol protocol;
+    private boolean logging;
+    private long connectRequested;
+    private LatencyHistogram firstPacketHistogram;
     private String devId;
+    private volatile boolean binaryWaveforms;
+    private volatile boolean deltaWaveforms;
+    private volatile int generalFields = GENERAL_ALL_FIELDS;
+    private volatile boolean markGaps;
+    private volatile boolean hrvSummary;
+    private volatile boolean beatDetection;
+    private volatile boolean rawEcg;
+    private volatile boolean accelerometerFeatures;
+    private volatile boolean rawAccelerometer;
+    private volatile long accelerometerWindow = ZephyrBHConstants.DEFAULT_ACCELEROMETER_WINDOW;
+    private volatile int ecgDecimation = 1;
+    private volatile int breathingDecimation = 1;
+    private volatile int accelerometerDecimation = 1;
+    private volatile boolean rawRtoR;
+    private volatile long hrvWindow = ZephyrBHConstants.DEFAULT_HRV_WINDOW;
+    private volatile long hrvInterval = ZephyrBHConstants.DEFAULT_HRV_INTERVAL;
     ZephyrBHDevice device;
 
     public ZephyrBHConnectedListener(ZephyrBHDeviceAdapter deviceAdapter, String devId, Map<String, String> config) {
@@ -65,27 +152,47 @@ public class ZephyrBHConnectedListener extends ConnectListenerImpl {
         this.deviceAdapter = deviceAdapter;
         this.devId = devId;
         this.config = config;
+        registerProcessors();
     }
 
     @Override
     public void Connected(ConnectedEvent<BTClient> eventArgs) {
+        BTClient client = eventArgs.getSource();
+
+        // A device reconnecting within its window keeps its state, its dispatcher and its registration
+        boolean resumed = device != null;
+        long downtime = 0;
+        if (resumed) {
+            long since = device.reconnected(client);
+
+            // The device has been disconnected for good in the meantime
+            if (since == 0) {
+                client.removeConnectedEventListener(this);
+                client.Close();
+                return;
+            }
 
-        // Enable all the interesting info in the config object
-        rqPacketType.GP_ENABLE = ZephyrBHConstants.CONFIG_ENABLE.equals(config.get(ZephyrBHConstants.CONFIG_NAME_GENERAL));
-        rqPacketType.ECG_ENABLE = ZephyrBHConstants.CONFIG_ENABLE.equals(config.get(ZephyrBHConstants.CONFIG_NAME_ECG));
-        rqPacketType.BREATHING_ENABLE = ZephyrBHConstants.CONFIG_ENABLE.equals(config.get(ZephyrBHConstants.CONFIG_NAME_BREATHING));
-        rqPacketType.ACCELEROMETER_ENABLE = ZephyrBHConstants.CONFIG_ENABLE.equals(config.get(ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER));
-        rqPacketType.RtoR_ENABLE = ZephyrBHConstants.CONFIG_ENABLE.equals(config.get(ZephyrBHConstants.CONFIG_NAME_RTOR));
+            if (connectRequested != 0) device.getMetrics().connectRequested(connectRequested, firstPacketHistogram);
+            downtime = System.currentTimeMillis() - since;
+            markConnectionGap(since, downtime);
+        } else {
+            // Create the device, enabling the packet processors according to the configuration
+            createDevice(client);
+        }
 
         // Create a new protocol instance passing it the BTComms object and the configuration
-        protocol = new ZephyrProtocol(eventArgs.getSource().getComms(), rqPacketType);
+        ZephyrProtocol tmpProtocol = openProtocol(client);
 
         // Notify the Device Adapter's main class of the device connection (to let it register the new device with the Protocol Adapter)
-        device = new ZephyrBHDevice(devId, eventArgs.getSource(), this);
-        deviceAdapter.deviceConnected(device);
+        if (resumed) {
+            deviceAdapter.deviceReconnected(device, downtime);
+        } else if (!deviceAdapter.deviceConnected(device)) {
+            // The connection was cancelled in the meantime
+            return;
+        }
 
         // Add a listener for the packet receiving
-        protocol.addZephyrPacketEventListener(new ZephyrPacketListener() {
+        tmpProtocol.addZephyrPacketEventListener(new ZephyrPacketListener() {
 
             /**
              * Callback invoked by BioHarness library when a packet is received from the device
@@ -95,51 +202,195 @@ public class ZephyrBHConnectedListener extends ConnectListenerImpl {
             @Override
             public void ReceivedPacket(ZephyrPacketEvent zephyrPacketEvent) {
 
-                // Extract the received packet from the event and parse the attached data
+                // Extract the received packet from the event, discard it if corrupted and hand it over to the dispatcher thread
                 ZephyrPacketArgs msg = zephyrPacketEvent.getPacket();
-                // byte crcStatus = msg.getCRCStatus();
-                // byte rcvdBytes = msg.getNumRvcdBytes();
-                int msgId = msg.getMsgID();
-                byte [] dataArray = msg.getBytes();
-
-                // Find out the packet type and do the right action
-                switch (msgId) {
-                    case ZephyrBHConstants.PACKET_TYPE_GENERAL:
-                        processPacketGeneral(dataArray);
-                        break;
-
-                    case ZephyrBHConstants.PACKET_TYPE_ID_BREATHING:
-                        processPacketBreath(dataArray);
-                        break;
-
-                    case ZephyrBHConstants.PACKET_TYPE_ECG:
-                        processPacketEcg(dataArray);
-                        break;
-
-                    case ZephyrBHConstants.PACKET_TYPE_ID_R_TO_R:
-                        processPacketRtor(dataArray);
-                        break;
-
-                    case ZephyrBHConstants.PACKET_TYPE_ID_ACCEL:
-                        processPacketAccel(dataArray);
-                        break;
+                if (msg.getCRCStatus() != ZephyrBHConstants.PACKET_CRC_OK) {
+                    device.getMetrics().packetCorrupted(msg.getMsgID());
+                    return;
                 }
+                receivedPacket(msg.getMsgID(), msg.getBytes());
+            }
+        });
+
+        // Start processing the received packets, the dispatcher of a device reconnecting is already running
+        if (!resumed) device.getDispatcher().start();
+    }
+
+    /**
+     * Create the protocol of a new connection, requesting the packets whose processors are enabled,
+     * including the ones enabled or disabled while the device was reconnecting
+     *
+     * @param client The Bluetooth client connected to the device
+     * @return The protocol of the connection
+     */
+    private synchronized ZephyrProtocol openProtocol(BTClient client) {
+        rqPacketType.GP_ENABLE = processors.isEnabled(ZephyrBHConstants.PACKET_TYPE_GENERAL);
+        rqPacketType.ECG_ENABLE = processors.isEnabled(ZephyrBHConstants.PACKET_TYPE_ECG);
+        rqPacketType.BREATHING_ENABLE = processors.isEnabled(ZephyrBHConstants.PACKET_TYPE_ID_BREATHING);
+        rqPacketType.ACCELEROMETER_ENABLE = processors.isEnabled(ZephyrBHConstants.PACKET_TYPE_ID_ACCEL);
+        rqPacketType.RtoR_ENABLE = processors.isEnabled(ZephyrBHConstants.PACKET_TYPE_ID_R_TO_R);
+        rqPacketType.SUMMARY_ENABLE = processors.isEnabled(ZephyrBHConstants.PACKET_TYPE_SUMMARY);
+        rqPacketType.EVENT_ENABLE = processors.isEnabled(ZephyrBHConstants.PACKET_TYPE_EVENT);
+        rqPacketType.LOGGING_ENABLE = logging;
+
+        protocol = new ZephyrProtocol(client.getComms(), rqPacketType);
+        return protocol;
+    }
+
+    /**
+     * Forget the protocol of the connection lost, so that the commands changing the packets sent
+     * by the device are only recorded, and requested when the device reconnects
+     */
+    synchronized void connectionLost() {
+        protocol = null;
+    }
+
+    /**
+     * Send an observation marking the time the device was disconnected, so that the data before
+     * and after the gap are not joined
+     *
+     * @param since The time the connection was lost
+     * @param duration The time the device was disconnected, in milliseconds
+     */
+    private void markConnectionGap(long since, long duration) {
+        Observation gap = new Observation(ZephyrBHConstants.SENSOR_CONNECTION_GAP, new String[] {Long.toString(duration)});
+        gap.setPhenomenonTime(since);
+        gap.setDuration(duration);
+        deviceAdapter.receivedMeasurement(gap, device);
+    }
+
+    /**
+     * Set the time the connection to the device was requested, so that the time to its first
+     * packet is recorded in the metrics of the device
+     *
+     * @param requested The time of the request, as given by System.nanoTime()
+     * @param histogram The histogram the time to the first packet is also recorded in, or null
+     */
+    void setConnectRequested(long requested, LatencyHistogram histogram) {
+        connectRequested = requested;
+        firstPacketHistogram = histogram;
+    }
+
+    /**
+     * Create the device handled by this listener, along with its batcher and its dispatcher, and
+     * apply the configuration to it. The dispatcher is not started.
+     *
+     * @param client The Bluetooth client connected to the device, if any
+     * @return The device created
+     */
+    ZephyrBHDevice createDevice(BTClient client) {
+        device = new ZephyrBHDevice(devId, client, this);
+        device.setBatcher(new ObservationBatcher(deviceAdapter, device, deviceAdapter.getScheduler(),
+                deviceAdapter.getDeliveryExecutor()));
+        device.setDispatcher(new PacketDispatcher(devId, new PacketRingBuffer(
+                ConfigParser.getInt(config, ZephyrBHConstants.CONFIG_NAME_BUFFER_CAPACITY, ZephyrBHConstants.DEFAULT_BUFFER_CAPACITY),
+                getOverflowPolicy()), this, device.getMetrics()));
+        if (connectRequested != 0) device.getMetrics().connectRequested(connectRequested, firstPacketHistogram);
+        applyConfig();
+        return device;
+    }
+
+    /**
+     * Hand a packet received from the device over to the dispatcher thread. This is invoked by the
+     * Bluetooth receive thread, or by the replay thread for a virtual device.
+     *
+     * @param msgId The message ID of the packet
+     * @param data The payload of the packet
+     * @return True if the packet was accepted, false if it was dropped
+     */
+    boolean receivedPacket(int msgId, byte[] data) {
+
+        // A packet shorter than its type requires would be parsed out of its bounds
+        if (data.length < processors.getMinimumSize(msgId)) {
+            device.getMetrics().packetMalformed(msgId);
+            return false;
+        }
+
+        return device.getDispatcher().dispatch(msgId, data, System.currentTimeMillis());
+    }
+
+    /**
+     * Parse a packet received from the device with the processor of its type, ignoring it if the
+     * processor is disabled or missing. This is invoked by the dispatcher thread of the device.
+     *
+     * @param msgId The message ID of the packet
+     * @param dataArray The payload of the packet
+     * @param length The length of the payload
+     */
+    void processPacket(int msgId, byte[] dataArray, int length) {
+        if (!processors.process(msgId, dataArray, length)) device.getMetrics().packetIgnored(msgId);
+    }
+
+    /**
+     * Send an observation of the device to the DA. This is invoked by the packet processors.
+     *
+     * @param observation The observation
+     */
+    void sendObservation(Observation observation) {
+        deviceAdapter.receivedMeasurement(observation, device);
+    }
+
+    /**
+     * Register the processors of the packet types handled by the Device Adapter. The processors
+     * of the waveforms and of the General Packet keep their state in the listener, the others are
+     * standalone classes.
+     */
+    private void registerProcessors() {
+        processors.register(new PacketProcessor(ZephyrBHConstants.PACKET_TYPE_GENERAL, ZephyrBHConstants.PACKET_SIZE_GENERAL,
+                ZephyrBHConstants.CONFIG_NAME_GENERAL) {
+            @Override
+            public void process(byte[] data, int length) {
+                processPacketGeneral(data);
             }
         });
+        processors.register(new PacketProcessor(ZephyrBHConstants.PACKET_TYPE_ID_BREATHING, ZephyrBHConstants.PACKET_SIZE_BREATHING,
+                ZephyrBHConstants.CONFIG_NAME_BREATHING) {
+            @Override
+            public void process(byte[] data, int length) {
+                processPacketBreath(data);
+            }
+        });
+        processors.register(new PacketProcessor(ZephyrBHConstants.PACKET_TYPE_ECG, ZephyrBHConstants.PACKET_SIZE_ECG,
+                ZephyrBHConstants.CONFIG_NAME_ECG, ZephyrBHConstants.CONFIG_NAME_BEAT_DETECTION) {
+            @Override
+            public void process(byte[] data, int length) {
+                processPacketEcg(data);
+            }
+        });
+        processors.register(new PacketProcessor(ZephyrBHConstants.PACKET_TYPE_ID_R_TO_R, ZephyrBHConstants.PACKET_SIZE_R_TO_R,
+                ZephyrBHConstants.CONFIG_NAME_RTOR, ZephyrBHConstants.CONFIG_NAME_HRV_SUMMARY) {
+            @Override
+            public void process(byte[] data, int length) {
+                processPacketRtor(data);
+            }
+        });
+        processors.register(new PacketProcessor(ZephyrBHConstants.PACKET_TYPE_ID_ACCEL, ZephyrBHConstants.PACKET_SIZE_ACCEL,
+                ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER, ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER_FEATURES) {
+            @Override
+            public void process(byte[] data, int length) {
+                processPacketAccel(data);
+            }
+        });
+        processors.register(new SummaryPacketProcessor(this));
+        processors.register(new EventPacketProcessor(this));
     }
 
     /**
-     * Process all the info retrieved with the General Packet and send them individually to the DA
+     * Process the info retrieved with the General Packet and send them individually to the DA. Only the
+     * fields subscribed in the configuration are decoded, and the ones in report-on-change
+     * mode are sent only when they change.
      *
      * @param dataArray
      *      The General Packet binary representation
      */
     private void processPacketGeneral(byte[] dataArray) {
 
-        Observation tmpObs;
+        // Skip the packet altogether if no field is subscribed
+        int fields = generalFields;
+        if (fields == 0) return;
 
         // Extract timestamp
-        long timestamp = TimeConverter.timeToEpoch(
+        long timestamp = timeConverter.timeToEpoch(
                 gpInfo.GetTSYear(dataArray),
                 gpInfo.GetTSMonth(dataArray),
                 gpInfo.GetTSDay(dataArray),
@@ -147,130 +398,120 @@ public class ZephyrBHConnectedListener extends ConnectListenerImpl {
         );
 
         // Extract and send Hearth Rate
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_HEART, new String[] {Double.toString(gpInfo.GetHeartRate(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_HEART_RATE) != 0) sendGeneralField(GENERAL_HEART_RATE, ZephyrBHConstants.SENSOR_HEART, (double) gpInfo.GetHeartRate(dataArray), timestamp);
 
         // Extract and send Respiration Rate
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_RESPIRATION, new String[] {Double.toString(gpInfo.GetRespirationRate(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_RESPIRATION_RATE) != 0) sendGeneralField(GENERAL_RESPIRATION_RATE, ZephyrBHConstants.SENSOR_RESPIRATION, gpInfo.GetRespirationRate(dataArray), timestamp);
 
         // Extract and send Skin Temperature
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_SKIN_TEMP, new String[] {Double.toString(gpInfo.GetSkinTemperature(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_SKIN_TEMP) != 0) sendGeneralField(GENERAL_SKIN_TEMP, ZephyrBHConstants.SENSOR_SKIN_TEMP, gpInfo.GetSkinTemperature(dataArray), timestamp);
 
         // Extract and send Posture
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_POSTURE, new String[] {Integer.toString(gpInfo.GetPosture(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_POSTURE) != 0) sendGeneralField(GENERAL_POSTURE, ZephyrBHConstants.SENSOR_POSTURE, gpInfo.GetPosture(dataArray), timestamp);
 
         // Extract and send VMU
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_VMU, new String[] {Double.toString(gpInfo.GetVMU(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_VMU) != 0) sendGeneralField(GENERAL_VMU, ZephyrBHConstants.SENSOR_VMU, gpInfo.GetVMU(dataArray), timestamp);
 
         // Extract and send Peak Acceleration
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_PEAK_ACCELERATION, new String[] {Double.toString(gpInfo.GetPeakAcceleration(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_PEAK_ACCELERATION) != 0) sendGeneralField(GENERAL_PEAK_ACCELERATION, ZephyrBHConstants.SENSOR_PEAK_ACCELERATION, gpInfo.GetPeakAcceleration(dataArray), timestamp);
 
         // Extract and send Battery Voltage
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_BATTERY_VOLTAGE, new String[] {Double.toString(gpInfo.GetBatteryVoltage(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_BATTERY_VOLTAGE) != 0) sendGeneralField(GENERAL_BATTERY_VOLTAGE, ZephyrBHConstants.SENSOR_BATTERY_VOLTAGE, gpInfo.GetBatteryVoltage(dataArray), timestamp);
 
         // Extract and send Breathing Wave Amplitude
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_BREATHING_WAVE_AMPLITUDE, new String[] {Double.toString(gpInfo.GetBreathingWaveAmplitude(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_BREATHING_WAVE_AMPLITUDE) != 0) sendGeneralField(GENERAL_BREATHING_WAVE_AMPLITUDE, ZephyrBHConstants.SENSOR_BREATHING_WAVE_AMPLITUDE, gpInfo.GetBreathingWaveAmplitude(dataArray), timestamp);
 
         // Extract and send ECG Amplitude
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_ECG_AMPLITUDE, new String[] {Double.toString(gpInfo.GetECGAmplitude(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_ECG_AMPLITUDE) != 0) sendGeneralField(GENERAL_ECG_AMPLITUDE, ZephyrBHConstants.SENSOR_ECG_AMPLITUDE, gpInfo.GetECGAmplitude(dataArray), timestamp);
 
         // Extract and send ECG Noise
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_ECG_NOISE, new String[] {Double.toString(gpInfo.GetECGNoise(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_ECG_NOISE) != 0) sendGeneralField(GENERAL_ECG_NOISE, ZephyrBHConstants.SENSOR_ECG_NOISE, gpInfo.GetECGNoise(dataArray), timestamp);
 
         // Extract and send X Axis Acc Min
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_XAXIS_ACC_MIN, new String[] {Double.toString(gpInfo.GetX_AxisAccnMin(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_XAXIS_ACC_MIN) != 0) sendGeneralField(GENERAL_XAXIS_ACC_MIN, ZephyrBHConstants.SENSOR_XAXIS_ACC_MIN, gpInfo.GetX_AxisAccnMin(dataArray), timestamp);
 
         // Extract and send X Axis Acc Peak
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_XAXIS_ACC_PEAK, new String[] {Double.toString(gpInfo.GetX_AxisAccnPeak(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_XAXIS_ACC_PEAK) != 0) sendGeneralField(GENERAL_XAXIS_ACC_PEAK, ZephyrBHConstants.SENSOR_XAXIS_ACC_PEAK, gpInfo.GetX_AxisAccnPeak(dataArray), timestamp);
 
         // Extract and send Y Axis Acc Min
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_YAXIS_ACC_MIN, new String[] {Double.toString(gpInfo.GetY_AxisAccnMin(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_YAXIS_ACC_MIN) != 0) sendGeneralField(GENERAL_YAXIS_ACC_MIN, ZephyrBHConstants.SENSOR_YAXIS_ACC_MIN, gpInfo.GetY_AxisAccnMin(dataArray), timestamp);
 
         // Extract and send Y Axis Acc Peak
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_YAXIS_ACC_PEAK, new String[] {Double.toString(gpInfo.GetY_AxisAccnPeak(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_YAXIS_ACC_PEAK) != 0) sendGeneralField(GENERAL_YAXIS_ACC_PEAK, ZephyrBHConstants.SENSOR_YAXIS_ACC_PEAK, gpInfo.GetY_AxisAccnPeak(dataArray), timestamp);
 
         // Extract and send Z Axis Acc Min
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_ZAXIS_ACC_MIN, new String[] {Double.toString(gpInfo.GetZ_AxisAccnMin(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_ZAXIS_ACC_MIN) != 0) sendGeneralField(GENERAL_ZAXIS_ACC_MIN, ZephyrBHConstants.SENSOR_ZAXIS_ACC_MIN, gpInfo.GetZ_AxisAccnMin(dataArray), timestamp);
 
         // Extract and send Z Axis Acc Peak
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_ZAXIS_ACC_PEAK, new String[] {Double.toString(gpInfo.GetZ_AxisAccnPeak(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_ZAXIS_ACC_PEAK) != 0) sendGeneralField(GENERAL_ZAXIS_ACC_PEAK, ZephyrBHConstants.SENSOR_ZAXIS_ACC_PEAK, gpInfo.GetZ_AxisAccnPeak(dataArray), timestamp);
 
         // Extract and send Zephyr Sys Chan
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_ZEPHYR_SYS_CHAN, new String[] {Integer.toString(gpInfo.GetZephyrSysChan(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_ZEPHYR_SYS_CHAN) != 0) sendGeneralField(GENERAL_ZEPHYR_SYS_CHAN, ZephyrBHConstants.SENSOR_ZEPHYR_SYS_CHAN, gpInfo.GetZephyrSysChan(dataArray), timestamp);
 
         // Extract and send GSR
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_GSR, new String[] {Integer.toString(gpInfo.GetGSR(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_GSR) != 0) sendGeneralField(GENERAL_GSR, ZephyrBHConstants.SENSOR_GSR, gpInfo.GetGSR(dataArray), timestamp);
 
         // Extract and send ROG Status
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_ROG_STATUS, new String[] {Integer.toString((int) gpInfo.GetROGStatus(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_ROG_STATUS) != 0) sendGeneralField(GENERAL_ROG_STATUS, ZephyrBHConstants.SENSOR_ROG_STATUS, (int) gpInfo.GetROGStatus(dataArray), timestamp);
 
         // Extract and send Alarm STS
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_ALARM_STS, new String[] {Integer.toString((int) gpInfo.GetAlarmStatus(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_ALARM_STS) != 0) sendGeneralField(GENERAL_ALARM_STS, ZephyrBHConstants.SENSOR_ALARM_STS, (int) gpInfo.GetAlarmStatus(dataArray), timestamp);
 
         // Extract and send Worn Status
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_WORN_STATUS, new String[] {Integer.toString((int) gpInfo.GetWornStatus(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_WORN_STATUS) != 0) sendGeneralField(GENERAL_WORN_STATUS, ZephyrBHConstants.SENSOR_WORN_STATUS, (int) gpInfo.GetWornStatus(dataArray), timestamp);
 
         // Extract and send User Intf Button Status
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_USER_INTF_BTN_STATUS, new String[] {Integer.toString((int) gpInfo.GetUserIntfBtnStatus(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_USER_INTF_BTN_STATUS) != 0) sendGeneralField(GENERAL_USER_INTF_BTN_STATUS, ZephyrBHConstants.SENSOR_USER_INTF_BTN_STATUS, (int) gpInfo.GetUserIntfBtnStatus(dataArray), timestamp);
 
         // Extract and send BH Sig Low Status
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_BH_SIG_LOW_STATUS, new String[] {Integer.toString((int) gpInfo._GetBHSigLowStatus(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_BH_SIG_LOW_STATUS) != 0) sendGeneralField(GENERAL_BH_SIG_LOW_STATUS, ZephyrBHConstants.SENSOR_BH_SIG_LOW_STATUS, (int) gpInfo._GetBHSigLowStatus(dataArray), timestamp);
 
         // Extract and send BH Sens Conn Status
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_BH_SENS_CONN_STATUS, new String[] {Integer.toString((int) gpInfo.GetBHSensConnStatus(dataArray))});
-        tmpObs.setPhenomenonTime(timestamp);
-        deviceAdapter.receivedMeasurement(tmpObs, device);
+        if ((fields & GENERAL_BH_SENS_CONN_STATUS) != 0) sendGeneralField(GENERAL_BH_SENS_CONN_STATUS, ZephyrBHConstants.SENSOR_BH_SENS_CONN_STATUS, (int) gpInfo.GetBHSensConnStatus(dataArray), timestamp);
 
         // Extract and send Battery Status
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_BATTERY_STATUS, new String[] {Integer.toString((int) gpInfo.GetBatteryStatus(dataArray))});
+        if ((fields & GENERAL_BATTERY_STATUS) != 0) sendGeneralField(GENERAL_BATTERY_STATUS, ZephyrBHConstants.SENSOR_BATTERY_STATUS, (int) gpInfo.GetBatteryStatus(dataArray), timestamp);
+    }
+
+    /**
+     * Send a numeric field of the General Packet to the DA, unless it's in report-on-change mode
+     * and it didn't change
+     *
+     * @param bit The bit of the field in the field mask
+     * @param sensor The sensor the field belongs to
+     * @param value The value of the field
+     * @param timestamp The timestamp of the packet
+     */
+    private void sendGeneralField(int bit, SensorDescription sensor, double value, long timestamp) {
+        if (!changeFilter.shouldReport(Integer.numberOfTrailingZeros(bit), value, timestamp)) return;
+        sendGeneralObservation(sensor, Double.toString(value), timestamp);
+    }
+
+    /**
+     * Send an integer field of the General Packet to the DA, unless it's in report-on-change mode
+     * and it didn't change
+     *
+     * @param bit The bit of the field in the field mask
+     * @param sensor The sensor the field belongs to
+     * @param value The value of the field
+     * @param timestamp The timestamp of the packet
+     */
+    private void sendGeneralField(int bit, SensorDescription sensor, int value, long timestamp) {
+        if (!changeFilter.shouldReport(Integer.numberOfTrailingZeros(bit), value, timestamp)) return;
+        sendGeneralObservation(sensor, Integer.toString(value), timestamp);
+    }
+
+    /**
+     * Send a single field of the General Packet to the DA
+     *
+     * @param sensor The sensor the field belongs to
+     * @param value The String representation of the field
+     * @param timestamp The timestamp of the packet
+     */
+    private void sendGeneralObservation(SensorDescription sensor, String value, long timestamp) {
+        Observation tmpObs = new Observation(sensor, new String[] {value});
         tmpObs.setPhenomenonTime(timestamp);
         deviceAdapter.receivedMeasurement(tmpObs, device);
-
     }
 
     /**
@@ -285,26 +526,53 @@ public class ZephyrBHConnectedListener extends ConnectListenerImpl {
         short[] samples;
 
         // Extract timestamp
-        long timestamp = TimeConverter.timeToEpoch(
+        long timestamp = timeConverter.timeToEpoch(
                 ecgInfoPacket.GetTSYear(dataArray),
                 ecgInfoPacket.GetTSMonth(dataArray),
                 ecgInfoPacket.GetTSDay(dataArray),
                 ecgInfoPacket.GetMsofDay(dataArray)
         );
+        int lost = checkContinuity(STREAM_ECG, ZephyrBHConstants.PACKET_TYPE_ECG, ecgInfoPacket.GetSeqNum(dataArray),
+                timestamp, ZephyrBHConstants.SAMPLES_ECG_DURATION, ZephyrBHConstants.CONFIG_NAME_ECG);
 
         // Extract ECG Data
         samples = ecgInfoPacket.GetECGSamples(dataArray);
-        String[] strSamples = new String[samples.length];
 
-        // Convert short values to String
-        for (int i = 0; i < samples.length; i++) {
-            strSamples[i] = Short.toString(samples[i]);
+        // Find the beats, sending one observation with the instantaneous heart rate for each of them
+        if (beatDetection) {
+            if (rPeakDetector == null) rPeakDetector = new RPeakDetector();
+            if (lost > 0) rPeakDetector.breakSequence();
+
+            int beats = rPeakDetector.addSamples(samples, samples.length, timestamp);
+            for (int i = 0; i < beats; i++) {
+                int interval = rPeakDetector.getBeatInterval(i);
+                if (interval == 0) continue;
+
+                tmpObs = new Observation(ZephyrBHConstants.SENSOR_HEART_BEAT, new String[] {Double.toString(60000.0 / interval)});
+                tmpObs.setPhenomenonTime(rPeakDetector.getBeatTime(i));
+                tmpObs.setDuration(0);
+                deviceAdapter.receivedMeasurement(tmpObs, device);
+            }
+
+            // The beats replace the raw samples, unless they are explicitly enabled
+            if (!rawEcg) return;
+        }
+
+        // Decimate the samples if a lower rate is required
+        int count = samples.length;
+        long duration = ZephyrBHConstants.SAMPLES_ECG_DURATION;
+        ecgDecimator = decimator(ecgDecimator, ecgDecimation, ZephyrBHConstants.SAMPLES_ECG_PERIOD, lost);
+        if (ecgDecimator != null) {
+            count = ecgDecimator.decimate(samples, count);
+            if (count == 0) return;
+            timestamp = ecgDecimator.getOutputTime(timestamp);
+            duration = count * ecgDecimator.getOutputPeriod();
         }
 
         // Create the Observation object
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_ECG, strSamples);
+        tmpObs = new Observation(ZephyrBHConstants.SENSOR_ECG, waveformValues(samples, count));
         tmpObs.setPhenomenonTime(timestamp);
-        tmpObs.setDuration(ZephyrBHConstants.SAMPLES_ECG_DURATION);
+        tmpObs.setDuration(duration);
 
         // Send data to Device Adapter
         deviceAdapter.receivedMeasurement(tmpObs, device);
@@ -322,26 +590,33 @@ public class ZephyrBHConnectedListener extends ConnectListenerImpl {
         short[] samples;
 
         // Extract timestamp
-        long timestamp = TimeConverter.timeToEpoch(
+        long timestamp = timeConverter.timeToEpoch(
                 breathingInfoPacket.GetTSYear(dataArray),
                 breathingInfoPacket.GetTSMonth(dataArray),
                 breathingInfoPacket.GetTSDay(dataArray),
                 breathingInfoPacket.GetMsofDay(dataArray)
         );
+        int lost = checkContinuity(STREAM_BREATHING, ZephyrBHConstants.PACKET_TYPE_ID_BREATHING, breathingInfoPacket.GetSeqNum(dataArray),
+                timestamp, ZephyrBHConstants.SAMPLES_BREATHING_DURATION, ZephyrBHConstants.CONFIG_NAME_BREATHING);
 
         // Extract Breathing Data
         samples = breathingInfoPacket.GetBreathingSamples(dataArray);
-        String[] strSamples = new String[samples.length];
 
-        // Convert short values to String
-        for (int i = 0; i < samples.length; i++) {
-            strSamples[i] = Short.toString(samples[i]);
+        // Decimate the samples if a lower rate is required
+        int count = samples.length;
+        long duration = ZephyrBHConstants.SAMPLES_BREATHING_DURATION;
+        breathingDecimator = decimator(breathingDecimator, breathingDecimation, ZephyrBHConstants.SAMPLES_BREATHING_PERIOD, lost);
+        if (breathingDecimator != null) {
+            count = breathingDecimator.decimate(samples, count);
+            if (count == 0) return;
+            timestamp = breathingDecimator.getOutputTime(timestamp);
+            duration = count * breathingDecimator.getOutputPeriod();
         }
 
         // Create the Observation object
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_BREATHING, strSamples);
+        tmpObs = new Observation(ZephyrBHConstants.SENSOR_BREATHING, waveformValues(samples, count));
         tmpObs.setPhenomenonTime(timestamp);
-        tmpObs.setDuration(ZephyrBHConstants.SAMPLES_BREATHING_DURATION);
+        tmpObs.setDuration(duration);
 
         // Send data to Device Adapter
         deviceAdapter.receivedMeasurement(tmpObs, device);
@@ -359,24 +634,40 @@ public class ZephyrBHConnectedListener extends ConnectListenerImpl {
         int[] samples;
 
         // Extract timestamp
-        long timestamp = TimeConverter.timeToEpoch(
+        long timestamp = timeConverter.timeToEpoch(
                 rToRInfoPacket.GetTSYear(dataArray),
                 rToRInfoPacket.GetTSMonth(dataArray),
                 rToRInfoPacket.GetTSDay(dataArray),
                 rToRInfoPacket.GetMsofDay(dataArray)
         );
+        int lost = checkContinuity(STREAM_R_TO_R, ZephyrBHConstants.PACKET_TYPE_ID_R_TO_R, rToRInfoPacket.GetSeqNum(dataArray),
+                timestamp, ZephyrBHConstants.SAMPLES_R_TO_R_DURATION, ZephyrBHConstants.CONFIG_NAME_RTOR);
 
         // Extract RtoR Data
         samples = rToRInfoPacket.GetRtoRSamples(dataArray);
-        String[] strSamples = new String[samples.length];
 
-        // Convert short values to String
-        for (int i = 0; i < samples.length; i++) {
-            strSamples[i] = Short.toString((short) samples[i]);
+        // Feed the HRV engine, replacing it if the window changed, and send a summary when it's due
+        if (hrvSummary) {
+            long window = hrvWindow;
+            if (hrvEngine == null || hrvEngine.getWindow() != window) {
+                hrvEngine = new HrvEngine(window);
+                lastHrvTime = timestamp;
+            }
+            if (lost > 0) hrvEngine.breakSequence();
+            hrvEngine.addRtoRSamples(samples);
+
+            long end = timestamp + ZephyrBHConstants.SAMPLES_R_TO_R_DURATION;
+            if (end - lastHrvTime >= hrvInterval || end < lastHrvTime) {
+                pushHrvSummary(end);
+                lastHrvTime = end;
+            }
+
+            // The summary replaces the raw samples, unless they are explicitly enabled
+            if (!rawRtoR) return;
         }
 
         // Create the Observation object
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_R_TO_R, strSamples);
+        tmpObs = new Observation(ZephyrBHConstants.SENSOR_R_TO_R, waveformValues(samples));
         tmpObs.setPhenomenonTime(timestamp);
         tmpObs.setDuration(ZephyrBHConstants.SAMPLES_R_TO_R_DURATION);
 
@@ -398,108 +689,510 @@ public class ZephyrBHConnectedListener extends ConnectListenerImpl {
         double[] samplesZ;
 
         // Extract timestamp
-        long timestamp = TimeConverter.timeToEpoch(
+        long timestamp = timeConverter.timeToEpoch(
                 accInfoPacket.GetTSYear(dataArray),
                 accInfoPacket.GetTSMonth(dataArray),
                 accInfoPacket.GetTSDay(dataArray),
                 accInfoPacket.GetMsofDay(dataArray)
         );
+        int lost = checkContinuity(STREAM_ACCELEROMETER, ZephyrBHConstants.PACKET_TYPE_ID_ACCEL, accInfoPacket.GetSeqNum(dataArray),
+                timestamp, ZephyrBHConstants.SAMPLES_ACCELEROMETER_DURATION, ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER);
 
         // Extract Acceleration Data
         accInfoPacket.UnpackAccelerationData(dataArray);
         samplesX = accInfoPacket.GetX_axisAccnData();
-        String[] strSamplesX = new String[samplesX.length];
         samplesY = accInfoPacket.GetY_axisAccnData();
-        String[] strSamplesY = new String[samplesY.length];
         samplesZ = accInfoPacket.GetZ_axisAccnData();
-        String[] strSamplesZ = new String[samplesZ.length];
 
-        // Convert double values to String
-        for (int i = 0; i < samplesX.length; i++) {
-            strSamplesX[i] = Double.toString(samplesX[i]);
-        }
+        // Extract the features, sending the ones of every window completed and the impacts found
+        if (accelerometerFeatures) {
+            long window = accelerometerWindow;
+            if (accFeatures == null || accFeatures.getWindow() != window) accFeatures = new AccelerometerFeatures(window);
+            else if (lost > 0) accFeatures.reset();
+
+            if (accFeatures.addSamples(samplesX, samplesY, samplesZ, samplesX.length, timestamp)) {
+                long time = accFeatures.getFeaturesTime();
+                long duration = accFeatures.getFeaturesDuration();
+                pushFeature(ZephyrBHConstants.SENSOR_VECTOR_MAGNITUDE, accFeatures.getMeanMagnitude(), time, duration);
+                pushFeature(ZephyrBHConstants.SENSOR_ACTIVITY_COUNTS, accFeatures.getActivityCounts(), time, duration);
+                pushFeature(ZephyrBHConstants.SENSOR_STEP_CADENCE, accFeatures.getCadence(), time, duration);
+                pushFeature(ZephyrBHConstants.SENSOR_POSTURE_CHANGE, accFeatures.getPostureChange(), time, duration);
+            }
+            for (int i = 0; i < accFeatures.getImpacts(); i++) {
+                pushFeature(ZephyrBHConstants.SENSOR_IMPACT, accFeatures.getImpactPeak(i), accFeatures.getImpactTime(i), 0);
+            }
 
-        for (int i = 0; i < samplesY.length; i++) {
-            strSamplesY[i] = Double.toString(samplesY[i]);
+            // The features replace the raw samples, unless they are explicitly enabled
+            if (!rawAccelerometer) return;
         }
 
-        for (int i = 0; i < samplesZ.length; i++) {
-            strSamplesZ[i] = Double.toString(samplesZ[i]);
+        // Decimate the samples if a lower rate is required, the three axes have the same rate
+        int count = samplesX.length;
+        long duration = ZephyrBHConstants.SAMPLES_ACCELEROMETER_DURATION;
+        accDecimatorX = decimator(accDecimatorX, accelerometerDecimation, ZephyrBHConstants.SAMPLES_ACCELEROMETER_PERIOD, lost);
+        accDecimatorY = decimator(accDecimatorY, accelerometerDecimation, ZephyrBHConstants.SAMPLES_ACCELEROMETER_PERIOD, lost);
+        accDecimatorZ = decimator(accDecimatorZ, accelerometerDecimation, ZephyrBHConstants.SAMPLES_ACCELEROMETER_PERIOD, lost);
+        if (accDecimatorX != null) {
+            count = accDecimatorX.decimate(samplesX, samplesX.length);
+            accDecimatorY.decimate(samplesY, samplesY.length);
+            accDecimatorZ.decimate(samplesZ, samplesZ.length);
+            if (count == 0) return;
+            timestamp = accDecimatorX.getOutputTime(timestamp);
+            duration = count * accDecimatorX.getOutputPeriod();
         }
 
         // Create the Observation object for X Axis
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_ACCELEROMETER_X, strSamplesX);
+        tmpObs = new Observation(ZephyrBHConstants.SENSOR_ACCELEROMETER_X, binaryWaveforms ? waveformEncoder.encodeFloat32(samplesX, count) : toStringValues(samplesX, count));
         tmpObs.setPhenomenonTime(timestamp);
-        tmpObs.setDuration(ZephyrBHConstants.SAMPLES_ACCELEROMETER_DURATION);
+        tmpObs.setDuration(duration);
 
         // Send data to Device Adapter
         deviceAdapter.receivedMeasurement(tmpObs, device);
 
-        // Create the Observation object for X Axis
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_ACCELEROMETER_Y, strSamplesY);
+        // Create the Observation object for Y Axis
+        tmpObs = new Observation(ZephyrBHConstants.SENSOR_ACCELEROMETER_Y, binaryWaveforms ? waveformEncoder.encodeFloat32(samplesY, count) : toStringValues(samplesY, count));
         tmpObs.setPhenomenonTime(timestamp);
-        tmpObs.setDuration(ZephyrBHConstants.SAMPLES_ACCELEROMETER_DURATION);
+        tmpObs.setDuration(duration);
 
         // Send data to Device Adapter
         deviceAdapter.receivedMeasurement(tmpObs, device);
 
-        // Create the Observation object for X Axis
-        tmpObs = new Observation(ZephyrBHConstants.SENSOR_ACCELEROMETER_Z, strSamplesZ);
+        // Create the Observation object for Z Axis
+        tmpObs = new Observation(ZephyrBHConstants.SENSOR_ACCELEROMETER_Z, binaryWaveforms ? waveformEncoder.encodeFloat32(samplesZ, count) : toStringValues(samplesZ, count));
         tmpObs.setPhenomenonTime(timestamp);
-        tmpObs.setDuration(ZephyrBHConstants.SAMPLES_ACCELEROMETER_DURATION);
+        tmpObs.setDuration(duration);
 
         // Send data to Device Adapter
         deviceAdapter.receivedMeasurement(tmpObs, device);
     }
 
+    /**
+     * Return the values of an Observation holding 16 bit samples, in the encoding of the
+     * configuration
+     *
+     * @param samples The samples
+     * @param count The number of samples, starting from the first one
+     * @return The values of the Observation
+     */
+    private String[] waveformValues(short[] samples, int count) {
+        if (deltaWaveforms) return waveformEncoder.encodeDelta16(samples, count);
+        if (binaryWaveforms) return waveformEncoder.encodeInt16(samples, count);
+        return toStringValues(samples, count);
+    }
+
+    /**
+     * Return the values of an Observation holding int samples that fit in 16 bits, in the encoding
+     * of the configuration
+     *
+     * @param samples The samples
+     * @return The values of the Observation
+     */
+    private String[] waveformValues(int[] samples) {
+        if (deltaWaveforms) return waveformEncoder.encodeDelta16(samples, samples.length);
+        if (binaryWaveforms) return waveformEncoder.encodeInt16(samples, samples.length);
+        return toStringValues(samples);
+    }
+
+    /**
+     * Convert short samples to the String values of an Observation
+     *
+     * @param samples The samples to convert
+     * @param count The number of samples to convert, starting from the first one
+     * @return The String representation of the samples
+     */
+    private static String[] toStringValues(short[] samples, int count) {
+        String[] strSamples = new String[count];
+
+        // Convert short values to String
+        for (int i = 0; i < count; i++) {
+            strSamples[i] = Short.toString(samples[i]);
+        }
+
+        return strSamples;
+    }
+
+    /**
+     * Convert int samples to the String values of an Observation, truncating them to short
+     *
+     * @param samples The samples to convert
+     * @return The String representation of the samples
+     */
+    private static String[] toStringValues(int[] samples) {
+        String[] strSamples = new String[samples.length];
+
+        // Convert short values to String
+        for (int i = 0; i < samples.length; i++) {
+            strSamples[i] = Short.toString((short) samples[i]);
+        }
+
+        return strSamples;
+    }
+
+    /**
+     * Convert double samples to the String values of an Observation
+     *
+     * @param samples The samples to convert
+     * @param count The number of samples to convert, starting from the first one
+     * @return The String representation of the samples
+     */
+    private static String[] toStringValues(double[] samples, int count) {
+        String[] strSamples = new String[count];
+
+        // Convert double values to String
+        for (int i = 0; i < count; i++) {
+            strSamples[i] = Double.toString(samples[i]);
+        }
+
+        return strSamples;
+    }
+
+    /**
+     * Replace the configuration of the device, applying the parameters that don't require a
+     * command to be sent to the device
+     *
+     * @param config The new configuration of the device
+     */
+    public void updateConfig(Map<String, String> config) {
+        this.config = config;
+        if (device != null) applyConfig();
+    }
+
+    /**
+     * Enable the packet processors, set the waveform encoding, the General Packet fields and their report-on-change mode, the
+     * overflow policy, the device description pushed, the marking of gaps, the beat detection, the
+     * HRV summary, the accelerometer features, the waveform rates and the batching limits of the
+     * device according to the configuration
+     */
+    private void applyConfig() {
+        processors.configure(config);
+        String encoding = config.get(ZephyrBHConstants.CONFIG_NAME_WAVEFORM_ENCODING);
+        deltaWaveforms = ZephyrBHConstants.CONFIG_WAVEFORM_ENCODING_DELTA.equals(encoding);
+        binaryWaveforms = deltaWaveforms || ZephyrBHConstants.CONFIG_WAVEFORM_ENCODING_BINARY.equals(encoding);
+        generalFields = ConfigParser.getFlags(config, ZephyrBHConstants.CONFIG_NAME_GENERAL_FIELDS, ZephyrBHConstants.GENERAL_FIELD_LIST, GENERAL_ALL_FIELDS);
+        changeFilter.configure(
+                ConfigParser.getThresholds(config, ZephyrBHConstants.CONFIG_NAME_CHANGE_ONLY_FIELDS, ZephyrBHConstants.GENERAL_FIELD_LIST),
+                ConfigParser.getLong(config, ZephyrBHConstants.CONFIG_NAME_CHANGE_ONLY_HEARTBEAT, ZephyrBHConstants.DEFAULT_CHANGE_ONLY_HEARTBEAT)
+        );
+        device.setPushHandle(ConfigParser.isEnabled(config, ZephyrBHConstants.CONFIG_NAME_PUSH_DEVICE_HANDLE));
+        markGaps = ConfigParser.isEnabled(config, ZephyrBHConstants.CONFIG_NAME_MARK_GAPS);
+        hrvSummary = ConfigParser.isEnabled(config, ZephyrBHConstants.CONFIG_NAME_HRV_SUMMARY);
+        beatDetection = ConfigParser.isEnabled(config, ZephyrBHConstants.CONFIG_NAME_BEAT_DETECTION);
+        rawEcg = ConfigParser.isEnabled(config, ZephyrBHConstants.CONFIG_NAME_ECG);
+        accelerometerFeatures = ConfigParser.isEnabled(config, ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER_FEATURES);
+        rawAccelerometer = ConfigParser.isEnabled(config, ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER);
+        accelerometerWindow = Math.max(AccelerometerFeatures.MIN_WINDOW, Math.min(AccelerometerFeatures.MAX_WINDOW,
+                ConfigParser.getLong(config, ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER_WINDOW, ZephyrBHConstants.DEFAULT_ACCELEROMETER_WINDOW)));
+        ecgDecimation = decimationFactor(config, ZephyrBHConstants.CONFIG_NAME_ECG_RATE, ZephyrBHConstants.SAMPLES_ECG_PERIOD);
+        breathingDecimation = decimationFactor(config, ZephyrBHConstants.CONFIG_NAME_BREATHING_RATE, ZephyrBHConstants.SAMPLES_BREATHING_PERIOD);
+        accelerometerDecimation = decimationFactor(config, ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER_RATE, ZephyrBHConstants.SAMPLES_ACCELEROMETER_PERIOD);
+        rawRtoR = ConfigParser.isEnabled(config, ZephyrBHConstants.CONFIG_NAME_RTOR);
+        hrvWindow = Math.max(HrvEngine.MAX_INTERVAL, ConfigParser.getLong(config, ZephyrBHConstants.CONFIG_NAME_HRV_WINDOW, ZephyrBHConstants.DEFAULT_HRV_WINDOW));
+        hrvInterval = ConfigParser.getLong(config, ZephyrBHConstants.CONFIG_NAME_HRV_INTERVAL, ZephyrBHConstants.DEFAULT_HRV_INTERVAL);
+
+        device.getDispatcher().getBuffer().setPolicy(getOverflowPolicy());
+
+        device.getBatcher().setLimits(
+                ConfigParser.getInt(config, ZephyrBHConstants.CONFIG_NAME_BATCH_MAX_SIZE, ZephyrBHConstants.DEFAULT_BATCH_MAX_SIZE),
+                ConfigParser.getLong(config, ZephyrBHConstants.CONFIG_NAME_BATCH_MAX_DELAY, ZephyrBHConstants.DEFAULT_BATCH_MAX_DELAY)
+        );
+    }
+
+    /**
+     * Check whether packets are missing before the current one of a waveform stream, count them and,
+     * if required, send an observation marking the gap. The gap observation has the time and the
+     * duration of the missing data and its values are the name of the stream, as in the packet
+     * configuration parameters, and the number of packets missing, so that the samples before and
+     * after the gap are not joined.
+     *
+     * @param stream The index of the stream
+     * @param msgId The message ID of the stream
+     * @param sequence The sequence number of the packet
+     * @param timestamp The timestamp of the packet
+     * @param duration The duration covered by a packet of the stream
+     * @param streamName The name of the stream
+     * @return The number of packets missing before the current one
+     */
+    private int checkContinuity(int stream, int msgId, byte sequence, long timestamp, long duration, String streamName) {
+        int lost = sequenceTracker.check(stream, sequence, timestamp, duration);
+        if (lost == 0) return 0;
+
+        device.getMetrics().packetsLost(msgId, lost);
+        if (markGaps) {
+            Observation gap = new Observation(ZephyrBHConstants.SENSOR_DATA_GAP, new String[] {streamName, Integer.toString(lost)});
+            gap.setPhenomenonTime(timestamp - lost * duration);
+            gap.setDuration(lost * duration);
+            deviceAdapter.receivedMeasurement(gap, device);
+        }
+
+        return lost;
+    }
+
+    /**
+     * Return the decimator of a waveform for the current decimation factor. The decimator is
+     * replaced when the factor changes, and restarted when packets are missing.
+     *
+     * @param decimator The current decimator of the waveform, or null
+     * @param factor The decimation factor
+     * @param period The sample period of the waveform in milliseconds
+     * @param lost The number of packets missing before the current one
+     * @return The decimator to use, null if the waveform is sent at full rate
+     */
+    private static FirDecimator decimator(FirDecimator decimator, int factor, long period, int lost) {
+        if (factor <= 1) return null;
+        if (decimator == null || decimator.getFactor() != factor) return new FirDecimator(factor, period);
+
+        if (lost > 0) decimator.reset();
+        return decimator;
+    }
+
+    /**
+     * Return the decimation factor giving the closest rate to the one in the configuration
+     *
+     * @param config The configuration of the device
+     * @param key The name of the rate parameter, in Hz
+     * @param period The sample period of the waveform in milliseconds
+     * @return The decimation factor, 1 for the full rate
+     */
+    private static int decimationFactor(Map<String, String> config, String key, long period) {
+        double rate = ConfigParser.getDouble(config, key, 0);
+        if (rate <= 0) return 1;
+
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(1000.0 / period / rate)));
+    }
+
+    /**
+     * Send the heart rate variability computed over the current window, one observation for every
+     * statistic. The observations end at the given time and cover the duration of the intervals in
+     * the window.
+     *
+     * @param time The time of the last R to R packet
+     */
+    private void pushHrvSummary(long time) {
+        long span = hrvEngine.getSpan();
+        pushFeature(ZephyrBHConstants.SENSOR_HRV_RMSSD, hrvEngine.getRmssd(), time - span, span);
+        pushFeature(ZephyrBHConstants.SENSOR_HRV_SDNN, hrvEngine.getSdnn(), time - span, span);
+        pushFeature(ZephyrBHConstants.SENSOR_HRV_PNN50, hrvEngine.getPnn50(), time - span, span);
+        pushFeature(ZephyrBHConstants.SENSOR_HRV_MEAN_HEART_RATE, hrvEngine.getMeanHeartRate(), time - span, span);
+    }
+
+    /**
+     * Send a single value computed by the Device Adapter, unless it's unknown
+     *
+     * @param sensor The sensor of the value
+     * @param value The value, NaN if unknown
+     * @param time The start of the period the value refers to
+     * @param duration The duration of the period the value refers to
+     */
+    private void pushFeature(SensorDescription sensor, double value, long time, long duration) {
+        if (Double.isNaN(value)) return;
+
+        Observation tmpObs = new Observation(sensor, new String[] {Double.toString(value)});
+        tmpObs.setPhenomenonTime(time);
+        tmpObs.setDuration(duration);
+        deviceAdapter.receivedMeasurement(tmpObs, device);
+    }
+
+    /**
+     * Start capturing the packets received from the device
+     *
+     * @param fileName The name of the capture file, relative to the capture directory of the Device
+     *                 Adapter, or null to use a name made of the device ID and the current time
+     */
+    private void startCapture(String fileName) {
+        File dir = new File(deviceAdapter.getFilesDir(), ZephyrBHConstants.CAPTURE_DIRECTORY);
+        if (fileName == null || fileName.trim().isEmpty()) {
+            fileName = devId.replace(":", "") + "-" + System.currentTimeMillis() + ZephyrBHConstants.CAPTURE_FILE_EXTENSION;
+        }
+
+        try {
+            device.getDispatcher().startCapture(new PacketCaptureWriter(new File(dir, fileName.trim())));
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't create the capture file " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write a snapshot of the metrics of the device, and of the connections of the Device Adapter, to
+     * the log and, if a file name is given, to a file
+     *
+     * @param fileName The name of the file, relative to the metrics directory of the Device Adapter,
+     *                 or null to write the snapshot only to the log
+     */
+    private void dumpMetrics(String fileName) {
+        String snapshot = device.getMetrics().snapshot(devId, device.getDispatcher().getBuffer())
+                + deviceAdapter.getConnectScheduler().snapshot();
+        Log.i(LOGTAG_ZEPHYRBH_LISTENER, snapshot);
+
+        if (fileName == null || fileName.trim().isEmpty()) return;
+
+        File file = new File(new File(deviceAdapter.getFilesDir(), ZephyrBHConstants.METRICS_DIRECTORY), fileName.trim());
+        try {
+            File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Can't create directory " + dir);
+
+            Writer writer = new FileWriter(file);
+            try {
+                writer.write(snapshot);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't write the metrics file " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Return the bit of a General Packet field in the field mask
+     *
+     * @param field The name of the field
+     * @return The bit of the field
+     */
+    private static int generalFieldBit(String field) {
+        return 1 << ZephyrBHConstants.GENERAL_FIELD_LIST.indexOf(field);
+    }
+
+    /**
+     * Return the overflow policy of the packet buffer set in the configuration
+     *
+     * @return The overflow policy of the packet buffer
+     */
+    private int getOverflowPolicy() {
+        String policy = config.get(ZephyrBHConstants.CONFIG_NAME_OVERFLOW_POLICY);
+
+        if (ZephyrBHConstants.CONFIG_OVERFLOW_DROP_NEWEST.equals(policy)) return PacketRingBuffer.POLICY_DROP_NEWEST;
+        if (ZephyrBHConstants.CONFIG_OVERFLOW_BLOCK.equals(policy)) return PacketRingBuffer.POLICY_BLOCK;
+        return PacketRingBuffer.POLICY_DROP_OLDEST;
+    }
+
     /**
      * Parse the command passed by Device Adapter and perform the desired operation
      *
      * @param command The command passed by Device Adapter
      */
     public void parseCommand(String command) {
-        if (ZephyrBHConstants.COMMAND_ENABLE_GENERAL.equals(command)) {
-            protocol.SetGeneralPacket(true);
+        parseCommand(command, null);
+    }
+
+    /**
+     * Parse the command passed by Device Adapter, together with its optional parameter, and
+     * perform the desired operation
+     *
+     * @param command The command passed by Device Adapter
+     * @param parameter The parameter of the command, null if not given
+     */
+    public void parseCommand(String command, String parameter) {
+        if (ZephyrBHConstants.COMMAND_START_CAPTURE.equals(command)) {
+            startCapture(parameter);
+        }
+        else if (ZephyrBHConstants.COMMAND_STOP_CAPTURE.equals(command)) {
+            device.getDispatcher().stopCapture();
+        }
+        else if (ZephyrBHConstants.COMMAND_DUMP_METRICS.equals(command)) {
+            dumpMetrics(parameter);
+        }
+        else if (ZephyrBHConstants.COMMAND_ENABLE_GENERAL.equals(command)) {
+            setStream(ZephyrBHConstants.PACKET_TYPE_GENERAL, true);
         }
         else if (ZephyrBHConstants.COMMAND_DISABLE_GENERAL.equals(command)) {
-            protocol.SetGeneralPacket(false);
+            setStream(ZephyrBHConstants.PACKET_TYPE_GENERAL, false);
         }
         else if (ZephyrBHConstants.COMMAND_ENABLE_ACCELEROMETER.equals(command)) {
-            protocol.SetAccelerometerPacket(true);
+            setStream(ZephyrBHConstants.PACKET_TYPE_ID_ACCEL, true);
         }
         else if (ZephyrBHConstants.COMMAND_DISABLE_ACCELEROMETER.equals(command)) {
-            protocol.SetAccelerometerPacket(false);
+            setStream(ZephyrBHConstants.PACKET_TYPE_ID_ACCEL, false);
         }
         else if (ZephyrBHConstants.COMMAND_ENABLE_BREATHING.equals(command)) {
-            protocol.SetBreathingPacket(true);
+            setStream(ZephyrBHConstants.PACKET_TYPE_ID_BREATHING, true);
         }
         else if (ZephyrBHConstants.COMMAND_DISABLE_BREATHING.equals(command)) {
-            protocol.SetBreathingPacket(false);
+            setStream(ZephyrBHConstants.PACKET_TYPE_ID_BREATHING, false);
         }
         else if (ZephyrBHConstants.COMMAND_ENABLE_ECG.equals(command)) {
-            protocol.SetECGPacket(true);
+            setStream(ZephyrBHConstants.PACKET_TYPE_ECG, true);
         }
         else if (ZephyrBHConstants.COMMAND_DISABLE_ECG.equals(command)) {
-            protocol.SetECGPacket(false);
+            setStream(ZephyrBHConstants.PACKET_TYPE_ECG, false);
         }
         else if (ZephyrBHConstants.COMMAND_ENABLE_RTOR.equals(command)) {
-            protocol.SetRtoRPacket(true);
+            setStream(ZephyrBHConstants.PACKET_TYPE_ID_R_TO_R, true);
         }
         else if (ZephyrBHConstants.COMMAND_DISABLE_RTOR.equals(command)) {
-            protocol.SetRtoRPacket(false);
+            setStream(ZephyrBHConstants.PACKET_TYPE_ID_R_TO_R, false);
         }
         else if (ZephyrBHConstants.COMMAND_ENABLE_LOGGING.equals(command)) {
-            protocol.SetLoggingDataPacket(true);
+            setLogging(true);
         }
         else if (ZephyrBHConstants.COMMAND_DISABLE_LOGGING.equals(command)) {
-            protocol.SetLoggingDataPacket(false);
+            setLogging(false);
+        }
+        else if (ZephyrBHConstants.COMMAND_ENABLE_SUMMARY.equals(command)) {
+            setStream(ZephyrBHConstants.PACKET_TYPE_SUMMARY, true);
+        }
+        else if (ZephyrBHConstants.COMMAND_DISABLE_SUMMARY.equals(command)) {
+            setStream(ZephyrBHConstants.PACKET_TYPE_SUMMARY, false);
+        }
+        else if (ZephyrBHConstants.COMMAND_ENABLE_EVENT.equals(command)) {
+            setStream(ZephyrBHConstants.PACKET_TYPE_EVENT, true);
+        }
+        else if (ZephyrBHConstants.COMMAND_DISABLE_EVENT.equals(command)) {
+            setStream(ZephyrBHConstants.PACKET_TYPE_EVENT, false);
         }
         else if (ZephyrBHConstants.COMMAND_SEND_LIFE_SIGN.equals(command)) {
-            protocol.SendLifeSign();
+            ZephyrProtocol tmpProtocol = protocol;
+            if (tmpProtocol == null) throw new IllegalStateException("The device " + devId + " is reconnecting!");
+            tmpProtocol.SendLifeSign();
         }
         else {
             throw new IllegalArgumentException("Command not supported by " + DiscoveryResponder.CapabilitiesConstants.CAP_FRIENDLY_NAME + "!");
         }
     }
 
+    /**
+     * Enable or disable the processor of a packet type and, if the device is connected, request
+     * the device to start or stop sending the packets. While the device is reconnecting, the
+     * request is made when it reconnects.
+     *
+     * @param msgId The message ID of the packet type
+     * @param enabled True to enable the packets, false to disable them
+     */
+    private synchronized void setStream(int msgId, boolean enabled) {
+        processors.setEnabled(msgId, enabled);
+        if (protocol == null) return;
+
+        switch (msgId) {
+            case ZephyrBHConstants.PACKET_TYPE_GENERAL:
+                protocol.SetGeneralPacket(enabled);
+                break;
+            case ZephyrBHConstants.PACKET_TYPE_ID_ACCEL:
+                protocol.SetAccelerometerPacket(enabled);
+                break;
+            case ZephyrBHConstants.PACKET_TYPE_ID_BREATHING:
+                protocol.SetBreathingPacket(enabled);
+                break;
+            case ZephyrBHConstants.PACKET_TYPE_ECG:
+                protocol.SetECGPacket(enabled);
+                break;
+            case ZephyrBHConstants.PACKET_TYPE_ID_R_TO_R:
+                protocol.SetRtoRPacket(enabled);
+                break;
+            case ZephyrBHConstants.PACKET_TYPE_SUMMARY:
+                protocol.SetSummaryDataPacket(enabled);
+                break;
+            case ZephyrBHConstants.PACKET_TYPE_EVENT:
+                protocol.SetEventPacket(enabled);
+                break;
+        }
+    }
+
+    /**
+     * Enable or disable the Logging Packet, that has no processor. While the device is
+     * reconnecting, the request is made when it reconnects.
+     *
+     * @param enabled True to enable the packets, false to disable them
+     */
+    private synchronized void setLogging(boolean enabled) {
+        logging = enabled;
+        if (protocol != null) protocol.SetLoggingDataPacket(enabled);
+    }
 }
@@ -23,6 +23,7 @@
 package eu.fistar.sdcs.pa.da.zephyrbh;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import eu.fistar.sdcs.pa.common.SensorDescription;
@@ -46,6 +47,20 @@ public class ZephyrBHConstants {
     public static final int PACKET_TYPE_ECG = 0x22;
     public static final int PACKET_TYPE_ID_R_TO_R = 0x24;
     public static final int PACKET_TYPE_ID_ACCEL = 0x2A;
+    public static final int PACKET_TYPE_SUMMARY = 0x2B;
+    public static final int PACKET_TYPE_EVENT = 0x2C;
+
+    // Payload sizes of the packets, shorter packets are discarded
+    public static final int PACKET_SIZE_GENERAL = 53;
+    public static final int PACKET_SIZE_BREATHING = 32;
+    public static final int PACKET_SIZE_ECG = 88;
+    public static final int PACKET_SIZE_R_TO_R = 45;
+    public static final int PACKET_SIZE_ACCEL = 84;
+    public static final int PACKET_SIZE_SUMMARY = 71;
+    public static final int PACKET_SIZE_EVENT = 11;
+
+    // CRC status of a packet received correctly
+    public static final byte PACKET_CRC_OK = 0;
 
     // BioHarness Sensor Names (sensorName, measurementUnit, propertyName)
     public static final SensorDescription SENSOR_HEART = new SensorDescription("pulsimeter", "bpm", "heart rate");
@@ -79,6 +94,25 @@ public class ZephyrBHConstants {
     public static final SensorDescription SENSOR_ACCELEROMETER_Y = new SensorDescription("triaxial accelerometer", "g", "accelerometer y");
     public static final SensorDescription SENSOR_ACCELEROMETER_Z = new SensorDescription("triaxial accelerometer", "g", "accelerometer z");
     public static final SensorDescription SENSOR_R_TO_R = new SensorDescription("ecg sensor", "s", "r to r");
+    public static final SensorDescription SENSOR_DATA_GAP = new SensorDescription("packet sequence tracker", "packets", "data gap");
+    public static final SensorDescription SENSOR_HRV_RMSSD = new SensorDescription("ecg sensor", "ms", "hrv rmssd");
+    public static final SensorDescription SENSOR_HRV_SDNN = new SensorDescription("ecg sensor", "ms", "hrv sdnn");
+    public static final SensorDescription SENSOR_HRV_PNN50 = new SensorDescription("ecg sensor", "%", "hrv pnn50");
+    public static final SensorDescription SENSOR_HRV_MEAN_HEART_RATE = new SensorDescription("ecg sensor", "bpm", "hrv mean heart rate");
+    public static final SensorDescription SENSOR_HEART_BEAT = new SensorDescription("ecg sensor", "bpm", "heart beat");
+    public static final SensorDescription SENSOR_VECTOR_MAGNITUDE = new SensorDescription("triaxial accelerometer", "g", "vector magnitude");
+    public static final SensorDescription SENSOR_ACTIVITY_COUNTS = new SensorDescription("triaxial accelerometer", "mg s", "activity counts");
+    public static final SensorDescription SENSOR_STEP_CADENCE = new SensorDescription("triaxial accelerometer", "steps/min", "step cadence");
+    public static final SensorDescription SENSOR_POSTURE_CHANGE = new SensorDescription("triaxial accelerometer", "angular degrees", "posture change");
+    public static final SensorDescription SENSOR_IMPACT = new SensorDescription("triaxial accelerometer", "g", "impact");
+    public static final SensorDescription SENSOR_ACTIVITY = new SensorDescription("triaxial accelerometer", "vmu", "activity");
+    public static final SensorDescription SENSOR_HEART_RATE_VARIABILITY = new SensorDescription("ecg sensor", "ms", "heart rate variability");
+    public static final SensorDescription SENSOR_HEART_RATE_CONFIDENCE = new SensorDescription("ecg sensor", "%", "heart rate confidence");
+    public static final SensorDescription SENSOR_BREATHING_RATE_CONFIDENCE = new SensorDescription("chest expansion and contraction sensor", "%", "breathing rate confidence");
+    public static final SensorDescription SENSOR_SYSTEM_CONFIDENCE = new SensorDescription("unknown sensor", "%", "system confidence");
+    public static final SensorDescription SENSOR_DEVICE_TEMP = new SensorDescription("internal thermometer", "celsius degrees", "device temperature");
+    public static final SensorDescription SENSOR_EVENT = new SensorDescription("event detector", "unknown unit", "event");
+    public static final SensorDescription SENSOR_CONNECTION_GAP = new SensorDescription("bluetooth link", "ms", "connection gap");
     public static final List<SensorDescription> SENSOR_LIST;
     static {
         List<SensorDescription> tmpSensList = new ArrayList<SensorDescription>();
@@ -113,7 +147,83 @@ public class ZephyrBHConstants {
         tmpSensList.add(ZephyrBHConstants.SENSOR_ACCELEROMETER_Y);
         tmpSensList.add(ZephyrBHConstants.SENSOR_ACCELEROMETER_Z);
         tmpSensList.add(ZephyrBHConstants.SENSOR_R_TO_R);
-        SENSOR_LIST = tmpSensList;
+        tmpSensList.add(ZephyrBHConstants.SENSOR_DATA_GAP);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_HRV_RMSSD);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_HRV_SDNN);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_HRV_PNN50);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_HRV_MEAN_HEART_RATE);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_HEART_BEAT);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_VECTOR_MAGNITUDE);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_ACTIVITY_COUNTS);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_STEP_CADENCE);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_POSTURE_CHANGE);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_IMPACT);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_ACTIVITY);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_HEART_RATE_VARIABILITY);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_HEART_RATE_CONFIDENCE);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_BREATHING_RATE_CONFIDENCE);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_SYSTEM_CONFIDENCE);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_DEVICE_TEMP);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_EVENT);
+        tmpSensList.add(ZephyrBHConstants.SENSOR_CONNECTION_GAP);
+        SENSOR_LIST = Collections.unmodifiableList(tmpSensList);
+    }
+
+    // Fields of the General Packet, in the order they are decoded (the position is the bit of the field mask)
+    public static final String GENERAL_FIELD_HEART_RATE = "HeartRate";
+    public static final String GENERAL_FIELD_RESPIRATION_RATE = "RespirationRate";
+    public static final String GENERAL_FIELD_SKIN_TEMP = "SkinTemperature";
+    public static final String GENERAL_FIELD_POSTURE = "Posture";
+    public static final String GENERAL_FIELD_VMU = "VMU";
+    public static final String GENERAL_FIELD_PEAK_ACCELERATION = "PeakAcceleration";
+    public static final String GENERAL_FIELD_BATTERY_VOLTAGE = "BatteryVoltage";
+    public static final String GENERAL_FIELD_BREATHING_WAVE_AMPLITUDE = "BreathingWaveAmplitude";
+    public static final String GENERAL_FIELD_ECG_AMPLITUDE = "ECGAmplitude";
+    public static final String GENERAL_FIELD_ECG_NOISE = "ECGNoise";
+    public static final String GENERAL_FIELD_XAXIS_ACC_MIN = "XAxisAccMin";
+    public static final String GENERAL_FIELD_XAXIS_ACC_PEAK = "XAxisAccPeak";
+    public static final String GENERAL_FIELD_YAXIS_ACC_MIN = "YAxisAccMin";
+    public static final String GENERAL_FIELD_YAXIS_ACC_PEAK = "YAxisAccPeak";
+    public static final String GENERAL_FIELD_ZAXIS_ACC_MIN = "ZAxisAccMin";
+    public static final String GENERAL_FIELD_ZAXIS_ACC_PEAK = "ZAxisAccPeak";
+    public static final String GENERAL_FIELD_ZEPHYR_SYS_CHAN = "ZephyrSysChan";
+    public static final String GENERAL_FIELD_GSR = "GSR";
+    public static final String GENERAL_FIELD_ROG_STATUS = "ROGStatus";
+    public static final String GENERAL_FIELD_ALARM_STS = "AlarmSts";
+    public static final String GENERAL_FIELD_WORN_STATUS = "WornStatus";
+    public static final String GENERAL_FIELD_USER_INTF_BTN_STATUS = "UserIntfBtnStatus";
+    public static final String GENERAL_FIELD_BH_SIG_LOW_STATUS = "BHSigLowStatus";
+    public static final String GENERAL_FIELD_BH_SENS_CONN_STATUS = "BHSensConnStatus";
+    public static final String GENERAL_FIELD_BATTERY_STATUS = "BatteryStatus";
+    public static final List<String> GENERAL_FIELD_LIST;
+    static {
+        List<String> tmpFields = new ArrayList<String>();
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_HEART_RATE);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_RESPIRATION_RATE);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_SKIN_TEMP);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_POSTURE);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_VMU);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_PEAK_ACCELERATION);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_BATTERY_VOLTAGE);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_BREATHING_WAVE_AMPLITUDE);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_ECG_AMPLITUDE);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_ECG_NOISE);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_XAXIS_ACC_MIN);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_XAXIS_ACC_PEAK);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_YAXIS_ACC_MIN);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_YAXIS_ACC_PEAK);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_ZAXIS_ACC_MIN);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_ZAXIS_ACC_PEAK);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_ZEPHYR_SYS_CHAN);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_GSR);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_ROG_STATUS);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_ALARM_STS);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_WORN_STATUS);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_USER_INTF_BTN_STATUS);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_BH_SIG_LOW_STATUS);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_BH_SENS_CONN_STATUS);
+        tmpFields.add(ZephyrBHConstants.GENERAL_FIELD_BATTERY_STATUS);
+        GENERAL_FIELD_LIST = Collections.unmodifiableList(tmpFields);
     }
 
     // Duration in milliseconds of sample acquisition
@@ -122,6 +232,11 @@ public class ZephyrBHConstants {
     public static final long SAMPLES_R_TO_R_DURATION = 1008;
     public static final long SAMPLES_ACCELEROMETER_DURATION = 400;
 
+    // Period in milliseconds between two samples of the waveforms
+    public static final long SAMPLES_ECG_PERIOD = 4;
+    public static final long SAMPLES_BREATHING_PERIOD = 56;
+    public static final long SAMPLES_ACCELEROMETER_PERIOD = 20;
+
     // Zephyr Device Adapter Commands
     public static final String COMMAND_ENABLE_GENERAL = "enableGeneralData";
     public static final String COMMAND_DISABLE_GENERAL = "disableGeneralData";
@@ -135,7 +250,18 @@ public class ZephyrBHConstants {
     public static final String COMMAND_DISABLE_RTOR = "disableRtoRData";
     public static final String COMMAND_ENABLE_LOGGING = "enableLoggingData";
     public static final String COMMAND_DISABLE_LOGGING = "disableLoggingData";
+    public static final String COMMAND_ENABLE_SUMMARY = "enableSummaryData";
+    public static final String COMMAND_DISABLE_SUMMARY = "disableSummaryData";
+    public static final String COMMAND_ENABLE_EVENT = "enableEventData";
+    public static final String COMMAND_DISABLE_EVENT = "disableEventData";
     public static final String COMMAND_SEND_LIFE_SIGN = "sendLifeSign";
+    public static final String COMMAND_START_CAPTURE = "startCapture";
+    public static final String COMMAND_STOP_CAPTURE = "stopCapture";
+    public static final String COMMAND_START_REPLAY = "startReplay";
+    public static final String COMMAND_STOP_REPLAY = "stopReplay";
+    public static final String COMMAND_DUMP_METRICS = "dumpMetrics";
+    public static final String COMMAND_START_JOURNAL = "startJournal";
+    public static final String COMMAND_STOP_JOURNAL = "stopJournal";
     public static final List<String> COMMAND_LIST;
     static {
         List<String> tmpComm = new ArrayList<String>();
@@ -151,10 +277,70 @@ public class ZephyrBHConstants {
         tmpComm.add(ZephyrBHConstants.COMMAND_DISABLE_RTOR);
         tmpComm.add(ZephyrBHConstants.COMMAND_ENABLE_LOGGING);
         tmpComm.add(ZephyrBHConstants.COMMAND_DISABLE_LOGGING);
+        tmpComm.add(ZephyrBHConstants.COMMAND_ENABLE_SUMMARY);
+        tmpComm.add(ZephyrBHConstants.COMMAND_DISABLE_SUMMARY);
+        tmpComm.add(ZephyrBHConstants.COMMAND_ENABLE_EVENT);
+        tmpComm.add(ZephyrBHConstants.COMMAND_DISABLE_EVENT);
         tmpComm.add(ZephyrBHConstants.COMMAND_SEND_LIFE_SIGN);
+        tmpComm.add(ZephyrBHConstants.COMMAND_START_CAPTURE);
+        tmpComm.add(ZephyrBHConstants.COMMAND_STOP_CAPTURE);
+        tmpComm.add(ZephyrBHConstants.COMMAND_START_REPLAY);
+        tmpComm.add(ZephyrBHConstants.COMMAND_STOP_REPLAY);
+        tmpComm.add(ZephyrBHConstants.COMMAND_DUMP_METRICS);
+        tmpComm.add(ZephyrBHConstants.COMMAND_START_JOURNAL);
+        tmpComm.add(ZephyrBHConstants.COMMAND_STOP_JOURNAL);
         COMMAND_LIST = tmpComm;
     }
 
+    // Packet captures, stored in the files directory of the Device Adapter
+    public static final String CAPTURE_DIRECTORY = "captures";
+    public static final String CAPTURE_FILE_EXTENSION = ".zbhc";
+
+    // Journals of the raw packets of all the devices, stored in the files directory of the Device Adapter
+    public static final String JOURNAL_DIRECTORY = "journals";
+    public static final int JOURNAL_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    // Connections to the devices: the number of devices connected in parallel and the maximum delay
+    // before retrying a failed connection, in milliseconds
+    public static final int CONNECT_CONCURRENCY = 4;
+    public static final long CONNECT_MAX_BACKOFF = 30000;
+
+    // Number of threads pushing the batches flushed when their time limit expires, and the time
+    // after which an idle one terminates, in milliseconds
+    public static final int DELIVERY_CONCURRENCY = 4;
+    public static final long DELIVERY_KEEP_ALIVE = 30000;
+
+    // Number of batches of a device flushed and not pushed yet above which the dispatcher of the
+    // device waits for the push in progress, so that the packet buffer fills up and applies its
+    // overflow policy instead of the batches piling up in memory
+    public static final int DELIVERY_MAX_QUEUED = 8;
+
+    // Maximum time an API call waits for the warm-up of the Device Adapter started by the binding, in
+    // milliseconds
+    public static final long READY_TIMEOUT = 10000;
+
+    // Maximum delay before retrying to reconnect a device whose connection was lost, in milliseconds,
+    // shorter than the one of a new connection since the device is usually back in a few seconds
+    public static final long RECONNECT_MAX_BACKOFF = 5000;
+
+    // Snapshots of the metrics, stored in the files directory of the Device Adapter
+    public static final String METRICS_DIRECTORY = "metrics";
+
+    // Spool of the observations waiting for the Protocol Adapter, stored in the files directory of
+    // the Device Adapter. The spool is drained at most SPOOL_DRAIN_BATCH observations every
+    // SPOOL_DRAIN_INTERVAL milliseconds, not to flood the Protocol Adapter when it comes back.
+    public static final String SPOOL_DIRECTORY = "spool";
+    public static final long SPOOL_SEGMENT_SIZE = 1024 * 1024;
+    public static final long SPOOL_MAX_SIZE = 32 * 1024 * 1024;
+    public static final int SPOOL_DRAIN_BATCH = 200;
+    public static final long SPOOL_DRAIN_INTERVAL = 100;
+
+    // Maximum number of observations kept in memory while the spool is being opened by the warm-up
+    public static final int SPOOL_MAX_HELD = 5000;
+
+    // Replay speed that sends the packets as fast as possible
+    public static final String REPLAY_SPEED_MAX = "max";
+
     // Configuration related constants
     public static final String CONFIG_NAME_GENERAL = "GeneralPacket";
     public static final String CONFIG_NAME_ACCELEROMETER = "AccelerometerPacket";
@@ -162,6 +348,49 @@ public class ZephyrBHConstants {
     public static final String CONFIG_NAME_ECG = "ECGPacket";
     public static final String CONFIG_NAME_RTOR = "RtoRPacket";
     public static final String CONFIG_NAME_LOGGING = "LoggingPacket";
+    public static final String CONFIG_NAME_SUMMARY = "SummaryPacket";
+    public static final String CONFIG_NAME_EVENT = "EventPacket";
+    public static final String CONFIG_NAME_BATCH_MAX_SIZE = "BatchMaxSize";
+    public static final String CONFIG_NAME_BATCH_MAX_DELAY = "BatchMaxDelay";
+    public static final String CONFIG_NAME_WAVEFORM_ENCODING = "WaveformEncoding";
+    public static final String CONFIG_NAME_BUFFER_CAPACITY = "BufferCapacity";
+    public static final String CONFIG_NAME_OVERFLOW_POLICY = "OverflowPolicy";
+    public static final String CONFIG_NAME_PUSH_DEVICE_HANDLE = "PushDeviceHandle";
+    public static final String CONFIG_NAME_GENERAL_FIELDS = "GeneralFields";
+    public static final String CONFIG_NAME_CHANGE_ONLY_FIELDS = "ChangeOnlyFields";
+    public static final String CONFIG_NAME_CHANGE_ONLY_HEARTBEAT = "ChangeOnlyHeartbeat";
+    public static final String CONFIG_NAME_MARK_GAPS = "MarkGaps";
+    public static final String CONFIG_NAME_HRV_SUMMARY = "HrvSummary";
+    public static final String CONFIG_NAME_BEAT_DETECTION = "BeatDetection";
+    public static final String CONFIG_NAME_ACCELEROMETER_FEATURES = "AccelerometerFeatures";
+    public static final String CONFIG_NAME_ACCELEROMETER_WINDOW = "AccelerometerWindow";
+    public static final String CONFIG_NAME_ECG_RATE = "ECGRate";
+    public static final String CONFIG_NAME_BREATHING_RATE = "BreathingRate";
+    public static final String CONFIG_NAME_ACCELEROMETER_RATE = "AccelerometerRate";
+    public static final String CONFIG_NAME_HRV_WINDOW = "HrvWindow";
+    public static final String CONFIG_NAME_HRV_INTERVAL = "HrvInterval";
+    public static final String CONFIG_NAME_CONNECT_ATTEMPTS = "ConnectAttempts";
+    public static final String CONFIG_NAME_CONNECT_BACKOFF = "ConnectBackoff";
+    public static final String CONFIG_NAME_RECONNECT_WINDOW = "ReconnectWindow";
     public static final String CONFIG_ENABLE = "enable";
     public static final String CONFIG_DISABLE = "disable";
+    public static final String CONFIG_ALL = "all";
+    public static final String CONFIG_WAVEFORM_ENCODING_TEXT = "text";
+    public static final String CONFIG_WAVEFORM_ENCODING_BINARY = "binary";
+    public static final String CONFIG_WAVEFORM_ENCODING_DELTA = "delta";
+    public static final String CONFIG_OVERFLOW_DROP_OLDEST = "dropOldest";
+    public static final String CONFIG_OVERFLOW_DROP_NEWEST = "dropNewest";
+    public static final String CONFIG_OVERFLOW_BLOCK = "block";
+
+    // Default values for the numeric configuration parameters
+    public static final int DEFAULT_BATCH_MAX_SIZE = 25;
+    public static final long DEFAULT_BATCH_MAX_DELAY = 1000;
+    public static final int DEFAULT_BUFFER_CAPACITY = 64;
+    public static final long DEFAULT_CHANGE_ONLY_HEARTBEAT = 0;
+    public static final long DEFAULT_HRV_WINDOW = 60000;
+    public static final long DEFAULT_HRV_INTERVAL = 60000;
+    public static final long DEFAULT_ACCELEROMETER_WINDOW = 2000;
+    public static final int DEFAULT_CONNECT_ATTEMPTS = 5;
+    public static final long DEFAULT_CONNECT_BACKOFF = 1000;
+    public static final long DEFAULT_RECONNECT_WINDOW = 30000;
 }
@@ -22,7 +22,6 @@
 
 package eu.fistar.sdcs.pa.da.zephyrbh;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import eu.fistar.sdcs.pa.common.DeviceDescription;
@@ -42,10 +41,21 @@ public class ZephyrBHDevice extends DeviceDescription {
     private String deviceID; // The unique device identifier
     private String serialNumber; // The device's serial number, empty if not automatically provided by the device
     private String address; // The MAC Address of the device
-    private BTClient client;
+    private volatile BTClient client;
     private ZephyrBHConnectedListener listener;
+    private ObservationBatcher batcher;
+    private PacketDispatcher dispatcher;
+    private final DeviceMetrics metrics = new DeviceMetrics();
     private boolean registered;
 
+    // Time the connection was lost, while the device is reconnecting; 0 while connected, -1 once disconnected
+    private long disconnectedSince;
+
+    // Snapshots of the device sent to the Protocol Adapter, built once and never modified afterwards
+    private volatile DeviceDescription description;
+    private final DeviceDescription handle;
+    private volatile boolean pushHandle;
+
     // Static fields for the Zephyr BioHarness 3
     private final static String modelName = ZephyrBHConstants.BH_MODEL_NAME; // The model name
     private final static String manufacturerName = ZephyrBHConstants.BH_MANUFACTURER_NAME; // The manufacturer name
@@ -58,6 +68,7 @@ public class ZephyrBHDevice extends DeviceDescription {
         registered = false;
         this.client = client;
         this.listener = listener;
+        handle = new DeviceDescription(devId);
     }
 
     @Override
@@ -84,13 +95,89 @@ public class ZephyrBHDevice extends DeviceDescription {
         return client;
     }
 
+    /**
+     * Mark the device as reconnecting, after its connection was lost. The device keeps its
+     * listener, its dispatcher and its registration with the Protocol Adapter.
+     *
+     * @param time The time the connection was lost
+     * @return True if the device was connected, false if it was already reconnecting or disconnected
+     */
+    public synchronized boolean connectionLost(long time) {
+        if (disconnectedSince != 0) return false;
+
+        disconnectedSince = time;
+        return true;
+    }
+
+    /**
+     * Attach the new connection of a device reconnecting
+     *
+     * @param client The Bluetooth client connected to the device
+     * @return The time the connection was lost, 0 if the device was not reconnecting
+     */
+    public synchronized long reconnected(BTClient client) {
+        long since = disconnectedSince;
+        if (since <= 0) return 0;
+
+        this.client = client;
+        disconnectedSince = 0;
+        return since;
+    }
+
+    /**
+     * Mark the device as disconnected for good, so that it can't be reconnected
+     *
+     * @return The Bluetooth client to close, null if the connection is already closed or the
+     * device is virtual
+     */
+    public synchronized BTClient disconnected() {
+        BTClient tmpClient = disconnectedSince == 0 ? client : null;
+        disconnectedSince = -1;
+        return tmpClient;
+    }
+
+    /**
+     * Check whether the device lost its connection and is waiting to reconnect
+     *
+     * @return True if the device is reconnecting
+     */
+    public synchronized boolean isReconnecting() {
+        return disconnectedSince > 0;
+    }
+
     public ZephyrBHConnectedListener getListener() {
         return listener;
     }
 
+    public ObservationBatcher getBatcher() {
+        return batcher;
+    }
+
+    public void setBatcher(ObservationBatcher batcher) {
+        this.batcher = batcher;
+    }
+
+    public PacketDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public void setDispatcher(PacketDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public DeviceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Return the list of the sensors of the device. The list is shared by all the devices and it
+     * can't be modified.
+     *
+     * @return The list of the sensors
+     */
     @Override
     public List<SensorDescription> getSensorList() {
-        return new ArrayList<SensorDescription>(sensorList);
+        return sensorList;
     }
 
     @Override
@@ -107,6 +194,9 @@ public class ZephyrBHDevice extends DeviceDescription {
     @Override
     public void setRegistered(boolean mRegistered) {
         registered = mRegistered;
+
+        // The metadata changed, so the snapshot has to be rebuilt
+        description = null;
     }
 
     /**
@@ -120,6 +210,52 @@ public class ZephyrBHDevice extends DeviceDescription {
         return registered;
     }
 
+    /**
+     * Return a snapshot of the device to send to the Protocol Adapter. The snapshot is built the
+     * first time it's requested and then reused until the metadata of the device changes, so it
+     * must not be modified.
+     *
+     * @return The DeviceDescription representing the device
+     */
+    public DeviceDescription getDescription() {
+        DeviceDescription tmpDesc = description;
+
+        if (tmpDesc == null) {
+            tmpDesc = new DeviceDescription(this);
+            description = tmpDesc;
+        }
+
+        return tmpDesc;
+    }
+
+    /**
+     * Return a lightweight description of the device, holding only the device ID
+     *
+     * @return The DeviceDescription holding only the device ID
+     */
+    public DeviceDescription getHandle() {
+        return handle;
+    }
+
+    /**
+     * Set whether the observations should be pushed along with the lightweight description of the
+     * device instead of the full one
+     *
+     * @param pushHandle True to push the lightweight description
+     */
+    public void setPushHandle(boolean pushHandle) {
+        this.pushHandle = pushHandle;
+    }
+
+    /**
+     * Return the description of the device to push along with the observations
+     *
+     * @return The lightweight description or the full one, according to the configuration
+     */
+    public DeviceDescription getPushDescription() {
+        return pushHandle ? handle : getDescription();
+    }
+
     /**
      * Returns a read-friendly String representing the object
      *
@@ -34,19 +34,42 @@ import android.os.IBinder;
 import android.os.RemoteException;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import eu.fistar.sdcs.pa.common.Capabilities;
 import eu.fistar.sdcs.pa.common.DeviceDescription;
 import eu.fistar.sdcs.pa.common.IDeviceAdapterListener;
 import eu.fistar.sdcs.pa.common.Observation;
+import eu.fistar.sdcs.pa.common.PAAndroidConstants;
 import eu.fistar.sdcs.pa.common.da.IDeviceAdapter;
+import eu.fistar.sdcs.pa.da.zephyrbh.capture.PacketCapture;
+import eu.fistar.sdcs.pa.da.zephyrbh.capture.PacketJournalWriter;
+import eu.fistar.sdcs.pa.da.zephyrbh.spool.ObservationSpool;
+import eu.fistar.sdcs.pa.da.zephyrbh.utils.ConfigParser;
 import zephyr.android.BioHarnessBT.BTClient;
 
 /**
@@ -71,19 +94,145 @@ public class ZephyrBHDeviceAdapter extends Service {
         tmpConf.put(ZephyrBHConstants.CONFIG_NAME_ECG, ZephyrBHConstants.CONFIG_ENABLE);
         tmpConf.put(ZephyrBHConstants.CONFIG_NAME_RTOR, ZephyrBHConstants.CONFIG_DISABLE);
         tmpConf.put(ZephyrBHConstants.CONFIG_NAME_LOGGING, ZephyrBHConstants.CONFIG_DISABLE);
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_SUMMARY, ZephyrBHConstants.CONFIG_DISABLE);
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_EVENT, ZephyrBHConstants.CONFIG_DISABLE);
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_BATCH_MAX_SIZE, Integer.toString(ZephyrBHConstants.DEFAULT_BATCH_MAX_SIZE));
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_BATCH_MAX_DELAY, Long.toString(ZephyrBHConstants.DEFAULT_BATCH_MAX_DELAY));
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_WAVEFORM_ENCODING, ZephyrBHConstants.CONFIG_WAVEFORM_ENCODING_TEXT);
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_BUFFER_CAPACITY, Integer.toString(ZephyrBHConstants.DEFAULT_BUFFER_CAPACITY));
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_OVERFLOW_POLICY, ZephyrBHConstants.CONFIG_OVERFLOW_DROP_OLDEST);
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_PUSH_DEVICE_HANDLE, ZephyrBHConstants.CONFIG_DISABLE);
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_GENERAL_FIELDS, ZephyrBHConstants.CONFIG_ALL);
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_CHANGE_ONLY_FIELDS, "");
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_CHANGE_ONLY_HEARTBEAT, Long.toString(ZephyrBHConstants.DEFAULT_CHANGE_ONLY_HEARTBEAT));
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_MARK_GAPS, ZephyrBHConstants.CONFIG_DISABLE);
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_HRV_SUMMARY, ZephyrBHConstants.CONFIG_DISABLE);
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_BEAT_DETECTION, ZephyrBHConstants.CONFIG_DISABLE);
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER_FEATURES, ZephyrBHConstants.CONFIG_DISABLE);
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER_WINDOW, Long.toString(ZephyrBHConstants.DEFAULT_ACCELEROMETER_WINDOW));
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_ECG_RATE, "0");
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_BREATHING_RATE, "0");
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER_RATE, "0");
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_HRV_WINDOW, Long.toString(ZephyrBHConstants.DEFAULT_HRV_WINDOW));
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_HRV_INTERVAL, Long.toString(ZephyrBHConstants.DEFAULT_HRV_INTERVAL));
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_CONNECT_ATTEMPTS, Integer.toString(ZephyrBHConstants.DEFAULT_CONNECT_ATTEMPTS));
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_CONNECT_BACKOFF, Long.toString(ZephyrBHConstants.DEFAULT_CONNECT_BACKOFF));
+        tmpConf.put(ZephyrBHConstants.CONFIG_NAME_RECONNECT_WINDOW, Long.toString(ZephyrBHConstants.DEFAULT_RECONNECT_WINDOW));
         DEFAULT_CONFIG = Collections.unmodifiableMap(tmpConf);
     }
 
-    private IDeviceAdapterListener paApi;
+    private volatile IDeviceAdapterListener paApi;
 
-    private BluetoothAdapter btAdapt = BluetoothAdapter.getDefaultAdapter();
+    // Retrieved in the background by the warm-up, so that it doesn't delay the binding
+    private volatile BluetoothAdapter btAdapt;
 
-    private final Map<String, ZephyrBHDevice> connectedDevices = new HashMap<String, ZephyrBHDevice>();
-    private final List<String> pairedDevices = new CopyOnWriteArrayList<String>();
-    private final Map<String, Map<String, String>> devicesConfig = new HashMap<String, Map<String, String>>();
+    // Paired, whitelisted, blacklisted and connected devices, accessed both by Binder threads and by the devices' threads
+    private final DeviceRegistry registry = new DeviceRegistry();
 
-    private final List<String> blacklist = new CopyOnWriteArrayList<String>();
-    private final List<String> whitelist = new CopyOnWriteArrayList<String>();
+    // Warm-up started by the binding, retrieving the Bluetooth adapter, the paired devices and the spool; the API calls needing them wait for it.
+    // It runs on its own thread, along with the later scans of the paired devices, so it never waits behind the timed operations.
+    private volatile Future<?> warmUp;
+    private final ExecutorService warmUpExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ZephyrBH Warm-up");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // Whether the devices paired before the service was bound were retrieved, after which the bond events keep them up to date
+    private volatile boolean pairedDevicesScanned;
+    private final Map<String, Map<String, String>> devicesConfig = new ConcurrentHashMap<String, Map<String, String>>();
+
+    // Journal recording the raw packets of all the devices, if started
+    private PacketJournalWriter journal;
+
+    // Virtual devices replaying a packet capture
+    private final List<PacketReplayer> replayers = new CopyOnWriteArrayList<PacketReplayer>();
+
+    // Scheduler of the timed operations: the flushes of the batched observations, the retries of the connections and the spool draining.
+    // It only starts the pushes, which run on the delivery executor, so a slow Protocol Adapter doesn't delay the other operations
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    // Threads pushing the batches flushed by the scheduler and draining the spool, so that a slow push doesn't delay the other timed operations
+    private final ThreadPoolExecutor deliveryExecutor = newDeliveryExecutor();
+
+    // Connections to the devices in progress, run in the background and retried by the scheduler
+    private final ConnectScheduler connectScheduler = new ConnectScheduler(ZephyrBHConstants.CONNECT_CONCURRENCY, scheduler,
+            new ConnectScheduler.Connector() {
+                @Override
+                public boolean connect(String devId, long requested) {
+                    return connectDevice(devId, requested);
+                }
+
+                @Override
+                public void disconnect(String devId) {
+                    abortConnection(devId);
+                }
+            },
+            new ConnectScheduler.Listener() {
+                @Override
+                public void connected(String devId, int attempts, long elapsed) {
+                    report(PAAndroidConstants.LOG_LEVEL.INFO, "Connected to device " + devId + " in "
+                            + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms, " + attempts + " attempts");
+                }
+
+                @Override
+                public void failed(String devId, int attempts, long elapsed) {
+                    Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed connecting to device " + devId + " after " + attempts + " attempts");
+                    report(PAAndroidConstants.LOG_LEVEL.ERROR, "Failed connecting to device " + devId + " after " + attempts + " attempts in "
+                            + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
+
+                    // A device that couldn't reconnect within its window is disconnected for good
+                    ZephyrBHDevice device = registry.getConnected(devId);
+                    if (device != null && device.isReconnecting()) {
+                        try {
+                            paEndpoint.disconnectDev(devId);
+                        } catch (RemoteException e) {
+                            Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed notify device disconnection:\n" + devId);
+                        }
+                    }
+                }
+            });
+
+    // Spool of the observations that can't be delivered to the Protocol Adapter, drained periodically on the delivery executor
+    private volatile ObservationSpool spool;
+
+    // Whether a drain of the spool is queued or running, so that the drains never overlap
+    private final AtomicBoolean spoolDraining = new AtomicBoolean();
+
+    // Batches that couldn't be delivered while the warm-up was opening the spool, appended to it once it's open
+    private final List<HeldBatch> heldBatches = new ArrayList<HeldBatch>();
+    private volatile int heldObservations;
+    private volatile boolean spoolUnavailable;
+
+    // Devices whose connection was cancelled after the attempt succeeded, disconnected as soon as they connect
+    private final Set<String> abortedConnections = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // Devices connected while the Protocol Adapter couldn't be reached, registered when it registers
+    private final Set<String> unregisteredDevices = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Destination of the observations drained from the spool, the devices no longer connected are
+     * identified by their device ID
+     */
+    private final ObservationSpool.Sink spoolSink = new ObservationSpool.Sink() {
+        @Override
+        public boolean push(String devId, List<Observation> observations) {
+            IDeviceAdapterListener tmpApi = paApi;
+            if (tmpApi == null) return false;
+
+            ZephyrBHDevice device = registry.getConnected(devId);
+            try {
+                tmpApi.pushData(observations, device != null ? device.getPushDescription() : new DeviceDescription(devId));
+                return true;
+            } catch (RemoteException e) {
+                Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed pushing spooled measurements for device " + devId);
+                return false;
+            }
+        }
+    };
 
     /**
      * Implementation of the Device Adapter API (IDeviceAdapter) to pass to the Protocol Adapter
@@ -98,6 +247,12 @@ public class ZephyrBHDeviceAdapter extends Service {
         @Override
         public void registerDAListener(IBinder pa) {
             paApi = IDeviceAdapterListener.Stub.asInterface(pa);
+
+            // Register the devices that connected before the Protocol Adapter was available
+            for (String devId : unregisteredDevices) {
+                ZephyrBHDevice device = registry.getConnected(devId);
+                if (device != null && registerDevice(device)) unregisteredDevices.remove(devId);
+            }
         }
 
         /**
@@ -110,8 +265,8 @@ public class ZephyrBHDeviceAdapter extends Service {
             List<DeviceDescription> connDev = new ArrayList<DeviceDescription>();
 
             // Create a list of DeviceDescription starting from a list of ZephyrBHDevice
-            for (ZephyrBHDevice dev : connectedDevices.values()) {
-                connDev.add(new DeviceDescription(dev));
+            for (ZephyrBHDevice dev : registry.getConnectedDevices()) {
+                connDev.add(dev.getDescription());
             }
 
             // Return the list
@@ -126,7 +281,8 @@ public class ZephyrBHDeviceAdapter extends Service {
          */
         @Override
         public List<String> getPairedDevicesAddress() throws RemoteException {
-            return pairedDevices;
+            awaitReady();
+            return registry.getPaired();
         }
 
         /**
@@ -155,54 +311,76 @@ public class ZephyrBHDeviceAdapter extends Service {
 
             // Check whether the address provided is valid and the configuration is not null
             if (isValidDeviceId(devId) && config != null) {
+                Map<String, String> deviceConfig = toDeviceConfig(config);
 
                 // Remove previous configurations for that device
                 devicesConfig.remove(devId);
 
                 // Put the new configuration
-                devicesConfig.put(devId, config);
+                devicesConfig.put(devId, deviceConfig);
 
                 // Check whether the device is connected
-                ZephyrBHDevice device = connectedDevices.get(devId);
+                ZephyrBHDevice device = registry.getConnected(devId);
                 if (device != null) {
                     ZephyrBHConnectedListener listener = device.getListener();
 
                     // Set the new configuration
-                    if (ZephyrBHConstants.CONFIG_ENABLE.equals(config.get(ZephyrBHConstants.CONFIG_NAME_GENERAL))) {
+                    if (ZephyrBHConstants.CONFIG_ENABLE.equals(deviceConfig.get(ZephyrBHConstants.CONFIG_NAME_GENERAL))) {
                         listener.parseCommand(ZephyrBHConstants.COMMAND_ENABLE_GENERAL);
                     } else {
                         listener.parseCommand(ZephyrBHConstants.COMMAND_DISABLE_GENERAL);
                     }
 
-                    if (ZephyrBHConstants.CONFIG_ENABLE.equals(config.get(ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER))) {
+                    // The accelerometer features are computed on the Accelerometer Packet, so they need the packet as well
+                    if (ZephyrBHConstants.CONFIG_ENABLE.equals(deviceConfig.get(ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER))
+                            || ZephyrBHConstants.CONFIG_ENABLE.equals(deviceConfig.get(ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER_FEATURES))) {
                         listener.parseCommand(ZephyrBHConstants.COMMAND_ENABLE_ACCELEROMETER);
                     } else {
                         listener.parseCommand(ZephyrBHConstants.COMMAND_DISABLE_ACCELEROMETER);
                     }
 
-                    if (ZephyrBHConstants.CONFIG_ENABLE.equals(config.get(ZephyrBHConstants.CONFIG_NAME_BREATHING))) {
+                    if (ZephyrBHConstants.CONFIG_ENABLE.equals(deviceConfig.get(ZephyrBHConstants.CONFIG_NAME_BREATHING))) {
                         listener.parseCommand(ZephyrBHConstants.COMMAND_ENABLE_BREATHING);
                     } else {
                         listener.parseCommand(ZephyrBHConstants.COMMAND_DISABLE_BREATHING);
                     }
 
-                    if (ZephyrBHConstants.CONFIG_ENABLE.equals(config.get(ZephyrBHConstants.CONFIG_NAME_ECG))) {
+                    // The beats are detected on the ECG Packet, so they need the packet as well
+                    if (ZephyrBHConstants.CONFIG_ENABLE.equals(deviceConfig.get(ZephyrBHConstants.CONFIG_NAME_ECG))
+                            || ZephyrBHConstants.CONFIG_ENABLE.equals(deviceConfig.get(ZephyrBHConstants.CONFIG_NAME_BEAT_DETECTION))) {
                         listener.parseCommand(ZephyrBHConstants.COMMAND_ENABLE_ECG);
                     } else {
                         listener.parseCommand(ZephyrBHConstants.COMMAND_DISABLE_ECG);
                     }
 
-                    if (ZephyrBHConstants.CONFIG_ENABLE.equals(config.get(ZephyrBHConstants.CONFIG_NAME_RTOR))) {
+                    // The HRV summary is computed from the R to R Packet, so it needs the packet as well
+                    if (ZephyrBHConstants.CONFIG_ENABLE.equals(deviceConfig.get(ZephyrBHConstants.CONFIG_NAME_RTOR))
+                            || ZephyrBHConstants.CONFIG_ENABLE.equals(deviceConfig.get(ZephyrBHConstants.CONFIG_NAME_HRV_SUMMARY))) {
                         listener.parseCommand(ZephyrBHConstants.COMMAND_ENABLE_RTOR);
                     } else {
                         listener.parseCommand(ZephyrBHConstants.COMMAND_DISABLE_RTOR);
                     }
 
-                    if (ZephyrBHConstants.CONFIG_ENABLE.equals(config.get(ZephyrBHConstants.CONFIG_NAME_LOGGING))) {
+                    if (ZephyrBHConstants.CONFIG_ENABLE.equals(deviceConfig.get(ZephyrBHConstants.CONFIG_NAME_LOGGING))) {
                         listener.parseCommand(ZephyrBHConstants.COMMAND_ENABLE_LOGGING);
                     } else {
                         listener.parseCommand(ZephyrBHConstants.COMMAND_DISABLE_LOGGING);
                     }
+
+                    if (ZephyrBHConstants.CONFIG_ENABLE.equals(deviceConfig.get(ZephyrBHConstants.CONFIG_NAME_SUMMARY))) {
+                        listener.parseCommand(ZephyrBHConstants.COMMAND_ENABLE_SUMMARY);
+                    } else {
+                        listener.parseCommand(ZephyrBHConstants.COMMAND_DISABLE_SUMMARY);
+                    }
+
+                    if (ZephyrBHConstants.CONFIG_ENABLE.equals(deviceConfig.get(ZephyrBHConstants.CONFIG_NAME_EVENT))) {
+                        listener.parseCommand(ZephyrBHConstants.COMMAND_ENABLE_EVENT);
+                    } else {
+                        listener.parseCommand(ZephyrBHConstants.COMMAND_DISABLE_EVENT);
+                    }
+
+                    // Apply the parameters that don't need a command to the device
+                    listener.updateConfig(deviceConfig);
                 }
             }
 
@@ -225,11 +403,6 @@ public class ZephyrBHDeviceAdapter extends Service {
          */
         @Override
         public void start() throws RemoteException {
-            // Register the broadcast receiver to catch device bonding at runtime
-            IntentFilter filterPairedDevices = new IntentFilter();
-            filterPairedDevices.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
-            registerReceiver(broadcastPairedDevices, filterPairedDevices);
-
             // Register the broadcast receiver to catch device disconnection at runtime
             IntentFilter filterDisconnectedDevice = new IntentFilter();
             filterDisconnectedDevice.addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
@@ -247,13 +420,13 @@ public class ZephyrBHDeviceAdapter extends Service {
         @Override
         public void stop() throws RemoteException {
             // Unregister the broadcast receivers
-            unregisterReceiver(broadcastPairedDevices);
             unregisterReceiver(broadcastDeviceDisconnection);
             unregisterReceiver(broadcastBluetoothToggle);
 
-            // Close all connections
-            for (String tmpDev : connectedDevices.keySet()) {
-                disconnectDev(tmpDev);
+            // Stop the connections in progress and close all connections
+            connectScheduler.cancelAll();
+            for (ZephyrBHDevice tmpDev : registry.getConnectedDevices()) {
+                disconnectDev(tmpDev.getDeviceID());
             }
 
             // Perform a general clean
@@ -271,7 +444,8 @@ public class ZephyrBHDeviceAdapter extends Service {
             if (!isValidDeviceId(devId)) return;
 
             // Check if the device is paired and supported
-            if (!deviceIsInTheList(devId, pairedDevices)) throw new IllegalArgumentException("The device " + devId + " is not paired or not supported by Device Adapter!");
+            if (!awaitReady()) throw new IllegalStateException("The Device Adapter is not ready yet, try again later!");
+            if (!registry.isPaired(devId)) throw new IllegalArgumentException("The device " + devId + " is not paired or not supported by Device Adapter!");
 
             // Connect to the device using the forceConnectDev
             forceConnectDev(devId);
@@ -281,6 +455,8 @@ public class ZephyrBHDeviceAdapter extends Service {
         /**
          * Force connection to the device whose devID is passed as an argument. This method can be
          * used to connect a supported device that, for some reasons, is not recognised by the DA.
+         * The connection is made in the background by the connect scheduler, and retried if it
+         * fails; the device is registered with the Protocol Adapter when it's connected.
          *
          * @param devId The device ID (the MAC Address)
          */
@@ -291,21 +467,23 @@ public class ZephyrBHDeviceAdapter extends Service {
             if (!isValidDeviceId(devId)) return;
 
             // Check whether the device is allowed to connect based on blacklist/whitelist
-            if (!(whitelist.isEmpty() || deviceIsInTheList(devId, whitelist)) || deviceIsInTheList(devId, blacklist)) {
+            if (!registry.isAllowed(devId)) {
                 throw new IllegalArgumentException("Connection to device " + devId + " failed because of blacklist/whitelist settings!");
             }
 
-            // Check if there is a configuration entry inside the devicesConfig field, otherwise use the default configuration
-            Map<String, String> config = devicesConfig.get(devId);
-            if (config == null) config = DEFAULT_CONFIG;
+            // Nothing to do if the device is already connected, otherwise a previous cancellation no longer applies
+            if (registry.isConnected(devId)) return;
+            abortedConnections.remove(devId);
 
-            // Perform the connection using the Zephyr SDK
-            BTClient bt = new BTClient(btAdapt, devId);
-            bt.addConnectedEventListener(new ZephyrBHConnectedListener(ZephyrBHDeviceAdapter.this, devId, config));
+            // The connection needs the Bluetooth adapter
+            if (!awaitReady()) throw new IllegalStateException("The Device Adapter is not ready yet, try again later!");
 
-            if (bt.IsConnected()) {
-                bt.start();
-            }
+            // Connect in the background, retrying as required by the configuration; the outcome is reported through the log of the Protocol Adapter
+            Map<String, String> config = getDeviceConfig(devId);
+            connectScheduler.connect(devId,
+                    ConfigParser.getInt(config, ZephyrBHConstants.CONFIG_NAME_CONNECT_ATTEMPTS, ZephyrBHConstants.DEFAULT_CONNECT_ATTEMPTS),
+                    ConfigParser.getLong(config, ZephyrBHConstants.CONFIG_NAME_CONNECT_BACKOFF, ZephyrBHConstants.DEFAULT_CONNECT_BACKOFF),
+                    ZephyrBHConstants.CONNECT_MAX_BACKOFF);
         }
 
         /**
@@ -317,23 +495,36 @@ public class ZephyrBHDeviceAdapter extends Service {
             // Check if devId is a well formed BT MAC Address
             if (!isValidDeviceId(devId)) return;
 
-            ZephyrBHDevice device = connectedDevices.get(devId);
+            // Stop retrying the connection, if it's in progress
+            connectScheduler.cancel(devId);
+
+            ZephyrBHDevice device = registry.getConnected(devId);
 
             // Check if the device is in the connected device Map
             if (device != null) {
-                // Perform disconnection using the Zephyr SDK
-                device.getClient().removeConnectedEventListener(device.getListener());
-                device.getClient().Close();
+                // Perform disconnection using the Zephyr SDK, unless the connection is already lost; virtual devices have no client
+                BTClient client = device.disconnected();
+                if (client != null) {
+                    client.removeConnectedEventListener(device.getListener());
+                    client.Close();
+                }
 
-                // Notify the Protocol Adapter about device disconnection
-                try {
-                    paApi.deviceDisconnected(new DeviceDescription(device));
-                } catch (RemoteException e) {
-                    Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed notify device disconnection:\n" + device.toString());
+                // Process the packets still buffered and deliver the observations waiting in the batch
+                device.getDispatcher().shutdown();
+                device.getBatcher().flush();
+
+                // Notify the Protocol Adapter about device disconnection, if it knows the device
+                IDeviceAdapterListener tmpApi = paApi;
+                if (!unregisteredDevices.remove(device.getDeviceID()) && tmpApi != null) {
+                    try {
+                        tmpApi.deviceDisconnected(device.getDescription());
+                    } catch (RemoteException e) {
+                        Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed notify device disconnection:\n" + device.toString());
+                    }
                 }
 
                 // Remove the given device from the connected device Map
-                connectedDevices.remove(device.getDeviceID());
+                registry.removeConnected(device);
             }
 
         }
@@ -350,10 +541,7 @@ public class ZephyrBHDeviceAdapter extends Service {
         @Override
         public void addDeviceToWhitelist(String devId) throws RemoteException {
             // If the device is already in the list, just do nothing
-            if (!isValidDeviceId(devId) || deviceIsInTheList(devId, whitelist)) return;
-
-            // Othwerwise add it to the list
-            whitelist.add(devId);
+            if (!registry.getWhitelist().add(devId)) return;
 
             // Refresh the connection status to disconnect every connected device that is not in
             // the whitelist
@@ -369,10 +557,7 @@ public class ZephyrBHDeviceAdapter extends Service {
         @Override
         public void removeDeviceFromWhitelist(String devId) throws RemoteException {
             // If the device is not in the list, just do nothing
-            if (!isValidDeviceId(devId) || !deviceIsInTheList(devId, whitelist)) return;
-
-            // Othwerwise remove it from the list
-            whitelist.remove(devId);
+            registry.getWhitelist().remove(devId);
         }
 
         /**
@@ -384,7 +569,7 @@ public class ZephyrBHDeviceAdapter extends Service {
         @Override
         public List<String> getWhitelist() throws RemoteException {
             // Just return the whitelist
-            return whitelist;
+            return registry.getWhitelist().get();
         }
 
         /**
@@ -399,19 +584,12 @@ public class ZephyrBHDeviceAdapter extends Service {
         @Override
         public void setWhitelist(List<String> devicesId) throws RemoteException {
 
-            // Empty the list
-            emptyList(whitelist);
-
-            if (devicesId != null) {
-                // Add to the whitelist every element of the list passed as argument
-                for (String dev : devicesId) {
-                    if (isValidDeviceId(dev)) whitelist.add(dev);
-                }
+            // Replace the whole list at once
+            registry.getWhitelist().set(devicesId);
 
-                // Refresh the connection status to disconnect every connected device that is not in
-                // the whitelist
-                refreshConnections();
-            }
+            // Refresh the connection status to disconnect every connected device that is not in
+            // the whitelist
+            refreshConnections();
 
         }
 
@@ -427,13 +605,10 @@ public class ZephyrBHDeviceAdapter extends Service {
         @Override
         public void addDeviceToBlackList(String devId) throws RemoteException {
             // If the device is already in the list, just do nothing
-            if (!isValidDeviceId(devId) || deviceIsInTheList(devId, blacklist)) return;
+            if (!registry.getBlacklist().add(devId)) return;
 
-            // Othwerwise add it to the list
-            blacklist.add(devId);
-
-            // If the device is connected, disconnect it
-            if (connectedDevices.get(devId) != null) {
+            // If the device is connected or being connected, disconnect it
+            if (registry.isConnected(devId) || connectScheduler.isConnecting(devId)) {
                 disconnectDev(devId);
             }
         }
@@ -447,10 +622,7 @@ public class ZephyrBHDeviceAdapter extends Service {
         @Override
         public void removeDeviceFromBlacklist(String devId) throws RemoteException {
             // If the device is not in the list, just do nothing
-            if (!isValidDeviceId(devId) || !deviceIsInTheList(devId, blacklist)) return;
-
-            // Othwerwise remove it from the list
-            blacklist.remove(devId);
+            registry.getBlacklist().remove(devId);
 
         }
 
@@ -463,7 +635,7 @@ public class ZephyrBHDeviceAdapter extends Service {
         @Override
         public List<String> getBlacklist() throws RemoteException {
             // Just return the blacklist
-            return blacklist;
+            return registry.getBlacklist().get();
         }
 
         /**
@@ -477,22 +649,18 @@ public class ZephyrBHDeviceAdapter extends Service {
          */
         @Override
         public void setBlackList(List<String> devicesId) throws RemoteException {
-            // Empty the list
-            emptyList(blacklist);
-
-            if (devicesId != null) {
-                // Add to the blacklist every element of the list passed as argument
-                for (String dev : devicesId) {
-                    if (isValidDeviceId(dev)) {
-                        blacklist.add(dev);
-
-                        // If the device is connected, disconnect it
-                        if (connectedDevices.get(dev) != null) {
-                            disconnectDev(dev);
-                        }
-                    }
+            // Replace the whole list at once
+            registry.getBlacklist().set(devicesId);
+
+            // Disconnect every connected device that is in the blacklist, and stop connecting the ones being connected
+            for (ZephyrBHDevice dev : registry.getConnectedDevices()) {
+                if (registry.getBlacklist().contains(dev.getDeviceID())) {
+                    disconnectDev(dev.getDeviceID());
                 }
             }
+            for (String devId : registry.getBlacklist().get()) {
+                connectScheduler.cancel(devId);
+            }
 
         }
 
@@ -516,9 +684,31 @@ public class ZephyrBHDeviceAdapter extends Service {
          */
         @Override
         public void execCommand(String command, String parameter, String devId) throws RemoteException {
-            ZephyrBHDevice dev = connectedDevices.get(devId);
+
+            // Replay commands create or remove virtual devices, so they don't need a connected device
+            if (ZephyrBHConstants.COMMAND_START_REPLAY.equals(command)) {
+                if (!awaitReady()) throw new IllegalStateException("The Device Adapter is not ready yet, try again later!");
+                startReplay(parameter, devId);
+                return;
+            }
+            if (ZephyrBHConstants.COMMAND_STOP_REPLAY.equals(command)) {
+                stopReplay();
+                return;
+            }
+
+            // The journal records all the devices, so it doesn't need a connected device either
+            if (ZephyrBHConstants.COMMAND_START_JOURNAL.equals(command)) {
+                startJournal(parameter);
+                return;
+            }
+            if (ZephyrBHConstants.COMMAND_STOP_JOURNAL.equals(command)) {
+                stopJournal();
+                return;
+            }
+
+            ZephyrBHDevice dev = registry.getConnected(devId);
             if (dev != null) {
-                dev.getListener().parseCommand(command);
+                dev.getListener().parseCommand(command, parameter);
             } else {
                 throw new IllegalArgumentException("The device " + devId + " is not valid or not connected to Device Adapter at the moment!");
             }
@@ -544,17 +734,15 @@ public class ZephyrBHDeviceAdapter extends Service {
                 // If the device has been paired...
                 if (bondState == BluetoothDevice.BOND_BONDED) {
                     // ...check whether is supported and add it to the list
-                    if (isSupportedDevice(dev.getAddress())) {
-                        pairedDevices.add(dev.getAddress());
+                    if (isSupportedDevice(dev)) {
+                        registry.addPaired(dev.getAddress());
                     }
                 }
 
                 // If the device has been unpaired...
                 else if (bondState == BluetoothDevice.BOND_NONE) {
                     // ...remove it from the list
-                    if (pairedDevices.contains(dev.getAddress())) {
-                        pairedDevices.remove(dev.getAddress());
-                    }
+                    registry.removePaired(dev.getAddress());
                 }
             }
         }
@@ -576,8 +764,16 @@ public class ZephyrBHDeviceAdapter extends Service {
                 // Retrieve the device involved
                 String devAddr = ((BluetoothDevice) intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE)).getAddress();
 
-                // If the disconnected device was one of the device handled by this DA, close the connection properly and notify Protocol Adapter
-                if (connectedDevices.get(devAddr) != null) {
+                // If the disconnected device was one of the device handled by this DA, try to reconnect it within its window,
+                // otherwise close the connection properly and notify Protocol Adapter
+                ZephyrBHDevice device = registry.getConnected(devAddr);
+                if (device != null && !device.isReconnecting()) {
+                    long window = ConfigParser.getLong(getDeviceConfig(devAddr), ZephyrBHConstants.CONFIG_NAME_RECONNECT_WINDOW, ZephyrBHConstants.DEFAULT_RECONNECT_WINDOW);
+                    if (window > 0 && device.getClient() != null) {
+                        reconnectDevice(device, window);
+                        return;
+                    }
+
                     try {
                         paEndpoint.disconnectDev(devAddr);
                     } catch (RemoteException e) {
@@ -591,7 +787,9 @@ public class ZephyrBHDeviceAdapter extends Service {
     private BroadcastReceiver broadcastBluetoothToggle = new BroadcastReceiver() {
 
         /**
-         * Handle the turning off and on of Bluetooth, updating the list of paired devices
+         * Handle the turning on of Bluetooth, retrieving the paired devices if they couldn't be
+         * retrieved while Bluetooth was off. The bonds survive turning Bluetooth off, so the paired
+         * devices already known are kept.
          *
          * @param context The context provided by the OS
          * @param intent The Intent received from the OS
@@ -599,11 +797,14 @@ public class ZephyrBHDeviceAdapter extends Service {
         @Override
         public void onReceive(Context context, Intent intent) {
             if (BluetoothAdapter.ACTION_STATE_CHANGED.equals(intent.getAction())) {
-                if (intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, -1) == BluetoothAdapter.STATE_OFF) {
-                    pairedDevices.clear();
-                } else if (intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, -1) == BluetoothAdapter.STATE_ON) {
+                if (intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, -1) == BluetoothAdapter.STATE_ON) {
                     btAdapt = BluetoothAdapter.getDefaultAdapter();
-                    populatePairedDevices();
+                    if (!pairedDevicesScanned) warmUpExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            populatePairedDevices();
+                        }
+                    });
                 }
             }
         }
@@ -612,91 +813,554 @@ public class ZephyrBHDeviceAdapter extends Service {
     @Override
     public IBinder onBind(Intent intent) {
 
-        // Retrieve devices that are both paired and supported
-        populatePairedDevices();
+        // Retrieve the Bluetooth adapter, the devices that are both paired and supported and the observations spooled by a
+        // previous run in the background, so that the binding isn't delayed by them
+        startWarmUp();
 
         // Return the API endpoint
         return paEndpoint;
     }
 
+    @Override
+    public void onDestroy() {
+        // Skip the warm-up if it hasn't started yet, then stop the scheduler used for the delivery of batched observations
+        if (warmUp != null) warmUp.cancel(false);
+        warmUpExecutor.shutdown();
+        scheduler.shutdown();
+        deliveryExecutor.shutdown();
+        connectScheduler.shutdown();
+
+        // Stop tracking the bond events
+        if (warmUp != null) unregisterReceiver(broadcastPairedDevices);
+
+        // Flush the journal in progress, if any
+        stopJournal();
+
+        // Close the spool, the observations not delivered yet will be delivered by the next run
+        ObservationSpool tmpSpool = spool;
+        if (tmpSpool != null) {
+            try {
+                tmpSpool.close();
+            } catch (IOException e) {
+                Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed closing the observation spool", e);
+            }
+        }
+
+        super.onDestroy();
+    }
+
+    /**
+     * Callback used by listener to notify that a device has connected. If its connection was
+     * cancelled in the meantime, the device is disconnected instead.
+     *
+     * @param device The device involved in the event
+     * @return True if the device is connected, false if it was disconnected
+     */
+    public boolean deviceConnected(ZephyrBHDevice device) {
+
+        // Insert the newly connected device in the connected device Map, so that a connection cancelled from now on finds it
+        registry.putConnected(device);
+        if (abortedConnections.remove(device.getDeviceID())) {
+            BTClient client = device.disconnected();
+            if (client != null) {
+                client.removeConnectedEventListener(device.getListener());
+                client.Close();
+            }
+            registry.removeConnected(device);
+            report(PAAndroidConstants.LOG_LEVEL.INFO, "Connection to device " + device.getDeviceID() + " cancelled");
+            return false;
+        }
+
+        // Register the newly connected device with the Protocol Adapter, or as soon as it registers, then record it in the journal
+        unregisteredDevices.add(device.getDeviceID());
+        if (registerDevice(device)) unregisteredDevices.remove(device.getDeviceID());
+        joinJournal(device);
+        return true;
+    }
+
     /**
-     * Callback used by listener to notify that a device has connected
+     * Undo the connection of a device that succeeded while it was being cancelled. If the device
+     * has not notified its connection yet, it's disconnected as soon as it does.
+     *
+     * @param devId The device ID
+     */
+    private void abortConnection(String devId) {
+        abortedConnections.add(devId);
+
+        // The device may have connected in the meantime, whoever removes the mark disconnects it
+        if (registry.isConnected(devId) && abortedConnections.remove(devId)) {
+            try {
+                paEndpoint.disconnectDev(devId);
+            } catch (RemoteException e) {
+                Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed notify device disconnection:\n" + devId);
+            }
+        }
+    }
+
+    /**
+     * Callback used by listener to notify that a device has reconnected within its reconnect
+     * window. The device is still registered with the Protocol Adapter, so it's not registered
+     * again.
      *
      * @param device The device involved in the event
+     * @param duration The time the device was disconnected, in milliseconds
      */
-    public synchronized void deviceConnected(ZephyrBHDevice device) {
+    void deviceReconnected(ZephyrBHDevice device, long duration) {
+        device.getMetrics().reconnected(duration);
+        report(PAAndroidConstants.LOG_LEVEL.INFO, "Device " + device.getDeviceID() + " reconnected after " + duration + " ms");
+    }
+
+    /**
+     * Callback used by listener to deliver a new observation generated by the device
+     *
+     * @param observation The object containing the data provided by the device
+     * @param device The device involved in the event
+     */
+    public void receivedMeasurement(Observation observation, ZephyrBHDevice device) {
+
+        // Add the observation to the batch of the device, that will push it to the Protocol Adapter.
+        // No lock is taken here: every device has its own batch and its own dispatcher thread.
+        device.getBatcher().add(observation);
+    }
+
+    /**
+     * Register a device with the Protocol Adapter
+     *
+     * @param device The device to register
+     * @return True if the device was registered, false if the Protocol Adapter couldn't be reached
+     */
+    private boolean registerDevice(ZephyrBHDevice device) {
+        IDeviceAdapterListener tmpApi = paApi;
+        if (tmpApi == null) return false;
 
-        // Register the newly connected device with the Protocol Adapter
         try {
-            paApi.registerDevice(new DeviceDescription(device), DiscoveryResponder.CapabilitiesConstants.DA_ID);
+            tmpApi.registerDevice(device.getDescription(), DiscoveryResponder.CapabilitiesConstants.DA_ID);
+            return true;
         } catch (RemoteException e) {
             Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed registering new device:\n" + device.toString());
+            return false;
         }
+    }
+
+    /**
+     * Push a batch of observations generated by the device to the Protocol Adapter. If the Protocol
+     * Adapter can't be reached, or older observations are still waiting in the spool, the batch is
+     * appended to the spool, to be delivered in order when the Protocol Adapter is back. While the
+     * spool is being opened, the batch is kept in memory and appended to it once it's open.
+     *
+     * @param obsList The list of observations to deliver
+     * @param device The device involved in the event
+     * @return True if the observations were delivered or spooled, false if they were lost
+     */
+    boolean pushData(List<Observation> obsList, ZephyrBHDevice device) {
+        IDeviceAdapterListener tmpApi = paApi;
+        ObservationSpool tmpSpool = spool;
+
+        // Send the received measurements to the Protocol Adapter, unless older ones are waiting in the spool or for it to be opened
+        if (tmpApi != null && (tmpSpool == null ? heldObservations == 0 : tmpSpool.isEmpty())) {
+            try {
+                tmpApi.pushData(obsList, device.getPushDescription());
+                return true;
+            } catch (RemoteException e) {
+                Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed pushing device measurement:\n" + device.toString());
+            }
+        }
+
+        if (tmpSpool == null) {
+            if (holdUntilSpoolOpen(obsList, device)) return true;
 
-        // Insert the newly connected device in the connected device Map
-        connectedDevices.put(device.getDeviceID(), device);
+            Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Measurements lost, the Protocol Adapter is unavailable:\n" + device.toString());
+            return false;
+        }
+
+        return spoolBatch(tmpSpool, obsList, device);
     }
 
     /**
-     * Callback used by listener to deliver a new observation generated by the device
+     * Append a batch of observations to the spool
      *
-     * @param observation The object containing the data provided by the device
+     * @param tmpSpool The spool
+     * @param obsList The list of observations
+     * @param device The device involved in the event
+     * @return True if the observations were spooled, false if they were lost
+     */
+    private boolean spoolBatch(ObservationSpool tmpSpool, List<Observation> obsList, ZephyrBHDevice device) {
+        try {
+            tmpSpool.append(device.getDeviceID(), obsList);
+            device.getMetrics().observationsSpooled(obsList.size());
+            return true;
+        } catch (IOException e) {
+            Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed spooling device measurement:\n" + device.toString(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Keep a batch of observations in memory until the warm-up opens the spool, or append it to
+     * the spool if it has been opened in the meantime
+     *
+     * @param obsList The list of observations
      * @param device The device involved in the event
+     * @return True if the observations were kept or spooled, false if the spool can't be opened or
+     * too many observations are already waiting for it
      */
-    public synchronized void receivedMeasurement(Observation observation, ZephyrBHDevice device) {
+    private synchronized boolean holdUntilSpoolOpen(List<Observation> obsList, ZephyrBHDevice device) {
+        if (spool != null) return spoolBatch(spool, obsList, device);
 
-        // Create a list of observations
-        List<Observation> obsList = new ArrayList<Observation>();
-        obsList.add(observation);
+        // The spool is opened only by the warm-up started by the binding
+        if (warmUp == null || spoolUnavailable || heldObservations + obsList.size() > ZephyrBHConstants.SPOOL_MAX_HELD) return false;
 
-        // Send the received measurement to the Protocol Adapter
+        heldBatches.add(new HeldBatch(obsList, device));
+        heldObservations += obsList.size();
+        return true;
+    }
+
+    /**
+     * Open the spool and schedule its draining, unless it's already open. The batches kept in
+     * memory meanwhile are appended to the spool before it's used by anyone else.
+     */
+    private synchronized void openSpool() {
+        if (spool != null) return;
+
+        ObservationSpool tmpSpool;
         try {
-            paApi.pushData(obsList, new DeviceDescription(device));
+            tmpSpool = new ObservationSpool(new File(getFilesDir(), ZephyrBHConstants.SPOOL_DIRECTORY),
+                    ZephyrBHConstants.SPOOL_SEGMENT_SIZE, ZephyrBHConstants.SPOOL_MAX_SIZE);
+        } catch (IOException e) {
+            Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed opening the observation spool, measurements will be lost while the Protocol Adapter is unavailable", e);
+            if (heldObservations > 0) Log.e(LOGTAG_ZEPHYRBH_SERVICE, heldObservations + " measurements lost, the Protocol Adapter is unavailable");
+            spoolUnavailable = true;
+            heldBatches.clear();
+            heldObservations = 0;
+            return;
+        }
+
+        for (HeldBatch batch : heldBatches) {
+            spoolBatch(tmpSpool, batch.observations, batch.device);
+        }
+        heldBatches.clear();
+        heldObservations = 0;
+        spool = tmpSpool;
+
+        final Runnable drainTask = new Runnable() {
+            @Override
+            public void run() {
+                drainSpool();
+            }
+        };
+
+        // The scheduler only hands the drain over to the delivery executor, skipping it while the previous one is still running
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (!spoolDraining.compareAndSet(false, true)) return;
+
+                try {
+                    deliveryExecutor.execute(drainTask);
+                } catch (RejectedExecutionException e) {
+                    // The Device Adapter is shutting down
+                    spoolDraining.set(false);
+                }
+            }
+        }, ZephyrBHConstants.SPOOL_DRAIN_INTERVAL, ZephyrBHConstants.SPOOL_DRAIN_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Deliver a batch of spooled observations, if the Protocol Adapter is available, then flush the
+     * spool to the storage. Invoked on the delivery executor, one drain at a time.
+     */
+    private void drainSpool() {
+        ObservationSpool tmpSpool = spool;
+
+        try {
+            if (paApi != null && !tmpSpool.isEmpty()) tmpSpool.drain(spoolSink, ZephyrBHConstants.SPOOL_DRAIN_BATCH);
+            tmpSpool.sync();
+        } catch (IOException e) {
+            Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed draining the observation spool", e);
+        } catch (RuntimeException e) {
+            Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed draining the observation spool", e);
+        } finally {
+            spoolDraining.set(false);
+        }
+    }
+
+    /**
+     * Return the API endpoint of the Device Adapter
+     *
+     * @return The API endpoint passed to the Protocol Adapter
+     */
+    IDeviceAdapter.Stub getEndpoint() {
+        return paEndpoint;
+    }
+
+    /**
+     * Return the scheduler used for timed operations of the Device Adapter
+     *
+     * @return The scheduler of the Device Adapter
+     */
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Create the executor pushing the batches of observations flushed by the scheduler. Its
+     * threads are created on demand and terminate when idle.
+     *
+     * @return The delivery executor
+     */
+    private static ThreadPoolExecutor newDeliveryExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(ZephyrBHConstants.DELIVERY_CONCURRENCY, ZephyrBHConstants.DELIVERY_CONCURRENCY,
+                ZephyrBHConstants.DELIVERY_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ZephyrBH Delivery " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Return the executor pushing the batches of observations flushed by the scheduler
+     *
+     * @return The delivery executor of the Device Adapter
+     */
+    Executor getDeliveryExecutor() {
+        return deliveryExecutor;
+    }
+
+    /**
+     * Return the scheduler of the connections to the devices
+     *
+     * @return The connect scheduler of the Device Adapter
+     */
+    ConnectScheduler getConnectScheduler() {
+        return connectScheduler;
+    }
+
+    /**
+     * Try once to connect a device using the Zephyr SDK. This is invoked by the worker threads of
+     * the connect scheduler and blocks until the RFCOMM socket is connected or fails.
+     *
+     * @param devId The device ID
+     * @param requested The time of the connection request, as given by System.nanoTime()
+     * @return True if the device is connected, false if the attempt failed
+     */
+    private boolean connectDevice(String devId, long requested) {
+        ZephyrBHDevice device = registry.getConnected(devId);
+        if (device != null && !device.isReconnecting()) return true;
+
+        BTClient bt = new BTClient(btAdapt, devId);
+        if (!bt.IsConnected()) return false;
+
+        // A device reconnecting keeps its listener, so that its streams continue where they stopped.
+        // Otherwise the configuration is read now, so the changes made while connecting are applied.
+        ZephyrBHConnectedListener listener = device != null ? device.getListener()
+                : new ZephyrBHConnectedListener(this, devId, getDeviceConfig(devId));
+        listener.setConnectRequested(requested, connectScheduler.getTimeToFirstPacket());
+        bt.addConnectedEventListener(listener);
+        bt.start();
+        return true;
+    }
+
+    /**
+     * Release the lost connection of a device and try to reconnect it within its reconnect window.
+     * Meanwhile the device stays registered with the Protocol Adapter and the packets already
+     * received are processed; the commands changing the packets sent by the device are applied
+     * when it reconnects. If the window ends, the device is disconnected for good.
+     *
+     * @param device The device whose connection was lost
+     * @param window The reconnect window in milliseconds
+     */
+    private void reconnectDevice(ZephyrBHDevice device, long window) {
+        String devId = device.getDeviceID();
+        BTClient client = device.getClient();
+        if (!device.connectionLost(System.currentTimeMillis())) return;
+
+        device.getListener().connectionLost();
+        client.removeConnectedEventListener(device.getListener());
+        client.Close();
+        device.getBatcher().flush();
+
+        report(PAAndroidConstants.LOG_LEVEL.WARNING, "Lost connection to device " + devId + ", reconnecting for " + window + " ms");
+        connectScheduler.connect(devId, Integer.MAX_VALUE,
+                ConfigParser.getLong(getDeviceConfig(devId), ZephyrBHConstants.CONFIG_NAME_CONNECT_BACKOFF, ZephyrBHConstants.DEFAULT_CONNECT_BACKOFF),
+                ZephyrBHConstants.RECONNECT_MAX_BACKOFF, window);
+    }
+
+    /**
+     * Return the configuration of a device, or the default configuration if it has none
+     *
+     * @param devId The device ID
+     * @return The configuration of the device
+     */
+    private Map<String, String> getDeviceConfig(String devId) {
+        Map<String, String> config = devicesConfig.get(devId);
+        return config == null ? DEFAULT_CONFIG : config;
+    }
+
+    /**
+     * Write a message to the log of the Protocol Adapter, if it's registered
+     *
+     * @param level The level of the message, as in PAAndroidConstants.LOG_LEVEL
+     * @param message The message
+     */
+    private void report(int level, String message) {
+        IDeviceAdapterListener tmpApi = paApi;
+        if (tmpApi == null) return;
+
+        try {
+            tmpApi.log(level, LOGTAG_ZEPHYRBH_SERVICE, message);
         } catch (RemoteException e) {
-            Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed pushing device measurement:\n" + device.toString() + "\nFor device:\n" + device.toString());
+            Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed reporting to the Protocol Adapter: " + message);
         }
     }
 
     /**
-     * Check if the given device is in the provided device list
+     * Start replaying a packet capture on one or more virtual devices. The parameter has the form
+     * "file[,speed[,devices[,loops]]]": the capture file, relative to the capture directory; the
+     * speed factor, 1 for the original timing (default) or "max" to replay as fast as possible; the
+     * number of virtual devices (default 1) and the number of loops, 0 to replay until stopped
+     * (default 1). The virtual devices take the MAC Addresses following the given one and use their
+     * own configuration, if any, or the configuration of the given device.
      *
-     * @param devId The device to check
-     * @param list The list of devices
-     * @return True if the device is in the list, false otherwise
+     * @param parameter The parameter of the replay command
+     * @param devId The MAC Address of the first virtual device
      */
-    private boolean deviceIsInTheList(String devId, List<String> list) {
-        if (devId == null || "".equals(devId)) return false;
-        for (String dev:list) {
-            if (devId.equals(dev)) return true;
+    private void startReplay(String parameter, String devId) {
+        if (!isValidDeviceId(devId)) throw new IllegalArgumentException("The device ID " + devId + " is not a valid MAC Address!");
+        if (parameter == null || parameter.trim().isEmpty()) throw new IllegalArgumentException("The replay needs the name of a capture file!");
+
+        String[] args = parameter.split(",");
+        double speed = 1;
+        int devices = 1;
+        int loops = 1;
+        try {
+            if (args.length > 1) speed = ZephyrBHConstants.REPLAY_SPEED_MAX.equals(args[1].trim()) ? 0 : Double.parseDouble(args[1].trim());
+            if (args.length > 2) devices = Integer.parseInt(args[2].trim());
+            if (args.length > 3) loops = Integer.parseInt(args[3].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed replay parameter " + parameter + "!");
+        }
+        if (speed < 0 || devices < 1 || loops < 0) throw new IllegalArgumentException("Malformed replay parameter " + parameter + "!");
+
+        // The capture is read once and shared by all the virtual devices
+        PacketCapture capture;
+        File file = new File(new File(getFilesDir(), ZephyrBHConstants.CAPTURE_DIRECTORY), args[0].trim());
+        try {
+            capture = PacketCapture.read(file);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't read the capture file " + file + ": " + e.getMessage());
+        }
+
+        Map<String, String> baseConfig = devicesConfig.get(devId);
+        if (baseConfig == null) baseConfig = DEFAULT_CONFIG;
+
+        for (int i = 0; i < devices; i++) {
+            String virtualId = PacketReplayer.offsetAddress(devId, i);
+            if (registry.isConnected(virtualId)) {
+                Log.w(LOGTAG_ZEPHYRBH_SERVICE, "Device " + virtualId + " is already connected, not replaying on it");
+                continue;
+            }
+
+            Map<String, String> config = devicesConfig.get(virtualId);
+            if (config == null) config = baseConfig;
+
+            final PacketReplayer replayer = new PacketReplayer(this, virtualId, config, capture, speed, loops) {
+                @Override
+                public void run() {
+                    try {
+                        super.run();
+                    } finally {
+                        replayers.remove(this);
+                    }
+                }
+            };
+            replayers.add(replayer);
+            replayer.start();
         }
-        return false;
     }
 
     /**
-     * Remove every element on this list
+     * Start recording the raw packets of all the connected devices, and of the ones connecting
+     * later, in a journal, replacing the journal in progress, if any
      *
-     * @param list The list of devices
+     * @param name The name of the journal, relative to the journal directory of the Device Adapter,
+     *             or null to use a name made of the current time. An existing journal is continued.
      */
-    private void emptyList(List<String> list) {
+    private synchronized void startJournal(String name) {
+        if (name == null || name.trim().isEmpty()) name = "journal-" + System.currentTimeMillis();
 
-        if (list == null || list.isEmpty()) return;
+        stopJournal();
+        File dir = new File(new File(getFilesDir(), ZephyrBHConstants.JOURNAL_DIRECTORY), name.trim());
+        try {
+            journal = new PacketJournalWriter(dir, ZephyrBHConstants.JOURNAL_SEGMENT_SIZE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't create the journal " + name + ": " + e.getMessage());
+        }
 
-        for (String dev:list) {
-            list.remove(dev);
+        for (ZephyrBHDevice device : registry.getConnectedDevices()) {
+            joinJournal(device);
         }
+    }
 
+    /**
+     * Stop the journal in progress, if any, and flush it to the storage
+     */
+    private synchronized void stopJournal() {
+        if (journal == null) return;
+
+        for (ZephyrBHDevice device : registry.getConnectedDevices()) {
+            device.getDispatcher().setJournal(null);
+        }
+
+        try {
+            journal.close();
+            Log.i(LOGTAG_ZEPHYRBH_SERVICE, "Recorded " + journal.getPackets() + " packets in " + journal.getDirectory());
+        } catch (IOException e) {
+            Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed closing journal " + journal.getDirectory() + ": " + e.getMessage());
+        }
+        journal = null;
+    }
+
+    /**
+     * Start recording the packets of a device in the journal in progress, if any
+     *
+     * @param device The device to record
+     */
+    private synchronized void joinJournal(ZephyrBHDevice device) {
+        if (journal == null) return;
+
+        try {
+            device.getDispatcher().setJournal(journal.device(device.getDeviceID()));
+        } catch (IOException e) {
+            Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed adding device " + device.getDeviceID() + " to the journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop all the replays in progress, disconnecting their virtual devices
+     */
+    private void stopReplay() {
+        for (PacketReplayer replayer : replayers) {
+            replayer.interrupt();
+        }
     }
 
     /**
      * Check the whitelist for connected device not in the list and if any disconnects them
      */
     private void refreshConnections() {
-        if (whitelist.isEmpty()) return;
+        if (registry.getWhitelist().isEmpty()) return;
 
-        for (String dev:connectedDevices.keySet()) {
-            if (!whitelist.contains(dev)) {
+        for (ZephyrBHDevice dev : registry.getConnectedDevices()) {
+            if (!registry.getWhitelist().contains(dev.getDeviceID())) {
                 try {
-                    paEndpoint.disconnectDev(dev);
+                    paEndpoint.disconnectDev(dev.getDeviceID());
                 } catch (RemoteException e) {
                     return;
                 }
@@ -704,6 +1368,22 @@ public class ZephyrBHDeviceAdapter extends Service {
         }
     }
 
+    /**
+     * Copy the configuration received through AIDL, whose Map is not typed, into a map of
+     * strings. Entries with a null key are skipped.
+     *
+     * @param config The configuration received from the Protocol Adapter
+     * @return The configuration of the device
+     */
+    private static Map<String, String> toDeviceConfig(Map<?, ?> config) {
+        Map<String, String> deviceConfig = new HashMap<String, String>();
+        for (Map.Entry<?, ?> entry : config.entrySet()) {
+            if (entry.getKey() == null) continue;
+            deviceConfig.put(entry.getKey().toString(), entry.getValue() == null ? null : entry.getValue().toString());
+        }
+        return deviceConfig;
+    }
+
     /**
      * Validate the Device ID, which in the Zephry's case is the BT MAC Address
      *
@@ -711,46 +1391,123 @@ public class ZephyrBHDeviceAdapter extends Service {
      * @return True is the ID is valid, false otherwise
      */
     private boolean isValidDeviceId(String devId) {
-        if (devId == null || "".equals(devId)) return false;
-        return BluetoothAdapter.checkBluetoothAddress(devId.toUpperCase());
+        return DeviceRegistry.isValid(devId);
     }
 
     /**
-     * Check whether the device is both supported and paired
+     * Check whether a paired device is supported, that is whether its name starts with the prefix
+     * of the BioHarness. The outcome is recorded in the registry, so that the name of a device,
+     * which is retrieved from the Bluetooth service, is checked only once.
      *
-     * @param devId The device ID (the MAC Address)
+     * @param dev The paired device
      * @return True if the device is supported, false otherwise
      */
-    private boolean isSupportedDevice(String devId) {
+    private boolean isSupportedDevice(BluetoothDevice dev) {
 
         // Check if the Device ID is valid
+        String devId = dev.getAddress();
         if (!isValidDeviceId(devId)) return false;
 
-        // Retrieve the paired device in the system
-        Set<BluetoothDevice> devs = btAdapt.getBondedDevices();
+        Boolean supported = registry.getSupported(devId);
+        if (supported == null) {
+            // The name may not be known yet, in that case it's checked again at the next event
+            String name = dev.getName();
+            if (name == null) return false;
 
-        // Search for the given device and check if it's supported
-        for (BluetoothDevice tmpDev : devs) {
-            if (devId.equals(tmpDev.getAddress()) && tmpDev.getName().startsWith(DEVICE_NAME_PREFIX)) return true;
+            supported = name.startsWith(DEVICE_NAME_PREFIX);
+            registry.setSupported(devId, supported);
         }
+        return supported;
+    }
 
-        // If the given device is not paired or not supported return false
-        return false;
+    /**
+     * Start the warm-up of the service, once. The broadcast receiver catching device bonding at
+     * runtime is registered at once, then the warm-up thread retrieves the Bluetooth adapter and the
+     * devices already paired, and recovers the observations spooled by a previous run and starts
+     * delivering them.
+     */
+    private synchronized void startWarmUp() {
+        if (warmUp != null) return;
+
+        // The receiver is registered first, so that no bond event is missed during the scan
+        IntentFilter filterPairedDevices = new IntentFilter();
+        filterPairedDevices.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+        registerReceiver(broadcastPairedDevices, filterPairedDevices);
+
+        warmUp = warmUpExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                // The spool is opened anyway, since the batches waiting for it are held in memory
+                try {
+                    if (btAdapt == null) btAdapt = BluetoothAdapter.getDefaultAdapter();
+                    populatePairedDevices();
+                } finally {
+                    openSpool();
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for the warm-up of the service to be over, if it's in progress, for READY_TIMEOUT at
+     * most. This must not be called by the warm-up thread.
+     *
+     * @return True if the warm-up is over, false if it's still in progress or the Device Adapter is
+     * shutting down
+     */
+    private boolean awaitReady() {
+        Future<?> tmpWarmUp = warmUp;
+        if (tmpWarmUp == null) return true;
+
+        try {
+            tmpWarmUp.get(ZephyrBHConstants.READY_TIMEOUT, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            // The warm-up is over anyway, the Device Adapter goes on without what it couldn't retrieve
+            Log.e(LOGTAG_ZEPHYRBH_SERVICE, "Failed warming up the Device Adapter", e.getCause());
+            return true;
+        } catch (TimeoutException e) {
+            Log.w(LOGTAG_ZEPHYRBH_SERVICE, "The warm-up of the Device Adapter is taking more than " + ZephyrBHConstants.READY_TIMEOUT + " ms");
+            return false;
+        } catch (CancellationException e) {
+            // The Device Adapter is shutting down
+            return false;
+        }
     }
 
     /**
      * Populate the pairedDevice list with Device IDs of supported devices that are also paired in
-     * the system
+     * the system. The paired devices can't be retrieved while Bluetooth is off, in that case they're
+     * retrieved when it's turned on.
      */
     private void populatePairedDevices() {
+        BluetoothAdapter tmpAdapt = btAdapt;
+        if (tmpAdapt == null || !tmpAdapt.isEnabled()) return;
+
         // Retrieve the paired device in the system
-        Set<BluetoothDevice> devs = btAdapt.getBondedDevices();
+        Set<BluetoothDevice> devs = tmpAdapt.getBondedDevices();
 
         // Search in the device list for devices that are both paired and supported and add them to the list
         for (BluetoothDevice tmpDev : devs) {
-            if (tmpDev.getName().startsWith(DEVICE_NAME_PREFIX))
-                pairedDevices.add(tmpDev.getAddress());
+            if (isSupportedDevice(tmpDev)) registry.addPaired(tmpDev.getAddress());
         }
+        pairedDevicesScanned = true;
     }
 
+    /**
+     * A batch of observations waiting for the spool to be opened
+     */
+    private static class HeldBatch {
+
+        final List<Observation> observations;
+        final ZephyrBHDevice device;
+
+        HeldBatch(List<Observation> observations, ZephyrBHDevice device) {
+            this.observations = observations;
+            this.device = device;
+        }
+    }
 }
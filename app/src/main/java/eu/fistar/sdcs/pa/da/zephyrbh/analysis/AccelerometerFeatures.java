@@ -0,0 +1,335 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh.analysis;
+
+/**
+ * This class extracts the features of the BioHarness accelerometer over consecutive windows: the
+ * mean vector magnitude, the activity counts, the step cadence and the change of posture since the
+ * previous window. Impacts, the samples whose magnitude exceeds a fall-like threshold, are found
+ * sample by sample as events.
+ *
+ * The samples of a window are kept in a single interleaved buffer (x, y, z for every sample),
+ * allocated once, and the steps are counted sample by sample, so the detection is not affected by
+ * the window boundaries.
+ *
+ * An instance must be used by a single thread.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class AccelerometerFeatures {
+
+    // The BioHarness sends 20 accelerometer samples every 400 ms
+    public static final long SAMPLE_PERIOD = 20;
+    public static final long MIN_WINDOW = 400;
+    public static final long MAX_WINDOW = 60000;
+
+    // Dynamic magnitude in g above which a step starts, and below which the next one can start
+    private static final double STEP_THRESHOLD = 0.15;
+    private static final double STEP_RESET = 0.05;
+
+    // Minimum interval between two steps in samples (250 ms, 240 steps per minute)
+    private static final int STEP_MIN_INTERVAL = 12;
+
+    // Weight of a new sample in the estimate of the gravity for the step detection (about 1 s)
+    private static final double GRAVITY_WEIGHT = 0.02;
+
+    // Magnitude in g of a fall-like impact, and minimum interval between two impacts in samples
+    private static final double IMPACT_THRESHOLD = 2.5;
+    private static final int IMPACT_MIN_INTERVAL = 50;
+
+    // Maximum number of impacts reported by a single call, more than a packet can hold
+    private static final int MAX_IMPACTS = 4;
+
+    private final long window;
+    private final double[] samples;
+    private final int windowSamples;
+    private int count;
+    private long windowTime;
+
+    // Features of the last window
+    private long featuresTime;
+    private double meanMagnitude;
+    private double activityCounts;
+    private double cadence;
+    private double postureChange = Double.NaN;
+
+    // Mean gravity vector of the previous window
+    private boolean hasGravity;
+    private double gravityX;
+    private double gravityY;
+    private double gravityZ;
+
+    // Step detection
+    private double gravityEstimate = Double.NaN;
+    private boolean stepArmed = true;
+    private long sinceStep = STEP_MIN_INTERVAL;
+    private int steps;
+
+    // Impact detection
+    private long sinceImpact = IMPACT_MIN_INTERVAL;
+    private final long[] impactTimes = new long[MAX_IMPACTS];
+    private final double[] impactPeaks = new double[MAX_IMPACTS];
+    private int impacts;
+
+    /**
+     * Create the feature extractor
+     *
+     * @param window The duration of a window in milliseconds, between MIN_WINDOW and MAX_WINDOW
+     */
+    public AccelerometerFeatures(long window) {
+        if (window < MIN_WINDOW || window > MAX_WINDOW) {
+            throw new IllegalArgumentException("The accelerometer window must be between " + MIN_WINDOW + " and " + MAX_WINDOW + " ms!");
+        }
+
+        this.window = window;
+        windowSamples = (int) (window / SAMPLE_PERIOD);
+        samples = new double[windowSamples * 3];
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Add the samples of a BioHarness accelerometer packet
+     *
+     * @param x The samples of the X axis in g
+     * @param y The samples of the Y axis in g
+     * @param z The samples of the Z axis in g
+     * @param n The number of samples of every axis
+     * @param timestamp The time of the first sample
+     * @return True if a window has been completed, its features are available through the getters
+     */
+    public boolean addSamples(double[] x, double[] y, double[] z, int n, long timestamp) {
+        boolean completed = false;
+        impacts = 0;
+
+        for (int i = 0; i < n; i++) {
+            long time = timestamp + i * SAMPLE_PERIOD;
+            if (count == 0) windowTime = time;
+
+            int j = count * 3;
+            samples[j] = x[i];
+            samples[j + 1] = y[i];
+            samples[j + 2] = z[i];
+            count++;
+
+            detect(Math.sqrt(x[i] * x[i] + y[i] * y[i] + z[i] * z[i]), time);
+
+            if (count == windowSamples) {
+                computeFeatures();
+                count = 0;
+                completed = true;
+            }
+        }
+
+        return completed;
+    }
+
+    /**
+     * Discard the current window and the state of the detectors, for example because packets are
+     * missing
+     */
+    public void reset() {
+        count = 0;
+        steps = 0;
+        hasGravity = false;
+        gravityEstimate = Double.NaN;
+        stepArmed = true;
+        sinceStep = STEP_MIN_INTERVAL;
+        sinceImpact = IMPACT_MIN_INTERVAL;
+    }
+
+    /**
+     * Return the time the last window started at
+     *
+     * @return The time of the first sample of the window
+     */
+    public long getFeaturesTime() {
+        return featuresTime;
+    }
+
+    /**
+     * Return the duration of a window, rounded to whole samples
+     *
+     * @return The duration in milliseconds
+     */
+    public long getFeaturesDuration() {
+        return windowSamples * SAMPLE_PERIOD;
+    }
+
+    /**
+     * Return the mean vector magnitude of the last window
+     *
+     * @return The mean magnitude in g
+     */
+    public double getMeanMagnitude() {
+        return meanMagnitude;
+    }
+
+    /**
+     * Return the activity counts of the last window, the integral of the magnitude of the
+     * acceleration once the gravity is removed
+     *
+     * @return The activity counts, a count being 1 mg for 1 second
+     */
+    public double getActivityCounts() {
+        return activityCounts;
+    }
+
+    /**
+     * Return the step cadence over the last window
+     *
+     * @return The steps per minute
+     */
+    public double getCadence() {
+        return cadence;
+    }
+
+    /**
+     * Return the angle between the gravity in the last window and in the one before
+     *
+     * @return The angle in degrees, NaN for the first window
+     */
+    public double getPostureChange() {
+        return postureChange;
+    }
+
+    /**
+     * Return the number of impacts found by the last call to addSamples
+     *
+     * @return The number of impacts
+     */
+    public int getImpacts() {
+        return impacts;
+    }
+
+    public long getImpactTime(int impact) {
+        return impactTimes[impact];
+    }
+
+    /**
+     * Return the peak magnitude of an impact found by the last call to addSamples, up to the end
+     * of the call
+     *
+     * @param impact The index of the impact
+     * @return The peak magnitude in g
+     */
+    public double getImpactPeak(int impact) {
+        return impactPeaks[impact];
+    }
+
+    /**
+     * Look for steps and impacts at every sample
+     *
+     * @param magnitude The vector magnitude of the sample
+     * @param time The time of the sample
+     */
+    private void detect(double magnitude, long time) {
+
+        // A step is a peak of the magnitude above the slowly moving gravity estimate
+        if (Double.isNaN(gravityEstimate)) gravityEstimate = magnitude;
+        gravityEstimate += (magnitude - gravityEstimate) * GRAVITY_WEIGHT;
+        double dynamic = magnitude - gravityEstimate;
+
+        sinceStep++;
+        if (stepArmed && dynamic > STEP_THRESHOLD && sinceStep >= STEP_MIN_INTERVAL) {
+            steps++;
+            sinceStep = 0;
+            stepArmed = false;
+        } else if (dynamic < STEP_RESET) {
+            stepArmed = true;
+        }
+
+        // An impact lasts until the minimum interval is over, its peak is the highest magnitude
+        sinceImpact++;
+        if (magnitude > IMPACT_THRESHOLD) {
+            if (sinceImpact >= IMPACT_MIN_INTERVAL) {
+                if (impacts < MAX_IMPACTS) {
+                    impactTimes[impacts] = time;
+                    impactPeaks[impacts] = magnitude;
+                    impacts++;
+                }
+                sinceImpact = 0;
+            } else if (impacts > 0 && magnitude > impactPeaks[impacts - 1]) {
+                impactPeaks[impacts - 1] = magnitude;
+            }
+        }
+    }
+
+    /**
+     * Compute the features of the window in the buffer
+     */
+    private void computeFeatures() {
+        double sumX = 0;
+        double sumY = 0;
+        double sumZ = 0;
+        double sumMagnitude = 0;
+
+        for (int j = 0; j < samples.length; j += 3) {
+            double x = samples[j];
+            double y = samples[j + 1];
+            double z = samples[j + 2];
+            sumX += x;
+            sumY += y;
+            sumZ += z;
+            sumMagnitude += Math.sqrt(x * x + y * y + z * z);
+        }
+
+        double meanX = sumX / windowSamples;
+        double meanY = sumY / windowSamples;
+        double meanZ = sumZ / windowSamples;
+
+        // The dynamic acceleration is what remains once the mean gravity vector is removed
+        double sumDynamic = 0;
+        for (int j = 0; j < samples.length; j += 3) {
+            double x = samples[j] - meanX;
+            double y = samples[j + 1] - meanY;
+            double z = samples[j + 2] - meanZ;
+            sumDynamic += Math.sqrt(x * x + y * y + z * z);
+        }
+
+        featuresTime = windowTime;
+        meanMagnitude = sumMagnitude / windowSamples;
+        // From g to mg, times the sample period in seconds
+        activityCounts = sumDynamic * SAMPLE_PERIOD;
+        cadence = steps * 60000.0 / getFeaturesDuration();
+        steps = 0;
+
+        // The posture change is the angle between the gravity vectors of two windows
+        postureChange = hasGravity ? angle(gravityX, gravityY, gravityZ, meanX, meanY, meanZ) : Double.NaN;
+        gravityX = meanX;
+        gravityY = meanY;
+        gravityZ = meanZ;
+        hasGravity = true;
+    }
+
+    private static double angle(double x1, double y1, double z1, double x2, double y2, double z2) {
+        double norms = Math.sqrt((x1 * x1 + y1 * y1 + z1 * z1) * (x2 * x2 + y2 * y2 + z2 * z2));
+        if (norms == 0) return Double.NaN;
+
+        double cosine = (x1 * x2 + y1 * y2 + z1 * z2) / norms;
+        return Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, cosine))));
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh.analysis;
+
+/**
+ * This class reduces the sample rate of a waveform by an integer factor, after an anti-alias low
+ * pass filter. The filter is a linear phase FIR, a Hamming windowed sinc with the cutoff just
+ * below the new Nyquist frequency, and it's evaluated only for the samples kept. The history of
+ * the filter and the phase of the decimation are carried from a packet to the next, so the output
+ * is the same as if the stream were processed in a single block, and the samples are decimated in
+ * place.
+ *
+ * The output is delayed by half the length of the filter, the time of the first output sample of
+ * every block accounts for it.
+ *
+ * An instance must be used by a single thread.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class FirDecimator {
+
+    // Taps of the filter for every unit of the decimation factor, and their maximum
+    private static final int TAPS_PER_FACTOR = 16;
+    private static final int MAX_TAPS = 1025;
+
+    // Cutoff frequency of the filter, as a fraction of the Nyquist frequency of the output
+    private static final double CUTOFF = 0.9;
+
+    private final int factor;
+    private final long period;
+    private final double[] coefficients;
+    private final double[] history;
+    private int position;
+    private int phase;
+    private boolean primed;
+
+    // Offset in the last block of the input sample the first output was computed at
+    private int firstOutput;
+
+    /**
+     * Create a decimator
+     *
+     * @param factor The decimation factor, one sample is kept every factor samples
+     * @param period The sample period of the input in milliseconds
+     */
+    public FirDecimator(int factor, long period) {
+        if (factor < 1) throw new IllegalArgumentException("The decimation factor must be positive!");
+
+        this.factor = factor;
+        this.period = period;
+
+        int taps = Math.min(TAPS_PER_FACTOR * factor + 1, MAX_TAPS);
+        coefficients = new double[taps];
+        history = new double[taps];
+
+        // Windowed sinc, normalised for unit gain at DC
+        double cutoff = CUTOFF * 0.5 / factor;
+        double sum = 0;
+        int middle = (taps - 1) / 2;
+        for (int i = 0; i < taps; i++) {
+            int k = i - middle;
+            double sinc = k == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * k) / (Math.PI * k);
+            double window = taps == 1 ? 1 : 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (taps - 1));
+            coefficients[i] = sinc * window;
+            sum += coefficients[i];
+        }
+        for (int i = 0; i < taps; i++) {
+            coefficients[i] /= sum;
+        }
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    /**
+     * Return the sample period of the output
+     *
+     * @return The period in milliseconds
+     */
+    public long getOutputPeriod() {
+        return period * factor;
+    }
+
+    /**
+     * Return the time of the first output sample of the last block
+     *
+     * @param timestamp The time of the first input sample of the last block
+     * @return The time of the first output sample, accounting for the delay of the filter
+     */
+    public long getOutputTime(long timestamp) {
+        return timestamp + (firstOutput - (coefficients.length - 1) / 2) * period;
+    }
+
+    /**
+     * Restart the filter from the next sample, for example because packets are missing
+     */
+    public void reset() {
+        primed = false;
+        phase = 0;
+    }
+
+    /**
+     * Decimate a block of samples in place
+     *
+     * @param samples The samples, replaced by the output from the first position
+     * @param count The number of input samples
+     * @return The number of output samples, it can be 0 if the block is shorter than the factor
+     */
+    public int decimate(double[] samples, int count) {
+        int outputs = 0;
+        firstOutput = -1;
+
+        for (int i = 0; i < count; i++) {
+            if (add(samples[i])) {
+                if (outputs == 0) firstOutput = i;
+                samples[outputs++] = filter();
+            }
+        }
+
+        return outputs;
+    }
+
+    /**
+     * Decimate a block of 16 bit samples in place, rounding the output
+     *
+     * @param samples The samples, replaced by the output from the first position
+     * @param count The number of input samples
+     * @return The number of output samples, it can be 0 if the block is shorter than the factor
+     */
+    public int decimate(short[] samples, int count) {
+        int outputs = 0;
+        firstOutput = -1;
+
+        for (int i = 0; i < count; i++) {
+            if (add(samples[i])) {
+                if (outputs == 0) firstOutput = i;
+                long value = Math.round(filter());
+                samples[outputs++] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            }
+        }
+
+        return outputs;
+    }
+
+    /**
+     * Add a sample to the history of the filter
+     *
+     * @param x The sample
+     * @return True if an output sample is due
+     */
+    private boolean add(double x) {
+
+        // Fill the history as if the signal had always been equal to the first sample
+        if (!primed) {
+            for (int i = 0; i < history.length; i++) history[i] = x;
+            primed = true;
+        }
+
+        history[position] = x;
+        position = position + 1 == history.length ? 0 : position + 1;
+
+        if (phase == 0) {
+            phase = factor - 1;
+            return true;
+        }
+        phase--;
+        return false;
+    }
+
+    /**
+     * Compute the output of the filter for the last sample added
+     */
+    private double filter() {
+        double sum = 0;
+        int index = position;
+
+        // The coefficients are symmetric, so they can be applied from the oldest sample
+        for (int i = 0; i < coefficients.length; i++) {
+            sum += coefficients[i] * history[index];
+            index = index + 1 == history.length ? 0 : index + 1;
+        }
+
+        return sum;
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh.analysis;
+
+/**
+ * This class computes the heart rate variability over a sliding window of R to R intervals. The
+ * intervals are kept in a ring buffer together with running sums, so adding an interval and
+ * reading the statistics take constant time: every interval enters and leaves the window once.
+ * The sums are integers, so they don't drift however long the engine runs.
+ *
+ * Intervals out of the physiological range, or differing more than 20% from the previous one, are
+ * rejected as artifacts. A rejected interval, or a gap in the stream, breaks the chain of successive
+ * differences, so RMSSD and pNN50 are never computed across a hole.
+ *
+ * An instance must be used by a single thread.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class HrvEngine {
+
+    // Physiological range of the R to R interval in milliseconds (220 to 30 bpm)
+    public static final int MIN_INTERVAL = 273;
+    public static final int MAX_INTERVAL = 2000;
+
+    // Maximum change from the previous interval, as a fraction of it
+    private static final double MAX_RELATIVE_CHANGE = 0.2;
+
+    // After this many consecutive rejections the heart rate is considered really changed
+    private static final int MAX_CONSECUTIVE_REJECTIONS = 3;
+
+    // Successive differences above this threshold count for pNN50, squared
+    private static final long NN50_SQUARED = 50 * 50;
+
+    private final long window;
+    private final int[] intervals;
+    private final long[] squaredDiffs;
+    private int head;
+    private int count;
+
+    // Running sums over the intervals in the window
+    private long sum;
+    private long sumOfSquares;
+    private long diffSum;
+    private int diffCount;
+    private int nn50Count;
+
+    // Last accepted interval, and whether the next one will be adjacent to it
+    private int lastInterval;
+    private boolean hasLastInterval;
+    private boolean adjacent;
+    private int consecutiveRejections;
+    private long rejected;
+
+    // Sign of the last R to R sample received from the device, 0 if unknown
+    private int lastSign;
+
+    /**
+     * Create an engine
+     *
+     * @param window The duration of the sliding window in milliseconds
+     */
+    public HrvEngine(long window) {
+        if (window < MAX_INTERVAL) throw new IllegalArgumentException("The HRV window must be at least " + MAX_INTERVAL + " ms!");
+
+        this.window = window;
+        int capacity = (int) (window / MIN_INTERVAL) + 1;
+        intervals = new int[capacity];
+        squaredDiffs = new long[capacity];
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Add the samples of a BioHarness R to R packet. Every sample holds the last R to R interval in
+     * milliseconds, and its sign flips every time a new R wave is detected, so a new interval is
+     * added only when the sign changes.
+     *
+     * @param samples The samples of the packet, as unsigned 16 bit values
+     * @return The number of new intervals found in the samples
+     */
+    public int addRtoRSamples(int[] samples) {
+        int found = 0;
+
+        for (int sample : samples) {
+            int value = (short) sample;
+            if (value == 0) continue;
+
+            int sign = value > 0 ? 1 : -1;
+            if (lastSign != 0 && sign != lastSign) {
+                addInterval(Math.abs(value));
+                found++;
+            }
+            lastSign = sign;
+        }
+
+        return found;
+    }
+
+    /**
+     * Add an R to R interval to the window, unless it's an artifact
+     *
+     * @param interval The R to R interval in milliseconds
+     * @return True if the interval was added, false if it was rejected
+     */
+    public boolean addInterval(int interval) {
+
+        // Reject the intervals out of range, and the ones changing too much unless the change persists
+        boolean artifact = interval < MIN_INTERVAL || interval > MAX_INTERVAL;
+        if (!artifact && hasLastInterval && Math.abs(interval - lastInterval) > lastInterval * MAX_RELATIVE_CHANGE) {
+            artifact = ++consecutiveRejections <= MAX_CONSECUTIVE_REJECTIONS;
+        }
+        if (artifact) {
+            rejected++;
+            adjacent = false;
+            return false;
+        }
+        consecutiveRejections = 0;
+
+        if (count == intervals.length) evictOldest();
+
+        int index = (head + count) % intervals.length;
+        intervals[index] = interval;
+        sum += interval;
+        sumOfSquares += (long) interval * interval;
+        count++;
+
+        // The successive difference with the previous interval, if they are adjacent
+        if (adjacent) {
+            long diff = interval - lastInterval;
+            squaredDiffs[index] = diff * diff;
+            diffSum += diff * diff;
+            diffCount++;
+            if (diff * diff > NN50_SQUARED) nn50Count++;
+        } else {
+            squaredDiffs[index] = -1;
+        }
+        lastInterval = interval;
+        hasLastInterval = true;
+        adjacent = true;
+
+        // Keep in the window only the most recent intervals fitting its duration
+        while (count > 1 && sum > window) {
+            evictOldest();
+        }
+
+        return true;
+    }
+
+    /**
+     * Break the chain of successive intervals, for example because packets are missing. The
+     * intervals in the window are kept.
+     */
+    public void breakSequence() {
+        hasLastInterval = false;
+        adjacent = false;
+        consecutiveRejections = 0;
+        lastSign = 0;
+    }
+
+    /**
+     * Remove the oldest interval from the window, along with the successive difference that
+     * links it to the next one
+     */
+    private void evictOldest() {
+        int oldest = intervals[head];
+        sum -= oldest;
+        sumOfSquares -= (long) oldest * oldest;
+
+        int next = (head + 1) % intervals.length;
+        if (count > 1 && squaredDiffs[next] >= 0) {
+            diffSum -= squaredDiffs[next];
+            diffCount--;
+            if (squaredDiffs[next] > NN50_SQUARED) nn50Count--;
+            squaredDiffs[next] = -1;
+        }
+
+        head = next;
+        count--;
+    }
+
+    /**
+     * Return the number of intervals in the window
+     *
+     * @return The number of intervals
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Return the time covered by the intervals in the window
+     *
+     * @return The sum of the intervals in milliseconds
+     */
+    public long getSpan() {
+        return sum;
+    }
+
+    /**
+     * Return the number of intervals rejected as artifacts since the engine was created
+     *
+     * @return The number of rejected intervals
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Return the standard deviation of the intervals in the window
+     *
+     * @return SDNN in milliseconds, NaN with less than two intervals
+     */
+    public double getSdnn() {
+        if (count < 2) return Double.NaN;
+        double variance = (sumOfSquares - (double) sum * sum / count) / (count - 1);
+        return Math.sqrt(Math.max(0, variance));
+    }
+
+    /**
+     * Return the root mean square of the successive differences in the window
+     *
+     * @return RMSSD in milliseconds, NaN without successive differences
+     */
+    public double getRmssd() {
+        return diffCount == 0 ? Double.NaN : Math.sqrt((double) diffSum / diffCount);
+    }
+
+    /**
+     * Return the percentage of successive differences greater than 50 ms in the window
+     *
+     * @return pNN50 as a percentage, NaN without successive differences
+     */
+    public double getPnn50() {
+        return diffCount == 0 ? Double.NaN : 100.0 * nn50Count / diffCount;
+    }
+
+    /**
+     * Return the mean heart rate over the window
+     *
+     * @return The mean heart rate in bpm, NaN without intervals
+     */
+    public double getMeanHeartRate() {
+        return count == 0 ? Double.NaN : 60000.0 * count / sum;
+    }
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh.analysis;
+
+/**
+ * This class detects the R peaks in the ECG stream of the BioHarness, sample by sample, with the
+ * filter chain of Pan and Tompkins: an integer band pass filter, a derivative, squaring and a
+ * moving window integration. The peaks of the integrated signal are classified as QRS complexes or
+ * noise with two adaptive thresholds, with a refractory period, the rejection of T waves and a
+ * search back for the beats missed when the R to R interval grows too long. The R peak itself is
+ * located on the band passed signal, before the delay of the integration.
+ *
+ * The filters are tuned for the 250 Hz ECG of the BioHarness. All the state lives in primitive
+ * ring buffers allocated once, so processing a packet doesn't create any object. The thresholds
+ * are learnt during the first two seconds, when no beat is reported.
+ *
+ * An instance must be used by a single thread.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class RPeakDetector {
+
+    // The BioHarness sends 63 ECG samples every 252 ms
+    public static final int SAMPLE_PERIOD = 4;
+
+    // Delay of the band pass filter in samples (5 for the low pass, 16 for the high pass)
+    private static final int BAND_PASS_DELAY = 21;
+
+    // Width of the moving window integration in samples (150 ms)
+    private static final int INTEGRATION_WIDTH = 38;
+
+    // Duration of the initial learning of the thresholds in samples (2 s)
+    private static final int LEARNING = 500;
+
+    // Minimum distance between two beats in samples (200 ms)
+    private static final int REFRACTORY = 50;
+
+    // A peak closer than this to the previous beat may be a T wave, in samples (360 ms)
+    private static final int T_WAVE_WINDOW = 90;
+
+    // Number of R to R intervals averaged for the search back
+    private static final int RR_AVERAGE_COUNT = 8;
+
+    // Maximum number of beats found in a single call, more than a packet can hold
+    private static final int MAX_BEATS = 16;
+
+    // Ring buffers, their sizes are powers of two
+    private final int[] lowPassInput = new int[16];
+    private final long[] lowPassOutput = new long[32];
+    private final long[] bandPassed = new long[128];
+    private final long[] squared = new long[INTEGRATION_WIDTH];
+
+    // Filter state, the filters are primed with the first sample after a break
+    private boolean primed;
+    private long index;
+    private long lowPass1;
+    private long lowPass2;
+    private long lowPassSum;
+    private long integrationSum;
+    private int integrationPosition;
+
+    // Learning of the initial thresholds
+    private long learningEnd = LEARNING;
+    private long learningMax;
+    private long learningSum;
+
+    // Signal and noise peak levels, and the thresholds derived from them
+    private long signalLevel;
+    private long noiseLevel;
+    private long threshold1;
+    private long threshold2;
+
+    // The peak of the integrated signal being tracked
+    private long peakValue;
+    private long peakIndex;
+    private long peakSlope;
+
+    // The highest peak between the two thresholds since the last beat, for the search back
+    private long candidateValue;
+    private long candidateIndex;
+    private long candidateSlope;
+    private long candidateRPeak;
+
+    // The last beat and the average of the last R to R intervals, in samples
+    private boolean hasBeat;
+    private long lastPeakIndex;
+    private long lastPeakSlope;
+    private long lastRPeak;
+    private final int[] rrIntervals = new int[RR_AVERAGE_COUNT];
+    private int rrCount;
+    private int rrPosition;
+    private long rrSum;
+
+    // Beats found by the last call
+    private final long[] beatTimes = new long[MAX_BEATS];
+    private final int[] beatIntervals = new int[MAX_BEATS];
+    private int beats;
+    private long packetIndex;
+    private long packetTime;
+
+    /**
+     * Process the samples of a BioHarness ECG packet
+     *
+     * @param samples The ECG samples
+     * @param count The number of samples to process
+     * @param timestamp The time of the first sample
+     * @return The number of beats found, available through getBeatTime and getBeatInterval
+     */
+    public int addSamples(short[] samples, int count, long timestamp) {
+        beats = 0;
+        packetIndex = index;
+        packetTime = timestamp;
+
+        for (int i = 0; i < count; i++) {
+            addSample(samples[i]);
+        }
+
+        return beats;
+    }
+
+    /**
+     * Return the time of a beat found by the last call to addSamples
+     *
+     * @param beat The index of the beat
+     * @return The time of the R peak
+     */
+    public long getBeatTime(int beat) {
+        return beatTimes[beat];
+    }
+
+    /**
+     * Return the R to R interval ending with a beat found by the last call to addSamples
+     *
+     * @param beat The index of the beat
+     * @return The interval in milliseconds, 0 if the previous beat is unknown
+     */
+    public int getBeatInterval(int beat) {
+        return beatIntervals[beat];
+    }
+
+    /**
+     * Break the stream, for example because packets are missing. The filters start again from the
+     * next sample and no interval is computed across the break, while the learnt thresholds are
+     * kept.
+     */
+    public void breakSequence() {
+        primed = false;
+        hasBeat = false;
+        peakValue = 0;
+        peakSlope = 0;
+        candidateValue = 0;
+    }
+
+    private void addSample(int x) {
+        if (!primed) prime(x);
+        long n = index++;
+
+        // Low pass: y(n) = 2y(n-1) - y(n-2) + x(n) - 2x(n-6) + x(n-12)
+        long lowPass = 2 * lowPass1 - lowPass2 + x - 2 * lowPassInput[(int) (n - 6) & 15] + lowPassInput[(int) (n - 12) & 15];
+        lowPassInput[(int) n & 15] = x;
+        lowPass2 = lowPass1;
+        lowPass1 = lowPass;
+
+        // High pass: the low passed signal delayed by 16 minus its average over 32 samples
+        int slot = (int) n & 31;
+        lowPassSum += lowPass - lowPassOutput[slot];
+        lowPassOutput[slot] = lowPass;
+        long highPass = lowPassOutput[(int) (n - 16) & 31] - (lowPassSum >> 5);
+        bandPassed[(int) n & 127] = highPass;
+
+        // Derivative, squaring and moving window integration
+        long slope = 2 * highPass + bandPassed[(int) (n - 1) & 127] - bandPassed[(int) (n - 3) & 127] - 2 * bandPassed[(int) (n - 4) & 127];
+        long square = slope * slope;
+        integrationSum += square - squared[integrationPosition];
+        squared[integrationPosition] = square;
+        integrationPosition = (integrationPosition + 1) % INTEGRATION_WIDTH;
+        long integrated = integrationSum / INTEGRATION_WIDTH;
+
+        if (n < learningEnd) {
+            learn(integrated, n);
+            return;
+        }
+
+        // Track the current peak of the integrated signal until it falls below its half
+        if (slope < 0) slope = -slope;
+        if (slope > peakSlope) peakSlope = slope;
+        if (integrated > peakValue) {
+            peakValue = integrated;
+            peakIndex = n;
+        } else if (integrated < peakValue / 2) {
+            classifyPeak(n);
+            peakValue = 0;
+            peakSlope = 0;
+        }
+
+        // Search back for a missed beat when the interval grows too long
+        if (hasBeat && candidateValue > 0 && rrCount > 0 && (n - lastPeakIndex) * rrCount * 100 > rrSum * 166) {
+            signalLevel += (candidateValue - signalLevel) / 4;
+            beat(candidateIndex, candidateSlope, candidateRPeak);
+        }
+    }
+
+    /**
+     * Fill the filters as if the signal had always been equal to the given sample, so that the
+     * baseline of the ECG doesn't cause a transient
+     */
+    private void prime(int x) {
+        for (int i = 0; i < lowPassInput.length; i++) lowPassInput[i] = x;
+        lowPass1 = 36L * x;
+        lowPass2 = 36L * x;
+        for (int i = 0; i < lowPassOutput.length; i++) lowPassOutput[i] = 36L * x;
+        lowPassSum = 32 * 36L * x;
+        for (int i = 0; i < bandPassed.length; i++) bandPassed[i] = 0;
+        for (int i = 0; i < squared.length; i++) squared[i] = 0;
+        integrationSum = 0;
+        primed = true;
+    }
+
+    private void learn(long integrated, long n) {
+        if (integrated > learningMax) learningMax = integrated;
+        learningSum += integrated;
+
+        if (n == learningEnd - 1) {
+            signalLevel = learningMax / 3;
+            noiseLevel = learningSum / LEARNING / 2;
+            updateThresholds();
+        }
+    }
+
+    /**
+     * Classify the peak just ended as a QRS complex or noise
+     *
+     * @param n The index of the current sample
+     */
+    private void classifyPeak(long n) {
+        long sincePeak = peakIndex - lastPeakIndex;
+        if (hasBeat && sincePeak < REFRACTORY) return;
+
+        if (peakValue > threshold1) {
+            // A peak with a gentle slope right after a beat is a T wave
+            if (!hasBeat || sincePeak >= T_WAVE_WINDOW || peakSlope * 2 >= lastPeakSlope) {
+                signalLevel += (peakValue - signalLevel) / 8;
+                beat(peakIndex, peakSlope, locateRPeak(n));
+                return;
+            }
+        }
+
+        noiseLevel += (peakValue - noiseLevel) / 8;
+        updateThresholds();
+
+        if (peakValue > threshold2 && peakValue > candidateValue) {
+            candidateValue = peakValue;
+            candidateIndex = peakIndex;
+            candidateSlope = peakSlope;
+            candidateRPeak = locateRPeak(n);
+        }
+    }
+
+    /**
+     * Return the index of the R peak of the current peak of the integrated signal, the sample with
+     * the largest band passed amplitude in the integration window before it
+     *
+     * @param n The index of the current sample
+     * @return The index of the input sample holding the R peak
+     */
+    private long locateRPeak(long n) {
+        long from = Math.max(peakIndex - INTEGRATION_WIDTH, n - bandPassed.length + 1);
+        long best = peakIndex;
+        long bestValue = -1;
+
+        for (long i = from; i <= peakIndex; i++) {
+            long value = Math.abs(bandPassed[(int) i & 127]);
+            if (value > bestValue) {
+                bestValue = value;
+                best = i;
+            }
+        }
+
+        return best - BAND_PASS_DELAY;
+    }
+
+    /**
+     * Record a beat
+     *
+     * @param index The index of the peak of the integrated signal
+     * @param slope The maximum slope of the QRS complex
+     * @param rPeak The index of the R peak
+     */
+    private void beat(long index, long slope, long rPeak) {
+        int interval = 0;
+
+        if (hasBeat && rPeak > lastRPeak) {
+            interval = (int) (rPeak - lastRPeak);
+            rrSum += interval - rrIntervals[rrPosition];
+            rrIntervals[rrPosition] = interval;
+            rrPosition = (rrPosition + 1) % RR_AVERAGE_COUNT;
+            if (rrCount < RR_AVERAGE_COUNT) rrCount++;
+        }
+
+        if (beats < MAX_BEATS) {
+            beatTimes[beats] = packetTime + (rPeak - packetIndex) * SAMPLE_PERIOD;
+            beatIntervals[beats] = interval * SAMPLE_PERIOD;
+            beats++;
+        }
+
+        hasBeat = true;
+        lastPeakIndex = index;
+        lastPeakSlope = slope;
+        lastRPeak = rPeak;
+        candidateValue = 0;
+        updateThresholds();
+    }
+
+    private void updateThresholds() {
+        threshold1 = noiseLevel + (signalLevel - noiseLevel) / 4;
+        threshold2 = threshold1 / 2;
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+package eu.fistar.sdcs.pa.da.zephyrbh.capture;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * This class holds in memory the packets of a capture file written by PacketCaptureWriter. The
+ * capture is read once and can then be shared by any number of virtual devices replaying it, so
+ * that the replay doesn't measure the speed of the storage. A capture truncated by a crash is read
+ * up to its last complete packet.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class PacketCapture {
+
+    private int size;
+    private int[] msgIds = new int[256];
+    private long[] rxTimes = new long[256];
+    private byte[][] payloads = new byte[256][];
+
+    /**
+     * Read a capture file
+     *
+     * @param file The capture file
+     * @return The packets of the capture
+     * @throws IOException If the file can't be read or it's not a capture
+     */
+    public static PacketCapture read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read a capture from a stream
+     *
+     * @param stream The stream holding the capture
+     * @return The packets of the capture
+     * @throws IOException If the stream can't be read or it's not a capture
+     */
+    public static PacketCapture read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+        if (in.readInt() != PacketCaptureWriter.MAGIC) throw new IOException("Not a packet capture!");
+        int version = in.readUnsignedByte();
+        if (version != PacketCaptureWriter.VERSION) throw new IOException("Unsupported capture version " + version + "!");
+
+        PacketCapture capture = new PacketCapture();
+
+        try {
+            long rxTime = in.readLong();
+            while (true) {
+                int msgId = in.read();
+                if (msgId < 0) break;
+
+                rxTime += readVarint(in);
+                byte[] payload = new byte[(int) readVarint(in)];
+                in.readFully(payload);
+
+                capture.add(msgId, rxTime, payload);
+            }
+        } catch (EOFException e) {
+            // Empty capture or last packet truncated, keep the complete ones
+        }
+
+        return capture;
+    }
+
+    void add(int msgId, long rxTime, byte[] payload) {
+        if (size == msgIds.length) {
+            msgIds = Arrays.copyOf(msgIds, size * 2);
+            rxTimes = Arrays.copyOf(rxTimes, size * 2);
+            payloads = Arrays.copyOf(payloads, size * 2);
+        }
+
+        msgIds[size] = msgId;
+        rxTimes[size] = rxTime;
+        payloads[size] = payload;
+        size++;
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed capture!");
+    }
+
+    /**
+     * Return the number of packets in the capture
+     *
+     * @return The number of packets
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getMsgId(int index) {
+        return msgIds[index];
+    }
+
+    public long getRxTime(int index) {
+        return rxTimes[index];
+    }
+
+    /**
+     * Return the payload of a packet. The array is shared, so it must not be modified.
+     *
+     * @param index The index of the packet
+     * @return The payload of the packet
+     */
+    public byte[] getPayload(int index) {
+        return payloads[index];
+    }
+
+    /**
+     * Return the time elapsed between the first and the last packet
+     *
+     * @return The duration of the capture in milliseconds
+     */
+    public long getDuration() {
+        return size == 0 ? 0 : rxTimes[size - 1] - rxTimes[0];
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+package eu.fistar.sdcs.pa.da.zephyrbh.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * This class writes the packets received from a device to a capture file, that can be replayed
+ * later by a virtual device. The file starts with a header holding the magic number, the version
+ * of the format and the receive time of the first packet. Then every packet is stored as its
+ * message ID (1 byte), the milliseconds elapsed since the previous packet (varint), the length of
+ * the payload (varint) and the payload itself. A receive time earlier than the previous one, for
+ * example after a change of the system clock, is stored as the previous one, so that the replay
+ * never goes back in time.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class PacketCaptureWriter {
+
+    static final int MAGIC = 0x5A424843; // "ZBHC"
+    static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 16384;
+
+    private final File file;
+    private final DataOutputStream out;
+    private long lastRxTime = Long.MIN_VALUE;
+    private long packets;
+    private boolean closed;
+
+    /**
+     * Create the capture file, together with its parent directory if needed
+     *
+     * @param file The capture file
+     * @throws IOException If the file can't be created
+     */
+    public PacketCaptureWriter(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Can't create directory " + dir);
+
+        this.file = file;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    /**
+     * Append a packet to the capture
+     *
+     * @param msgId The message ID of the packet
+     * @param rxTime The time the packet was received
+     * @param data The buffer holding the payload of the packet
+     * @param length The length of the payload
+     * @throws IOException If the packet can't be written
+     */
+    public synchronized void write(int msgId, long rxTime, byte[] data, int length) throws IOException {
+        if (closed) return;
+
+        // The first packet carries the absolute time, the following ones the time elapsed since the previous one
+        if (lastRxTime == Long.MIN_VALUE) {
+            out.writeLong(rxTime);
+            lastRxTime = rxTime;
+        }
+
+        out.writeByte(msgId);
+        writeVarint(Math.max(0, rxTime - lastRxTime));
+        writeVarint(length);
+        out.write(data, 0, length);
+
+        lastRxTime = Math.max(lastRxTime, rxTime);
+        packets++;
+    }
+
+    /**
+     * Write all the buffered packets to the file and close it. Packets written afterwards are
+     * ignored.
+     *
+     * @throws IOException If the file can't be written
+     */
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        out.close();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Return the number of packets written so far
+     *
+     * @return The number of packets in the capture
+     */
+    public synchronized long getPackets() {
+        return packets;
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
@@ -0,0 +1,335 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh.capture;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class reads a journal written by PacketJournalWriter, also while it's being written or
+ * after a crash. The packets are iterated with a cursor, selecting a device and a range of receive
+ * times, and the segments are mapped in memory one at a time, so a journal of any size can be
+ * read. The segments entirely before the range are skipped using the receive time of their first
+ * packet, allowing for the packets of different devices being written slightly out of order.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class PacketJournal {
+
+    // Maximum difference between the receive time of two packets written one after the other
+    private static final long MAX_DISORDER = 1000;
+
+    private final File directory;
+    private final List<String> devices;
+    private final int segments;
+
+    /**
+     * Open a journal
+     *
+     * @param directory The directory of the journal
+     * @throws IOException If the directory doesn't hold a journal
+     */
+    public PacketJournal(File directory) throws IOException {
+        if (!new File(directory, PacketJournalWriter.DEVICES_FILE).isFile()) throw new IOException("Not a packet journal: " + directory);
+
+        this.directory = directory;
+        devices = Collections.unmodifiableList(readDevices(directory));
+        segments = lastSegment(directory) + 1;
+    }
+
+    /**
+     * Return the device IDs of the devices in the journal, in the order they joined it
+     *
+     * @return The device IDs
+     */
+    public List<String> getDevices() {
+        return devices;
+    }
+
+    /**
+     * Return a cursor over the packets of a device received in a range of time, in the order they
+     * were written
+     *
+     * @param devId The device ID, or null for all the devices
+     * @param from The first receive time of the range
+     * @param to The last receive time of the range, included
+     * @return The cursor, positioned before the first packet
+     */
+    public Cursor query(String devId, long from, long to) {
+        return new Cursor(devId == null ? -1 : devices.indexOf(devId), devId != null, from, to);
+    }
+
+    /**
+     * Copy the packets of a device received in a range of time in a capture, that can be replayed
+     * by a virtual device
+     *
+     * @param devId The device ID
+     * @param from The first receive time of the range
+     * @param to The last receive time of the range, included
+     * @return The capture holding the packets
+     * @throws IOException If the journal can't be read
+     */
+    public PacketCapture toCapture(String devId, long from, long to) throws IOException {
+        PacketCapture capture = new PacketCapture();
+        Cursor cursor = query(devId, from, to);
+
+        while (cursor.next()) {
+            byte[] payload = new byte[cursor.getLength()];
+            cursor.getPayload(payload);
+            capture.add(cursor.getMsgId(), cursor.getRxTime(), payload);
+        }
+
+        return capture;
+    }
+
+    /**
+     * A cursor over the packets of a journal. The payload is copied on request, so moving the
+     * cursor doesn't create any object.
+     */
+    public class Cursor {
+
+        private final int device;
+        private final boolean filterDevice;
+        private final long from;
+        private final long to;
+
+        private int segment = -1;
+        private MappedByteBuffer buffer;
+
+        // The current packet
+        private int msgId;
+        private int deviceIndex;
+        private long rxTime;
+        private int payloadPosition;
+        private int length;
+
+        private Cursor(int device, boolean filterDevice, long from, long to) {
+            this.device = device;
+            this.filterDevice = filterDevice;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Move to the next packet selected by the cursor
+         *
+         * @return True if there is a packet, false at the end of the journal
+         * @throws IOException If a segment can't be read
+         */
+        public boolean next() throws IOException {
+
+            // A device missing from the journal has no packets
+            if (filterDevice && device < 0) return false;
+
+            while (true) {
+                if (buffer == null && !nextSegment()) return false;
+
+                // A zero size marks the end of the packets of the segment
+                int size = buffer.remaining() >= 4 ? buffer.getInt(buffer.position()) : 0;
+                if (size <= 0 || buffer.remaining() < PacketJournalWriter.PACKET_HEADER_SIZE + size - 1) {
+                    buffer = null;
+                    continue;
+                }
+
+                buffer.position(buffer.position() + 4);
+                msgId = buffer.get() & 0xFF;
+                deviceIndex = buffer.getShort() & 0xFFFF;
+                rxTime = buffer.getLong();
+                length = size - 1;
+                payloadPosition = buffer.position();
+                buffer.position(payloadPosition + length);
+
+                if ((device < 0 || deviceIndex == device) && rxTime >= from && rxTime <= to) return true;
+            }
+        }
+
+        public int getMsgId() {
+            return msgId;
+        }
+
+        /**
+         * Return the device ID of the current packet
+         *
+         * @return The device ID, null if the device joined the journal after it was opened
+         */
+        public String getDeviceID() {
+            return deviceIndex < devices.size() ? devices.get(deviceIndex) : null;
+        }
+
+        public long getRxTime() {
+            return rxTime;
+        }
+
+        /**
+         * Return the length of the payload of the current packet
+         *
+         * @return The length in bytes
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Copy the payload of the current packet
+         *
+         * @param data The buffer the payload is copied to, at least as long as the payload
+         * @return The length of the payload
+         */
+        public int getPayload(byte[] data) {
+            int position = buffer.position();
+            buffer.position(payloadPosition);
+            buffer.get(data, 0, length);
+            buffer.position(position);
+            return length;
+        }
+
+        /**
+         * Map the next segment that may hold packets in the range
+         *
+         * @return True if a segment was mapped, false after the last one
+         */
+        private boolean nextSegment() throws IOException {
+            while (++segment < segments) {
+
+                // Skip the segment if the next one already starts before the range
+                if (segment + 1 < segments) {
+                    long nextFirst = firstRxTime(segment + 1);
+                    if (nextFirst != 0 && nextFirst + MAX_DISORDER < from) continue;
+                }
+
+                MappedByteBuffer mapped = map(segment);
+                if (mapped == null) continue;
+
+                // Stop if the segment starts after the range
+                long first = mapped.getLong(PacketJournalWriter.FIRST_RX_TIME_OFFSET);
+                if (first != 0 && first - MAX_DISORDER > to) {
+                    segment = segments;
+                    return false;
+                }
+
+                mapped.position(PacketJournalWriter.SEGMENT_HEADER_SIZE);
+                buffer = mapped;
+                return true;
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Map a segment, if it has a valid header
+     *
+     * @param number The number of the segment
+     * @return The mapped segment, null if the segment is missing or invalid
+     */
+    private MappedByteBuffer map(int number) throws IOException {
+        File file = PacketJournalWriter.segmentFile(directory, number);
+        if (file.length() < PacketJournalWriter.SEGMENT_HEADER_SIZE) return null;
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer mapped = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            if (mapped.getInt(0) != PacketJournalWriter.MAGIC || mapped.get(4) != PacketJournalWriter.VERSION) return null;
+            return mapped;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return the receive time of the first packet of a segment, reading only its header
+     *
+     * @param number The number of the segment
+     * @return The receive time, 0 if the segment is empty or invalid
+     */
+    private long firstRxTime(int number) throws IOException {
+        File file = PacketJournalWriter.segmentFile(directory, number);
+        if (file.length() < PacketJournalWriter.SEGMENT_HEADER_SIZE) return 0;
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            if (in.readInt() != PacketJournalWriter.MAGIC) return 0;
+            in.seek(PacketJournalWriter.FIRST_RX_TIME_OFFSET);
+            return in.readLong();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read the device IDs listed in the devices file of a journal
+     *
+     * @param directory The directory of the journal
+     * @return The device IDs, empty if there is no devices file
+     * @throws IOException If the file can't be read
+     */
+    static List<String> readDevices(File directory) throws IOException {
+        List<String> devices = new ArrayList<String>();
+        File file = new File(directory, PacketJournalWriter.DEVICES_FILE);
+        if (!file.isFile()) return devices;
+
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty()) devices.add(line);
+            }
+        } finally {
+            in.close();
+        }
+        return devices;
+    }
+
+    /**
+     * Return the number of the last segment of a journal
+     *
+     * @param directory The directory of the journal
+     * @return The number of the last segment, -1 if there are no segments
+     */
+    static int lastSegment(File directory) {
+        int last = -1;
+        File[] files = directory.listFiles();
+        if (files == null) return last;
+
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(PacketJournalWriter.SEGMENT_EXTENSION)) continue;
+
+            try {
+                last = Math.max(last, Integer.parseInt(name.substring(0, name.length() - PacketJournalWriter.SEGMENT_EXTENSION.length())));
+            } catch (NumberFormatException e) {
+                // Not a segment
+            }
+        }
+        return last;
+    }
+}
@@ -0,0 +1,352 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh.capture;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class records the raw packets received from any number of devices in a journal, a
+ * directory of segment files of fixed size. A segment is allocated on the storage and mapped in
+ * memory before it's needed, so appending a packet only copies it in the mapped buffer: no object
+ * is created and no system call is made. The next segment is prepared and the full ones are flushed
+ * to the storage by a background thread, so the receive threads of the devices writing to the
+ * journal never wait for the storage, unless they fill a segment faster than the next one is
+ * allocated. The devices are numbered in the order they join the journal, and their device IDs are
+ * listed in the devices file.
+ *
+ * A segment starts with the magic number, the version of the format and the receive time of its
+ * first packet. Then every packet is stored as its size, the message ID (1 byte), the index of the
+ * device (2 bytes), the receive time (8 bytes) and the payload. The size is written last, as the
+ * length of the payload plus one, so a zero size marks the end of the packets written so far, also
+ * when the process crashes. The packets reach the storage when the segment is full or the journal
+ * is closed, or earlier at the discretion of the system.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class PacketJournalWriter {
+
+    static final int MAGIC = 0x5A42484A; // "ZBHJ"
+    static final int VERSION = 1;
+
+    static final int SEGMENT_HEADER_SIZE = 16;
+    static final int FIRST_RX_TIME_OFFSET = 8;
+    static final int PACKET_HEADER_SIZE = 15;
+    static final String SEGMENT_EXTENSION = ".zbhj";
+    static final String DEVICES_FILE = "devices";
+
+    private static final int MAX_DEVICES = 65536;
+    private static final int ZERO_BLOCK_SIZE = 65536;
+
+    /**
+     * A device writing to the journal
+     */
+    public class Device {
+
+        private final int index;
+        private final String devId;
+
+        private Device(int index, String devId) {
+            this.index = index;
+            this.devId = devId;
+        }
+
+        public String getDeviceID() {
+            return devId;
+        }
+
+        /**
+         * Append a packet of the device to the journal
+         *
+         * @param msgId The message ID of the packet
+         * @param rxTime The time the packet was received
+         * @param data The buffer holding the payload of the packet
+         * @param length The length of the payload
+         * @throws IOException If a new segment can't be created
+         */
+        public void write(int msgId, long rxTime, byte[] data, int length) throws IOException {
+            append(index, msgId, rxTime, data, length);
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final Map<String, Device> devices = new HashMap<String, Device>();
+    private final Writer devicesFile;
+
+    private MappedByteBuffer segment;
+    private int segmentNumber;
+    private long packets;
+    private boolean closed;
+
+    // Thread preparing the next segment and flushing the full ones, and the next segment it prepares
+    private final ExecutorService background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ZephyrBH Journal");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private Future<Segment> nextSegment;
+
+    /**
+     * Create the journal directory and its first segment. If the directory already holds a
+     * journal, the packets are appended to it in a new segment.
+     *
+     * @param directory The directory of the journal
+     * @param segmentSize The size of a segment in bytes
+     * @throws IOException If the journal can't be created
+     */
+    public PacketJournalWriter(File directory, int segmentSize) throws IOException {
+        if (segmentSize < SEGMENT_HEADER_SIZE + PACKET_HEADER_SIZE + 256) throw new IllegalArgumentException("The journal segments are too small!");
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Can't create directory " + directory);
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        // Keep the numbering of the devices and of the segments of an existing journal
+        for (String devId : PacketJournal.readDevices(directory)) {
+            devices.put(devId, new Device(devices.size(), devId));
+        }
+
+        devicesFile = new FileWriter(new File(directory, DEVICES_FILE), true);
+        Segment first;
+        try {
+            first = createSegment(PacketJournal.lastSegment(directory));
+        } catch (IOException e) {
+            background.shutdown();
+            devicesFile.close();
+            throw e;
+        }
+        startSegment(first);
+        prepareNextSegment();
+    }
+
+    /**
+     * Return the handle a device writes its packets with, adding the device to the journal the
+     * first time
+     *
+     * @param devId The device ID
+     * @return The handle of the device
+     * @throws IOException If the device can't be added to the devices file
+     */
+    public synchronized Device device(String devId) throws IOException {
+        Device device = devices.get(devId);
+        if (device != null) return device;
+
+        if (devices.size() == MAX_DEVICES) throw new IOException("Too many devices in the journal");
+
+        devicesFile.write(devId + "\n");
+        devicesFile.flush();
+        device = new Device(devices.size(), devId);
+        devices.put(devId, device);
+        return device;
+    }
+
+    /**
+     * Flush the journal to the storage and close it, waiting for the background thread to flush
+     * the full segments and deleting the next segment, which holds no packets. Packets written
+     * afterwards are ignored.
+     *
+     * @throws IOException If the journal can't be flushed
+     */
+    public synchronized void close() throws IOException {
+        if (closed) return;
+
+        closed = true;
+        background.shutdown();
+        try {
+            background.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            segmentFile(directory, nextSegment.get().number).delete();
+        } catch (ExecutionException e) {
+            // The next segment wasn't created
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the journal");
+        }
+
+        segment.force();
+        segment = null;
+        devicesFile.close();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Return the number of packets written so far
+     *
+     * @return The number of packets in the journal
+     */
+    public synchronized long getPackets() {
+        return packets;
+    }
+
+    private synchronized void append(int device, int msgId, long rxTime, byte[] data, int length) throws IOException {
+        if (closed) return;
+
+        if (segment.remaining() < PACKET_HEADER_SIZE + length + 4) {
+            if (SEGMENT_HEADER_SIZE + PACKET_HEADER_SIZE + length + 4 > segmentSize) throw new IOException("Packet too long for the journal: " + length + " bytes");
+            switchSegment();
+        }
+
+        int position = segment.position();
+        if (position == SEGMENT_HEADER_SIZE) segment.putLong(FIRST_RX_TIME_OFFSET, rxTime);
+
+        // The size is written after the rest of the packet, so a reader never sees a partial packet
+        segment.position(position + 4);
+        segment.put((byte) msgId);
+        segment.putShort((short) device);
+        segment.putLong(rxTime);
+        segment.put(data, 0, length);
+        segment.putInt(position, length + 1);
+        packets++;
+    }
+
+    /**
+     * Switch to the segment prepared in the background, handing the full one over to the
+     * background thread to be flushed, and start preparing the following one. Only waits if the
+     * next segment isn't ready yet.
+     */
+    private void switchSegment() throws IOException {
+        Segment next;
+        try {
+            next = nextSegment.get();
+        } catch (ExecutionException e) {
+            // Try again with the next packet
+            prepareNextSegment();
+            throw new IOException("Can't create a journal segment: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the next journal segment");
+        }
+
+        final MappedByteBuffer full = segment;
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                full.force();
+            }
+        });
+
+        startSegment(next);
+        prepareNextSegment();
+    }
+
+    /**
+     * Start preparing the segment following the current one on the background thread
+     */
+    private void prepareNextSegment() {
+        final int last = segmentNumber;
+        nextSegment = background.submit(new Callable<Segment>() {
+            @Override
+            public Segment call() throws IOException {
+                return createSegment(last);
+            }
+        });
+    }
+
+    /**
+     * Make a segment the current one and write its header. The header is written only when the
+     * segment is used, so a segment prepared and never used is not a valid segment for the readers.
+     *
+     * @param next The segment to use
+     */
+    private void startSegment(Segment next) {
+        segment = next.buffer;
+        segmentNumber = next.number;
+        segment.putInt(MAGIC);
+        segment.put((byte) VERSION);
+        segment.position(SEGMENT_HEADER_SIZE);
+    }
+
+    /**
+     * Create the first segment following a given one whose file doesn't exist yet, so that a
+     * segment is never shared with another writer continuing the journal, writing all its bytes so
+     * that the storage is allocated before it's mapped, and map it
+     *
+     * @param last The number of the last segment
+     * @return The mapped segment
+     */
+    private Segment createSegment(int last) throws IOException {
+        int number = last + 1;
+        while (!segmentFile(directory, number).createNewFile()) {
+            number++;
+        }
+        RandomAccessFile file = new RandomAccessFile(segmentFile(directory, number), "rw");
+
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer zeros = ByteBuffer.allocate(ZERO_BLOCK_SIZE);
+            for (long position = 0; position < segmentSize; position += ZERO_BLOCK_SIZE) {
+                zeros.clear();
+                zeros.limit((int) Math.min(ZERO_BLOCK_SIZE, segmentSize - position));
+                while (zeros.hasRemaining()) {
+                    channel.write(zeros, position + zeros.position());
+                }
+            }
+
+            return new Segment(number, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        } finally {
+            // The mapping stays valid after the file is closed
+            file.close();
+        }
+    }
+
+    static File segmentFile(File directory, int number) {
+        return new File(directory, String.format("%08d", number) + SEGMENT_EXTENSION);
+    }
+
+    /**
+     * A segment mapped in memory, with its number
+     */
+    private static class Segment {
+
+        final int number;
+        final MappedByteBuffer buffer;
+
+        Segment(int number, MappedByteBuffer buffer) {
+            this.number = number;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh.codec;
+
+import java.util.List;
+
+/**
+ * This class decodes the values of the Observations produced by the WaveformEncoder. It has no
+ * dependencies on Android or on the Device Adapter, so that it can be used as-is by the consumers
+ * of the data on the Protocol Adapter side.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class WaveformDecoder {
+
+    private static final int[] BASE64_VALUES = new int[128];
+    static {
+        for (int i = 0; i < BASE64_VALUES.length; i++) BASE64_VALUES[i] = -1;
+        for (int i = 0; i < WaveformEncoder.BASE64_ALPHABET.length; i++) {
+            BASE64_VALUES[WaveformEncoder.BASE64_ALPHABET[i]] = i;
+        }
+    }
+
+    /**
+     * Check whether the values of an Observation are encoded by the WaveformEncoder
+     *
+     * @param values The values of the Observation
+     * @return True if the values are encoded, false if they are plain Strings
+     */
+    public static boolean isEncoded(List<String> values) {
+        return values != null && values.size() == 2 && getEncoding(values) != null;
+    }
+
+    /**
+     * Return the encoding descriptor of the values of an Observation
+     *
+     * @param values The values of the Observation
+     * @return The encoding descriptor, or null if the values are not encoded
+     */
+    public static String getEncoding(List<String> values) {
+        if (values == null || values.isEmpty()) return null;
+
+        String encoding = values.get(0);
+        if (WaveformEncoder.ENCODING_INT16.equals(encoding) || WaveformEncoder.ENCODING_FLOAT32.equals(encoding)
+                || WaveformEncoder.ENCODING_DELTA16.equals(encoding)) {
+            return encoding;
+        }
+
+        return null;
+    }
+
+    /**
+     * Decode the values of an Observation as 16 bit samples, encoded either as little endian
+     * shorts or as differences
+     *
+     * @param values The values of the Observation
+     * @return The decoded samples
+     */
+    public static short[] decodeInt16(List<String> values) {
+        String encoding = getEncoding(values);
+        if (WaveformEncoder.ENCODING_DELTA16.equals(encoding)) return decodeDelta16(fromBase64(values.get(1)));
+        if (!WaveformEncoder.ENCODING_INT16.equals(encoding)) {
+            throw new IllegalArgumentException("Values are not encoded as " + WaveformEncoder.ENCODING_INT16 + " or " + WaveformEncoder.ENCODING_DELTA16);
+        }
+
+        byte[] bytes = fromBase64(values.get(1));
+        short[] samples = new short[bytes.length / 2];
+
+        for (int i = 0, j = 0; i < samples.length; i++, j += 2) {
+            samples[i] = (short) ((bytes[j] & 0xFF) | (bytes[j + 1] << 8));
+        }
+
+        return samples;
+    }
+
+    /**
+     * Decode the values of an Observation as single precision floating point samples
+     *
+     * @param values The values of the Observation
+     * @return The decoded samples
+     */
+    public static float[] decodeFloat32(List<String> values) {
+        if (!WaveformEncoder.ENCODING_FLOAT32.equals(getEncoding(values))) {
+            throw new IllegalArgumentException("Values are not encoded as " + WaveformEncoder.ENCODING_FLOAT32);
+        }
+
+        byte[] bytes = fromBase64(values.get(1));
+        float[] samples = new float[bytes.length / 4];
+
+        for (int i = 0, j = 0; i < samples.length; i++, j += 4) {
+            int bits = (bytes[j] & 0xFF) | ((bytes[j + 1] & 0xFF) << 8) | ((bytes[j + 2] & 0xFF) << 16) | (bytes[j + 3] << 24);
+            samples[i] = Float.intBitsToFloat(bits);
+        }
+
+        return samples;
+    }
+
+    /**
+     * Decode the zig-zag varint differences of the delta16 encoding
+     *
+     * @param bytes The packed 4 bit groups
+     * @return The decoded samples
+     */
+    private static short[] decodeDelta16(byte[] bytes) {
+        int[] position = new int[1];
+        int count = readNibbles(bytes, position);
+
+        // Every sample takes at least a group
+        if (count < 0 || count > bytes.length * 2) throw new IllegalArgumentException("Invalid " + WaveformEncoder.ENCODING_DELTA16 + " sample count: " + count);
+
+        short[] samples = new short[count];
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int zigzag = readNibbles(bytes, position);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            samples[i] = (short) previous;
+        }
+
+        return samples;
+    }
+
+    /**
+     * Read a varint of 4 bit groups
+     *
+     * @param bytes The packed groups
+     * @param position The index of the next group, updated
+     * @return The number read
+     */
+    private static int readNibbles(byte[] bytes, int[] position) {
+        int value = 0;
+
+        for (int shift = 0; shift < 32; shift += 3) {
+            int index = position[0]++;
+            if (index >> 1 >= bytes.length) throw new IllegalArgumentException("Truncated " + WaveformEncoder.ENCODING_DELTA16 + " values");
+
+            int nibble = (index & 1) == 0 ? bytes[index >> 1] & 0x0F : (bytes[index >> 1] >> 4) & 0x0F;
+            value |= (nibble & 7) << shift;
+            if ((nibble & 8) == 0) return value;
+        }
+
+        throw new IllegalArgumentException("Malformed " + WaveformEncoder.ENCODING_DELTA16 + " values");
+    }
+
+    /**
+     * Convert a Base64 String to the bytes it represents
+     *
+     * @param str The Base64 String
+     * @return The bytes represented by the String
+     */
+    static byte[] fromBase64(String str) {
+        int length = str.length();
+        if (length % 4 != 0) throw new IllegalArgumentException("Invalid Base64 length: " + length);
+
+        int padding = 0;
+        if (length > 0 && str.charAt(length - 1) == WaveformEncoder.BASE64_PAD) padding++;
+        if (length > 1 && str.charAt(length - 2) == WaveformEncoder.BASE64_PAD) padding++;
+
+        byte[] bytes = new byte[(length / 4) * 3 - padding];
+        int j = 0;
+
+        for (int i = 0; i < length; i += 4) {
+            int group = (value(str.charAt(i)) << 18) | (value(str.charAt(i + 1)) << 12);
+            if (str.charAt(i + 2) != WaveformEncoder.BASE64_PAD) group |= value(str.charAt(i + 2)) << 6;
+            if (str.charAt(i + 3) != WaveformEncoder.BASE64_PAD) group |= value(str.charAt(i + 3));
+
+            bytes[j++] = (byte) (group >> 16);
+            if (j < bytes.length) bytes[j++] = (byte) (group >> 8);
+            if (j < bytes.length) bytes[j++] = (byte) group;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Return the 6 bit value of a Base64 character
+     *
+     * @param c The Base64 character
+     * @return The value of the character
+     */
+    private static int value(char c) {
+        int v = c < BASE64_VALUES.length ? BASE64_VALUES[c] : -1;
+        if (v < 0) throw new IllegalArgumentException("Invalid Base64 character: " + c);
+        return v;
+    }
+}
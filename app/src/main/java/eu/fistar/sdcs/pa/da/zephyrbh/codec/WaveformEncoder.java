@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh.codec;
+
+/**
+ * This class packs waveform samples into a compact binary representation that can travel inside
+ * the values of an Observation. The values of an encoded Observation are always two: the first one
+ * is the encoding descriptor, the second one is the Base64 representation of the packed samples.
+ *
+ * The delta16 encoding is meant for the 16 bit waveforms, whose consecutive samples are close to
+ * each other. Every sample is stored as its difference from the previous one (the first one from
+ * zero), zig-zag mapped to a non negative number, so that small differences of either sign become
+ * small numbers, and written as a varint of 4 bit groups: 3 bits of the number, lowest first, and
+ * a continuation bit. The groups are packed two per byte, the first one in the low half, and the
+ * number of samples, written the same way, comes first. A difference between -4 and 3 takes half a
+ * byte and one between -32 and 31 a byte.
+ *
+ * An instance reuses its internal buffers, so it must not be shared between threads.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class WaveformEncoder {
+
+    // Encoding descriptors
+    public static final String ENCODING_INT16 = "int16le";
+    public static final String ENCODING_FLOAT32 = "float32le";
+    public static final String ENCODING_DELTA16 = "delta16";
+
+    static final char[] BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    static final char BASE64_PAD = '=';
+
+    private byte[] bytes = new byte[256];
+    private char[] chars = new char[344];
+
+    // Number of 4 bit groups written by the delta16 encoding
+    private int nibbles;
+
+    /**
+     * Encode 16 bit samples as little endian shorts
+     *
+     * @param samples The samples to encode
+     * @param count The number of samples to encode, starting from the first one
+     * @return The values for the Observation
+     */
+    public String[] encodeInt16(short[] samples, int count) {
+        ensureBytes(count * 2);
+
+        for (int i = 0, j = 0; i < count; i++, j += 2) {
+            bytes[j] = (byte) samples[i];
+            bytes[j + 1] = (byte) (samples[i] >> 8);
+        }
+
+        return new String[] {ENCODING_INT16, toBase64(count * 2)};
+    }
+
+    /**
+     * Encode int samples that fit in 16 bits as little endian shorts
+     *
+     * @param samples The samples to encode
+     * @param count The number of samples to encode, starting from the first one
+     * @return The values for the Observation
+     */
+    public String[] encodeInt16(int[] samples, int count) {
+        ensureBytes(count * 2);
+
+        for (int i = 0, j = 0; i < count; i++, j += 2) {
+            bytes[j] = (byte) samples[i];
+            bytes[j + 1] = (byte) (samples[i] >> 8);
+        }
+
+        return new String[] {ENCODING_INT16, toBase64(count * 2)};
+    }
+
+    /**
+     * Encode 16 bit samples as zig-zag varint differences
+     *
+     * @param samples The samples to encode
+     * @param count The number of samples to encode, starting from the first one
+     * @return The values for the Observation
+     */
+    public String[] encodeDelta16(short[] samples, int count) {
+        startNibbles(count);
+
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int delta = samples[i] - previous;
+            previous = samples[i];
+            putNibbles((delta << 1) ^ (delta >> 31));
+        }
+
+        return new String[] {ENCODING_DELTA16, toBase64((nibbles + 1) / 2)};
+    }
+
+    /**
+     * Encode int samples that fit in 16 bits as zig-zag varint differences
+     *
+     * @param samples The samples to encode, truncated to 16 bits like in encodeInt16
+     * @param count The number of samples to encode, starting from the first one
+     * @return The values for the Observation
+     */
+    public String[] encodeDelta16(int[] samples, int count) {
+        startNibbles(count);
+
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int sample = (short) samples[i];
+            int delta = sample - previous;
+            previous = sample;
+            putNibbles((delta << 1) ^ (delta >> 31));
+        }
+
+        return new String[] {ENCODING_DELTA16, toBase64((nibbles + 1) / 2)};
+    }
+
+    /**
+     * Encode double samples as little endian single precision floats
+     *
+     * @param samples The samples to encode
+     * @param count The number of samples to encode, starting from the first one
+     * @return The values for the Observation
+     */
+    public String[] encodeFloat32(double[] samples, int count) {
+        ensureBytes(count * 4);
+
+        for (int i = 0, j = 0; i < count; i++, j += 4) {
+            int bits = Float.floatToIntBits((float) samples[i]);
+            bytes[j] = (byte) bits;
+            bytes[j + 1] = (byte) (bits >> 8);
+            bytes[j + 2] = (byte) (bits >> 16);
+            bytes[j + 3] = (byte) (bits >> 24);
+        }
+
+        return new String[] {ENCODING_FLOAT32, toBase64(count * 4)};
+    }
+
+    /**
+     * Prepare the byte buffer for the delta16 encoding of the given number of samples and write it
+     *
+     * @param count The number of samples
+     */
+    private void startNibbles(int count) {
+        // A difference of 16 bit samples takes up to 18 bits, 6 groups, the count up to 11 groups
+        ensureBytes(count * 3 + 6);
+        nibbles = 0;
+        putNibbles(count);
+    }
+
+    /**
+     * Write a non negative number as a varint of 4 bit groups
+     *
+     * @param value The number to write
+     */
+    private void putNibbles(int value) {
+        do {
+            int nibble = value & 7;
+            value >>>= 3;
+            if (value != 0) nibble |= 8;
+
+            int index = nibbles >> 1;
+            if ((nibbles & 1) == 0) {
+                bytes[index] = (byte) nibble;
+            } else {
+                bytes[index] |= nibble << 4;
+            }
+            nibbles++;
+        } while (value != 0);
+    }
+
+    /**
+     * Make sure the byte buffer can hold the given number of bytes
+     *
+     * @param length The number of bytes needed
+     */
+    void ensureBytes(int length) {
+        if (bytes.length < length) bytes = new byte[length];
+    }
+
+    /**
+     * Return the internal byte buffer, to let other encodings fill it before calling toBase64()
+     *
+     * @return The internal byte buffer
+     */
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Convert the first bytes of the internal buffer to a Base64 String
+     *
+     * @param length The number of bytes to convert
+     * @return The Base64 representation of the bytes
+     */
+    String toBase64(int length) {
+        int outLength = ((length + 2) / 3) * 4;
+        if (chars.length < outLength) chars = new char[outLength];
+
+        int i = 0, j = 0;
+
+        // Convert every complete group of three bytes
+        for (; i + 2 < length; i += 3) {
+            int group = ((bytes[i] & 0xFF) << 16) | ((bytes[i + 1] & 0xFF) << 8) | (bytes[i + 2] & 0xFF);
+            chars[j++] = BASE64_ALPHABET[(group >>> 18) & 0x3F];
+            chars[j++] = BASE64_ALPHABET[(group >>> 12) & 0x3F];
+            chars[j++] = BASE64_ALPHABET[(group >>> 6) & 0x3F];
+            chars[j++] = BASE64_ALPHABET[group & 0x3F];
+        }
+
+        // Convert the remaining bytes adding the padding
+        if (i < length) {
+            int group = (bytes[i] & 0xFF) << 16;
+            if (i + 1 < length) group |= (bytes[i + 1] & 0xFF) << 8;
+
+            chars[j++] = BASE64_ALPHABET[(group >>> 18) & 0x3F];
+            chars[j++] = BASE64_ALPHABET[(group >>> 12) & 0x3F];
+            chars[j++] = (i + 1 < length) ? BASE64_ALPHABET[(group >>> 6) & 0x3F] : BASE64_PAD;
+            chars[j++] = BASE64_PAD;
+        }
+
+        return new String(chars, 0, j);
+    }
+}
@@ -0,0 +1,647 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh.spool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import eu.fistar.sdcs.pa.common.Observation;
+
+/**
+ * This class stores the observations that can't be delivered to the Protocol Adapter, so that
+ * they can be delivered later, in the same order. The spool is an append-only log split in
+ * segment files: every batch of observations of a device is a record holding its length, its
+ * CRC32 and its content, written with a single NIO write. A new segment is started when the
+ * current one is full, and the oldest segments are deleted when the spool exceeds its maximum
+ * size, even if they were not delivered yet.
+ *
+ * The position of the next record to deliver is kept in a cursor file, replaced atomically. When
+ * the spool is opened the records torn by a crash at the end of the last segment are truncated, so
+ * a crash of the process loses nothing that was appended. The segments are flushed to the storage
+ * by sync, a power loss can lose the records appended since the last call. A crash while
+ * delivering can deliver the last records again.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class ObservationSpool {
+
+    static final int MAGIC = 0x5A424853; // "ZBHS"
+    static final int VERSION = 1;
+
+    static final int SEGMENT_HEADER_SIZE = 5;
+    static final int RECORD_HEADER_SIZE = 8;
+    static final String SEGMENT_EXTENSION = ".seg";
+    static final String CURSOR_FILE = "cursor";
+
+    /**
+     * The destination of the observations delivered from the spool
+     */
+    public interface Sink {
+
+        /**
+         * Deliver a batch of observations
+         *
+         * @param devId The device ID of the observations
+         * @param observations The observations, in the order they were produced
+         * @return True if the observations were delivered, false to retry later
+         */
+        boolean push(String devId, List<Observation> observations);
+    }
+
+    private final File directory;
+    private final long segmentSize;
+    private final long maxSize;
+
+    // Size of every segment on disk, oldest first
+    private final TreeMap<Long, Long> segments = new TreeMap<Long, Long>();
+    private long totalSize;
+
+    // The segment being written
+    private long writeSegment;
+    private FileChannel writer;
+    private boolean dirty;
+
+    // The position of the next record to deliver, and the one after the record being delivered
+    private long readSegment;
+    private long readOffset;
+    private long nextOffset = -1;
+    private FileChannel reader;
+    private long readerSegment = -1;
+    private final ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+    // Buffer and checksum used to encode the records
+    private final RecordBuffer buffer = new RecordBuffer();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private final CRC32 crc = new CRC32();
+
+    // Counters
+    private long appended;
+    private long delivered;
+    private long evictedBytes;
+    private long corruptedRecords;
+    private boolean closed;
+
+    /**
+     * Open the spool in the given directory, creating it if needed and recovering the records left
+     * by a previous run
+     *
+     * @param directory The directory of the segments
+     * @param segmentSize The size of a segment in bytes
+     * @param maxSize The maximum size of the spool in bytes, at least two segments
+     * @throws IOException If the spool can't be opened
+     */
+    public ObservationSpool(File directory, long segmentSize, long maxSize) throws IOException {
+        if (maxSize < 2 * segmentSize) throw new IllegalArgumentException("The spool must hold at least two segments!");
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Can't create directory " + directory);
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                long number = segmentNumber(file);
+                if (number >= 0) segments.put(number, file.length());
+            }
+        }
+
+        // Drop the segments without a valid header, then truncate the torn records of the last one
+        for (Long number : new ArrayList<Long>(segments.keySet())) {
+            if (!hasValidHeader(number)) deleteSegment(number);
+        }
+        if (segments.isEmpty()) {
+            createSegment(0);
+        } else {
+            long last = segments.lastKey();
+            long valid = validLength(last);
+            RandomAccessFile file = new RandomAccessFile(segmentFile(last), "rw");
+            try {
+                file.setLength(valid);
+            } finally {
+                file.close();
+            }
+            segments.put(last, valid);
+            writeSegment = last;
+            writer = new RandomAccessFile(segmentFile(last), "rw").getChannel();
+        }
+        for (long size : segments.values()) {
+            totalSize += size;
+        }
+
+        readCursor();
+    }
+
+    /**
+     * Append a batch of observations of a device to the spool
+     *
+     * @param devId The device ID
+     * @param observations The observations to append
+     * @throws IOException If the observations can't be written
+     */
+    public synchronized void append(String devId, List<Observation> observations) throws IOException {
+        if (closed) throw new IOException("The spool is closed");
+
+        encode(devId, observations);
+        int length = buffer.size();
+
+        long position = segments.get(writeSegment);
+        if (position > SEGMENT_HEADER_SIZE && position + length > segmentSize) {
+            rollSegment();
+            position = SEGMENT_HEADER_SIZE;
+        }
+        evict(length);
+
+        // A failed write leaves the size unchanged, so the next record overwrites the partial one
+        ByteBuffer record = buffer.toByteBuffer();
+        while (record.hasRemaining()) {
+            writer.write(record, position + record.position());
+        }
+
+        segments.put(writeSegment, position + length);
+        totalSize += length;
+        appended += observations.size();
+        dirty = true;
+    }
+
+    /**
+     * Check whether all the records have been delivered
+     *
+     * @return True if there is nothing to deliver
+     */
+    public synchronized boolean isEmpty() {
+        return readSegment == writeSegment && readOffset >= segments.get(writeSegment);
+    }
+
+    /**
+     * Deliver the records to the sink, oldest first, until the given number of observations has
+     * been delivered, the spool is empty or the sink refuses a batch. The cursor is saved at the
+     * end.
+     *
+     * @param sink The destination of the observations
+     * @param maxObservations The number of observations after which the delivery stops
+     * @return The number of observations delivered
+     * @throws IOException If the spool can't be read
+     */
+    public int drain(Sink sink, int maxObservations) throws IOException {
+        int count = 0;
+
+        try {
+            while (count < maxObservations) {
+                List<Observation> observations = new ArrayList<Observation>();
+                String devId;
+                synchronized (this) {
+                    devId = peek(observations);
+                }
+                if (devId == null) break;
+
+                // The sink is called without holding the lock, so the devices can keep appending
+                if (!sink.push(devId, observations)) break;
+
+                synchronized (this) {
+                    commit(observations.size());
+                }
+                count += observations.size();
+            }
+        } finally {
+            if (count > 0) {
+                synchronized (this) {
+                    writeCursor();
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Flush the records appended so far to the storage
+     *
+     * @throws IOException If the segment can't be flushed
+     */
+    public synchronized void sync() throws IOException {
+        if (!dirty || closed) return;
+
+        writer.force(false);
+        dirty = false;
+    }
+
+    /**
+     * Flush and close the spool
+     *
+     * @throws IOException If the spool can't be flushed
+     */
+    public synchronized void close() throws IOException {
+        if (closed) return;
+
+        try {
+            sync();
+            writeCursor();
+        } finally {
+            closed = true;
+            writer.close();
+            closeReader();
+        }
+    }
+
+    /**
+     * Return the size of the spool on disk
+     *
+     * @return The size in bytes
+     */
+    public synchronized long getSize() {
+        return totalSize;
+    }
+
+    public synchronized long getAppended() {
+        return appended;
+    }
+
+    public synchronized long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Return the bytes of records deleted before being delivered, to keep the spool within its size
+     *
+     * @return The size of the records evicted in bytes
+     */
+    public synchronized long getEvictedBytes() {
+        return evictedBytes;
+    }
+
+    /**
+     * Return the number of records found corrupted while delivering, the rest of their segment is
+     * skipped
+     *
+     * @return The number of corrupted records
+     */
+    public synchronized long getCorruptedRecords() {
+        return corruptedRecords;
+    }
+
+    /**
+     * Read the next record to deliver, without moving the cursor
+     *
+     * @param observations The list where the observations of the record are added
+     * @return The device ID of the record, null if there is nothing to deliver
+     */
+    private String peek(List<Observation> observations) throws IOException {
+        if (closed) throw new IOException("The spool is closed");
+
+        while (true) {
+            long size = segments.get(readSegment);
+
+            if (readOffset + RECORD_HEADER_SIZE <= size) {
+                FileChannel channel = reader(readSegment);
+                recordHeader.clear();
+                readFully(channel, recordHeader, readOffset);
+                int length = recordHeader.getInt(0);
+                int checksum = recordHeader.getInt(4);
+
+                if (length >= 0 && readOffset + RECORD_HEADER_SIZE + length <= size) {
+                    ByteBuffer payload = ByteBuffer.allocate(length);
+                    readFully(channel, payload, readOffset + RECORD_HEADER_SIZE);
+
+                    crc.reset();
+                    crc.update(payload.array(), 0, length);
+                    if ((int) crc.getValue() == checksum) {
+                        nextOffset = readOffset + RECORD_HEADER_SIZE + length;
+                        return decode(payload.array(), observations);
+                    }
+                }
+
+                // A corrupted record, the rest of the segment can't be trusted
+                corruptedRecords++;
+                readOffset = size;
+            }
+
+            if (readSegment == writeSegment) return null;
+
+            // The segment has been delivered, move to the next one
+            long drained = readSegment;
+            readSegment = segments.higherKey(drained);
+            readOffset = SEGMENT_HEADER_SIZE;
+            deleteSegment(drained);
+        }
+    }
+
+    /**
+     * Move the cursor after the record returned by the last peek, unless it has been evicted
+     * meanwhile
+     */
+    private void commit(int observations) {
+        delivered += observations;
+        if (nextOffset < 0) return;
+
+        readOffset = nextOffset;
+        nextOffset = -1;
+    }
+
+    /**
+     * Delete the oldest segments until a record of the given length fits in the maximum size
+     */
+    private void evict(int length) throws IOException {
+        while (totalSize + length > maxSize && segments.firstKey() != writeSegment) {
+            long oldest = segments.firstKey();
+            long size = segments.get(oldest);
+
+            if (oldest == readSegment) {
+                evictedBytes += size - readOffset;
+                readSegment = segments.higherKey(oldest);
+                readOffset = SEGMENT_HEADER_SIZE;
+                nextOffset = -1;
+            } else if (oldest > readSegment) {
+                evictedBytes += size - SEGMENT_HEADER_SIZE;
+            }
+
+            deleteSegment(oldest);
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        writer.force(false);
+        writer.close();
+        dirty = false;
+        createSegment(writeSegment + 1);
+        totalSize += SEGMENT_HEADER_SIZE;
+    }
+
+    private void createSegment(long number) throws IOException {
+        FileChannel channel = new RandomAccessFile(segmentFile(number), "rw").getChannel();
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        header.putInt(MAGIC).put((byte) VERSION).flip();
+        channel.truncate(0);
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+
+        segments.put(number, (long) SEGMENT_HEADER_SIZE);
+        writeSegment = number;
+        writer = channel;
+    }
+
+    private void deleteSegment(long number) {
+        if (readerSegment == number) closeReader();
+
+        Long size = segments.remove(number);
+        if (size != null) totalSize -= size;
+        segmentFile(number).delete();
+    }
+
+    private FileChannel reader(long number) throws IOException {
+        if (readerSegment != number) {
+            closeReader();
+            reader = new FileInputStream(segmentFile(number)).getChannel();
+            readerSegment = number;
+        }
+        return reader;
+    }
+
+    private void closeReader() {
+        if (reader == null) return;
+
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // Nothing to do, the segment was only read
+        }
+        reader = null;
+        readerSegment = -1;
+    }
+
+    private boolean hasValidHeader(long number) throws IOException {
+        if (segments.get(number) < SEGMENT_HEADER_SIZE) return false;
+
+        DataInputStream in = new DataInputStream(new FileInputStream(segmentFile(number)));
+        try {
+            return in.readInt() == MAGIC && in.readByte() == VERSION;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return the length of the valid records at the start of a segment, header included
+     */
+    private long validLength(long number) throws IOException {
+        FileChannel channel = new FileInputStream(segmentFile(number)).getChannel();
+
+        try {
+            long size = channel.size();
+            long offset = SEGMENT_HEADER_SIZE;
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+            while (offset + RECORD_HEADER_SIZE <= size) {
+                header.clear();
+                readFully(channel, header, offset);
+                int length = header.getInt(0);
+                if (length < 0 || offset + RECORD_HEADER_SIZE + length > size) break;
+
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(channel, payload, offset + RECORD_HEADER_SIZE);
+                crc.reset();
+                crc.update(payload.array(), 0, length);
+                if ((int) crc.getValue() != header.getInt(4)) break;
+
+                offset += RECORD_HEADER_SIZE + length;
+            }
+
+            return offset;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Read the cursor saved by the previous run, starting from the oldest segment if it's missing
+     * or points to a segment that no longer exists
+     */
+    private void readCursor() throws IOException {
+        readSegment = segments.firstKey();
+        readOffset = SEGMENT_HEADER_SIZE;
+
+        File file = new File(directory, CURSOR_FILE);
+        if (!file.isFile()) return;
+
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            long segment = in.readLong();
+            long offset = in.readLong();
+            long check = in.readLong();
+
+            Long size = segments.get(segment);
+            if (check == (segment ^ offset ^ MAGIC) && size != null && offset >= SEGMENT_HEADER_SIZE && offset <= size) {
+                readSegment = segment;
+                readOffset = offset;
+            }
+        } catch (EOFException e) {
+            // A cursor file written partially, start from the oldest segment
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Save the cursor to a temporary file and rename it, so that a crash leaves either the old
+     * cursor or the new one
+     */
+    private void writeCursor() throws IOException {
+        File tmp = new File(directory, CURSOR_FILE + ".tmp");
+        DataOutputStream cursor = new DataOutputStream(new FileOutputStream(tmp));
+        try {
+            cursor.writeLong(readSegment);
+            cursor.writeLong(readOffset);
+            cursor.writeLong(readSegment ^ readOffset ^ MAGIC);
+        } finally {
+            cursor.close();
+        }
+
+        if (!tmp.renameTo(new File(directory, CURSOR_FILE))) throw new IOException("Can't save the spool cursor");
+    }
+
+    /**
+     * Encode a record in the buffer: the header, patched at the end, then the device ID and the
+     * observations
+     */
+    private void encode(String devId, List<Observation> observations) throws IOException {
+        buffer.reset();
+        out.writeLong(0);
+        out.writeUTF(devId);
+        out.writeInt(observations.size());
+
+        for (Observation observation : observations) {
+            writeString(observation.getPropertyName());
+            writeString(observation.getMeasurementUnit());
+            out.writeLong(observation.getPhenomenonTime());
+            out.writeLong(observation.getDuration());
+
+            List<String> values = observation.getValues();
+            out.writeInt(values == null ? -1 : values.size());
+            if (values != null) {
+                for (String value : values) {
+                    writeString(value);
+                }
+            }
+        }
+        out.flush();
+
+        crc.reset();
+        crc.update(buffer.array(), RECORD_HEADER_SIZE, buffer.size() - RECORD_HEADER_SIZE);
+        ByteBuffer header = ByteBuffer.wrap(buffer.array());
+        header.putInt(0, buffer.size() - RECORD_HEADER_SIZE);
+        header.putInt(4, (int) crc.getValue());
+    }
+
+    private String decode(byte[] payload, List<Observation> observations) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String devId = in.readUTF();
+        int count = in.readInt();
+
+        for (int i = 0; i < count; i++) {
+            Observation observation = new Observation();
+            observation.setProperty(readString(in));
+            observation.setMeasurementUnit(readString(in));
+            observation.setPhenomenonTime(in.readLong());
+            observation.setDuration(in.readLong());
+
+            int values = in.readInt();
+            if (values >= 0) {
+                String[] tmpValues = new String[values];
+                for (int j = 0; j < values; j++) {
+                    tmpValues[j] = readString(in);
+                }
+                observation.setValues(tmpValues);
+            }
+
+            observations.add(observation);
+        }
+
+        return devId;
+    }
+
+    private void writeString(String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) throw new EOFException();
+        }
+    }
+
+    private File segmentFile(long number) {
+        return new File(directory, String.format("%016d", number) + SEGMENT_EXTENSION);
+    }
+
+    private static long segmentNumber(File file) {
+        String name = file.getName();
+        if (!name.endsWith(SEGMENT_EXTENSION)) return -1;
+
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A byte array stream giving access to its buffer, so that a record can be written without
+     * copying it
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+
+        RecordBuffer() {
+            super(4096);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import eu.fistar.sdcs.pa.da.zephyrbh.ZephyrBHConstants;
+
+/**
+ * This class offers facility methods to read typed values out of the key/value configuration
+ * passed by the Protocol Adapter, falling back to a default when a value is missing or malformed.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class ConfigParser {
+
+    /**
+     * Read a long value from the configuration
+     *
+     * @param config The configuration of the device
+     * @param key The name of the configuration parameter
+     * @param defaultValue The value returned if the parameter is missing or not a number
+     * @return The value of the parameter
+     */
+    public static long getLong(Map<String, String> config, String key, long defaultValue) {
+        if (config == null) return defaultValue;
+
+        String value = config.get(key);
+        if (value == null) return defaultValue;
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Read an int value from the configuration
+     *
+     * @param config The configuration of the device
+     * @param key The name of the configuration parameter
+     * @param defaultValue The value returned if the parameter is missing or not a number
+     * @return The value of the parameter
+     */
+    public static int getInt(Map<String, String> config, String key, int defaultValue) {
+        long value = getLong(config, key, defaultValue);
+        if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) return defaultValue;
+        return (int) value;
+    }
+
+    /**
+     * Read a double value from the configuration
+     *
+     * @param config The configuration of the device
+     * @param key The name of the configuration parameter
+     * @param defaultValue The value returned if the parameter is missing or not a number
+     * @return The value of the parameter
+     */
+    public static double getDouble(Map<String, String> config, String key, double defaultValue) {
+        if (config == null) return defaultValue;
+
+        String value = config.get(key);
+        if (value == null) return defaultValue;
+
+        try {
+            double result = Double.parseDouble(value.trim());
+            return Double.isNaN(result) || Double.isInfinite(result) ? defaultValue : result;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Check whether a toggle parameter of the configuration is set to enable
+     *
+     * @param config The configuration of the device
+     * @param key The name of the configuration parameter
+     * @return True if the parameter is set to enable, false otherwise
+     */
+    public static boolean isEnabled(Map<String, String> config, String key) {
+        return config != null && ZephyrBHConstants.CONFIG_ENABLE.equals(config.get(key));
+    }
+
+    /**
+     * Read a set of flags from the configuration. The value of the parameter is a comma separated
+     * list of names, or CONFIG_ALL to set all of them. Unknown names are ignored.
+     *
+     * @param config The configuration of the device
+     * @param key The name of the configuration parameter
+     * @param names The names of the flags, the position of a name is the bit of its flag
+     * @param defaultFlags The value returned if the parameter is missing
+     * @return The flags set in the parameter, one bit for each name
+     */
+    public static int getFlags(Map<String, String> config, String key, List<String> names, int defaultFlags) {
+        if (names.size() > Integer.SIZE) throw new IllegalArgumentException("Too many flags!");
+        if (config == null) return defaultFlags;
+
+        String value = config.get(key);
+        if (value == null) return defaultFlags;
+
+        value = value.trim();
+        if (ZephyrBHConstants.CONFIG_ALL.equals(value)) return names.size() == Integer.SIZE ? -1 : (1 << names.size()) - 1;
+
+        int flags = 0;
+        for (String name : value.split(",")) {
+            int bit = names.indexOf(name.trim());
+            if (bit >= 0) flags |= 1 << bit;
+        }
+
+        return flags;
+    }
+
+    /**
+     * Read a threshold for each of a set of names from the configuration. The value of the
+     * parameter is a comma separated list of names, each optionally followed by a colon and a
+     * threshold, or CONFIG_ALL to select all of them with no threshold. Unknown names and
+     * malformed thresholds are ignored.
+     *
+     * @param config The configuration of the device
+     * @param key The name of the configuration parameter
+     * @param names The names that can be selected
+     * @return The threshold of every name in the same order, 0 if selected without a threshold
+     * and NaN if not selected
+     */
+    public static double[] getThresholds(Map<String, String> config, String key, List<String> names) {
+        double[] thresholds = new double[names.size()];
+        Arrays.fill(thresholds, Double.NaN);
+        if (config == null) return thresholds;
+
+        String value = config.get(key);
+        if (value == null) return thresholds;
+
+        value = value.trim();
+        if (ZephyrBHConstants.CONFIG_ALL.equals(value)) {
+            Arrays.fill(thresholds, 0);
+            return thresholds;
+        }
+
+        for (String item : value.split(",")) {
+            int separator = item.indexOf(':');
+            int index = names.indexOf((separator < 0 ? item : item.substring(0, separator)).trim());
+            if (index < 0) continue;
+
+            thresholds[index] = 0;
+            if (separator < 0) continue;
+
+            try {
+                thresholds[index] = Math.abs(Double.parseDouble(item.substring(separator + 1).trim()));
+            } catch (NumberFormatException e) {
+                // Keep the field selected without a threshold
+            }
+        }
+
+        return thresholds;
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh.utils;
+
+import java.util.TimeZone;
+
+/**
+ * This class converts time from the format used by BioHarness to Unix Epoch, like TimeConverter,
+ * without creating any object. The Epoch of the local midnight is computed once for every day and
+ * then reused, so converting the timestamp of a packet is just an addition.
+ *
+ * The conversion is the same as GregorianCalendar's: the local time is interpreted in the default
+ * time zone, a local time that occurs twice because of a DST change is read as standard time and a
+ * local time skipped by a DST change is read with the offset in effect before the change.
+ *
+ * An instance keeps the cached day in its fields, so it must not be shared between threads.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class FastTimeConverter {
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+    private static final long MILLIS_PER_HOUR = 3600000L;
+
+    // Margin around the day that must be free from offset changes to use the cached offset
+    private static final long TRANSITION_MARGIN = 3 * MILLIS_PER_HOUR;
+
+    private final boolean followDefaultZone;
+    private TimeZone timeZone;
+
+    // The cached day
+    private int cachedYear = Integer.MIN_VALUE;
+    private int cachedMonth;
+    private int cachedDay;
+    private long cachedLocalMidnight;
+    private long cachedMidnightEpoch;
+    private boolean cachedFixedOffset;
+
+    /**
+     * Create a converter that follows the default time zone of the system. The time zone is checked
+     * again every time the day changes.
+     */
+    public FastTimeConverter() {
+        followDefaultZone = true;
+    }
+
+    /**
+     * Create a converter that always uses the given time zone
+     *
+     * @param timeZone The time zone the BioHarness clock is set to
+     */
+    public FastTimeConverter(TimeZone timeZone) {
+        followDefaultZone = false;
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Convert a BioHarness timestamp to Unix Epoch
+     *
+     * @param year The year
+     * @param month The month, starting from 1
+     * @param day The day of the month
+     * @param millisOfDay The milliseconds elapsed since the local midnight
+     * @return The milliseconds elapsed since Unix Epoch
+     */
+    public long timeToEpoch(int year, byte month, byte day, long millisOfDay) {
+
+        // Compute the local midnight only when the day changes
+        if (year != cachedYear || month != cachedMonth || day != cachedDay) {
+            cacheDay(year, month, day);
+        }
+
+        // Fast path: the offset doesn't change during the day
+        if (cachedFixedOffset && millisOfDay >= 0 && millisOfDay < MILLIS_PER_DAY) {
+            return cachedMidnightEpoch + millisOfDay;
+        }
+
+        return resolve(cachedLocalMidnight + millisOfDay);
+    }
+
+    /**
+     * Compute and cache the local midnight of the given day
+     *
+     * @param year The year
+     * @param month The month, starting from 1
+     * @param day The day of the month
+     */
+    private void cacheDay(int year, byte month, byte day) {
+        if (followDefaultZone) timeZone = TimeZone.getDefault();
+
+        cachedYear = year;
+        cachedMonth = month;
+        cachedDay = day;
+        cachedLocalMidnight = daysFromCivil(year, month, day) * MILLIS_PER_DAY;
+
+        // Check whether the offset is the same for the whole day, with some margin
+        int raw = timeZone.getRawOffset();
+        int startOffset = timeZone.getOffset(cachedLocalMidnight - raw - TRANSITION_MARGIN);
+        int endOffset = timeZone.getOffset(cachedLocalMidnight + MILLIS_PER_DAY - raw + TRANSITION_MARGIN);
+
+        cachedFixedOffset = startOffset == endOffset;
+        cachedMidnightEpoch = cachedLocalMidnight - startOffset;
+    }
+
+    /**
+     * Convert a local time to Unix Epoch when the offset could change around it
+     *
+     * @param local The local time, expressed as milliseconds since the local Epoch
+     * @return The milliseconds elapsed since Unix Epoch
+     */
+    private long resolve(long local) {
+
+        // Offsets in effect before and after the local time, ordered so that the standard one is first
+        int before = timeZone.getOffset(local - timeZone.getRawOffset() - TRANSITION_MARGIN);
+        int after = timeZone.getOffset(local - timeZone.getRawOffset() + TRANSITION_MARGIN);
+        int standard = Math.min(before, after);
+        int daylight = Math.max(before, after);
+
+        // Prefer standard time if the local time exists in standard time
+        long epoch = local - standard;
+        if (timeZone.getOffset(epoch) == standard) return epoch;
+
+        // Otherwise use daylight time if the local time exists in daylight time
+        epoch = local - daylight;
+        if (timeZone.getOffset(epoch) == daylight) return epoch;
+
+        // The local time was skipped, read it with the offset in effect before the change
+        return local - before;
+    }
+
+    /**
+     * Return the number of days between 1970-01-01 and the given date of the proleptic Gregorian
+     * calendar. Months and days out of range are carried over, like a lenient GregorianCalendar does.
+     *
+     * @param year The year
+     * @param month The month, starting from 1
+     * @param day The day of the month
+     * @return The number of days since Unix Epoch
+     */
+    static long daysFromCivil(long year, int month, int day) {
+
+        // Bring the month in the range 1-12, carrying over to the year
+        long monthIndex = month - 1;
+        year += floorDiv(monthIndex, 12);
+        int m = (int) (monthIndex - floorDiv(monthIndex, 12) * 12) + 1;
+
+        // Count years starting from March, so that the leap day is the last day of the year
+        long y = m <= 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (m > 2 ? m - 3 : m + 9) + 2) / 5;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - 719468 + (day - 1);
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) q--;
+        return q;
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2014 Consorzio Roma Ricerche
+ * All rights reserved
+ *
+ * This file is part of the Protocol Adapter software, available at
+ * https://github.com/theIoTLab/ProtocolAdapter .
+ *
+ * The Protocol Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://opensource.org/licenses/LGPL-3.0
+ *
+ * Contact Consorzio Roma Ricerche (protocoladapter@gmail.com)
+ */
+
+package eu.fistar.sdcs.pa.da.zephyrbh.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a histogram of durations with buckets growing as powers of two, from 1 microsecond
+ * to more than an hour. Recording a value takes a few atomic operations, without locks and without
+ * creating any object, so it can be done on every packet. Percentiles are approximated by the upper
+ * bound of the bucket they fall in.
+ *
+ * @author Marcello Morena
+ * @author Alexandru Serbanati
+ */
+public class LatencyHistogram {
+
+    // Bucket 0 holds durations below 1 us, bucket i durations between 2^(i-1) and 2^i us
+    private static final int BUCKETS = 33;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a duration
+     *
+     * @param nanos The duration in nanoseconds, negative values are recorded as zero
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+
+        long micros = nanos / 1000;
+        int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Return the mean of the recorded durations
+     *
+     * @return The mean in nanoseconds, 0 if nothing was recorded
+     */
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Return an upper bound of the given percentile of the recorded durations
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The upper bound of the bucket holding the percentile in nanoseconds, 0 if nothing
+     * was recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0;
+
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && snapshot[i] > 0) {
+                // The highest bucket has no upper bound, the maximum is the best estimate
+                return i == BUCKETS - 1 ? max.get() : Math.min(max.get(), (1L << i) * 1000);
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Append a summary of the histogram to the given builder, with the durations in microseconds
+     *
+     * @param builder The builder where the summary is appended
+     * @return The same builder
+     */
+    public StringBuilder appendTo(StringBuilder builder) {
+        return builder.append("count=").append(getCount())
+                .append(" meanUs=").append(getMean() / 1000)
+                .append(" p50Us=").append(getPercentile(50) / 1000)
+                .append(" p99Us=").append(getPercentile(99) / 1000)
+                .append(" maxUs=").append(getMax() / 1000);
+    }
+}
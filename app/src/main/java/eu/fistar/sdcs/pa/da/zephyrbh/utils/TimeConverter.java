@@ -22,13 +22,9 @@
 
 package eu.fistar.sdcs.pa.da.zephyrbh.utils;
 
-import android.util.Log;
-
 import java.util.GregorianCalendar;
 import java.util.concurrent.TimeUnit;
 
-import eu.fistar.sdcs.pa.da.zephyrbh.ZephyrBHConstants;
-
 /**
  * This class offers a facility method to convert time from format used by BioHarness to Unix Epoch.
  *
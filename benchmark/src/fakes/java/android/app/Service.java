@@ -0,0 +1,21 @@
+package android.app;
+
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.os.IBinder;
+
+/**
+ * Fake of the Android Service, just enough to run the Device Adapter on a plain JVM.
+ */
+public abstract class Service extends ContextWrapper {
+
+    public abstract IBinder onBind(Intent intent);
+
+    public void onCreate() {}
+
+    public void onDestroy() {}
+
+    public boolean onUnbind(Intent intent) {
+        return false;
+    }
+}
@@ -0,0 +1,37 @@
+package android.bluetooth;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Fake of the Android BluetoothAdapter, with no paired devices.
+ */
+public final class BluetoothAdapter {
+
+    public static final String ACTION_STATE_CHANGED = "android.bluetooth.adapter.action.STATE_CHANGED";
+    public static final String EXTRA_STATE = "android.bluetooth.adapter.extra.STATE";
+    public static final int STATE_OFF = 10;
+    public static final int STATE_ON = 12;
+
+    private static final BluetoothAdapter DEFAULT_ADAPTER = new BluetoothAdapter();
+
+    public static BluetoothAdapter getDefaultAdapter() {
+        return DEFAULT_ADAPTER;
+    }
+
+    public static boolean checkBluetoothAddress(String address) {
+        return address != null && address.matches("([0-9A-F]{2}:){5}[0-9A-F]{2}");
+    }
+
+    public boolean isEnabled() {
+        return true;
+    }
+
+    public Set<BluetoothDevice> getBondedDevices() {
+        return Collections.emptySet();
+    }
+
+    public BluetoothDevice getRemoteDevice(String address) {
+        return new BluetoothDevice(address, null);
+    }
+}
@@ -0,0 +1,6 @@
+package android.bluetooth;
+
+/**
+ * Fake of the Android BluetoothSocket. No connection is ever opened.
+ */
+public final class BluetoothSocket {}
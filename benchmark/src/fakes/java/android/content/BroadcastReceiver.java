@@ -0,0 +1,9 @@
+package android.content;
+
+/**
+ * Fake of the Android BroadcastReceiver.
+ */
+public abstract class BroadcastReceiver {
+
+    public abstract void onReceive(Context context, Intent intent);
+}
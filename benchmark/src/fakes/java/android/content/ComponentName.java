@@ -0,0 +1,6 @@
+package android.content;
+
+/**
+ * Fake of the Android ComponentName.
+ */
+public final class ComponentName {}
@@ -0,0 +1,27 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * Fake of the Android Context. Broadcasts go nowhere and files live in the temporary directory.
+ */
+public abstract class Context {
+
+    public static final int MODE_PRIVATE = 0;
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        return null;
+    }
+
+    public void unregisterReceiver(BroadcastReceiver receiver) {}
+
+    public void sendBroadcast(Intent intent) {}
+
+    public File getFilesDir() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+}
@@ -0,0 +1,6 @@
+package android.content;
+
+/**
+ * Fake of the Android ContextWrapper.
+ */
+public class ContextWrapper extends Context {}
@@ -0,0 +1,13 @@
+package android.content;
+
+/**
+ * Fake of the Android IntentFilter.
+ */
+public class IntentFilter {
+
+    public IntentFilter() {}
+
+    public IntentFilter(String action) {}
+
+    public void addAction(String action) {}
+}
@@ -0,0 +1,30 @@
+package android.os;
+
+/**
+ * Fake of the Android Binder. Calls are always local, so the interface attached by the AIDL stub
+ * is returned as is and no transaction ever takes place.
+ */
+public class Binder implements IBinder {
+
+    private IInterface owner;
+    private String descriptor;
+
+    public void attachInterface(IInterface owner, String descriptor) {
+        this.owner = owner;
+        this.descriptor = descriptor;
+    }
+
+    @Override
+    public IInterface queryLocalInterface(String descriptor) {
+        return descriptor.equals(this.descriptor) ? owner : null;
+    }
+
+    @Override
+    public boolean transact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+        return onTransact(code, data, reply, flags);
+    }
+
+    protected boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+        return false;
+    }
+}
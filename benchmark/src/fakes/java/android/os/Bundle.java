@@ -0,0 +1,6 @@
+package android.os;
+
+/**
+ * Fake of the Android Bundle.
+ */
+public final class Bundle {}
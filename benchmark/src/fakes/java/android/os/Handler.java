@@ -0,0 +1,6 @@
+package android.os;
+
+/**
+ * Fake of the Android Handler.
+ */
+public class Handler {}
@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * Fake of the Android IBinder.
+ */
+public interface IBinder {
+
+    int FIRST_CALL_TRANSACTION = 1;
+    int FLAG_ONEWAY = 1;
+
+    IInterface queryLocalInterface(String descriptor);
+
+    boolean transact(int code, Parcel data, Parcel reply, int flags) throws RemoteException;
+}
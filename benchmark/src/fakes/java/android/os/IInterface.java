@@ -0,0 +1,9 @@
+package android.os;
+
+/**
+ * Fake of the Android IInterface.
+ */
+public interface IInterface {
+
+    IBinder asBinder();
+}
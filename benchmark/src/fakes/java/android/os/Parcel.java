@@ -0,0 +1,6 @@
+package android.os;
+
+/**
+ * Fake of the Android Parcel. Nothing is ever marshalled, since all the calls are local.
+ */
+public final class Parcel {}
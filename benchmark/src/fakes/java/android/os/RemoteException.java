@@ -0,0 +1,13 @@
+package android.os;
+
+/**
+ * Fake of the Android RemoteException.
+ */
+public class RemoteException extends Exception {
+
+    public RemoteException() {}
+
+    public RemoteException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,57 @@
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import android.os.RemoteException;
+
+import java.util.Map;
+
+import eu.fistar.sdcs.pa.common.IDeviceAdapterListener;
+
+/**
+ * Set up a Device Adapter with a single device, without any Bluetooth connection, so that packets
+ * can be driven through the same parsing and delivery path used for a real device. It lives in
+ * the package of the Device Adapter to reach the package private entry points.
+ */
+public class PipelineHarness {
+
+    private final ZephyrBHDeviceAdapter deviceAdapter = new ZephyrBHDeviceAdapter();
+    private final ZephyrBHConnectedListener listener;
+    private final ZephyrBHDevice device;
+
+    /**
+     * Create the Device Adapter and the device
+     *
+     * @param devId The ID of the device
+     * @param config The configuration of the device
+     * @param pa The Protocol Adapter receiving the observations
+     */
+    public PipelineHarness(String devId, Map<String, String> config, IDeviceAdapterListener pa) throws RemoteException {
+        deviceAdapter.getEndpoint().registerDAListener(pa.asBinder());
+        listener = new ZephyrBHConnectedListener(deviceAdapter, devId, config);
+        device = listener.createDevice(null);
+    }
+
+    /**
+     * Parse a packet on the calling thread, like the dispatcher thread of the device does
+     *
+     * @param msgId The message ID of the packet
+     * @param payload The payload of the packet
+     */
+    public void process(int msgId, byte[] payload) {
+        listener.processPacket(msgId, payload, payload.length);
+    }
+
+    /**
+     * Push the observations still waiting in the batch of the device
+     */
+    public void flush() {
+        device.getBatcher().flush();
+    }
+
+    /**
+     * Flush the pending observations and stop the threads of the Device Adapter
+     */
+    public void close() {
+        flush();
+        deviceAdapter.getScheduler().shutdown();
+    }
+}
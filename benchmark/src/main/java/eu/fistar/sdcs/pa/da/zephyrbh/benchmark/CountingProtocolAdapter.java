@@ -0,0 +1,77 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.benchmark;
+
+import android.os.RemoteException;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.fistar.sdcs.pa.common.DeviceDescription;
+import eu.fistar.sdcs.pa.common.IDeviceAdapterListener;
+import eu.fistar.sdcs.pa.common.Observation;
+
+/**
+ * Stub Protocol Adapter that counts what it receives. It walks through the values of every
+ * observation, like the marshalling of a Binder transaction would. The counters can be updated by
+ * many devices at the same time.
+ */
+public class CountingProtocolAdapter extends IDeviceAdapterListener.Stub {
+
+    private final AtomicLong pushes = new AtomicLong();
+    private final AtomicLong observations = new AtomicLong();
+    private final AtomicLong chars = new AtomicLong();
+    private final AtomicLong registered = new AtomicLong();
+    private final AtomicLong disconnected = new AtomicLong();
+
+    @Override
+    public void pushData(List<Observation> observations, DeviceDescription device) throws RemoteException {
+        pushes.incrementAndGet();
+        this.observations.addAndGet(observations.size());
+
+        long length = 0;
+        for (Observation obs : observations) {
+            for (String value : obs.getValues()) {
+                length += value.length();
+            }
+        }
+        chars.addAndGet(length);
+    }
+
+    @Override
+    public void registerDevice(DeviceDescription device, String daId) throws RemoteException {
+        registered.incrementAndGet();
+    }
+
+    @Override
+    public void deregisterDevice(DeviceDescription device) throws RemoteException {}
+
+    @Override
+    public void registerDeviceProperties(DeviceDescription device) throws RemoteException {}
+
+    @Override
+    public void deviceDisconnected(DeviceDescription device) throws RemoteException {
+        disconnected.incrementAndGet();
+    }
+
+    @Override
+    public void log(int level, String tag, String message) throws RemoteException {}
+
+    public long getPushes() {
+        return pushes.get();
+    }
+
+    public long getObservations() {
+        return observations.get();
+    }
+
+    public long getChars() {
+        return chars.get();
+    }
+
+    public long getRegistered() {
+        return registered.get();
+    }
+
+    public long getDisconnected() {
+        return disconnected.get();
+    }
+}
@@ -0,0 +1,137 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.benchmark;
+
+import android.os.RemoteException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import eu.fistar.sdcs.pa.da.zephyrbh.PipelineHarness;
+import eu.fistar.sdcs.pa.da.zephyrbh.ZephyrBHConstants;
+
+/**
+ * Measure the cost of turning a packet received from the device into observations pushed to the
+ * Protocol Adapter: parsing, conversion of the values, batching and delivery to a stub Protocol
+ * Adapter. Every operation is a packet, so the time is in ns/packet and, with the gc profiler,
+ * gc.alloc.rate.norm is in bytes allocated per packet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketPipelineBenchmark {
+
+    private static final int PACKETS = 256;
+    private static final long START_MILLIS = 36000000L;
+
+    // Packets sent in a second with all the streams enabled
+    private static final int[] ONE_SECOND = {
+            ZephyrBHConstants.PACKET_TYPE_GENERAL,
+            ZephyrBHConstants.PACKET_TYPE_ECG,
+            ZephyrBHConstants.PACKET_TYPE_ECG,
+            ZephyrBHConstants.PACKET_TYPE_ECG,
+            ZephyrBHConstants.PACKET_TYPE_ECG,
+            ZephyrBHConstants.PACKET_TYPE_ID_BREATHING,
+            ZephyrBHConstants.PACKET_TYPE_ID_R_TO_R,
+            ZephyrBHConstants.PACKET_TYPE_ID_ACCEL,
+            ZephyrBHConstants.PACKET_TYPE_ID_ACCEL,
+            ZephyrBHConstants.PACKET_TYPE_ID_ACCEL
+    };
+
+    @Param({ZephyrBHConstants.CONFIG_WAVEFORM_ENCODING_TEXT, ZephyrBHConstants.CONFIG_WAVEFORM_ENCODING_BINARY, ZephyrBHConstants.CONFIG_WAVEFORM_ENCODING_DELTA})
+    public String waveformEncoding;
+
+    private PipelineHarness harness;
+    private byte[][] general;
+    private byte[][] ecg;
+    private byte[][] breathing;
+    private byte[][] rToR;
+    private byte[][] accel;
+    private byte[][][] oneSecond = new byte[ONE_SECOND.length][][];
+    private int next;
+
+    @Setup
+    public void setup() throws RemoteException {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(ZephyrBHConstants.CONFIG_NAME_WAVEFORM_ENCODING, waveformEncoding);
+        config.put(ZephyrBHConstants.CONFIG_NAME_GENERAL, ZephyrBHConstants.CONFIG_ENABLE);
+        config.put(ZephyrBHConstants.CONFIG_NAME_ECG, ZephyrBHConstants.CONFIG_ENABLE);
+        config.put(ZephyrBHConstants.CONFIG_NAME_BREATHING, ZephyrBHConstants.CONFIG_ENABLE);
+        config.put(ZephyrBHConstants.CONFIG_NAME_RTOR, ZephyrBHConstants.CONFIG_ENABLE);
+        config.put(ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER, ZephyrBHConstants.CONFIG_ENABLE);
+
+        harness = new PipelineHarness("00:07:80:00:00:01", config, new CountingProtocolAdapter());
+
+        general = PacketSamples.sequence(ZephyrBHConstants.PACKET_TYPE_GENERAL, PACKETS, START_MILLIS);
+        ecg = PacketSamples.sequence(ZephyrBHConstants.PACKET_TYPE_ECG, PACKETS, START_MILLIS);
+        breathing = PacketSamples.sequence(ZephyrBHConstants.PACKET_TYPE_ID_BREATHING, PACKETS, START_MILLIS);
+        rToR = PacketSamples.sequence(ZephyrBHConstants.PACKET_TYPE_ID_R_TO_R, PACKETS, START_MILLIS);
+        accel = PacketSamples.sequence(ZephyrBHConstants.PACKET_TYPE_ID_ACCEL, PACKETS, START_MILLIS);
+
+        for (int i = 0; i < ONE_SECOND.length; i++) {
+            oneSecond[i] = PacketSamples.sequence(ONE_SECOND[i], PACKETS, START_MILLIS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        harness.close();
+    }
+
+    @Benchmark
+    public void generalPacket() {
+        process(ZephyrBHConstants.PACKET_TYPE_GENERAL, general);
+    }
+
+    @Benchmark
+    public void ecgPacket() {
+        process(ZephyrBHConstants.PACKET_TYPE_ECG, ecg);
+    }
+
+    @Benchmark
+    public void breathingPacket() {
+        process(ZephyrBHConstants.PACKET_TYPE_ID_BREATHING, breathing);
+    }
+
+    @Benchmark
+    public void rToRPacket() {
+        process(ZephyrBHConstants.PACKET_TYPE_ID_R_TO_R, rToR);
+    }
+
+    @Benchmark
+    public void accelPacket() {
+        process(ZephyrBHConstants.PACKET_TYPE_ID_ACCEL, accel);
+    }
+
+    /**
+     * The mix of packets sent by a device with all the streams enabled, reported per packet
+     */
+    @Benchmark
+    @OperationsPerInvocation(10)
+    public void allStreams() {
+        for (int i = 0; i < ONE_SECOND.length; i++) {
+            process(ONE_SECOND[i], oneSecond[i]);
+        }
+    }
+
+    private void process(int msgId, byte[][] sequence) {
+        next = (next + 1) % PACKETS;
+        harness.process(msgId, sequence[next]);
+    }
+}
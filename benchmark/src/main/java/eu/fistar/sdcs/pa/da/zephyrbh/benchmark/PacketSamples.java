@@ -0,0 +1,174 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.benchmark;
+
+import eu.fistar.sdcs.pa.da.zephyrbh.ZephyrBHConstants;
+
+/**
+ * Build payloads with the layout of the packets sent by a BioHarness 3, carrying synthetic but
+ * plausible signals: sequence number, timestamp and the samples packed like the device does.
+ */
+public class PacketSamples {
+
+    // Size of the payload of every packet type
+    public static final int GENERAL_SIZE = 53;
+    public static final int ECG_SIZE = 88;
+    public static final int BREATHING_SIZE = 32;
+    public static final int R_TO_R_SIZE = 45;
+    public static final int ACCEL_SIZE = 84;
+
+    private static final int HEADER_SIZE = 9;
+    private static final int YEAR = 2015;
+    private static final int MONTH = 3;
+    private static final int DAY = 5;
+
+    /**
+     * Build a sequence of consecutive packets of the given type
+     *
+     * @param msgId The message ID of the packets
+     * @param count The number of packets
+     * @param startMillis The milliseconds of the day of the first packet
+     * @return The payloads of the packets
+     */
+    public static byte[][] sequence(int msgId, int count, long startMillis) {
+        byte[][] packets = new byte[count][];
+        long interval = interval(msgId);
+
+        for (int i = 0; i < count; i++) {
+            packets[i] = packet(msgId, i, startMillis + i * interval);
+        }
+
+        return packets;
+    }
+
+    /**
+     * Return the time covered by a packet of the given type
+     *
+     * @param msgId The message ID of the packet
+     * @return The milliseconds between two consecutive packets
+     */
+    public static long interval(int msgId) {
+        switch (msgId) {
+            case ZephyrBHConstants.PACKET_TYPE_ECG: return ZephyrBHConstants.SAMPLES_ECG_DURATION;
+            case ZephyrBHConstants.PACKET_TYPE_ID_ACCEL: return ZephyrBHConstants.SAMPLES_ACCELEROMETER_DURATION;
+            default: return 1008;
+        }
+    }
+
+    /**
+     * Build a single packet
+     *
+     * @param msgId The message ID of the packet
+     * @param seq The sequence number of the packet
+     * @param millisOfDay The milliseconds of the day of the packet
+     * @return The payload of the packet
+     */
+    public static byte[] packet(int msgId, int seq, long millisOfDay) {
+        switch (msgId) {
+            case ZephyrBHConstants.PACKET_TYPE_GENERAL: return general(seq, millisOfDay);
+            case ZephyrBHConstants.PACKET_TYPE_ECG: return ecg(seq, millisOfDay);
+            case ZephyrBHConstants.PACKET_TYPE_ID_BREATHING: return breathing(seq, millisOfDay);
+            case ZephyrBHConstants.PACKET_TYPE_ID_R_TO_R: return rToR(seq, millisOfDay);
+            case ZephyrBHConstants.PACKET_TYPE_ID_ACCEL: return accel(seq, millisOfDay);
+            default: throw new IllegalArgumentException("Unknown packet type " + msgId);
+        }
+    }
+
+    public static byte[] general(int seq, long millisOfDay) {
+        byte[] payload = header(GENERAL_SIZE, seq, millisOfDay);
+
+        putShort(payload, 9, 70 + seq % 5);     // Heart rate
+        putShort(payload, 11, 150);             // Respiration rate, 0.1 bpm
+        putShort(payload, 13, 331);             // Skin temperature, 0.1 C
+        putShort(payload, 15, 10);              // Posture
+        putShort(payload, 17, 12);              // VMU, 0.01 g
+        putShort(payload, 19, 35);              // Peak acceleration, 0.01 g
+        putShort(payload, 21, 4012);            // Battery voltage, mV
+        putShort(payload, 23, 220);             // Breathing wave amplitude
+        putShort(payload, 25, 18);              // ECG amplitude
+        putShort(payload, 27, 2);               // ECG noise
+        for (int i = 29; i < 41; i += 2) {
+            putShort(payload, i, 90 + i);       // Axis min and peak
+        }
+        payload[51] = 87;                       // Battery status, %
+
+        return payload;
+    }
+
+    public static byte[] ecg(int seq, long millisOfDay) {
+        int[] samples = new int[63];
+        for (int i = 0; i < samples.length; i++) {
+            // A beat every 250 samples, on a slowly wandering baseline
+            int t = seq * samples.length + i;
+            int beat = t % 250;
+            samples[i] = 512 + (int) (20 * Math.sin(t / 400.0)) + (beat < 4 ? 300 - beat * 60 : 0);
+        }
+        return packed(ECG_SIZE, seq, millisOfDay, samples);
+    }
+
+    public static byte[] breathing(int seq, long millisOfDay) {
+        int[] samples = new int[18];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = 512 + (int) (200 * Math.sin((seq * samples.length + i) / 12.0));
+        }
+        return packed(BREATHING_SIZE, seq, millisOfDay, samples);
+    }
+
+    public static byte[] rToR(int seq, long millisOfDay) {
+        byte[] payload = header(R_TO_R_SIZE, seq, millisOfDay);
+
+        // R to R intervals, the sign flips at every detected beat
+        for (int i = 0; i < 18; i++) {
+            int interval = 820 + (seq % 7) * 5;
+            putShort(payload, HEADER_SIZE + 2 * i, ((seq + i / 14) & 1) == 0 ? interval : -interval);
+        }
+
+        return payload;
+    }
+
+    public static byte[] accel(int seq, long millisOfDay) {
+        int[] samples = new int[60];
+        for (int i = 0; i < samples.length; i += 3) {
+            int t = seq * 20 + i / 3;
+            samples[i] = 512 + (int) (40 * Math.sin(t / 5.0));
+            samples[i + 1] = 512 + (int) (30 * Math.cos(t / 5.0));
+            samples[i + 2] = 612 + (int) (10 * Math.sin(t / 2.5));
+        }
+        return packed(ACCEL_SIZE, seq, millisOfDay, samples);
+    }
+
+    /**
+     * Build a packet whose data are 10 bit samples packed little endian, like the waveforms
+     */
+    private static byte[] packed(int size, int seq, long millisOfDay, int[] samples) {
+        byte[] payload = header(size, seq, millisOfDay);
+
+        for (int i = 0; i < samples.length; i++) {
+            int bit = 10 * i;
+            int value = (samples[i] & 0x3FF) << (bit % 8);
+            int offset = HEADER_SIZE + bit / 8;
+            payload[offset] |= value;
+            payload[offset + 1] |= value >> 8;
+            if (offset + 2 < size) payload[offset + 2] |= value >> 16;
+        }
+
+        return payload;
+    }
+
+    private static byte[] header(int size, int seq, long millisOfDay) {
+        byte[] payload = new byte[size];
+
+        payload[0] = (byte) seq;
+        putShort(payload, 1, YEAR);
+        payload[3] = MONTH;
+        payload[4] = DAY;
+        for (int i = 0; i < 4; i++) {
+            payload[5 + i] = (byte) (millisOfDay >> (8 * i));
+        }
+
+        return payload;
+    }
+
+    private static void putShort(byte[] payload, int offset, int value) {
+        payload[offset] = (byte) value;
+        payload[offset + 1] = (byte) (value >> 8);
+    }
+}
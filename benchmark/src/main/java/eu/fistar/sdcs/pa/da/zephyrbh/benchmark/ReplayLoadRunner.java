@@ -0,0 +1,109 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import eu.fistar.sdcs.pa.common.da.IDeviceAdapter;
+import eu.fistar.sdcs.pa.da.zephyrbh.PacketReplayer;
+import eu.fistar.sdcs.pa.da.zephyrbh.ZephyrBHConstants;
+import eu.fistar.sdcs.pa.da.zephyrbh.ZephyrBHDeviceAdapter;
+import eu.fistar.sdcs.pa.da.zephyrbh.capture.PacketCaptureWriter;
+
+/**
+ * Load test of the whole Device Adapter: a synthetic capture with all the streams enabled is
+ * replayed by many virtual devices at the same time, through the public API of the Device Adapter,
+ * and the packets and observations delivered per second are printed.
+ *
+ * Usage: ReplayLoadRunner [devices [seconds of capture [speed [encoding]]]], where the speed is a
+ * factor of the real time or "max" (default).
+ */
+public class ReplayLoadRunner {
+
+    private static final String BASE_DEVICE = "00:07:80:00:00:00";
+    private static final long START_MILLIS = 36000000L;
+
+    // Packets sent in a second with all the streams enabled
+    private static final int[] ONE_SECOND = {
+            ZephyrBHConstants.PACKET_TYPE_GENERAL,
+            ZephyrBHConstants.PACKET_TYPE_ECG,
+            ZephyrBHConstants.PACKET_TYPE_ECG,
+            ZephyrBHConstants.PACKET_TYPE_ECG,
+            ZephyrBHConstants.PACKET_TYPE_ECG,
+            ZephyrBHConstants.PACKET_TYPE_ID_BREATHING,
+            ZephyrBHConstants.PACKET_TYPE_ID_R_TO_R,
+            ZephyrBHConstants.PACKET_TYPE_ID_ACCEL,
+            ZephyrBHConstants.PACKET_TYPE_ID_ACCEL,
+            ZephyrBHConstants.PACKET_TYPE_ID_ACCEL
+    };
+
+    public static void main(String[] args) throws Exception {
+        int devices = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        String speed = args.length > 2 ? args[2] : ZephyrBHConstants.REPLAY_SPEED_MAX;
+        String encoding = args.length > 3 ? args[3] : ZephyrBHConstants.CONFIG_WAVEFORM_ENCODING_TEXT;
+
+        ZephyrBHDeviceAdapter deviceAdapter = new ZephyrBHDeviceAdapter();
+        File file = new File(new File(deviceAdapter.getFilesDir(), ZephyrBHConstants.CAPTURE_DIRECTORY), "replay-load.zbhc");
+        long packets = writeCapture(file, seconds);
+
+        CountingProtocolAdapter pa = new CountingProtocolAdapter();
+        IDeviceAdapter endpoint = IDeviceAdapter.Stub.asInterface(deviceAdapter.onBind(null));
+        endpoint.registerDAListener(pa.asBinder());
+
+        // The replay must not drop packets, otherwise the throughput would be meaningless
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(ZephyrBHConstants.CONFIG_NAME_WAVEFORM_ENCODING, encoding);
+        config.put(ZephyrBHConstants.CONFIG_NAME_GENERAL, ZephyrBHConstants.CONFIG_ENABLE);
+        config.put(ZephyrBHConstants.CONFIG_NAME_ECG, ZephyrBHConstants.CONFIG_ENABLE);
+        config.put(ZephyrBHConstants.CONFIG_NAME_BREATHING, ZephyrBHConstants.CONFIG_ENABLE);
+        config.put(ZephyrBHConstants.CONFIG_NAME_RTOR, ZephyrBHConstants.CONFIG_ENABLE);
+        config.put(ZephyrBHConstants.CONFIG_NAME_ACCELEROMETER, ZephyrBHConstants.CONFIG_ENABLE);
+        config.put(ZephyrBHConstants.CONFIG_NAME_OVERFLOW_POLICY, ZephyrBHConstants.CONFIG_OVERFLOW_BLOCK);
+        endpoint.setDeviceConfig(config, BASE_DEVICE);
+
+        long start = System.nanoTime();
+        endpoint.execCommand(ZephyrBHConstants.COMMAND_START_REPLAY, file.getName() + "," + speed + "," + devices, BASE_DEVICE);
+        while (pa.getDisconnected() < devices) {
+            Thread.sleep(10);
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        deviceAdapter.onDestroy();
+        file.delete();
+
+        System.out.println(String.format("%d devices (%s to %s), %d packets each, %s waveforms",
+                devices, BASE_DEVICE, PacketReplayer.offsetAddress(BASE_DEVICE, devices - 1), packets, encoding));
+        System.out.println(String.format("Elapsed:      %.2f s", elapsed));
+        System.out.println(String.format("Packets:      %.0f packets/s", packets * devices / elapsed));
+        System.out.println(String.format("Observations: %.0f obs/s in %d pushes", pa.getObservations() / elapsed, pa.getPushes()));
+    }
+
+    /**
+     * Write a capture with the packets of all the streams for the given number of seconds
+     *
+     * @param file The capture file
+     * @param seconds The duration of the capture
+     * @return The number of packets written
+     */
+    private static long writeCapture(File file, int seconds) throws IOException {
+        PacketCaptureWriter writer = new PacketCaptureWriter(file);
+        int[] seq = new int[256];
+
+        try {
+            for (int s = 0; s < seconds; s++) {
+                for (int i = 0; i < ONE_SECOND.length; i++) {
+                    int msgId = ONE_SECOND[i];
+                    long millis = START_MILLIS + s * 1000L + i * 1000L / ONE_SECOND.length;
+                    byte[] payload = PacketSamples.packet(msgId, seq[msgId]++ & 0xFF, millis);
+                    writer.write(msgId, millis, payload, payload.length);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+
+        return writer.getPackets();
+    }
+}
@@ -0,0 +1,57 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import eu.fistar.sdcs.pa.da.zephyrbh.utils.FastTimeConverter;
+import eu.fistar.sdcs.pa.da.zephyrbh.utils.TimeConverter;
+
+/**
+ * Compare the cost of converting a BioHarness timestamp with GregorianCalendar (TimeConverter)
+ * and with the cached local midnight (FastTimeConverter).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeConverterBenchmark {
+
+    // One packet every 252 ms, like the ECG stream
+    private static final int PACKETS = 1024;
+    private static final long PACKET_INTERVAL = 252;
+
+    private final long[] millisOfDay = new long[PACKETS];
+    private final FastTimeConverter fastConverter = new FastTimeConverter();
+    private int next;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < PACKETS; i++) {
+            millisOfDay[i] = 36000000L + i * PACKET_INTERVAL;
+        }
+    }
+
+    @Benchmark
+    public long gregorianCalendar() {
+        next = (next + 1) % PACKETS;
+        return TimeConverter.timeToEpoch(2015, (byte) 3, (byte) 5, millisOfDay[next]);
+    }
+
+    @Benchmark
+    public long cachedMidnight() {
+        next = (next + 1) % PACKETS;
+        return fastConverter.timeToEpoch(2015, (byte) 3, (byte) 5, millisOfDay[next]);
+    }
+}
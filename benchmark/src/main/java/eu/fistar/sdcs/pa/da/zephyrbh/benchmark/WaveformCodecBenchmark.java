@@ -0,0 +1,96 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import eu.fistar.sdcs.pa.da.zephyrbh.codec.WaveformDecoder;
+import eu.fistar.sdcs.pa.da.zephyrbh.codec.WaveformEncoder;
+
+/**
+ * Compare the cost of encoding the 63 samples of an ECG packet as text, as little endian shorts
+ * (int16le) and as zig-zag varint differences (delta16), and of decoding delta16. The average size
+ * of the encoded packet is printed by the setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WaveformCodecBenchmark {
+
+    private static final int PACKETS = 256;
+    private static final int SAMPLES = 63;
+
+    private final short[][] packets = new short[PACKETS][SAMPLES];
+    private final List<List<String>> encoded = new ArrayList<List<String>>(PACKETS);
+    private final WaveformEncoder encoder = new WaveformEncoder();
+    private int next;
+
+    @Setup
+    public void setup() {
+        long int16Length = 0;
+        long delta16Length = 0;
+
+        for (int p = 0; p < PACKETS; p++) {
+            for (int i = 0; i < SAMPLES; i++) {
+                // A beat every 250 samples, with a T wave, on a slowly wandering baseline
+                int t = p * SAMPLES + i;
+                int beat = t % 250;
+                double value = 512 + 20 * Math.sin(t / 400.0) + (t * 7919 % 3) - 1;
+                if (beat < 12) value += 300 * Math.sin(Math.PI * beat / 12);
+                if (beat >= 60 && beat < 110) value += 40 * Math.sin(Math.PI * (beat - 60) / 50);
+                packets[p][i] = (short) value;
+            }
+
+            int16Length += encoder.encodeInt16(packets[p], SAMPLES)[1].length();
+            encoded.add(Arrays.asList(encoder.encodeDelta16(packets[p], SAMPLES)));
+            delta16Length += encoded.get(p).get(1).length();
+        }
+
+        System.out.println("\nBase64 characters per ECG packet: int16le " + (double) int16Length / PACKETS
+                + ", delta16 " + (double) delta16Length / PACKETS);
+    }
+
+    @Benchmark
+    public String[] encodeText() {
+        next = (next + 1) % PACKETS;
+        short[] samples = packets[next];
+        String[] values = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            values[i] = Short.toString(samples[i]);
+        }
+        return values;
+    }
+
+    @Benchmark
+    public String[] encodeInt16() {
+        next = (next + 1) % PACKETS;
+        return encoder.encodeInt16(packets[next], SAMPLES);
+    }
+
+    @Benchmark
+    public String[] encodeDelta16() {
+        next = (next + 1) % PACKETS;
+        return encoder.encodeDelta16(packets[next], SAMPLES);
+    }
+
+    @Benchmark
+    public short[] decodeDelta16() {
+        next = (next + 1) % PACKETS;
+        return WaveformDecoder.decodeInt16(encoded.get(next));
+    }
+}
@@ -0,0 +1,223 @@
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drive ConnectScheduler with a fake connector, checking the retries, the bound on the parallel
+ * connections, the deduplication of the requests, the cancellations and the reconnect window.
+ */
+public class ConnectSchedulerTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Map<String, Integer> connected = new ConcurrentHashMap<String, Integer>();
+    private final Map<String, Integer> failed = new ConcurrentHashMap<String, Integer>();
+    private final Map<String, Integer> disconnected = new ConcurrentHashMap<String, Integer>();
+    private CountDownLatch done;
+
+    /**
+     * Connector recording the connections it's asked to undo
+     */
+    private abstract class FakeConnector implements ConnectScheduler.Connector {
+        @Override
+        public void disconnect(String devId) {
+            disconnected.put(devId, 1);
+            done.countDown();
+        }
+    }
+
+    private final ConnectScheduler.Listener listener = new ConnectScheduler.Listener() {
+        @Override
+        public void connected(String devId, int attempts, long elapsed) {
+            connected.put(devId, attempts);
+            done.countDown();
+        }
+
+        @Override
+        public void failed(String devId, int attempts, long elapsed) {
+            failed.put(devId, attempts);
+            done.countDown();
+        }
+    };
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void retriesUntilTheDeviceConnects() throws InterruptedException {
+        final Map<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+        ConnectScheduler connects = new ConnectScheduler(2, scheduler, new FakeConnector() {
+            @Override
+            public boolean connect(String devId, long requested) {
+                calls.putIfAbsent(devId, new AtomicInteger());
+                // The first device connects at the third attempt, the second one never
+                return devId.endsWith("1") && calls.get(devId).incrementAndGet() == 3;
+            }
+        }, listener);
+
+        done = new CountDownLatch(2);
+        assertTrue(connects.connect("00:07:80:00:00:01", 5, 1, 4));
+        assertTrue(connects.connect("00:07:80:00:00:02", 4, 1, 4));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(Integer.valueOf(3), connected.get("00:07:80:00:00:01"));
+        assertEquals(Integer.valueOf(4), failed.get("00:07:80:00:00:02"));
+        assertEquals(1, connects.getSucceeded());
+        assertEquals(1, connects.getFailed());
+        assertEquals(5, connects.getRetries());
+        assertFalse(connects.isConnecting("00:07:80:00:00:01"));
+        connects.shutdown();
+    }
+
+    @Test
+    public void connectsInParallelUpToTheConcurrency() throws InterruptedException {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        ConnectScheduler connects = new ConnectScheduler(3, scheduler, new FakeConnector() {
+            @Override
+            public boolean connect(String devId, long requested) {
+                calls.incrementAndGet();
+                int now = running.incrementAndGet();
+                while (true) {
+                    int max = maxRunning.get();
+                    if (now <= max || maxRunning.compareAndSet(max, now)) break;
+                }
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return true;
+            }
+        }, listener);
+
+        done = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(connects.connect("00:07:80:00:00:1" + i, 3, 1000, 1000));
+        }
+
+        // A second request for a device being connected is ignored
+        assertFalse(connects.connect("00:07:80:00:00:10", 3, 1000, 1000));
+        assertTrue(connects.isConnecting("00:07:80:00:00:10"));
+
+        Thread.sleep(100);
+        assertEquals(3, running.get());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(3, maxRunning.get());
+        assertEquals(10, calls.get());
+        assertEquals(10, connected.size());
+        connects.shutdown();
+    }
+
+    @Test
+    public void stopsRetryingACancelledConnection() throws InterruptedException {
+        final AtomicInteger calls = new AtomicInteger();
+        ConnectScheduler connects = new ConnectScheduler(1, scheduler, new FakeConnector() {
+            @Override
+            public boolean connect(String devId, long requested) {
+                calls.incrementAndGet();
+                return false;
+            }
+        }, listener);
+
+        done = new CountDownLatch(1);
+        assertTrue(connects.connect("00:07:80:00:00:01", 10, 200, 200));
+        Thread.sleep(50);
+        assertTrue(connects.cancel("00:07:80:00:00:01"));
+        Thread.sleep(400);
+
+        assertEquals(1, calls.get());
+        assertTrue(failed.isEmpty());
+        connects.shutdown();
+    }
+
+    @Test
+    public void undoesAConnectionCancelledDuringTheAttempt() throws InterruptedException {
+        final CountDownLatch attempting = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ConnectScheduler connects = new ConnectScheduler(1, scheduler, new FakeConnector() {
+            @Override
+            public boolean connect(String devId, long requested) {
+                attempting.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        }, listener);
+
+        // The attempt succeeds after the connection was cancelled
+        done = new CountDownLatch(1);
+        assertTrue(connects.connect("00:07:80:00:00:01", 3, 100, 100));
+        assertTrue(attempting.await(5, TimeUnit.SECONDS));
+        assertTrue(connects.cancel("00:07:80:00:00:01"));
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertTrue(disconnected.containsKey("00:07:80:00:00:01"));
+        assertTrue(connected.isEmpty());
+        assertEquals(0, connects.getSucceeded());
+        connects.shutdown();
+    }
+
+    @Test
+    public void givesUpAtTheEndOfTheWindow() throws InterruptedException {
+        final AtomicInteger calls = new AtomicInteger();
+        ConnectScheduler connects = new ConnectScheduler(1, scheduler, new FakeConnector() {
+            @Override
+            public boolean connect(String devId, long requested) {
+                calls.incrementAndGet();
+                return false;
+            }
+        }, listener);
+
+        // Unlimited attempts, retried every 25 to 50 ms within a window of 300 ms
+        done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        assertTrue(connects.connect("00:07:80:00:00:01", Integer.MAX_VALUE, 50, 50, 300));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(Integer.valueOf(calls.get()), failed.get("00:07:80:00:00:01"));
+        assertTrue("attempts " + calls.get(), calls.get() >= 5);
+        assertTrue("elapsed " + elapsed, elapsed <= 300 + 250);
+        assertFalse(connects.isConnecting("00:07:80:00:00:01"));
+        connects.shutdown();
+    }
+
+    @Test
+    public void backsOffExponentiallyWithJitter() {
+        ConnectScheduler connects = new ConnectScheduler(1, scheduler, null, listener);
+
+        for (int i = 0; i < 1000; i++) {
+            long first = connects.retryDelay(1, 1000, 30000);
+            assertTrue(first >= 500 && first <= 1000);
+            long fourth = connects.retryDelay(4, 1000, 30000);
+            assertTrue(fourth >= 4000 && fourth <= 8000);
+            long capped = connects.retryDelay(40, 1000, 30000);
+            assertTrue(capped >= 15000 && capped <= 30000);
+        }
+    }
+}
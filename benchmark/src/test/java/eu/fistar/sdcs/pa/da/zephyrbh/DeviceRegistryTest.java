@@ -0,0 +1,112 @@
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the parsing of the MAC Addresses by DeviceRegistry, and the paired devices, the policy
+ * lists and the connected devices it holds.
+ */
+public class DeviceRegistryTest {
+
+    @Test
+    public void parsesTheMacAddressesInAnyCase() {
+        assertEquals(0x000780ABCDEFL, DeviceRegistry.toKey("00:07:80:AB:CD:EF"));
+        assertEquals(0x000780ABCDEFL, DeviceRegistry.toKey("00:07:80:ab:cd:ef"));
+        assertEquals(0xFFFFFFFFFFFFL, DeviceRegistry.toKey("FF:FF:FF:FF:FF:FF"));
+        assertEquals("00:07:80:AB:CD:EF", DeviceRegistry.toDeviceId(DeviceRegistry.toKey("00:07:80:ab:cd:ef")));
+
+        for (String devId : Arrays.asList(null, "", "00:07:80:AB:CD", "00:07:80:AB:CD:EF:", "00-07-80-AB-CD-EF",
+                "00:07:80:AB:CD:EG", "0:007:80:AB:CD:EF", "+0:07:80:AB:CD:EF")) {
+            assertEquals(devId, DeviceRegistry.INVALID_KEY, DeviceRegistry.toKey(devId));
+            assertFalse(DeviceRegistry.isValid(devId));
+        }
+    }
+
+    @Test
+    public void keepsThePairedDevicesOnce() {
+        DeviceRegistry registry = new DeviceRegistry();
+        assertTrue(registry.addPaired("00:07:80:00:00:01"));
+        assertFalse(registry.addPaired("00:07:80:00:00:01"));
+        assertTrue(registry.addPaired("00:07:80:00:00:02"));
+        assertFalse(registry.addPaired("not a device"));
+
+        assertTrue(registry.isPaired("00:07:80:00:00:01"));
+        assertEquals(2, registry.getPaired().size());
+        assertTrue(registry.removePaired("00:07:80:00:00:01"));
+        assertFalse(registry.isPaired("00:07:80:00:00:01"));
+        assertEquals(Collections.singletonList("00:07:80:00:00:02"), registry.getPaired());
+    }
+
+    @Test
+    public void remembersWhetherTheDevicesAreSupported() {
+        DeviceRegistry registry = new DeviceRegistry();
+        assertNull(registry.getSupported("00:07:80:00:00:01"));
+
+        registry.setSupported("00:07:80:00:00:01", true);
+        registry.setSupported("00:07:80:00:00:02", false);
+        registry.setSupported("not a device", true);
+        assertEquals(Boolean.TRUE, registry.getSupported("00:07:80:00:00:01"));
+        assertEquals(Boolean.FALSE, registry.getSupported("00:07:80:00:00:02"));
+        assertNull(registry.getSupported("not a device"));
+    }
+
+    @Test
+    public void checksTheWhitelistAndTheBlacklist() {
+        DeviceRegistry registry = new DeviceRegistry();
+
+        // An empty whitelist allows every device
+        assertTrue(registry.isAllowed("00:07:80:00:00:01"));
+
+        assertTrue(registry.getWhitelist().add("00:07:80:00:00:01"));
+        assertFalse(registry.getWhitelist().add("00:07:80:00:00:01"));
+        assertTrue(registry.isAllowed("00:07:80:00:00:01"));
+        assertFalse(registry.isAllowed("00:07:80:00:00:02"));
+
+        assertTrue(registry.getBlacklist().add("00:07:80:00:00:01"));
+        assertFalse(registry.isAllowed("00:07:80:00:00:01"));
+        assertTrue(registry.getBlacklist().remove("00:07:80:00:00:01"));
+        assertFalse(registry.getBlacklist().remove("00:07:80:00:00:01"));
+
+        // The whole list is replaced, keeping the order and dropping the invalid IDs
+        registry.getWhitelist().set(Arrays.asList("00:07:80:00:00:03", "bogus", "00:07:80:00:00:02", "00:07:80:00:00:03"));
+        assertEquals(Arrays.asList("00:07:80:00:00:03", "00:07:80:00:00:02"), registry.getWhitelist().get());
+        assertFalse(registry.getWhitelist().contains("00:07:80:00:00:01"));
+        assertTrue(registry.isAllowed("00:07:80:00:00:02"));
+
+        // The device IDs are matched whatever their case, and returned as they were given
+        assertTrue(registry.getBlacklist().add("00:07:80:0a:bc:de"));
+        assertFalse(registry.getBlacklist().add("00:07:80:0A:BC:DE"));
+        assertTrue(registry.getBlacklist().contains("00:07:80:0A:BC:DE"));
+        assertEquals(Arrays.asList("00:07:80:0a:bc:de"), registry.getBlacklist().get());
+
+        registry.getWhitelist().set(null);
+        assertTrue(registry.getWhitelist().isEmpty());
+    }
+
+    @Test
+    public void tracksTheConnectedDevices() {
+        DeviceRegistry registry = new DeviceRegistry();
+        ZephyrBHDevice first = new ZephyrBHDevice("00:07:80:00:00:01", null, null);
+        ZephyrBHDevice replacement = new ZephyrBHDevice("00:07:80:00:00:01", null, null);
+
+        registry.putConnected(first);
+        assertTrue(registry.getConnected("00:07:80:00:00:01") == first);
+        assertTrue(registry.isConnected("00:07:80:00:00:01"));
+        assertNull(registry.getConnected("00:07:80:00:00:02"));
+
+        // A device replaced by a new connection is not removed by the old one
+        registry.putConnected(replacement);
+        assertFalse(registry.removeConnected(first));
+        assertEquals(Collections.singletonList(replacement), registry.getConnectedDevices());
+        assertTrue(registry.removeConnected(replacement));
+        assertTrue(registry.getConnectedDevices().isEmpty());
+    }
+}
@@ -0,0 +1,72 @@
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import eu.fistar.sdcs.pa.common.Observation;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that EventPacketProcessor decodes the event code and the event data of a packet held in a
+ * reused array longer than the packet, as the dispatcher hands it over.
+ */
+public class EventPacketProcessorTest {
+
+    private final ZephyrBHDeviceAdapter deviceAdapter = new ZephyrBHDeviceAdapter();
+    private final List<Observation> sent = new ArrayList<Observation>();
+
+    private final ZephyrBHConnectedListener listener = new ZephyrBHConnectedListener(deviceAdapter, "00:07:80:00:00:01",
+            new HashMap<String, String>()) {
+        @Override
+        void sendObservation(Observation observation) {
+            sent.add(observation);
+        }
+    };
+
+    @After
+    public void shutdown() {
+        deviceAdapter.getScheduler().shutdown();
+    }
+
+    /**
+     * Write an Event Packet at the beginning of an array, with a timestamp of 1 January 2016
+     *
+     * @param array The array
+     * @param code The event code
+     * @param data The event specific data
+     * @return The length of the packet
+     */
+    private static int writeEvent(byte[] array, int code, byte... data) {
+        Arrays.fill(array, 0, ZephyrBHConstants.PACKET_SIZE_EVENT, (byte) 0);
+        array[1] = (byte) 0xE0;
+        array[2] = (byte) 0x07;
+        array[3] = 1;
+        array[4] = 1;
+        array[9] = (byte) code;
+        array[10] = (byte) (code >> 8);
+        System.arraycopy(data, 0, array, ZephyrBHConstants.PACKET_SIZE_EVENT, data.length);
+        return ZephyrBHConstants.PACKET_SIZE_EVENT + data.length;
+    }
+
+    @Test
+    public void decodesOnlyTheBytesOfThePacket() {
+        EventPacketProcessor processor = new EventPacketProcessor(listener);
+
+        // The rest of the array holds the bytes of a previous, longer packet
+        byte[] array = new byte[128];
+        Arrays.fill(array, (byte) 0x55);
+
+        processor.process(array, writeEvent(array, 0x0104, (byte) 0xAB, (byte) 0xCD));
+        processor.process(array, writeEvent(array, 0x0010));
+
+        assertEquals(2, sent.size());
+        assertEquals(Arrays.asList("260", "ABCD"), sent.get(0).getValues());
+        assertEquals(Arrays.asList("16", ""), sent.get(1).getValues());
+    }
+}
@@ -0,0 +1,123 @@
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import android.os.RemoteException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import eu.fistar.sdcs.pa.common.DeviceDescription;
+import eu.fistar.sdcs.pa.common.Observation;
+import eu.fistar.sdcs.pa.da.zephyrbh.benchmark.CountingProtocolAdapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Push observations from many simulated devices at the same time, with the default batching, and
+ * check that a device whose pushes are stuck doesn't hold back the deliveries of the others.
+ */
+public class MultiDeviceStressTest {
+
+    private static final int DEVICES = 8;
+    private static final int OBSERVATIONS_PER_DEVICE = 10;
+    private static final String STUCK_DEVICE = "00:07:80:00:00:00";
+
+    /**
+     * Protocol Adapter whose pushes for one device wait to be released, recording the values
+     * pushed for every device
+     */
+    private static class StuckProtocolAdapter extends CountingProtocolAdapter {
+
+        final Map<String, List<String>> values = new ConcurrentHashMap<String, List<String>>();
+        final CountDownLatch othersPushed = new CountDownLatch(DEVICES - 1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void pushData(List<Observation> observations, DeviceDescription device) throws RemoteException {
+            if (STUCK_DEVICE.equals(device.getDeviceID())) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            List<String> pushed = new ArrayList<String>();
+            for (Observation obs : observations) {
+                pushed.add(obs.getValues().get(0));
+            }
+            values.put(device.getDeviceID(), pushed);
+            super.pushData(observations, device);
+            if (!STUCK_DEVICE.equals(device.getDeviceID())) othersPushed.countDown();
+        }
+    }
+
+    private final ZephyrBHDeviceAdapter deviceAdapter = new ZephyrBHDeviceAdapter();
+    private final StuckProtocolAdapter pa = new StuckProtocolAdapter();
+
+    @After
+    public void shutdown() {
+        pa.release.countDown();
+        deviceAdapter.getScheduler().shutdownNow();
+    }
+
+    @Test
+    public void aStuckDeviceDoesNotHoldBackTheOthers() throws Exception {
+        deviceAdapter.getEndpoint().registerDAListener(pa.asBinder());
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(DEVICES);
+        for (int i = 0; i < DEVICES; i++) {
+            final ZephyrBHDevice device = new ZephyrBHDevice(String.format("00:07:80:00:00:%02X", i), null, null);
+            device.setBatcher(new ObservationBatcher(deviceAdapter, device, deviceAdapter.getScheduler(), deviceAdapter.getDeliveryExecutor()));
+
+            // Fewer observations than the default batch size, so the batches are flushed by the scheduler
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < OBSERVATIONS_PER_DEVICE; j++) {
+                            deviceAdapter.receivedMeasurement(new Observation(ZephyrBHConstants.SENSOR_HEART, new String[] {Integer.toString(j)}), device);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        start.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // All the other devices are delivered while the push of the stuck one is blocked
+        assertTrue(pa.othersPushed.await(ZephyrBHConstants.DEFAULT_BATCH_MAX_DELAY + 5000, TimeUnit.MILLISECONDS));
+        assertEquals((DEVICES - 1) * OBSERVATIONS_PER_DEVICE, pa.getObservations());
+
+        pa.release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pa.getPushes() < DEVICES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        // Every device is delivered in a single batch, in order
+        assertEquals(DEVICES, pa.getPushes());
+        List<String> expected = new ArrayList<String>();
+        for (int j = 0; j < OBSERVATIONS_PER_DEVICE; j++) {
+            expected.add(Integer.toString(j));
+        }
+        for (List<String> pushed : pa.values.values()) {
+            assertEquals(expected, pushed);
+        }
+        assertEquals(DEVICES, pa.values.size());
+    }
+}
@@ -0,0 +1,186 @@
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import android.os.RemoteException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import eu.fistar.sdcs.pa.common.DeviceDescription;
+import eu.fistar.sdcs.pa.common.Observation;
+import eu.fistar.sdcs.pa.da.zephyrbh.benchmark.CountingProtocolAdapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that ObservationBatcher pushes the batches in order without making the thread adding the
+ * observations wait for a push in progress, unless too many batches are queued, and that the
+ * batches flushed by the scheduler are pushed on the delivery executor.
+ */
+public class ObservationBatcherTest {
+
+    /**
+     * Protocol Adapter whose pushes wait to be released, recording the values pushed and the
+     * threads pushing them
+     */
+    private static class BlockingProtocolAdapter extends CountingProtocolAdapter {
+
+        final List<List<String>> batches = new ArrayList<List<String>>();
+        final List<String> threads = new ArrayList<String>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void pushData(List<Observation> observations, DeviceDescription device) throws RemoteException {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            List<String> values = new ArrayList<String>();
+            for (Observation obs : observations) {
+                values.add(obs.getValues().get(0));
+            }
+            synchronized (this) {
+                batches.add(values);
+                threads.add(Thread.currentThread().getName());
+            }
+            super.pushData(observations, device);
+        }
+    }
+
+    private final ZephyrBHDeviceAdapter deviceAdapter = new ZephyrBHDeviceAdapter();
+    private final BlockingProtocolAdapter pa = new BlockingProtocolAdapter();
+    private final ZephyrBHDevice device = new ZephyrBHDevice("00:07:80:00:00:01", null, null);
+    private final ObservationBatcher batcher = new ObservationBatcher(deviceAdapter, device, deviceAdapter.getScheduler(),
+            deviceAdapter.getDeliveryExecutor());
+
+    @After
+    public void shutdown() {
+        pa.release.countDown();
+        deviceAdapter.getScheduler().shutdownNow();
+    }
+
+    private static Observation observation(String value) {
+        return new Observation(ZephyrBHConstants.SENSOR_HEART, new String[] {value});
+    }
+
+    @Test
+    public void addsWhileABatchIsBeingPushed() throws Exception {
+        deviceAdapter.getEndpoint().registerDAListener(pa.asBinder());
+        batcher.setLimits(2, 60000);
+
+        // The first batch is pushed by the thread filling it, which stays blocked in the push
+        Thread first = new Thread() {
+            @Override
+            public void run() {
+                batcher.add(observation("1"));
+                batcher.add(observation("2"));
+            }
+        };
+        first.start();
+        assertTrue(pa.entered.await(5, TimeUnit.SECONDS));
+
+        // The second batch is queued behind it, without waiting
+        long start = System.nanoTime();
+        batcher.add(observation("3"));
+        batcher.add(observation("4"));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertTrue(pa.batches.isEmpty());
+
+        // The thread pushing the first batch pushes the second one as well, in order
+        pa.release.countDown();
+        first.join(5000);
+        assertEquals(Arrays.asList(Arrays.asList("1", "2"), Arrays.asList("3", "4")), pa.batches);
+        assertEquals(4, pa.getObservations());
+    }
+
+    @Test
+    public void boundsTheBatchesWaitingForASlowProtocolAdapter() throws Exception {
+        deviceAdapter.getEndpoint().registerDAListener(pa.asBinder());
+        batcher.setLimits(2, 60000);
+
+        // Another thread, like the delivery executor, is blocked pushing the first batch
+        Thread pusher = new Thread() {
+            @Override
+            public void run() {
+                batcher.add(observation("0"));
+                batcher.add(observation("1"));
+            }
+        };
+        pusher.start();
+        assertTrue(pa.entered.await(5, TimeUnit.SECONDS));
+
+        final int count = 200;
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 2; i < count; i++) {
+                    batcher.add(observation(Integer.toString(i)));
+                }
+            }
+        };
+        producer.start();
+
+        // The producer stops adding once the queue is full, waiting for the blocked push
+        long deadline = System.currentTimeMillis() + 5000;
+        while (producer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(50);
+        assertTrue(producer.isAlive());
+        assertEquals(ZephyrBHConstants.DELIVERY_MAX_QUEUED, batcher.getQueued());
+        assertEquals(0, pa.getPushes());
+
+        // Once the push is released every observation is delivered, in order
+        pa.release.countDown();
+        producer.join(5000);
+        pusher.join(5000);
+        assertFalse(producer.isAlive());
+        assertEquals(0, batcher.getQueued());
+        assertEquals(count, pa.getObservations());
+
+        List<String> values = new ArrayList<String>();
+        for (List<String> batch : pa.batches) {
+            values.addAll(batch);
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals(Integer.toString(i), values.get(i));
+        }
+    }
+
+    @Test
+    public void pushesTheTimedFlushesOffTheScheduler() throws Exception {
+        deviceAdapter.getEndpoint().registerDAListener(pa.asBinder());
+        batcher.setLimits(25, 20);
+        batcher.add(observation("1"));
+        assertTrue(pa.entered.await(5, TimeUnit.SECONDS));
+
+        // The scheduler is free to run other tasks while the push is blocked
+        final CountDownLatch ran = new CountDownLatch(1);
+        deviceAdapter.getScheduler().execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+
+        pa.release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pa.getPushes() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, pa.getPushes());
+        assertTrue(pa.threads.get(0), pa.threads.get(0).startsWith("ZephyrBH Delivery"));
+    }
+}
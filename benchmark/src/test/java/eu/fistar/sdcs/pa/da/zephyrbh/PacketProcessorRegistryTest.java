@@ -0,0 +1,83 @@
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that PacketProcessorRegistry hands the packets over to the processors enabled by the
+ * configuration or by a command, and ignores the others.
+ */
+public class PacketProcessorRegistryTest {
+
+    private static class CountingProcessor extends PacketProcessor {
+
+        int processed;
+
+        CountingProcessor(int msgId, int minimumSize, String... configNames) {
+            super(msgId, minimumSize, configNames);
+        }
+
+        @Override
+        public void process(byte[] data, int length) {
+            processed++;
+        }
+    }
+
+    @Test
+    public void processesOnlyTheEnabledPacketTypes() {
+        PacketProcessorRegistry registry = new PacketProcessorRegistry();
+        CountingProcessor ecg = new CountingProcessor(0x22, 88, "ECGPacket", "BeatDetection");
+        CountingProcessor summary = new CountingProcessor(0x2B, 71, "SummaryPacket");
+        registry.register(ecg);
+        registry.register(summary);
+
+        // Any of the parameters of a processor enables it
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("ECGPacket", ZephyrBHConstants.CONFIG_DISABLE);
+        config.put("BeatDetection", ZephyrBHConstants.CONFIG_ENABLE);
+        registry.configure(config);
+
+        assertTrue(registry.process(0x22, new byte[88], 88));
+        assertFalse(registry.process(0x2B, new byte[71], 71));
+        assertFalse(registry.process(0x3F, new byte[10], 10));
+        assertEquals(1, ecg.processed);
+        assertEquals(0, summary.processed);
+
+        // The minimum size doesn't depend on the processor being enabled
+        assertEquals(88, registry.getMinimumSize(0x22));
+        assertEquals(71, registry.getMinimumSize(0x2B));
+        assertEquals(0, registry.getMinimumSize(0x3F));
+    }
+
+    @Test
+    public void commandsOverrideTheConfigurationUntilItChanges() {
+        PacketProcessorRegistry registry = new PacketProcessorRegistry();
+        CountingProcessor event = new CountingProcessor(0x2C, 11, "EventPacket");
+        registry.register(event);
+        registry.configure(new HashMap<String, String>());
+        assertFalse(registry.isEnabled(0x2C));
+
+        registry.setEnabled(0x2C, true);
+        assertTrue(registry.process(0x2C, new byte[11], 11));
+        assertEquals(1, event.processed);
+
+        registry.configure(new HashMap<String, String>());
+        assertFalse(registry.process(0x2C, new byte[11], 11));
+        assertEquals(1, event.processed);
+    }
+
+    @Test
+    public void ignoresMessageIdsOutOfRange() {
+        PacketProcessorRegistry registry = new PacketProcessorRegistry();
+        assertFalse(registry.process(-1, new byte[0], 0));
+        assertFalse(registry.process(256, new byte[0], 0));
+        assertFalse(registry.isEnabled(1000));
+        assertEquals(0, registry.getMinimumSize(-5));
+    }
+}
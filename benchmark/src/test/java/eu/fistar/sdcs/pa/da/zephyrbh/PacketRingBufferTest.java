@@ -0,0 +1,166 @@
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the overflow policies of PacketRingBuffer, its counters of the dropped packets, the
+ * wrap-around of its slots and the copy of packets of any length.
+ */
+public class PacketRingBufferTest {
+
+    private static byte[] payload(int length, int value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    /**
+     * Take a packet from the buffer, checking its message ID, and return its payload
+     */
+    private static byte[] take(PacketRingBuffer buffer, PacketRingBuffer.Packet packet, int msgId) throws InterruptedException {
+        assertTrue(buffer.take(packet));
+        assertEquals(msgId, packet.msgId);
+        return Arrays.copyOf(packet.data, packet.length);
+    }
+
+    @Test
+    public void dropsTheOldestPacketsWhenFull() throws InterruptedException {
+        PacketRingBuffer buffer = new PacketRingBuffer(3, PacketRingBuffer.POLICY_DROP_OLDEST);
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(buffer.offer(i, payload(4, i), i));
+        }
+
+        assertEquals(3, buffer.size());
+        assertEquals(2, buffer.getDroppedOldest());
+        assertEquals(0, buffer.getDroppedNewest());
+
+        PacketRingBuffer.Packet packet = new PacketRingBuffer.Packet();
+        for (int i = 3; i <= 5; i++) {
+            assertArrayEquals(payload(4, i), take(buffer, packet, i));
+            assertEquals(i, packet.rxTime);
+        }
+    }
+
+    @Test
+    public void dropsTheNewestPacketsWhenFull() throws InterruptedException {
+        PacketRingBuffer buffer = new PacketRingBuffer(3, PacketRingBuffer.POLICY_DROP_NEWEST);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i <= 3, buffer.offer(i, payload(4, i), i));
+        }
+
+        assertEquals(3, buffer.size());
+        assertEquals(0, buffer.getDroppedOldest());
+        assertEquals(2, buffer.getDroppedNewest());
+
+        PacketRingBuffer.Packet packet = new PacketRingBuffer.Packet();
+        for (int i = 1; i <= 3; i++) {
+            assertArrayEquals(payload(4, i), take(buffer, packet, i));
+        }
+    }
+
+    @Test
+    public void blocksUntilThereIsRoom() throws InterruptedException {
+        final PacketRingBuffer buffer = new PacketRingBuffer(2, PacketRingBuffer.POLICY_BLOCK);
+        assertTrue(buffer.offer(1, payload(4, 1), 1));
+        assertTrue(buffer.offer(2, payload(4, 2), 2));
+
+        final AtomicBoolean stored = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                stored.set(buffer.offer(3, payload(4, 3), 3));
+                done.countDown();
+            }
+        };
+        producer.start();
+
+        // The producer waits while the buffer is full
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+
+        PacketRingBuffer.Packet packet = new PacketRingBuffer.Packet();
+        take(buffer, packet, 1);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(stored.get());
+
+        take(buffer, packet, 2);
+        take(buffer, packet, 3);
+        assertEquals(0, buffer.getDroppedOldest());
+        assertEquals(0, buffer.getDroppedNewest());
+    }
+
+    @Test
+    public void releasesTheBlockedProducersWhenClosed() throws InterruptedException {
+        final PacketRingBuffer buffer = new PacketRingBuffer(1, PacketRingBuffer.POLICY_BLOCK);
+        assertTrue(buffer.offer(1, payload(4, 1), 1));
+
+        final AtomicBoolean stored = new AtomicBoolean(true);
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread() {
+            @Override
+            public void run() {
+                stored.set(buffer.offer(2, payload(4, 2), 2));
+                done.countDown();
+            }
+        }.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+
+        // The packets stored are still extracted after the buffer is closed, the new ones are refused
+        buffer.close();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(stored.get());
+
+        PacketRingBuffer.Packet packet = new PacketRingBuffer.Packet();
+        take(buffer, packet, 1);
+        assertFalse(buffer.take(packet));
+        assertFalse(buffer.offer(3, payload(4, 3), 3));
+    }
+
+    @Test
+    public void wrapsAroundTheSlots() throws InterruptedException {
+        PacketRingBuffer buffer = new PacketRingBuffer(3, PacketRingBuffer.POLICY_DROP_NEWEST);
+        PacketRingBuffer.Packet packet = new PacketRingBuffer.Packet();
+
+        // Every round starts from a different slot
+        int next = 0;
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 2; i++) {
+                assertTrue(buffer.offer(next + i, payload(4, next + i), next + i));
+            }
+            for (int i = 0; i < 2; i++) {
+                assertArrayEquals(payload(4, next + i), take(buffer, packet, next + i));
+            }
+            next += 2;
+        }
+
+        assertEquals(0, buffer.size());
+        assertEquals(2, buffer.getMaxSize());
+    }
+
+    @Test
+    public void copiesPacketsShorterAndLongerThanTheSlots() throws InterruptedException {
+        PacketRingBuffer buffer = new PacketRingBuffer(1, PacketRingBuffer.POLICY_DROP_NEWEST);
+        PacketRingBuffer.Packet packet = new PacketRingBuffer.Packet();
+
+        // A packet longer than the slot grows both the slot and the holder
+        assertTrue(buffer.offer(1, payload(300, 1), 1));
+        assertArrayEquals(payload(300, 1), take(buffer, packet, 1));
+        assertEquals(300, packet.length);
+
+        // A shorter packet in the same slot and holder keeps only its own length
+        assertTrue(buffer.offer(2, payload(13, 2), 2));
+        assertArrayEquals(payload(13, 2), take(buffer, packet, 2));
+        assertEquals(13, packet.length);
+        assertTrue(packet.data.length >= 300);
+    }
+}
@@ -0,0 +1,95 @@
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check which values are reported by ReportOnChangeFilter with and without deadband and heartbeat.
+ */
+public class ReportOnChangeFilterTest {
+
+    private static final int STATUS = 0;
+    private static final int TEMPERATURE = 1;
+    private static final int HEART_RATE = 2;
+
+    private static ReportOnChangeFilter createFilter(long heartbeat) {
+        ReportOnChangeFilter filter = new ReportOnChangeFilter(3);
+        filter.configure(new double[] {0, 0.5, Double.NaN}, heartbeat);
+        return filter;
+    }
+
+    @Test
+    public void reportsFieldsNotInChangeOnlyModeEveryTime() {
+        ReportOnChangeFilter filter = createFilter(0);
+
+        for (long t = 0; t < 10000; t += 1000) {
+            assertTrue(filter.shouldReport(HEART_RATE, 60, t));
+        }
+    }
+
+    @Test
+    public void reportsOnlyChanges() {
+        ReportOnChangeFilter filter = createFilter(0);
+
+        assertTrue("The first value is always reported", filter.shouldReport(STATUS, 1, 0));
+        assertFalse(filter.shouldReport(STATUS, 1, 1000));
+        assertFalse(filter.shouldReport(STATUS, 1, 2000));
+        assertTrue(filter.shouldReport(STATUS, 0, 3000));
+        assertFalse(filter.shouldReport(STATUS, 0, 4000));
+        assertTrue(filter.shouldReport(STATUS, 1, 5000));
+    }
+
+    @Test
+    public void comparesWithTheLastReportedValueUsingTheDeadband() {
+        ReportOnChangeFilter filter = createFilter(0);
+
+        assertTrue(filter.shouldReport(TEMPERATURE, 33.0, 0));
+        assertFalse(filter.shouldReport(TEMPERATURE, 33.3, 1000));
+        assertFalse(filter.shouldReport(TEMPERATURE, 33.5, 2000));
+
+        // A slow drift is reported once it moves beyond the deadband from the last reported value
+        assertTrue(filter.shouldReport(TEMPERATURE, 33.6, 3000));
+        assertFalse(filter.shouldReport(TEMPERATURE, 33.2, 4000));
+        assertTrue(filter.shouldReport(TEMPERATURE, 33.0, 5000));
+    }
+
+    @Test
+    public void reportsUnchangedValuesAtTheHeartbeat() {
+        ReportOnChangeFilter filter = createFilter(5000);
+
+        assertTrue(filter.shouldReport(STATUS, 1, 0));
+        for (long t = 1000; t < 5000; t += 1000) {
+            assertFalse(filter.shouldReport(STATUS, 1, t));
+        }
+        assertTrue(filter.shouldReport(STATUS, 1, 5000));
+        assertFalse(filter.shouldReport(STATUS, 1, 6000));
+
+        // A change restarts the heartbeat interval
+        assertTrue(filter.shouldReport(STATUS, 2, 7000));
+        assertFalse(filter.shouldReport(STATUS, 2, 11000));
+        assertTrue(filter.shouldReport(STATUS, 2, 12000));
+    }
+
+    @Test
+    public void reportsWhenTheClockGoesBack() {
+        ReportOnChangeFilter filter = createFilter(5000);
+
+        assertTrue(filter.shouldReport(STATUS, 1, 10000));
+        assertTrue(filter.shouldReport(STATUS, 1, 2000));
+        assertFalse(filter.shouldReport(STATUS, 1, 3000));
+    }
+
+    @Test
+    public void reportsAgainAfterReconfiguration() {
+        ReportOnChangeFilter filter = createFilter(0);
+
+        assertTrue(filter.shouldReport(STATUS, 1, 0));
+        assertFalse(filter.shouldReport(STATUS, 1, 1000));
+
+        filter.configure(new double[] {0, 0.5, Double.NaN}, 0);
+        assertTrue(filter.shouldReport(STATUS, 1, 2000));
+        assertFalse(filter.shouldReport(STATUS, 1, 3000));
+    }
+}
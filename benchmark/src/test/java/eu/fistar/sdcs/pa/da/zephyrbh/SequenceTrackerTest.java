@@ -0,0 +1,67 @@
+package eu.fistar.sdcs.pa.da.zephyrbh;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check the detection of missing packets by SequenceTracker, from timestamps and sequence numbers.
+ */
+public class SequenceTrackerTest {
+
+    private static final long ECG = ZephyrBHConstants.SAMPLES_ECG_DURATION;
+    private static final long START = 1425553200000L;
+
+    @Test
+    public void acceptsContinuousStreams() {
+        SequenceTracker tracker = new SequenceTracker(2);
+
+        // Crossing the wrap of the sequence number, with some jitter on the timestamps
+        for (int i = 0; i < 600; i++) {
+            long jitter = i % 3 == 0 ? 4 : 0;
+            assertEquals(0, tracker.check(0, (byte) i, START + i * ECG + jitter, ECG));
+        }
+    }
+
+    @Test
+    public void countsPacketsMissingFromTheTimestamps() {
+        SequenceTracker tracker = new SequenceTracker(1);
+        tracker.check(0, (byte) 10, START, ECG);
+
+        assertEquals(2, tracker.check(0, (byte) 13, START + 3 * ECG, ECG));
+
+        // 300 packets lost wrap the sequence number, the timestamps still count them
+        assertEquals(300, tracker.check(0, (byte) (14 + 300), START + 304 * ECG, ECG));
+    }
+
+    @Test
+    public void fallsBackToSequenceNumbersWhenTheClockChanges() {
+        SequenceTracker tracker = new SequenceTracker(1);
+        tracker.check(0, (byte) 250, START, ECG);
+
+        // The clock of the device went back, five packets are missing
+        assertEquals(5, tracker.check(0, (byte) 0, START - 3600000L, ECG));
+
+        // The same packet sent again is not a loss
+        assertEquals(0, tracker.check(0, (byte) 0, START - 3600000L, ECG));
+    }
+
+    @Test
+    public void tracksStreamsIndependently() {
+        SequenceTracker tracker = new SequenceTracker(2);
+        tracker.check(0, (byte) 0, START, ECG);
+        tracker.check(1, (byte) 0, START, 1008);
+
+        assertEquals(0, tracker.check(1, (byte) 1, START + 1008, 1008));
+        assertEquals(3, tracker.check(0, (byte) 4, START + 4 * ECG, ECG));
+    }
+
+    @Test
+    public void restartsAfterReset() {
+        SequenceTracker tracker = new SequenceTracker(1);
+        tracker.check(0, (byte) 0, START, ECG);
+        tracker.reset();
+
+        assertEquals(0, tracker.check(0, (byte) 100, START + 100 * ECG, ECG));
+    }
+}
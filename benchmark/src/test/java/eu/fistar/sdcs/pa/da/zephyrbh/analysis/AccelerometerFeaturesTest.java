@@ -0,0 +1,126 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the features extracted by AccelerometerFeatures from synthetic accelerometer packets.
+ */
+public class AccelerometerFeaturesTest {
+
+    private static final int PACKET = 20;
+    private static final long START = 1425553200000L;
+
+    @Test
+    public void describesAStillSubject() {
+        AccelerometerFeatures features = new AccelerometerFeatures(2000);
+        int windows = 0;
+
+        for (int p = 0; p < 50; p++) {
+            if (addPacket(features, p, 0, 0)) {
+                windows++;
+                assertEquals(1.0, features.getMeanMagnitude(), 1e-9);
+                assertEquals(0, features.getActivityCounts(), 1e-9);
+                assertEquals(0, features.getCadence(), 1e-9);
+                assertEquals(2000, features.getFeaturesDuration());
+                assertEquals(START + (windows - 1) * 2000, features.getFeaturesTime());
+            }
+        }
+
+        assertEquals(10, windows);
+    }
+
+    @Test
+    public void countsTheStepsOfAWalk() {
+        AccelerometerFeatures features = new AccelerometerFeatures(10000);
+        int windows = 0;
+
+        // 1.8 steps a second, 108 steps per minute
+        for (int p = 0; p < 250; p++) {
+            if (addPacket(features, p, 1.8, 0)) {
+                windows++;
+                if (windows > 1) assertEquals(108, features.getCadence(), 6);
+                assertTrue(features.getActivityCounts() > 0);
+            }
+        }
+
+        assertEquals(10, windows);
+    }
+
+    @Test
+    public void findsImpactsAndPostureChanges() {
+        AccelerometerFeatures features = new AccelerometerFeatures(2000);
+        for (int p = 0; p < 10; p++) {
+            addPacket(features, p, 0, 0);
+        }
+
+        // A fall: an impact, then the subject lies on the back
+        double[] x = new double[PACKET];
+        double[] y = new double[PACKET];
+        double[] z = new double[PACKET];
+        for (int i = 0; i < PACKET; i++) {
+            x[i] = i < 5 ? 1 : 0;
+            z[i] = i < 5 ? 0 : 1;
+        }
+        x[4] = 3.0;
+        x[5] = 3.5;
+        long timestamp = START + 10 * PACKET * AccelerometerFeatures.SAMPLE_PERIOD;
+
+        assertFalse(features.addSamples(x, y, z, PACKET, timestamp));
+        assertEquals(1, features.getImpacts());
+        assertEquals(timestamp + 4 * AccelerometerFeatures.SAMPLE_PERIOD, features.getImpactTime(0));
+        assertEquals(Math.sqrt(3.5 * 3.5 + 1), features.getImpactPeak(0), 1e-9);
+
+        for (int i = 0; i < PACKET; i++) {
+            x[i] = 0;
+            z[i] = 1;
+        }
+        // The window holding the fall takes most of the change, the next one the rest
+        double change = 0;
+        for (int p = 11; p < 20; p++) {
+            if (features.addSamples(x, y, z, PACKET, START + p * PACKET * AccelerometerFeatures.SAMPLE_PERIOD)) {
+                change += features.getPostureChange();
+            }
+            assertEquals(0, features.getImpacts());
+        }
+        assertEquals(90, change, 1);
+    }
+
+    @Test
+    public void restartsAfterAReset() {
+        AccelerometerFeatures features = new AccelerometerFeatures(2000);
+        for (int p = 0; p < 8; p++) {
+            addPacket(features, p, 0, 0);
+        }
+        features.reset();
+
+        // The partial window is discarded and the posture change is unknown again
+        for (int p = 8; p < 12; p++) {
+            assertFalse(addPacket(features, p, 0, 0));
+        }
+        assertTrue(addPacket(features, 12, 0, 0));
+        assertTrue(Double.isNaN(features.getPostureChange()));
+        assertEquals(START + 8 * PACKET * AccelerometerFeatures.SAMPLE_PERIOD, features.getFeaturesTime());
+    }
+
+    /**
+     * Add a packet of an upright subject, walking at the given step frequency
+     */
+    private static boolean addPacket(AccelerometerFeatures features, int packet, double stepFrequency, double tilt) {
+        double[] x = new double[PACKET];
+        double[] y = new double[PACKET];
+        double[] z = new double[PACKET];
+        long timestamp = START + packet * PACKET * AccelerometerFeatures.SAMPLE_PERIOD;
+
+        for (int i = 0; i < PACKET; i++) {
+            double t = (timestamp - START + i * AccelerometerFeatures.SAMPLE_PERIOD) / 1000.0;
+            x[i] = Math.cos(tilt) + 0.4 * Math.sin(2 * Math.PI * stepFrequency * t);
+            z[i] = Math.sin(tilt);
+        }
+
+        return features.addSamples(x, y, z, PACKET, timestamp);
+    }
+}
@@ -0,0 +1,106 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the output of FirDecimator: independence from the packet boundaries, attenuation of the
+ * frequencies above the new Nyquist frequency and timing of the output samples.
+ */
+public class FirDecimatorTest {
+
+    // The ECG of the BioHarness, 250 Hz in packets of 63 samples
+    private static final long PERIOD = 4;
+    private static final int PACKET = 63;
+
+    @Test
+    public void doesNotDependOnThePacketBoundaries() {
+        double[] signal = new double[PACKET * 40];
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] = 512 + 100 * Math.sin(i / 7.0) + 30 * Math.sin(i / 1.3);
+        }
+
+        double[] whole = signal.clone();
+        int wholeCount = new FirDecimator(10, PERIOD).decimate(whole, whole.length);
+
+        FirDecimator decimator = new FirDecimator(10, PERIOD);
+        double[] packet = new double[PACKET];
+        int count = 0;
+        for (int p = 0; p < signal.length; p += PACKET) {
+            System.arraycopy(signal, p, packet, 0, PACKET);
+            int outputs = decimator.decimate(packet, PACKET);
+            for (int i = 0; i < outputs; i++) {
+                assertEquals(whole[count++], packet[i], 1e-9);
+            }
+        }
+        assertEquals(wholeCount, count);
+    }
+
+    @Test
+    public void keepsThePassbandAndRemovesAliases() {
+        // 25 Hz output: 3 Hz is kept, 40 Hz would alias to 15 Hz and must be removed
+        assertEquals(1.0, gain(3.0, 10), 0.01);
+        assertTrue(gain(40.0, 10) < 0.01);
+        assertTrue(gain(20.0, 10) < 0.01);
+    }
+
+    @Test
+    public void timesTheOutputSamples() {
+        FirDecimator decimator = new FirDecimator(5, PERIOD);
+        long start = 1425553200000L;
+        double[] samples = new double[PACKET];
+
+        for (int p = 0; p < 20; p++) {
+            long timestamp = start + p * PACKET * PERIOD;
+            for (int i = 0; i < PACKET; i++) {
+                samples[i] = ramp(timestamp + i * PERIOD - start);
+            }
+
+            int outputs = decimator.decimate(samples, PACKET);
+            if (p < 2) continue;
+
+            // A slow ramp goes through the filter unchanged, only delayed
+            long time = decimator.getOutputTime(timestamp);
+            for (int i = 0; i < outputs; i++) {
+                assertEquals(ramp(time + i * decimator.getOutputPeriod() - start), samples[i], 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void roundsShortSamples() {
+        FirDecimator decimator = new FirDecimator(4, PERIOD);
+        short[] samples = new short[PACKET];
+        for (int i = 0; i < samples.length; i++) samples[i] = 700;
+
+        int outputs = decimator.decimate(samples, samples.length);
+        assertEquals(16, outputs);
+        for (int i = 0; i < outputs; i++) {
+            assertEquals(700, samples[i]);
+        }
+    }
+
+    private static double ramp(long millis) {
+        return 0.5 * millis;
+    }
+
+    /**
+     * Return the amplitude at the output of a sine of the given frequency, once the filter is full
+     */
+    private static double gain(double frequency, int factor) {
+        FirDecimator decimator = new FirDecimator(factor, PERIOD);
+        double[] samples = new double[PACKET * 100];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = Math.sin(2 * Math.PI * frequency * i * PERIOD / 1000.0);
+        }
+
+        int outputs = decimator.decimate(samples, samples.length);
+        double max = 0;
+        for (int i = outputs / 2; i < outputs; i++) {
+            max = Math.max(max, Math.abs(samples[i]));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,132 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.analysis;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the heart rate variability computed by HrvEngine against a direct computation over the
+ * intervals of the window.
+ */
+public class HrvEngineTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void matchesDirectComputationOverTheWindow() {
+        HrvEngine engine = new HrvEngine(30000);
+        List<Integer> accepted = new ArrayList<Integer>();
+        Random random = new Random(42);
+
+        int interval = 800;
+        for (int i = 0; i < 500; i++) {
+            interval = Math.max(600, Math.min(1100, interval + random.nextInt(81) - 40));
+            assertTrue(engine.addInterval(interval));
+            accepted.add(interval);
+
+            if (i % 37 == 0) assertMatches(engine, window(accepted, 30000));
+        }
+        assertMatches(engine, window(accepted, 30000));
+    }
+
+    @Test
+    public void rejectsArtifactsUnlessTheChangePersists() {
+        HrvEngine engine = new HrvEngine(60000);
+        engine.addInterval(800);
+
+        assertFalse(engine.addInterval(200));
+        assertFalse(engine.addInterval(2500));
+        assertFalse(engine.addInterval(1200));
+        assertTrue(engine.addInterval(810));
+        assertEquals(3, engine.getRejected());
+
+        // A sudden change is accepted after it has been seen a few times in a row
+        assertFalse(engine.addInterval(1100));
+        assertFalse(engine.addInterval(1100));
+        assertFalse(engine.addInterval(1100));
+        assertTrue(engine.addInterval(1100));
+        assertTrue(engine.addInterval(1110));
+
+        // The differences around the rejected intervals are not counted
+        assertEquals(4, engine.getCount());
+        assertEquals(10, engine.getRmssd(), DELTA);
+    }
+
+    @Test
+    public void doesNotJoinIntervalsAcrossABreak() {
+        HrvEngine engine = new HrvEngine(60000);
+        engine.addInterval(800);
+        engine.addInterval(820);
+        engine.breakSequence();
+        engine.addInterval(900);
+        engine.addInterval(880);
+
+        assertEquals(4, engine.getCount());
+        assertEquals(20, engine.getRmssd(), DELTA);
+        assertEquals(0, engine.getPnn50(), DELTA);
+    }
+
+    @Test
+    public void decodesIntervalsFromTheSignFlips() {
+        HrvEngine engine = new HrvEngine(60000);
+
+        // The first beat only sets the sign, every flip afterwards is a new interval
+        int[] samples = {800, 800, 800, 0xFFFF & -810, 0xFFFF & -810, 0, 820, 820, 0xFFFF & -830};
+        assertEquals(3, engine.addRtoRSamples(samples));
+        assertEquals(3, engine.getCount());
+        assertEquals(820, 60000.0 / engine.getMeanHeartRate(), DELTA);
+    }
+
+    @Test
+    public void returnsNaNWithoutEnoughData() {
+        HrvEngine engine = new HrvEngine(60000);
+        assertTrue(Double.isNaN(engine.getRmssd()));
+        assertTrue(Double.isNaN(engine.getSdnn()));
+
+        engine.addInterval(800);
+        assertTrue(Double.isNaN(engine.getRmssd()));
+        assertEquals(75, engine.getMeanHeartRate(), DELTA);
+    }
+
+    private static List<Integer> window(List<Integer> accepted, long window) {
+        List<Integer> result = new ArrayList<Integer>();
+        long sum = 0;
+        for (int i = accepted.size() - 1; i >= 0; i--) {
+            sum += accepted.get(i);
+            if (sum > window && !result.isEmpty()) break;
+            result.add(0, accepted.get(i));
+        }
+        return result;
+    }
+
+    private static void assertMatches(HrvEngine engine, List<Integer> intervals) {
+        int n = intervals.size();
+        assertEquals(n, engine.getCount());
+
+        double mean = 0;
+        for (int interval : intervals) mean += interval;
+        mean /= n;
+
+        double variance = 0;
+        for (int interval : intervals) variance += (interval - mean) * (interval - mean);
+
+        double squaredDiffs = 0;
+        int nn50 = 0;
+        for (int i = 1; i < n; i++) {
+            int diff = intervals.get(i) - intervals.get(i - 1);
+            squaredDiffs += diff * diff;
+            if (Math.abs(diff) > 50) nn50++;
+        }
+
+        assertEquals(Math.sqrt(variance / (n - 1)), engine.getSdnn(), 1e-6);
+        assertEquals(Math.sqrt(squaredDiffs / (n - 1)), engine.getRmssd(), 1e-6);
+        assertEquals(100.0 * nn50 / (n - 1), engine.getPnn50(), 1e-6);
+        assertEquals(60000.0 / mean, engine.getMeanHeartRate(), 1e-6);
+    }
+}
@@ -0,0 +1,159 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.analysis;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the beats found by RPeakDetector on a synthetic ECG with known R peaks, sent in packets
+ * like the BioHarness does.
+ */
+public class RPeakDetectorTest {
+
+    private static final int SAMPLES_PER_PACKET = 63;
+    private static final long START = 1425553200000L;
+
+    // Beats within this distance from the true R peak are considered found, in ms
+    private static final long TOLERANCE = 20;
+
+    @Test
+    public void findsEveryBeatAtSteadyHeartRate() {
+        List<Long> peaks = rPeaks(0, 120000, 800, 0, new Random(1));
+        Detected detected = detect(new SyntheticEcg(peaks, 5, new Random(2)), 120000, -1);
+
+        assertFindsAll(peaks, detected, 3000);
+        for (int interval : detected.intervals) {
+            if (interval > 0) assertEquals(800, interval, 8);
+        }
+    }
+
+    @Test
+    public void followsAVariableHeartRate() {
+        List<Long> peaks = new ArrayList<Long>();
+        Random random = new Random(3);
+        peaks.addAll(rPeaks(0, 60000, 1000, 80, random));
+        peaks.addAll(rPeaks(60000, 120000, 450, 30, random));
+        peaks.addAll(rPeaks(120000, 180000, 700, 120, random));
+
+        assertFindsAll(peaks, detect(new SyntheticEcg(peaks, 10, new Random(4)), 180000, -1), 3000);
+    }
+
+    @Test
+    public void doesNotJoinIntervalsAcrossABreak() {
+        List<Long> peaks = rPeaks(0, 60000, 900, 0, new Random(5));
+        Detected detected = detect(new SyntheticEcg(peaks, 5, new Random(6)), 60000, 30000);
+
+        // The first beat after the break has no interval, the others are all there
+        int withoutInterval = 0;
+        for (int i = 0; i < detected.times.size(); i++) {
+            if (detected.intervals.get(i) == 0) withoutInterval++;
+            else assertEquals(900, detected.intervals.get(i), 8);
+        }
+        assertEquals(2, withoutInterval);
+        assertFindsAll(peaks, detected, 3000);
+    }
+
+    private static void assertFindsAll(List<Long> peaks, Detected detected, long from) {
+        int found = 0;
+        int expected = 0;
+        for (long peak : peaks) {
+            if (peak < from) continue;
+            expected++;
+            for (long time : detected.times) {
+                if (Math.abs(time - START - peak) <= TOLERANCE) {
+                    found++;
+                    break;
+                }
+            }
+        }
+        int reported = 0;
+        for (long time : detected.times) {
+            if (time - START >= from) reported++;
+        }
+
+        assertEquals("Beats found", expected, found);
+        assertEquals("False beats", 0, reported - found);
+    }
+
+    private static List<Long> rPeaks(long from, long to, int interval, int jitter, Random random) {
+        List<Long> peaks = new ArrayList<Long>();
+        for (long t = from + interval / 2; t < to; t += interval + (jitter > 0 ? random.nextInt(2 * jitter + 1) - jitter : 0)) {
+            peaks.add(t);
+        }
+        return peaks;
+    }
+
+    /**
+     * Send the ECG to a detector in packets, breaking the sequence at the given time
+     */
+    private static Detected detect(SyntheticEcg ecg, long duration, long breakAt) {
+        RPeakDetector detector = new RPeakDetector();
+        Detected detected = new Detected();
+        short[] samples = new short[SAMPLES_PER_PACKET];
+        long packetDuration = SAMPLES_PER_PACKET * RPeakDetector.SAMPLE_PERIOD;
+
+        for (long t = 0; t < duration; t += packetDuration) {
+            for (int i = 0; i < SAMPLES_PER_PACKET; i++) {
+                samples[i] = ecg.sample(t + i * RPeakDetector.SAMPLE_PERIOD);
+            }
+            if (breakAt >= 0 && t <= breakAt && breakAt < t + packetDuration) {
+                detector.breakSequence();
+            }
+
+            int beats = detector.addSamples(samples, samples.length, START + t);
+            for (int i = 0; i < beats; i++) {
+                assertTrue(detector.getBeatTime(i) <= START + t + packetDuration);
+                detected.times.add(detector.getBeatTime(i));
+                detected.intervals.add(detector.getBeatInterval(i));
+            }
+        }
+
+        return detected;
+    }
+
+    private static class Detected {
+        final List<Long> times = new ArrayList<Long>();
+        final List<Integer> intervals = new ArrayList<Integer>();
+    }
+
+    /**
+     * An ECG made of P, QRS and T waves around the given R peaks, on a wandering baseline with
+     * some noise, in the units of the BioHarness
+     */
+    private static class SyntheticEcg {
+        private final List<Long> peaks;
+        private final int noise;
+        private final Random random;
+
+        SyntheticEcg(List<Long> peaks, int noise, Random random) {
+            this.peaks = peaks;
+            this.noise = noise;
+            this.random = random;
+        }
+
+        short sample(long t) {
+            double value = 512 + 40 * Math.sin(2 * Math.PI * t / 4000.0) + random.nextGaussian() * noise;
+            for (long peak : peaks) {
+                long d = t - peak;
+                if (d < -300) break;
+                if (d > 500) continue;
+                value += wave(d, -160, 20, 25);     // P
+                value += wave(d, -20, 8, -40);      // Q
+                value += wave(d, 0, 10, 350);       // R
+                value += wave(d, 22, 8, -70);       // S
+                value += wave(d, 260, 45, 80);      // T
+            }
+            return (short) Math.round(value);
+        }
+
+        private static double wave(long t, long center, double width, double amplitude) {
+            double x = (t - center) / width;
+            return amplitude * Math.exp(-x * x / 2);
+        }
+    }
+}
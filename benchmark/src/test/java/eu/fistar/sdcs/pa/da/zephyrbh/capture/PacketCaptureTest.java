@@ -0,0 +1,109 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.capture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Write packets with PacketCaptureWriter and read them back with PacketCapture, also from files
+ * truncated like a crash would leave them.
+ */
+public class PacketCaptureTest {
+
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("capture", ".zbhc");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        PacketCaptureWriter writer = new PacketCaptureWriter(file);
+        writer.write(0x20, 1000000L, payload(53, 1), 53);
+        writer.write(0x22, 1000252L, payload(88, 2), 88);
+        // A packet received earlier than the previous one gets its time, zero length packets survive
+        writer.write(0x24, 1000100L, payload(0, 3), 0);
+        // Only the given length of the array is written
+        writer.write(0x2A, 1100000L, payload(100, 4), 84);
+        writer.close();
+
+        // Writes after close are ignored
+        writer.write(0x20, 1200000L, payload(53, 5), 53);
+        assertEquals(4, writer.getPackets());
+
+        PacketCapture capture = PacketCapture.read(file);
+        assertEquals(4, capture.size());
+        assertPacket(capture, 0, 0x20, 1000000L, payload(53, 1));
+        assertPacket(capture, 1, 0x22, 1000252L, payload(88, 2));
+        assertPacket(capture, 2, 0x24, 1000252L, payload(0, 3));
+        assertPacket(capture, 3, 0x2A, 1100000L, Arrays.copyOf(payload(100, 4), 84));
+        assertEquals(100000L, capture.getDuration());
+    }
+
+    @Test
+    public void readsTruncatedCaptureUpToTheLastCompletePacket() throws IOException {
+        PacketCaptureWriter writer = new PacketCaptureWriter(file);
+        for (int i = 0; i < 10; i++) {
+            writer.write(0x22, 1000000L + i * 252, payload(88, i), 88);
+        }
+        writer.close();
+
+        byte[] content = readFile();
+        PacketCapture capture = PacketCapture.read(new ByteArrayInputStream(Arrays.copyOf(content, content.length - 10)));
+        assertEquals(9, capture.size());
+        assertPacket(capture, 8, 0x22, 1000000L + 8 * 252, payload(88, 8));
+    }
+
+    @Test
+    public void rejectsFilesThatAreNotCaptures() {
+        try {
+            PacketCapture.read(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+            fail("A file without the magic number must be rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static void assertPacket(PacketCapture capture, int i, int msgId, long rxTime, byte[] payload) {
+        assertEquals(msgId, capture.getMsgId(i));
+        assertEquals(rxTime, capture.getRxTime(i));
+        assertArrayEquals(payload, capture.getPayload(i));
+    }
+
+    private static byte[] payload(int length, int seed) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (seed * 31 + i);
+        }
+        return payload;
+    }
+
+    private byte[] readFile() throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < content.length) read += in.read(content, read, content.length - read);
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+}
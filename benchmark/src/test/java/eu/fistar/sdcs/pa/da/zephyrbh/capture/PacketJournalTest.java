@@ -0,0 +1,209 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.capture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Write the packets of several devices with PacketJournalWriter and read them back with
+ * PacketJournal, selecting devices and ranges of time, also from a journal that was never closed
+ * or written by several threads at once.
+ */
+public class PacketJournalTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("journal", "");
+        directory.delete();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void readsBackThePacketsOfEveryDevice() throws IOException {
+        PacketJournalWriter writer = new PacketJournalWriter(directory, SEGMENT_SIZE);
+        PacketJournalWriter.Device first = writer.device("00:07:80:00:00:01");
+        PacketJournalWriter.Device second = writer.device("00:07:80:00:00:02");
+        assertTrue(first == writer.device("00:07:80:00:00:01"));
+
+        // Enough packets to fill several segments
+        for (int i = 0; i < 200; i++) {
+            first.write(0x22, 1000000L + i * 252, payload(88, i), 88);
+            second.write(0x2A, 1000000L + i * 252 + 1, payload(100, i), 84);
+        }
+        writer.close();
+        assertEquals(400, writer.getPackets());
+        assertTrue(directory.listFiles().length > 3);
+
+        PacketJournal journal = new PacketJournal(directory);
+        assertEquals(Arrays.asList("00:07:80:00:00:01", "00:07:80:00:00:02"), journal.getDevices());
+
+        PacketJournal.Cursor cursor = journal.query(null, Long.MIN_VALUE, Long.MAX_VALUE);
+        byte[] data = new byte[128];
+        for (int i = 0; i < 400; i++) {
+            assertTrue(cursor.next());
+            int packet = i / 2;
+            if (i % 2 == 0) {
+                assertEquals("00:07:80:00:00:01", cursor.getDeviceID());
+                assertEquals(0x22, cursor.getMsgId());
+                assertEquals(1000000L + packet * 252, cursor.getRxTime());
+                assertEquals(88, cursor.getPayload(data));
+                assertArrayEquals(payload(88, packet), Arrays.copyOf(data, 88));
+            } else {
+                assertEquals("00:07:80:00:00:02", cursor.getDeviceID());
+                assertEquals(0x2A, cursor.getMsgId());
+                assertEquals(84, cursor.getLength());
+            }
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void selectsADeviceAndARangeOfTime() throws IOException {
+        PacketJournalWriter writer = new PacketJournalWriter(directory, SEGMENT_SIZE);
+        PacketJournalWriter.Device first = writer.device("00:07:80:00:00:01");
+        PacketJournalWriter.Device second = writer.device("00:07:80:00:00:02");
+        for (int i = 0; i < 1000; i++) {
+            first.write(0x20, 1000000L + i * 1000, payload(53, i), 53);
+            second.write(0x20, 1000000L + i * 1000, payload(53, -i), 53);
+        }
+        writer.close();
+
+        PacketJournal journal = new PacketJournal(directory);
+        PacketJournal.Cursor cursor = journal.query("00:07:80:00:00:02", 1500000L, 1600000L);
+        int count = 0;
+        while (cursor.next()) {
+            assertEquals("00:07:80:00:00:02", cursor.getDeviceID());
+            assertEquals(1500000L + count * 1000, cursor.getRxTime());
+            count++;
+        }
+        assertEquals(101, count);
+
+        // An unknown device has no packets
+        assertFalse(journal.query("00:07:80:00:00:09", Long.MIN_VALUE, Long.MAX_VALUE).next());
+
+        // The packets of a device can be turned into a capture for the replay
+        PacketCapture capture = journal.toCapture("00:07:80:00:00:01", 1999000L, Long.MAX_VALUE);
+        assertEquals(1, capture.size());
+        assertArrayEquals(payload(53, 999), capture.getPayload(0));
+    }
+
+    @Test
+    public void readsAJournalThatWasNotClosed() throws IOException {
+        PacketJournalWriter writer = new PacketJournalWriter(directory, SEGMENT_SIZE);
+        PacketJournalWriter.Device device = writer.device("00:07:80:00:00:01");
+        for (int i = 0; i < 30; i++) {
+            device.write(0x24, 1000000L + i * 1008, payload(45, i), 45);
+        }
+
+        // The packets written so far are visible while the journal is open
+        PacketJournal.Cursor cursor = new PacketJournal(directory).query(null, Long.MIN_VALUE, Long.MAX_VALUE);
+        int count = 0;
+        while (cursor.next()) count++;
+        assertEquals(30, count);
+
+        // A new writer continues the journal, keeping the numbering of the devices
+        PacketJournalWriter resumed = new PacketJournalWriter(directory, SEGMENT_SIZE);
+        resumed.device("00:07:80:00:00:02").write(0x24, 2000000L, payload(45, 0), 45);
+        resumed.device("00:07:80:00:00:01").write(0x24, 2000001L, payload(45, 1), 45);
+        resumed.close();
+        writer.close();
+
+        PacketJournal journal = new PacketJournal(directory);
+        assertEquals(Arrays.asList("00:07:80:00:00:01", "00:07:80:00:00:02"), journal.getDevices());
+        cursor = journal.query("00:07:80:00:00:01", Long.MIN_VALUE, Long.MAX_VALUE);
+        count = 0;
+        while (cursor.next()) count++;
+        assertEquals(31, count);
+    }
+
+    @Test
+    public void rollsTheSegmentsWhileSeveralThreadsWrite() throws Exception {
+        final PacketJournalWriter writer = new PacketJournalWriter(directory, SEGMENT_SIZE);
+        final int threads = 4;
+        final int count = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final PacketJournalWriter.Device device = writer.device("00:07:80:00:00:0" + t);
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < count; i++) {
+                            device.write(0x22, 1000000L + i, payload(88, i), 88);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            };
+            thread.start();
+            writers.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : writers) {
+            thread.join(10000);
+        }
+        writer.close();
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(threads * count, writer.getPackets());
+
+        // Every segment written is valid, the one prepared and never used is deleted
+        int segments = 0;
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith(PacketJournalWriter.SEGMENT_EXTENSION)) segments++;
+        }
+        assertEquals(PacketJournal.lastSegment(directory) + 1, segments);
+
+        // The packets of every device are all there, in the order they were written
+        PacketJournal journal = new PacketJournal(directory);
+        byte[] data = new byte[128];
+        for (int t = 0; t < threads; t++) {
+            PacketJournal.Cursor cursor = journal.query("00:07:80:00:00:0" + t, Long.MIN_VALUE, Long.MAX_VALUE);
+            for (int i = 0; i < count; i++) {
+                assertTrue(cursor.next());
+                assertEquals(1000000L + i, cursor.getRxTime());
+                assertEquals(88, cursor.getPayload(data));
+                assertArrayEquals(payload(88, i), Arrays.copyOf(data, 88));
+            }
+            assertFalse(cursor.next());
+        }
+    }
+
+    private static byte[] payload(int length, int seed) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (seed * 31 + i);
+        }
+        return payload;
+    }
+}
@@ -0,0 +1,161 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.codec;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Encode random waveforms with WaveformEncoder and decode them with WaveformDecoder, checking that
+ * every encoding gives back the samples, and that delta16 shrinks an ECG-like waveform.
+ */
+public class WaveformCodecTest {
+
+    private static final int ROUNDS = 2000;
+
+    @Test
+    public void int16RoundTrips() {
+        Random random = new Random(1);
+        WaveformEncoder encoder = new WaveformEncoder();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            short[] samples = randomWaveform(random);
+            int count = random.nextInt(samples.length + 1);
+
+            List<String> values = Arrays.asList(encoder.encodeInt16(samples, count));
+            assertEquals(WaveformEncoder.ENCODING_INT16, WaveformDecoder.getEncoding(values));
+            assertArrayEquals(Arrays.copyOf(samples, count), WaveformDecoder.decodeInt16(values));
+        }
+    }
+
+    @Test
+    public void delta16RoundTrips() {
+        Random random = new Random(2);
+        WaveformEncoder encoder = new WaveformEncoder();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            short[] samples = randomWaveform(random);
+            int count = random.nextInt(samples.length + 1);
+
+            List<String> values = Arrays.asList(encoder.encodeDelta16(samples, count));
+            assertTrue(WaveformDecoder.isEncoded(values));
+            assertEquals(WaveformEncoder.ENCODING_DELTA16, WaveformDecoder.getEncoding(values));
+            assertArrayEquals(Arrays.copyOf(samples, count), WaveformDecoder.decodeInt16(values));
+        }
+    }
+
+    @Test
+    public void delta16TruncatesIntSamplesLikeInt16() {
+        Random random = new Random(3);
+        WaveformEncoder encoder = new WaveformEncoder();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            int[] samples = new int[random.nextInt(40)];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = random.nextInt();
+            }
+
+            short[] int16 = WaveformDecoder.decodeInt16(Arrays.asList(encoder.encodeInt16(samples, samples.length)));
+            short[] delta16 = WaveformDecoder.decodeInt16(Arrays.asList(encoder.encodeDelta16(samples, samples.length)));
+            assertArrayEquals(int16, delta16);
+        }
+    }
+
+    @Test
+    public void float32RoundTrips() {
+        Random random = new Random(4);
+        WaveformEncoder encoder = new WaveformEncoder();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            double[] samples = new double[random.nextInt(70)];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = random.nextGaussian() * 4;
+            }
+
+            float[] decoded = WaveformDecoder.decodeFloat32(Arrays.asList(encoder.encodeFloat32(samples, samples.length)));
+            assertEquals(samples.length, decoded.length);
+            for (int i = 0; i < samples.length; i++) {
+                assertEquals((float) samples[i], decoded[i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void delta16ShrinksTheEcgThreeTimes() {
+        WaveformEncoder encoder = new WaveformEncoder();
+        Random random = new Random(5);
+        long int16Length = 0;
+        long delta16Length = 0;
+
+        // Packets of 63 samples of 10 bit ECG, like the BioHarness sends every 252 ms
+        short[] samples = new short[63];
+        for (int packet = 0; packet < 200; packet++) {
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = ecg(packet * samples.length + i, random);
+            }
+            int16Length += encoder.encodeInt16(samples, samples.length)[1].length();
+            delta16Length += encoder.encodeDelta16(samples, samples.length)[1].length();
+        }
+
+        assertTrue("int16le " + int16Length + " vs delta16 " + delta16Length, int16Length >= 3 * delta16Length);
+    }
+
+    @Test
+    public void rejectsMalformedDelta16() {
+        assertMalformed(WaveformEncoder.ENCODING_DELTA16, "");
+        // A count of 7 samples and nothing else
+        assertMalformed(WaveformEncoder.ENCODING_DELTA16, "Dw==");
+        // A group that never ends
+        assertMalformed(WaveformEncoder.ENCODING_DELTA16, "/////w==");
+        assertFalse(WaveformDecoder.isEncoded(Arrays.asList("delta17", "AA==")));
+    }
+
+    private static void assertMalformed(String encoding, String data) {
+        try {
+            WaveformDecoder.decodeInt16(Arrays.asList(encoding, data));
+            fail("Malformed values must be rejected: " + data);
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Return a random walk whose steps range from tiny to the whole 16 bit range, so that every
+     * length of the varints is exercised
+     */
+    private static short[] randomWaveform(Random random) {
+        short[] samples = new short[random.nextInt(300)];
+        int step = 1 << random.nextInt(17);
+        int value = random.nextInt(65536) - 32768;
+
+        for (int i = 0; i < samples.length; i++) {
+            if (random.nextInt(50) == 0) {
+                value = random.nextBoolean() ? Short.MAX_VALUE : Short.MIN_VALUE;
+            } else {
+                value += random.nextInt(2 * step + 1) - step;
+            }
+            samples[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+        }
+
+        return samples;
+    }
+
+    /**
+     * Return a sample of a 250 Hz, 10 bit ECG at 60 bpm: a QRS complex, a T wave, baseline wander
+     * and a little noise
+     */
+    private static short ecg(int t, Random random) {
+        int beat = t % 250;
+        double value = 512 + 20 * Math.sin(t / 400.0) + random.nextInt(3) - 1;
+        if (beat < 12) value += 300 * Math.sin(Math.PI * beat / 12);
+        if (beat >= 60 && beat < 110) value += 40 * Math.sin(Math.PI * (beat - 60) / 50);
+        return (short) value;
+    }
+}
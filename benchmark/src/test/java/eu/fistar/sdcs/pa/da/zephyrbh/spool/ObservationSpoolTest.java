@@ -0,0 +1,279 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.spool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import eu.fistar.sdcs.pa.common.Observation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Append observations to an ObservationSpool in a temporary directory and drain them back, also
+ * across reopens, torn writes and evictions.
+ */
+public class ObservationSpoolTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("spool", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void drainsInOrderAcrossSegments() throws IOException {
+        ObservationSpool spool = new ObservationSpool(directory, 1024, 64 * 1024);
+        assertTrue(spool.isEmpty());
+
+        for (int i = 0; i < 100; i++) {
+            spool.append("AA:BB:CC:DD:EE:0" + (i % 2), batch(i, 3));
+        }
+        assertFalse(spool.isEmpty());
+        assertTrue(segments() > 1);
+
+        RecordingSink sink = new RecordingSink();
+        assertEquals(300, spool.drain(sink, Integer.MAX_VALUE));
+        assertTrue(spool.isEmpty());
+        assertEquals(300, sink.observations.size());
+        for (int i = 0; i < 300; i++) {
+            assertObservation(sink.observations.get(i), i / 3, i % 3);
+            assertEquals("AA:BB:CC:DD:EE:0" + (i / 3 % 2), sink.devIds.get(i));
+        }
+
+        // The drained segments are deleted, the one being written is kept
+        assertEquals(1, segments());
+        assertEquals(300, spool.getDelivered());
+        spool.close();
+    }
+
+    @Test
+    public void keepsNullFieldsAndValues() throws IOException {
+        ObservationSpool spool = new ObservationSpool(directory, 1024, 4096);
+        Observation observation = new Observation();
+        observation.setPhenomenonTime(42);
+        spool.append("dev", Arrays.asList(observation));
+
+        RecordingSink sink = new RecordingSink();
+        spool.drain(sink, 10);
+        Observation drained = sink.observations.get(0);
+        assertNull(drained.getPropertyName());
+        assertNull(drained.getMeasurementUnit());
+        assertEquals(42, drained.getPhenomenonTime());
+        spool.close();
+    }
+
+    @Test
+    public void stopsAtTheLimitAndRetriesRefusedBatches() throws IOException {
+        ObservationSpool spool = new ObservationSpool(directory, 1024, 64 * 1024);
+        for (int i = 0; i < 10; i++) {
+            spool.append("dev", batch(i, 2));
+        }
+
+        // The limit is checked between batches, so the last batch is delivered whole
+        RecordingSink sink = new RecordingSink();
+        assertEquals(6, spool.drain(sink, 5));
+
+        // A refused batch stays in the spool and is the first one delivered next time
+        sink.refuse = true;
+        assertEquals(0, spool.drain(sink, 100));
+        sink.refuse = false;
+        assertEquals(14, spool.drain(sink, 100));
+        assertEquals(20, sink.observations.size());
+        assertObservation(sink.observations.get(6), 3, 0);
+        spool.close();
+    }
+
+    @Test
+    public void resumesFromTheCursorAfterReopen() throws IOException {
+        ObservationSpool spool = new ObservationSpool(directory, 1024, 64 * 1024);
+        for (int i = 0; i < 50; i++) {
+            spool.append("dev", batch(i, 2));
+        }
+        RecordingSink sink = new RecordingSink();
+        assertEquals(40, spool.drain(sink, 40));
+        spool.close();
+
+        spool = new ObservationSpool(directory, 1024, 64 * 1024);
+        spool.append("dev", batch(50, 2));
+        assertEquals(62, spool.drain(sink, Integer.MAX_VALUE));
+        assertEquals(102, sink.observations.size());
+        for (int i = 0; i < 102; i++) {
+            assertObservation(sink.observations.get(i), i / 2, i % 2);
+        }
+        spool.close();
+    }
+
+    @Test
+    public void truncatesATornRecordOnReopen() throws IOException {
+        ObservationSpool spool = new ObservationSpool(directory, 64 * 1024, 256 * 1024);
+        for (int i = 0; i < 5; i++) {
+            spool.append("dev", batch(i, 2));
+        }
+        spool.close();
+
+        // A crash in the middle of a write leaves part of a record at the end of the segment
+        File segment = lastSegment();
+        long length = segment.length();
+        FileOutputStream out = new FileOutputStream(segment, true);
+        out.write(new byte[] {0, 0, 0, 100, 1, 2, 3, 4, 5, 6});
+        out.close();
+
+        spool = new ObservationSpool(directory, 64 * 1024, 256 * 1024);
+        assertEquals(length, segment.length());
+        spool.append("dev", batch(5, 2));
+
+        RecordingSink sink = new RecordingSink();
+        assertEquals(12, spool.drain(sink, Integer.MAX_VALUE));
+        assertObservation(sink.observations.get(11), 5, 1);
+        spool.close();
+    }
+
+    @Test
+    public void skipsTheRestOfACorruptedSegment() throws IOException {
+        ObservationSpool spool = new ObservationSpool(directory, 1024, 64 * 1024);
+        for (int i = 0; i < 30; i++) {
+            spool.append("dev", batch(i, 2));
+        }
+        spool.close();
+
+        // Flip a byte in the first record of the first segment
+        File segment = firstSegment();
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(ObservationSpool.SEGMENT_HEADER_SIZE + ObservationSpool.RECORD_HEADER_SIZE + 4);
+        int b = file.read();
+        file.seek(file.getFilePointer() - 1);
+        file.write(b ^ 0xFF);
+        file.close();
+
+        spool = new ObservationSpool(directory, 1024, 64 * 1024);
+        RecordingSink sink = new RecordingSink();
+        int drained = spool.drain(sink, Integer.MAX_VALUE);
+        assertTrue(drained > 0 && drained < 60);
+        assertEquals(1, spool.getCorruptedRecords());
+        assertObservation(sink.observations.get(drained - 1), 29, 1);
+        assertTrue(spool.isEmpty());
+        spool.close();
+    }
+
+    @Test
+    public void evictsTheOldestSegmentsWhenFull() throws IOException {
+        ObservationSpool spool = new ObservationSpool(directory, 1024, 4096);
+        for (int i = 0; i < 200; i++) {
+            spool.append("dev", batch(i, 2));
+        }
+        assertTrue(spool.getSize() <= 4096);
+        assertTrue(spool.getEvictedBytes() > 0);
+
+        // What is left is the newest part of the stream, still in order
+        RecordingSink sink = new RecordingSink();
+        int drained = spool.drain(sink, Integer.MAX_VALUE);
+        assertTrue(drained > 0 && drained < 400);
+        for (int i = 0; i < drained; i++) {
+            assertObservation(sink.observations.get(i), 200 - drained / 2 + i / 2, i % 2);
+        }
+        spool.close();
+    }
+
+    @Test
+    public void startsFromTheOldestSegmentWithoutCursor() throws IOException {
+        ObservationSpool spool = new ObservationSpool(directory, 1024, 64 * 1024);
+        for (int i = 0; i < 10; i++) {
+            spool.append("dev", batch(i, 1));
+        }
+        spool.drain(new RecordingSink(), 5);
+        spool.close();
+
+        // Without a cursor the records already delivered are delivered again
+        assertTrue(new File(directory, ObservationSpool.CURSOR_FILE).delete());
+        spool = new ObservationSpool(directory, 1024, 64 * 1024);
+        RecordingSink sink = new RecordingSink();
+        assertEquals(10, spool.drain(sink, Integer.MAX_VALUE));
+        spool.close();
+    }
+
+    private int segments() {
+        return segmentFiles().size();
+    }
+
+    private File firstSegment() {
+        return segmentFiles().get(0);
+    }
+
+    private File lastSegment() {
+        List<File> files = segmentFiles();
+        return files.get(files.size() - 1);
+    }
+
+    private List<File> segmentFiles() {
+        List<File> files = new ArrayList<File>();
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith(ObservationSpool.SEGMENT_EXTENSION)) files.add(file);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static List<Observation> batch(int batch, int size) {
+        List<Observation> observations = new ArrayList<Observation>();
+        for (int i = 0; i < size; i++) {
+            Observation observation = new Observation();
+            observation.setProperty("property " + i);
+            observation.setMeasurementUnit("unit");
+            observation.setValues(new String[] {Integer.toString(batch), Integer.toString(i)});
+            observation.setPhenomenonTime(1000L * batch + i);
+            observation.setDuration(252);
+            observations.add(observation);
+        }
+        return observations;
+    }
+
+    private static void assertObservation(Observation observation, int batch, int index) {
+        assertEquals("property " + index, observation.getPropertyName());
+        assertEquals("unit", observation.getMeasurementUnit());
+        assertEquals(Arrays.asList(Integer.toString(batch), Integer.toString(index)), observation.getValues());
+        assertEquals(1000L * batch + index, observation.getPhenomenonTime());
+        assertEquals(252, observation.getDuration());
+    }
+
+    private static class RecordingSink implements ObservationSpool.Sink {
+
+        final List<String> devIds = new ArrayList<String>();
+        final List<Observation> observations = new ArrayList<Observation>();
+        boolean refuse;
+
+        @Override
+        public boolean push(String devId, List<Observation> batch) {
+            if (refuse) return false;
+
+            for (Observation observation : batch) {
+                devIds.add(devId);
+                observations.add(observation);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check FastTimeConverter against TimeConverter on a corpus of boundary dates: month and year ends,
+ * leap days, midnight crossings and DST changes in zones with different rules.
+ */
+public class FastTimeConverterTest {
+
+    private static final long HOUR = 3600000L;
+    private static final long DAY = 24 * HOUR;
+
+    private static final String[] ZONES = {
+            "UTC",
+            "Europe/Rome",
+            "Europe/London",
+            "America/New_York",
+            "America/Sao_Paulo",    // DST used to start at midnight
+            "Australia/Sydney",     // Southern hemisphere
+            "Australia/Lord_Howe",  // 30 minutes DST
+            "Asia/Kolkata",         // Half hour offset, no DST
+            "Asia/Tehran"
+    };
+
+    // year, month, day
+    private static final int[][] BOUNDARY_DATES = {
+            {1999, 12, 31}, {2000, 1, 1}, {2000, 2, 28}, {2000, 2, 29}, {2000, 3, 1},
+            {2014, 12, 31}, {2015, 1, 1}, {2015, 2, 28}, {2015, 3, 1}, {2015, 6, 30},
+            {2016, 2, 29}, {2016, 12, 31}, {2038, 1, 19}, {2100, 2, 28}, {2100, 3, 1},
+            // DST changes in the northern hemisphere
+            {2015, 3, 8}, {2015, 3, 29}, {2015, 10, 25}, {2015, 11, 1}, {2016, 3, 27}, {2016, 10, 30},
+            // DST changes in the southern hemisphere
+            {2015, 4, 5}, {2015, 10, 4}, {2015, 10, 18}, {2016, 2, 21}, {2016, 4, 3},
+            // DST changes in Iran
+            {2015, 3, 22}, {2015, 9, 22}
+    };
+
+    private TimeZone defaultZone;
+
+    @Before
+    public void saveDefaultZone() {
+        defaultZone = TimeZone.getDefault();
+    }
+
+    @After
+    public void restoreDefaultZone() {
+        TimeZone.setDefault(defaultZone);
+    }
+
+    @Test
+    public void matchesGregorianCalendarOnBoundaryDates() {
+        for (String zone : ZONES) {
+            TimeZone.setDefault(TimeZone.getTimeZone(zone));
+            FastTimeConverter converter = new FastTimeConverter();
+
+            for (int[] date : BOUNDARY_DATES) {
+                // Around the whole day, including every quarter of hour crossed by a DST change
+                for (long millis = 0; millis < DAY; millis += 15 * 60000L + 1) {
+                    assertSameEpoch(zone, converter, date, millis);
+                }
+
+                // The first and last milliseconds of the day
+                assertSameEpoch(zone, converter, date, 0);
+                assertSameEpoch(zone, converter, date, DAY - 1);
+            }
+        }
+    }
+
+    @Test
+    public void matchesGregorianCalendarWhenCrossingMidnight() {
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Rome"));
+        FastTimeConverter converter = new FastTimeConverter();
+
+        // Packets every 252 ms crossing from the last day of the year to the first one
+        long previous = Long.MIN_VALUE;
+        for (long t = DAY - 10 * 252; t < DAY + 10 * 252; t += 252) {
+            int[] date = t < DAY ? new int[] {2015, 12, 31} : new int[] {2016, 1, 1};
+            long millis = t < DAY ? t : t - DAY;
+
+            long epoch = assertSameEpoch("Europe/Rome", converter, date, millis);
+            assertTrue("Timestamps must be increasing across midnight", epoch > previous);
+            previous = epoch;
+        }
+    }
+
+    @Test
+    public void resolvesDstChangesDeterministically() {
+        TimeZone rome = TimeZone.getTimeZone("Europe/Rome");
+        FastTimeConverter converter = new FastTimeConverter(rome);
+
+        // 2015-03-29 02:30 doesn't exist in Rome: it's read as standard time, so it's 01:30 UTC
+        assertEquals(1427592600000L, converter.timeToEpoch(2015, (byte) 3, (byte) 29, 2 * HOUR + 30 * 60000L));
+
+        // 2015-10-25 02:30 occurs twice in Rome: standard time wins, so it's 01:30 UTC
+        assertEquals(1445736600000L, converter.timeToEpoch(2015, (byte) 10, (byte) 25, 2 * HOUR + 30 * 60000L));
+
+        // The same input always gives the same output, whatever was converted before
+        long first = converter.timeToEpoch(2015, (byte) 10, (byte) 25, 2 * HOUR);
+        converter.timeToEpoch(2015, (byte) 10, (byte) 26, 2 * HOUR);
+        assertEquals(first, converter.timeToEpoch(2015, (byte) 10, (byte) 25, 2 * HOUR));
+    }
+
+    @Test
+    public void carriesOverMillisecondsBeyondTheDay() {
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        FastTimeConverter converter = new FastTimeConverter();
+
+        assertEquals(converter.timeToEpoch(2015, (byte) 3, (byte) 6, 1000),
+                converter.timeToEpoch(2015, (byte) 3, (byte) 5, DAY + 1000));
+    }
+
+    @Test
+    public void computesDaysFromCivil() {
+        assertEquals(0, FastTimeConverter.daysFromCivil(1970, 1, 1));
+        assertEquals(-1, FastTimeConverter.daysFromCivil(1969, 12, 31));
+        assertEquals(10957, FastTimeConverter.daysFromCivil(2000, 1, 1));
+        assertEquals(11016, FastTimeConverter.daysFromCivil(2000, 2, 29));
+        assertEquals(FastTimeConverter.daysFromCivil(2016, 1, 1), FastTimeConverter.daysFromCivil(2015, 13, 1));
+        assertEquals(FastTimeConverter.daysFromCivil(2015, 2, 28), FastTimeConverter.daysFromCivil(2015, 3, 0));
+    }
+
+    /**
+     * Check that both converters give the same result and return it
+     */
+    private static long assertSameEpoch(String zone, FastTimeConverter converter, int[] date, long millis) {
+        long expected = TimeConverter.timeToEpoch(date[0], (byte) date[1], (byte) date[2], millis);
+        long actual = converter.timeToEpoch(date[0], (byte) date[1], (byte) date[2], millis);
+        assertEquals(zone + " " + date[0] + "-" + date[1] + "-" + date[2] + " +" + millis + "ms", expected, actual);
+        return actual;
+    }
+}
@@ -0,0 +1,74 @@
+package eu.fistar.sdcs.pa.da.zephyrbh.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the statistics of LatencyHistogram, including its updates from many threads.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void isEmptyBeforeRecording() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void boundsPercentilesByTheirBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // 90 durations of 3 us and 10 of 1 ms
+        for (int i = 0; i < 90; i++) histogram.record(3000);
+        for (int i = 0; i < 10; i++) histogram.record(1000000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals((90 * 3000L + 10 * 1000000L) / 100, histogram.getMean());
+        assertEquals(1000000, histogram.getMax());
+
+        // 3 us falls in the bucket between 2 and 4 us
+        assertEquals(4000, histogram.getPercentile(50));
+        assertEquals(4000, histogram.getPercentile(90));
+
+        // The upper bound never exceeds the maximum
+        assertEquals(1000000, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void recordsNegativeAndHugeDurations() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE / 2);
+
+        assertEquals(2, histogram.getCount());
+        // Below 1 us
+        assertEquals(1000, histogram.getPercentile(50));
+        assertEquals(Long.MAX_VALUE / 2, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void countsEveryValueRecordedConcurrently() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) histogram.record(1000 + offset);
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(80000, histogram.getCount());
+        assertEquals(1007, histogram.getMax());
+        assertTrue(histogram.appendTo(new StringBuilder()).toString().startsWith("count=80000 meanUs=1 "));
+    }
+}